@@ -0,0 +1,107 @@
+/*
+ * SPDX-License-Identifier: Apache-2.0
+ *
+ * Copyright © 2024. Carl Dea.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.carlfx.axonic.benchmarks;
+
+import org.carlfx.axonic.CompiledStatePattern;
+import org.carlfx.axonic.StateMachine;
+import org.carlfx.axonic.StateMachineDefinition;
+import org.carlfx.axonic.TransitionKey;
+import org.carlfx.axonic.TransitionResult;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compares code blocks invoked through a dispatch compiled into a hidden class with code blocks invoked through
+ * the definition's arrays. Code blocks come from several lambdas so the array call sites see more than one class.
+ */
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Thread)
+public class CompiledDispatchBenchmark {
+    private static final int EVENTS = 1 << 12;
+
+    @Param({"10", "1000"})
+    int states;
+
+    @Param({"4", "16"})
+    int outDegree;
+
+    @Param({"0", "1", "4"})
+    int codeBlocks;
+
+    private StateMachine interpreted;
+    private StateMachine compiled;
+    private TransitionKey[] keys;
+    private int[] events;
+    private int next;
+    private long encountered;
+
+    @Setup(Level.Trial)
+    public void setup() {
+        String[] names = SyntheticPatterns.transitionNames(outDegree);
+        org.carlfx.axonic.State[] stateArray = SyntheticPatterns.states(states);
+        StateMachineDefinition definition = StateMachineDefinition.create("Synthetic", SyntheticPatterns.create(stateArray, names));
+        for (int s = 0; s < stateArray.length; s++) {
+            for (int i = 0; i < codeBlocks; i++) {
+                definition = definition.when(stateArray[s], codeBlock(s + i));
+            }
+        }
+        interpreted = definition.newInstance();
+        compiled = definition.compileDispatch().newInstance();
+        CompiledStatePattern compiledPattern = definition.compiledPattern();
+        keys = new TransitionKey[outDegree];
+        for (int k = 0; k < outDegree; k++) {
+            keys[k] = compiledPattern.transitionKey(names[k]);
+        }
+        events = SyntheticPatterns.events(EVENTS, outDegree);
+    }
+
+    private Runnable codeBlock(int n) {
+        return switch (n % 4) {
+            case 0 -> () -> encountered++;
+            case 1 -> () -> encountered += 2;
+            case 2 -> () -> encountered += 3;
+            default -> () -> encountered += 4;
+        };
+    }
+
+    private int nextEvent() {
+        return events[next++ & (EVENTS - 1)];
+    }
+
+    @Benchmark
+    public TransitionResult interpretedTransition() {
+        return interpreted.tryTransition(keys[nextEvent()], "input");
+    }
+
+    @Benchmark
+    public TransitionResult compiledTransition() {
+        return compiled.tryTransition(keys[nextEvent()], "input");
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        if (codeBlocks > 0 && encountered == 0) {
+            throw new IllegalStateException("code blocks were not invoked");
+        }
+    }
+}
@@ -0,0 +1,85 @@
+/*
+ * SPDX-License-Identifier: Apache-2.0
+ *
+ * Copyright © 2024. Carl Dea.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.carlfx.axonic.benchmarks;
+
+import org.carlfx.axonic.ConcurrentStateMachine;
+import org.carlfx.axonic.StateMachine;
+import org.carlfx.axonic.StateMachineDefinition;
+import org.carlfx.axonic.StatePattern;
+import org.carlfx.axonic.TransitionKey;
+import org.carlfx.axonic.TransitionResult;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * Compares a lock free ConcurrentStateMachine against a StateMachine guarded by a global lock
+ * when many threads fire events at one state machine. Run with a growing thread count to see the
+ * scaling across cores, e.g. {@code java -jar target/benchmarks.jar ConcurrentStateMachine -t 1,2,4,8}.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@org.openjdk.jmh.annotations.State(Scope.Benchmark)
+public class ConcurrentStateMachineBenchmark {
+
+    @Param({"10", "1000"})
+    int states;
+
+    @Param({"4"})
+    int outDegree;
+
+    private StateMachine lockedStateMachine;
+    private ConcurrentStateMachine concurrentStateMachine;
+    private String[] names;
+    private TransitionKey[] keys;
+
+    @Setup(Level.Trial)
+    public void setup() {
+        names = SyntheticPatterns.transitionNames(outDegree);
+        StatePattern statePattern = SyntheticPatterns.create(SyntheticPatterns.states(states), names);
+        StateMachineDefinition definition = StateMachineDefinition.create("Synthetic", statePattern);
+        lockedStateMachine = definition.newInstance("Locked");
+        concurrentStateMachine = ConcurrentStateMachine.create("Concurrent", definition);
+        keys = new TransitionKey[outDegree];
+        for (int k = 0; k < outDegree; k++) {
+            keys[k] = definition.compiledPattern().transitionKey(names[k]);
+        }
+    }
+
+    @Benchmark
+    public TransitionResult synchronizedStateMachine() {
+        TransitionKey key = keys[ThreadLocalRandom.current().nextInt(outDegree)];
+        synchronized (lockedStateMachine) {
+            return lockedStateMachine.tryTransition(key);
+        }
+    }
+
+    @Benchmark
+    public TransitionResult concurrentStateMachine() {
+        return concurrentStateMachine.tryTransition(keys[ThreadLocalRandom.current().nextInt(outDegree)]);
+    }
+
+    @Benchmark
+    public Object concurrentSnapshot() {
+        return concurrentStateMachine.snapshot();
+    }
+}
@@ -0,0 +1,64 @@
+/*
+ * SPDX-License-Identifier: Apache-2.0
+ *
+ * Copyright © 2024. Carl Dea.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.carlfx.axonic.benchmarks;
+
+import org.carlfx.axonic.StateMachine;
+import org.carlfx.axonic.tools.DiagramHelper;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures the diagram and transition table tools on large state patterns.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Thread)
+public class DiagramBenchmark {
+
+    @Param({"10", "1000", "10000"})
+    int states;
+
+    @Param({"1", "4"})
+    int outDegree;
+
+    private StateMachine stateMachine;
+
+    @Setup(Level.Trial)
+    public void setup() {
+        stateMachine = StateMachine.create("Synthetic", SyntheticPatterns.create(states, outDegree));
+    }
+
+    @Benchmark
+    public String toPlantUml() {
+        return DiagramHelper.toPlantUml(stateMachine);
+    }
+
+    @Benchmark
+    public String toMermaid() {
+        return DiagramHelper.toMermaid(stateMachine);
+    }
+
+    @Benchmark
+    public String toTransitionTable() {
+        return DiagramHelper.toTransitionTable(stateMachine);
+    }
+}
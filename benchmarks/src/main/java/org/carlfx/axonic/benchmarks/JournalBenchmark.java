@@ -0,0 +1,133 @@
+/*
+ * SPDX-License-Identifier: Apache-2.0
+ *
+ * Copyright © 2024. Carl Dea.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.carlfx.axonic.benchmarks;
+
+import org.carlfx.axonic.StateMachine;
+import org.carlfx.axonic.StateMachineDefinition;
+import org.carlfx.axonic.StatePattern;
+import org.carlfx.axonic.TransitionKey;
+import org.carlfx.axonic.TransitionResult;
+import org.carlfx.axonic.journal.FsyncPolicy;
+import org.carlfx.axonic.journal.Journal;
+import org.carlfx.axonic.journal.PopulationSnapshot;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+
+/**
+ * Measures transitions appended to a journal, replaying a journal of one million records and
+ * restoring one million state machines from a population snapshot.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@org.openjdk.jmh.annotations.State(Scope.Thread)
+public class JournalBenchmark {
+    private static final int EVENTS = 1 << 12;
+    private static final int REPLAY_RECORDS = 1_000_000;
+
+    @Param({"NEVER", "GROUP"})
+    String fsync;
+
+    private Path directory;
+    private Path replayDirectory;
+    private Path snapshotFile;
+    private StateMachineDefinition definition;
+    private Journal journal;
+    private StatePattern statePattern;
+    private StateMachine stateMachine;
+    private TransitionKey[] keys;
+    private int[] events;
+    private int next;
+
+    @Setup(Level.Trial)
+    public void setup() throws IOException {
+        String[] names = SyntheticPatterns.transitionNames(4);
+        statePattern = SyntheticPatterns.create(SyntheticPatterns.states(1000), names);
+        keys = new TransitionKey[names.length];
+        for (int k = 0; k < names.length; k++) {
+            keys[k] = statePattern.compile().transitionKey(names[k]);
+        }
+        events = SyntheticPatterns.events(EVENTS, names.length);
+        FsyncPolicy policy = fsync.equals("NEVER") ? FsyncPolicy.NEVER : FsyncPolicy.groupCommit(1024, Duration.ofMillis(10));
+        directory = Files.createTempDirectory("axonic-journal");
+        journal = Journal.open(directory, statePattern.compile(), policy);
+        stateMachine = StateMachine.create(statePattern).listener(journal);
+
+        replayDirectory = Files.createTempDirectory("axonic-replay");
+        try (Journal replayJournal = Journal.open(replayDirectory, statePattern.compile())) {
+            StateMachine writer = StateMachine.create(statePattern).listener(replayJournal);
+            for (int i = 0; i < REPLAY_RECORDS; i++) {
+                writer.tryTransition(keys[events[i & (EVENTS - 1)]]);
+            }
+        }
+
+        definition = StateMachineDefinition.create("Synthetic", statePattern);
+        Map<Long, StateMachine> population = new HashMap<>();
+        for (long id = 0; id < REPLAY_RECORDS; id++) {
+            StateMachine instance = definition.newInstance();
+            instance.tryTransition(keys[events[(int) id & (EVENTS - 1)]]);
+            population.put(id, instance);
+        }
+        snapshotFile = Files.createTempFile("axonic-population", ".axs");
+        PopulationSnapshot.write(snapshotFile, definition.compiledPattern(), population);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        journal.close();
+        delete(directory);
+        delete(replayDirectory);
+        Files.deleteIfExists(snapshotFile);
+    }
+
+    private static void delete(Path directory) throws IOException {
+        try (Stream<Path> files = Files.walk(directory)) {
+            files.sorted(Comparator.reverseOrder()).forEach(path -> path.toFile().delete());
+        }
+    }
+
+    @Benchmark
+    public TransitionResult journaledTransition() {
+        return stateMachine.tryTransition(keys[events[next++ & (EVENTS - 1)]]);
+    }
+
+    @Benchmark
+    @BenchmarkMode(Mode.AverageTime)
+    @OutputTimeUnit(TimeUnit.MILLISECONDS)
+    public long replayOneMillion() {
+        return Journal.replay(replayDirectory, StateMachine.create(statePattern));
+    }
+
+    @Benchmark
+    @BenchmarkMode(Mode.AverageTime)
+    @OutputTimeUnit(TimeUnit.MILLISECONDS)
+    public Map<Long, StateMachine> restoreOneMillionMachines() {
+        return PopulationSnapshot.restore(snapshotFile, definition);
+    }
+}
@@ -0,0 +1,113 @@
+/*
+ * SPDX-License-Identifier: Apache-2.0
+ *
+ * Copyright © 2024. Carl Dea.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.carlfx.axonic.benchmarks;
+
+import org.carlfx.axonic.CompiledStatePattern;
+import org.carlfx.axonic.PatternArchive;
+import org.carlfx.axonic.State;
+import org.carlfx.axonic.StatePattern;
+import org.carlfx.axonic.Transition;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures how long it takes to define and compile state patterns as they grow.
+ * Construction time should grow linearly with the number of transitions (states x out degree),
+ * including stop() and moveInitial() on a large pattern and the bulk builder StatePattern.addTransitions().
+ * loadArchive() is the startup cost of the same compiled pattern read from a PatternArchive file.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@org.openjdk.jmh.annotations.State(Scope.Thread)
+public class PatternConstructionBenchmark {
+
+    @Param({"10", "1000", "10000", "100000"})
+    int states;
+
+    @Param({"1", "4"})
+    int outDegree;
+
+    private State[] stateArray;
+    private String[] names;
+    private StatePattern statePattern;
+    private Transition[] transitions;
+    private Path archive;
+
+    @Setup(Level.Trial)
+    public void setup() {
+        stateArray = SyntheticPatterns.states(states);
+        names = SyntheticPatterns.transitionNames(outDegree);
+        statePattern = SyntheticPatterns.create(stateArray, names);
+        transitions = SyntheticPatterns.transitions(stateArray, names);
+        try {
+            archive = Files.createTempFile("axonic-pattern", ".axp");
+            PatternArchive.write(archive, statePattern.compile());
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        Files.deleteIfExists(archive);
+    }
+
+    @Benchmark
+    public StatePattern fluentBuilder() {
+        return SyntheticPatterns.create(stateArray, names);
+    }
+
+    @Benchmark
+    public CompiledStatePattern fluentBuilderAndCompile() {
+        return SyntheticPatterns.create(stateArray, names).compile();
+    }
+
+    @Benchmark
+    public StatePattern bulkBuilder() {
+        return new StatePattern().initial(stateArray[0]).addTransitions(transitions);
+    }
+
+    @Benchmark
+    public StatePattern fluentBuilderWithStop() {
+        return SyntheticPatterns.create(stateArray, names).s(stateArray[stateArray.length - 1]).stop();
+    }
+
+    @Benchmark
+    public StatePattern fluentBuilderMoveInitial() {
+        return SyntheticPatterns.create(stateArray, names).moveInitial(stateArray[stateArray.length - 1]);
+    }
+
+    @Benchmark
+    public CompiledStatePattern loadArchive() throws IOException {
+        return PatternArchive.load(archive, stateArray);
+    }
+
+    @Benchmark
+    public CompiledStatePattern compile() {
+        statePattern.s(stateArray[0]); // any change clears the cached compiled pattern.
+        return statePattern.compile();
+    }
+}
@@ -0,0 +1,131 @@
+/*
+ * SPDX-License-Identifier: Apache-2.0
+ *
+ * Copyright © 2024. Carl Dea.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.carlfx.axonic.benchmarks;
+
+import org.carlfx.axonic.BatchMode;
+import org.carlfx.axonic.BatchResult;
+import org.carlfx.axonic.CompiledStatePattern;
+import org.carlfx.axonic.StateMachine;
+import org.carlfx.axonic.StatePattern;
+import org.carlfx.axonic.Transition;
+import org.carlfx.axonic.TransitionKey;
+import org.carlfx.axonic.TransitionMetrics;
+import org.carlfx.axonic.TransitionResult;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.Optional;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures the cost of a single transition on synthetic state patterns.
+ * Run with -prof gc to report the allocation rate of each path.
+ */
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Thread)
+public class StateMachineBenchmark {
+    private static final int EVENTS = 1 << 12;
+    private static final int BATCH = 16;
+
+    @Param({"10", "1000", "100000"})
+    int states;
+
+    @Param({"1", "4", "16"})
+    int outDegree;
+
+    private StateMachine stateMachine;
+    private StateMachine meteredStateMachine;
+    private String[] names;
+    private TransitionKey[] keys;
+    private int[] events;
+    private int next;
+    private TransitionKey[] batch;
+    private String[] stateNames;
+
+    @Setup(Level.Trial)
+    public void setup() {
+        names = SyntheticPatterns.transitionNames(outDegree);
+        org.carlfx.axonic.State[] stateArray = SyntheticPatterns.states(states);
+        StatePattern statePattern = SyntheticPatterns.create(stateArray, names);
+        stateNames = new String[EVENTS];
+        for (int i = 0; i < EVENTS; i++) {
+            stateNames[i] = stateArray[(int) ((long) i * 7919 % states)].getName();
+        }
+        stateMachine = StateMachine.create("Synthetic", statePattern);
+        CompiledStatePattern compiled = statePattern.compile();
+        meteredStateMachine = StateMachine.create("Metered", statePattern).metrics(TransitionMetrics.create(compiled));
+        keys = new TransitionKey[outDegree];
+        for (int k = 0; k < outDegree; k++) {
+            keys[k] = compiled.transitionKey(names[k]);
+        }
+        events = SyntheticPatterns.events(EVENTS, outDegree);
+        batch = new TransitionKey[BATCH];
+        for (int i = 0; i < BATCH; i++) {
+            batch[i] = keys[events[i]];
+        }
+    }
+
+    private int nextEvent() {
+        return events[next++ & (EVENTS - 1)];
+    }
+
+    @Benchmark
+    public Object tByName() {
+        return stateMachine.t(names[nextEvent()]);
+    }
+
+    @Benchmark
+    public TransitionResult tryTransitionByName() {
+        return stateMachine.tryTransition(names[nextEvent()]);
+    }
+
+    @Benchmark
+    public TransitionResult tryTransitionByKey() {
+        return stateMachine.tryTransition(keys[nextEvent()]);
+    }
+
+    @Benchmark
+    public TransitionResult tryTransitionByKeyWithMetrics() {
+        return meteredStateMachine.tryTransition(keys[nextEvent()]);
+    }
+
+    @Benchmark
+    public Optional<Transition> lookupNextTransition() {
+        return stateMachine.lookupNextTransition(names[nextEvent()]);
+    }
+
+    @Benchmark
+    public Optional<org.carlfx.axonic.State> lookupStateByName() {
+        return stateMachine.lookupStateByName(stateNames[next++ & (EVENTS - 1)]);
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(BATCH)
+    public BatchResult applyAllSequential() {
+        return stateMachine.applyAll(batch, BatchMode.SEQUENTIAL);
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(BATCH)
+    public BatchResult applyAllAtomic() {
+        return stateMachine.applyAll(batch, BatchMode.ATOMIC);
+    }
+}
@@ -0,0 +1,129 @@
+/*
+ * SPDX-License-Identifier: Apache-2.0
+ *
+ * Copyright © 2024. Carl Dea.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.carlfx.axonic.benchmarks;
+
+import org.carlfx.axonic.State;
+import org.carlfx.axonic.StatePattern;
+import org.carlfx.axonic.Transition;
+
+import java.util.SplittableRandom;
+
+/**
+ * Builds synthetic state patterns for benchmarks. Every state has the same number of outgoing
+ * transitions (out degree) named e0, e1, ... so any event in the alphabet is valid from any state.
+ * <pre>
+ *     S(i) -e(k)-> S((i + 1 + k * stride) % states)
+ * </pre>
+ * The e0 transitions form a ring so every state is reachable from the initial state.
+ */
+public final class SyntheticPatterns {
+    private SyntheticPatterns() {}
+
+    /**
+     * A generated state.
+     * @param getName name of state
+     */
+    public record SyntheticState(String getName) implements State {
+    }
+
+    /**
+     * Creates the states S0 .. S(n - 1).
+     * @param count number of states.
+     * @return Returns an array of states.
+     */
+    public static State[] states(int count) {
+        State[] states = new State[count];
+        for (int i = 0; i < count; i++) {
+            states[i] = new SyntheticState("S" + i);
+        }
+        return states;
+    }
+
+    /**
+     * Creates the transition names e0 .. e(outDegree - 1).
+     * @param outDegree number of outgoing transitions of each state.
+     * @return Returns an array of transition names.
+     */
+    public static String[] transitionNames(int outDegree) {
+        String[] names = new String[outDegree];
+        for (int k = 0; k < outDegree; k++) {
+            names[k] = "e" + k;
+        }
+        return names;
+    }
+
+    /**
+     * Builds a state pattern using the fluent builder.
+     * @param states states created by states().
+     * @param names transition names created by transitionNames().
+     * @return Returns a state pattern.
+     */
+    public static StatePattern create(State[] states, String[] names) {
+        StatePattern statePattern = new StatePattern().initial(states[0]);
+        int stride = Math.max(1, states.length / names.length);
+        for (int i = 0; i < states.length; i++) {
+            for (int k = 0; k < names.length; k++) {
+                statePattern.t(names[k], states[i], states[(i + 1 + k * stride) % states.length]);
+            }
+        }
+        return statePattern;
+    }
+
+    /**
+     * Creates the transitions of the same state pattern as create() for the bulk builder.
+     * @param states states created by states().
+     * @param names transition names created by transitionNames().
+     * @return Returns the transitions.
+     */
+    public static Transition[] transitions(State[] states, String[] names) {
+        Transition[] transitions = new Transition[states.length * names.length];
+        int stride = Math.max(1, states.length / names.length);
+        int t = 0;
+        for (int i = 0; i < states.length; i++) {
+            for (int k = 0; k < names.length; k++) {
+                transitions[t++] = new Transition(names[k], states[i], states[(i + 1 + k * stride) % states.length]);
+            }
+        }
+        return transitions;
+    }
+
+    /**
+     * Builds a state pattern with a number of states and out degree.
+     * @param stateCount number of states.
+     * @param outDegree number of outgoing transitions of each state.
+     * @return Returns a state pattern.
+     */
+    public static StatePattern create(int stateCount, int outDegree) {
+        return create(states(stateCount), transitionNames(outDegree));
+    }
+
+    /**
+     * Creates a repeatable random sequence of transition name indexes.
+     * @param length length of the sequence, a power of two so callers can mask the index.
+     * @param outDegree number of transition names.
+     * @return Returns the transition name indexes.
+     */
+    public static int[] events(int length, int outDegree) {
+        SplittableRandom random = new SplittableRandom(42);
+        int[] events = new int[length];
+        for (int i = 0; i < length; i++) {
+            events[i] = random.nextInt(outDegree);
+        }
+        return events;
+    }
+}
@@ -0,0 +1,80 @@
+/*
+ * SPDX-License-Identifier: Apache-2.0
+ *
+ * Copyright © 2024. Carl Dea.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.carlfx.axonic.benchmarks;
+
+import org.carlfx.axonic.TimingWheel;
+import org.carlfx.axonic.VirtualClock;
+import org.openjdk.jmh.annotations.*;
+
+import java.time.Duration;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures scheduling and cancelling a timeout while many timeouts are pending, the cost of a state machine
+ * entering and leaving a state with a timed transition. A ScheduledExecutorService with one task per
+ * timeout is the baseline, its cost grows with the number of pending tasks (a binary heap).
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@org.openjdk.jmh.annotations.State(Scope.Benchmark)
+public class TimingWheelBenchmark {
+
+    @Param({"1000", "1000000"})
+    int pending;
+
+    private static final Runnable NOTHING = () -> {};
+
+    private VirtualClock clock;
+    private TimingWheel wheel;
+    private ScheduledThreadPoolExecutor scheduler;
+
+    @Setup(Level.Trial)
+    public void setup() {
+        clock = new VirtualClock();
+        wheel = TimingWheel.create(Duration.ofMillis(10), 4096, clock);
+        scheduler = new ScheduledThreadPoolExecutor(1);
+        scheduler.setRemoveOnCancelPolicy(true);
+        for (int i = 0; i < pending; i++) {
+            long delay = ThreadLocalRandom.current().nextLong(1, 3_600_000);
+            wheel.schedule(Duration.ofMillis(delay), NOTHING);
+            scheduler.schedule(NOTHING, delay, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        scheduler.shutdownNow();
+    }
+
+    @Benchmark
+    public boolean timingWheelScheduleCancel() {
+        return wheel.schedule(30_000_000_000L, NOTHING).cancel();
+    }
+
+    @Benchmark
+    public boolean scheduledExecutorScheduleCancel() {
+        ScheduledFuture<?> future = scheduler.schedule(NOTHING, 30, TimeUnit.SECONDS);
+        return future.cancel(false);
+    }
+}
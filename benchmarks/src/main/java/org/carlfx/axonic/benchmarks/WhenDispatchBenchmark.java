@@ -0,0 +1,83 @@
+/*
+ * SPDX-License-Identifier: Apache-2.0
+ *
+ * Copyright © 2024. Carl Dea.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.carlfx.axonic.benchmarks;
+
+import org.carlfx.axonic.State;
+import org.carlfx.axonic.StateMachine;
+import org.carlfx.axonic.TransitionResult;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures the cost of invoking when() code blocks as states are encountered.
+ */
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@org.openjdk.jmh.annotations.State(Scope.Thread)
+public class WhenDispatchBenchmark {
+    private static final int EVENTS = 1 << 12;
+
+    @Param({"10", "1000"})
+    int states;
+
+    @Param({"0", "1", "4"})
+    int codeBlocks;
+
+    @Param({"runnable", "input"})
+    String kind;
+
+    private StateMachine stateMachine;
+    private String[] names;
+    private int[] events;
+    private int next;
+    private long encountered;
+
+    @Setup(Level.Trial)
+    public void setup() {
+        int outDegree = 4;
+        State[] stateArray = SyntheticPatterns.states(states);
+        names = SyntheticPatterns.transitionNames(outDegree);
+        stateMachine = StateMachine.create("Synthetic", SyntheticPatterns.create(stateArray, names));
+        for (State state : stateArray) {
+            for (int i = 0; i < codeBlocks; i++) {
+                if ("runnable".equals(kind)) {
+                    stateMachine.when(state, () -> encountered++);
+                } else {
+                    stateMachine.when(state, (transition, input) -> encountered += input.hashCode());
+                }
+            }
+        }
+        events = SyntheticPatterns.events(EVENTS, outDegree);
+    }
+
+    @Benchmark
+    public TransitionResult dispatch() {
+        return stateMachine.tryTransition(names[events[next++ & (EVENTS - 1)]], "input");
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        if (codeBlocks > 0 && encountered == 0) {
+            throw new IllegalStateException("code blocks were not invoked");
+        }
+    }
+}
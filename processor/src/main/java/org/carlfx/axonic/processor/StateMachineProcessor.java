@@ -0,0 +1,192 @@
+/*
+ * SPDX-License-Identifier: Apache-2.0
+ *
+ * Copyright © 2024. Carl Dea.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.carlfx.axonic.processor;
+
+import org.carlfx.axonic.annotation.GenerateStateMachine;
+import org.carlfx.axonic.annotation.On;
+
+import javax.annotation.processing.AbstractProcessor;
+import javax.annotation.processing.Messager;
+import javax.annotation.processing.RoundEnvironment;
+import javax.annotation.processing.SupportedAnnotationTypes;
+import javax.lang.model.SourceVersion;
+import javax.lang.model.element.AnnotationMirror;
+import javax.lang.model.element.AnnotationValue;
+import javax.lang.model.element.Element;
+import javax.lang.model.element.ElementKind;
+import javax.lang.model.element.ExecutableElement;
+import javax.lang.model.element.PackageElement;
+import javax.lang.model.element.TypeElement;
+import javax.lang.model.type.DeclaredType;
+import javax.lang.model.type.TypeMirror;
+import javax.tools.Diagnostic;
+import javax.tools.JavaFileObject;
+import java.io.IOException;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Generates a class implementing FSM for each type annotated with @GenerateStateMachine. The transitions are
+ * declared with @On on the enum constants (the from state) or on the annotated type (naming the from state).
+ * Mistakes such as an unknown state or the same transition declared twice on a state are reported as compile errors.
+ */
+@SupportedAnnotationTypes("org.carlfx.axonic.annotation.GenerateStateMachine")
+public class StateMachineProcessor extends AbstractProcessor {
+    private static final String STATE = "org.carlfx.axonic.State";
+
+    @Override
+    public SourceVersion getSupportedSourceVersion() {
+        return SourceVersion.latestSupported();
+    }
+
+    @Override
+    public boolean process(Set<? extends TypeElement> annotations, RoundEnvironment roundEnv) {
+        for (Element element : roundEnv.getElementsAnnotatedWith(GenerateStateMachine.class)) {
+            if (element instanceof TypeElement type) {
+                SwitchMachineWriter writer = model(type);
+                if (writer != null) {
+                    write(type, writer);
+                }
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Reads the states and transitions of an annotated type.
+     * @param type the annotated enum or class.
+     * @return Returns the writer of the generated class or null when an error was reported.
+     */
+    private SwitchMachineWriter model(TypeElement type) {
+        Messager messager = processingEnv.getMessager();
+        GenerateStateMachine spec = type.getAnnotation(GenerateStateMachine.class);
+        TypeElement statesType = type.getKind() == ElementKind.ENUM ? type : statesOf(type);
+        if (statesType == null || statesType.getKind() != ElementKind.ENUM) {
+            messager.printMessage(Diagnostic.Kind.ERROR, "@GenerateStateMachine on a class requires states() to name an enum of states", type);
+            return null;
+        }
+        TypeMirror state = processingEnv.getElementUtils().getTypeElement(STATE).asType();
+        if (!processingEnv.getTypeUtils().isAssignable(statesType.asType(), state)) {
+            messager.printMessage(Diagnostic.Kind.ERROR, statesType.getSimpleName() + " must implement " + STATE, type);
+            return null;
+        }
+
+        List<String> constants = new ArrayList<>();
+        for (Element enclosed : statesType.getEnclosedElements()) {
+            if (enclosed.getKind() == ElementKind.ENUM_CONSTANT) {
+                constants.add(enclosed.getSimpleName().toString());
+            }
+        }
+        String className = spec.className().isEmpty() ? type.getSimpleName() + "Machine" : spec.className();
+        SwitchMachineWriter writer = new SwitchMachineWriter(packageOf(type), className, type.getQualifiedName().toString(),
+                statesType.getQualifiedName().toString(), constants);
+
+        boolean valid = true;
+        if (!constants.contains(spec.initial())) {
+            messager.printMessage(Diagnostic.Kind.ERROR, "Unknown initial state " + spec.initial(), type);
+            valid = false;
+        }
+        writer.initial(spec.initial());
+
+        // transitions declared on the constants are grouped by their from state, then the ones declared on the type.
+        Set<String> declared = new HashSet<>();
+        if (type == statesType) {
+            for (Element enclosed : statesType.getEnclosedElements()) {
+                if (enclosed.getKind() != ElementKind.ENUM_CONSTANT) {
+                    continue;
+                }
+                for (On on : enclosed.getAnnotationsByType(On.class)) {
+                    if (!on.from().isEmpty()) {
+                        messager.printMessage(Diagnostic.Kind.ERROR, "from() is only used when @On is declared on the type", enclosed);
+                        valid = false;
+                    }
+                    valid &= transition(writer, declared, enclosed.getSimpleName().toString(), on, enclosed);
+                }
+            }
+        }
+        for (On on : type.getAnnotationsByType(On.class)) {
+            if (on.from().isEmpty()) {
+                messager.printMessage(Diagnostic.Kind.ERROR, "@On declared on the type requires from()", type);
+                valid = false;
+                continue;
+            }
+            valid &= transition(writer, declared, on.from(), on, type);
+        }
+        return valid ? writer : null;
+    }
+
+    /**
+     * Validates and adds a transition.
+     * @return Returns false when an error was reported.
+     */
+    private boolean transition(SwitchMachineWriter writer, Set<String> declared, String from, On on, Element element) {
+        Messager messager = processingEnv.getMessager();
+        if (!writer.isState(from)) {
+            messager.printMessage(Diagnostic.Kind.ERROR, "Unknown from state " + from, element);
+            return false;
+        }
+        if (!writer.isState(on.to()) && !SwitchMachineWriter.STOP.equals(on.to())) {
+            messager.printMessage(Diagnostic.Kind.ERROR, "Unknown to state " + on.to(), element);
+            return false;
+        }
+        if (!declared.add(from + '\n' + on.value())) {
+            messager.printMessage(Diagnostic.Kind.ERROR, "Transition " + on.value() + " is declared twice on " + from, element);
+            return false;
+        }
+        writer.transition(on.value(), from, on.to(), on.description());
+        return true;
+    }
+
+    /**
+     * Returns the enum named by states() of a class declaring transitions.
+     */
+    private TypeElement statesOf(TypeElement type) {
+        for (AnnotationMirror mirror : type.getAnnotationMirrors()) {
+            if (!((TypeElement) mirror.getAnnotationType().asElement()).getQualifiedName().contentEquals(GenerateStateMachine.class.getName())) {
+                continue;
+            }
+            for (Map.Entry<? extends ExecutableElement, ? extends AnnotationValue> entry : mirror.getElementValues().entrySet()) {
+                if (entry.getKey().getSimpleName().contentEquals("states")
+                        && entry.getValue().getValue() instanceof DeclaredType declaredType) {
+                    return (TypeElement) declaredType.asElement();
+                }
+            }
+        }
+        return null;
+    }
+
+    private String packageOf(TypeElement type) {
+        PackageElement packageElement = processingEnv.getElementUtils().getPackageOf(type);
+        return packageElement.isUnnamed() ? "" : packageElement.getQualifiedName().toString();
+    }
+
+    private void write(TypeElement type, SwitchMachineWriter writer) {
+        try {
+            JavaFileObject file = processingEnv.getFiler().createSourceFile(writer.qualifiedName(), type);
+            try (Writer out = file.openWriter()) {
+                out.write(writer.source(processingEnv.getElementUtils()::getConstantExpression));
+            }
+        } catch (IOException e) {
+            processingEnv.getMessager().printMessage(Diagnostic.Kind.ERROR, "Unable to write " + writer.qualifiedName() + ": " + e.getMessage(), type);
+        }
+    }
+}
@@ -0,0 +1,510 @@
+/*
+ * SPDX-License-Identifier: Apache-2.0
+ *
+ * Copyright © 2024. Carl Dea.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.carlfx.axonic.processor;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Function;
+
+/**
+ * Writes the source of a generated state machine. States use their enum ordinal as id followed by StateEnum.STOP
+ * and StateEnum.INVALID. Transitions are grouped by from state and their names are numbered in order of appearance.
+ * Finding the next transition is a switch on the state id then a switch on the transition id.
+ */
+final class SwitchMachineWriter {
+    /**
+     * The to state naming StateEnum.STOP when the enum doesn't declare a STOP constant.
+     */
+    static final String STOP = "STOP";
+    private static final String INDENT = "    ";
+
+    private record Declared(String name, String from, String to, String description) {
+    }
+
+    private final String packageName;
+    private final String className;
+    private final String sourceName;
+    private final String statesName;
+    private final List<String> constants;
+    private final List<Declared> declared = new ArrayList<>();
+    private String initial;
+
+    SwitchMachineWriter(String packageName, String className, String sourceName, String statesName, List<String> constants) {
+        this.packageName = packageName;
+        this.className = className;
+        this.sourceName = sourceName;
+        this.statesName = statesName;
+        this.constants = constants;
+    }
+
+    boolean isState(String constant) {
+        return constants.contains(constant);
+    }
+
+    void initial(String initial) {
+        this.initial = initial;
+    }
+
+    void transition(String name, String from, String to, String description) {
+        declared.add(new Declared(name, from, to, description));
+    }
+
+    String qualifiedName() {
+        return packageName.isEmpty() ? className : packageName + "." + className;
+    }
+
+    private int stateId(String constant) {
+        int ordinal = constants.indexOf(constant);
+        // only StateEnum.STOP is not an enum constant.
+        return ordinal < 0 ? constants.size() : ordinal;
+    }
+
+    private String stateExpression(String constant) {
+        return constants.contains(constant) ? statesName + "." + constant : "StateEnum.STOP";
+    }
+
+    /**
+     * Returns the source of the generated class.
+     * @param literal quotes a string as a Java literal.
+     * @return Returns the source of the generated class.
+     */
+    String source(Function<Object, String> literal) {
+        int stateCount = constants.size() + 2;
+        // group by from state keeping the declared order within a state.
+        List<Declared> transitions = new ArrayList<>(declared);
+        transitions.sort((a, b) -> Integer.compare(stateId(a.from()), stateId(b.from())));
+        Map<String, Integer> nameIds = new LinkedHashMap<>();
+        for (Declared transition : transitions) {
+            nameIds.putIfAbsent(transition.name(), nameIds.size());
+        }
+
+        StringBuilder out = new StringBuilder();
+        if (!packageName.isEmpty()) {
+            out.append("package ").append(packageName).append(";\n\n");
+        }
+        out.append("""
+                import java.util.Arrays;
+                import java.util.List;
+                import java.util.Optional;
+                import java.util.function.BiConsumer;
+                import org.carlfx.axonic.BatchMode;
+                import org.carlfx.axonic.BatchResult;
+                import org.carlfx.axonic.FSM;
+                import org.carlfx.axonic.InputTransition;
+                import org.carlfx.axonic.State;
+                import org.carlfx.axonic.StateEnum;
+                import org.carlfx.axonic.StatePattern;
+                import org.carlfx.axonic.Transition;
+                import org.carlfx.axonic.TransitionKey;
+                import org.carlfx.axonic.TransitionResult;
+
+                """);
+        out.append("/**\n * A finite state machine generated from ").append(sourceName)
+                .append(" by the axonic-processor. Do not edit.\n */\n");
+        out.append("public final class ").append(className).append(" implements FSM {\n");
+        out.append(INDENT).append("/**\n").append(INDENT).append(" * The id of StateEnum.STOP. Enum constants use their ordinal as id.\n")
+                .append(INDENT).append(" */\n");
+        out.append(INDENT).append("public static final int STOP_ID = ").append(constants.size()).append(";\n");
+        out.append(INDENT).append("/**\n").append(INDENT).append(" * The id of StateEnum.INVALID.\n").append(INDENT).append(" */\n");
+        out.append(INDENT).append("public static final int INVALID_ID = ").append(constants.size() + 1).append(";\n");
+        out.append(INDENT).append("/**\n").append(INDENT).append(" * Returned when a state, transition name or outgoing transition is not found.\n")
+                .append(INDENT).append(" */\n");
+        out.append(INDENT).append("public static final int NOT_FOUND = -1;\n\n");
+
+        out.append(INDENT).append("private static final State[] STATES = {\n");
+        for (String constant : constants) {
+            out.append(INDENT).append(INDENT).append(INDENT).append(statesName).append('.').append(constant).append(",\n");
+        }
+        out.append(INDENT).append(INDENT).append(INDENT).append("StateEnum.STOP,\n");
+        out.append(INDENT).append(INDENT).append(INDENT).append("StateEnum.INVALID\n");
+        out.append(INDENT).append("};\n");
+        out.append(INDENT).append("private static final Transition INITIAL_TRANSITION = new Transition(\"initial\", StateEnum.INITIAL, ")
+                .append(stateExpression(initial)).append(");\n");
+        out.append(INDENT).append("private static final Transition[] TRANSITIONS = {\n");
+        for (int i = 0; i < transitions.size(); i++) {
+            Declared transition = transitions.get(i);
+            out.append(INDENT).append(INDENT).append(INDENT).append("new Transition(").append(literal.apply(transition.name()))
+                    .append(", ").append(stateExpression(transition.from())).append(", ").append(stateExpression(transition.to()));
+            if (!transition.description().isEmpty()) {
+                out.append(", ").append(literal.apply(transition.description()));
+            }
+            out.append(i + 1 < transitions.size() ? "),\n" : ")\n");
+        }
+        out.append(INDENT).append("};\n");
+        out.append(INDENT).append("private static final int[] TO_STATE_IDS = {");
+        for (int i = 0; i < transitions.size(); i++) {
+            out.append(i == 0 ? "" : ", ").append(stateId(transitions.get(i).to()));
+        }
+        out.append("};\n");
+        out.append(INDENT).append("private static final List<List<Transition>> OUTGOING = List.of(\n");
+        for (int stateId = 0; stateId < stateCount; stateId++) {
+            out.append(INDENT).append(INDENT).append(INDENT).append("List.of(");
+            boolean first = true;
+            for (int i = 0; i < transitions.size(); i++) {
+                if (stateId(transitions.get(i).from()) == stateId) {
+                    out.append(first ? "" : ", ").append("TRANSITIONS[").append(i).append(']');
+                    first = false;
+                }
+            }
+            out.append(stateId + 1 < stateCount ? "),\n" : ")\n");
+        }
+        out.append(INDENT).append(");\n\n");
+
+        out.append("""
+                    private final String name;
+                    private State previousState = StateEnum.INITIAL;
+                    private State currentState = STATES[%1$d];
+                    private int currentStateId = %1$d;
+                    private Transition currentTransition = INITIAL_TRANSITION;
+                    private final Runnable[][] codeBlocks = new Runnable[%2$d][0];
+                    @SuppressWarnings("unchecked")
+                    private final InputTransition<Transition, Object>[][] inputCodeBlocks = new InputTransition[%2$d][0];
+
+                    private %3$s(String name) {
+                        this.name = name;
+                    }
+
+                    /**
+                     * Creates a state machine at the initial state.
+                     * @return Returns a new state machine.
+                     */
+                    public static %3$s create() {
+                        return new %3$s(null);
+                    }
+
+                    /**
+                     * Creates a state machine at the initial state.
+                     * @param name the name of the state machine.
+                     * @return Returns a new state machine.
+                     */
+                    public static %3$s create(String name) {
+                        return new %3$s(name);
+                    }
+
+                    /**
+                     * The name of the state machine
+                     * @return name of state machine
+                     */
+                    public String getName() {
+                        return name;
+                    }
+
+                    /**
+                     * Returns a state pattern with the same transitions, e.g. to draw a diagram or create a StateMachine.
+                     * @return Returns a new state pattern.
+                     */
+                    public static StatePattern statePattern() {
+                        return new StatePattern().initial(STATES[%1$d]).addTransitions(TRANSITIONS);
+                    }
+
+                    /**
+                     * Returns the id of a state.
+                     * @param state a state.
+                     * @return Returns the id of a state or NOT_FOUND.
+                     */
+                    public static int stateId(State state) {
+                        if (state instanceof %4$s constant) {
+                            return constant.ordinal();
+                        }
+                        if (state == StateEnum.STOP) {
+                            return STOP_ID;
+                        }
+                        return state == StateEnum.INVALID ? INVALID_ID : NOT_FOUND;
+                    }
+
+                """.formatted(stateId(initial), stateCount, className, statesName));
+
+        out.append(INDENT).append("/**\n").append(INDENT).append(" * Returns the id of a transition name. Resolve it once to use tryTransition(int, Object).\n")
+                .append(INDENT).append(" * @param transition the name of the transition.\n")
+                .append(INDENT).append(" * @return Returns the id of the transition name or NOT_FOUND.\n")
+                .append(INDENT).append(" */\n");
+        out.append(INDENT).append("public static int transitionId(String transition) {\n");
+        out.append(INDENT).append(INDENT).append("if (transition == null) {\n")
+                .append(INDENT).append(INDENT).append(INDENT).append("return NOT_FOUND;\n")
+                .append(INDENT).append(INDENT).append("}\n");
+        out.append(INDENT).append(INDENT).append("return switch (transition) {\n");
+        for (Map.Entry<String, Integer> entry : nameIds.entrySet()) {
+            out.append(INDENT).append(INDENT).append(INDENT).append("case ").append(literal.apply(entry.getKey()))
+                    .append(" -> ").append(entry.getValue()).append(";\n");
+        }
+        out.append(INDENT).append(INDENT).append(INDENT).append("default -> NOT_FOUND;\n");
+        out.append(INDENT).append(INDENT).append("};\n");
+        out.append(INDENT).append("}\n\n");
+
+        out.append(INDENT).append("/**\n").append(INDENT).append(" * Returns the index of a state's outgoing transition.\n")
+                .append(INDENT).append(" * @param stateId the id of the from state.\n")
+                .append(INDENT).append(" * @param transitionId the id of the transition name.\n")
+                .append(INDENT).append(" * @return Returns the index of the transition or NOT_FOUND.\n")
+                .append(INDENT).append(" */\n");
+        out.append(INDENT).append("static int transitionIndex(int stateId, int transitionId) {\n");
+        out.append(INDENT).append(INDENT).append("return switch (stateId) {\n");
+        for (int stateId = 0; stateId < stateCount; stateId++) {
+            StringBuilder cases = new StringBuilder();
+            for (int i = 0; i < transitions.size(); i++) {
+                if (stateId(transitions.get(i).from()) == stateId) {
+                    cases.append(INDENT).append(INDENT).append(INDENT).append(INDENT).append("case ")
+                            .append(nameIds.get(transitions.get(i).name())).append(" -> ").append(i).append(";\n");
+                }
+            }
+            if (cases.isEmpty()) {
+                continue;
+            }
+            out.append(INDENT).append(INDENT).append(INDENT).append("case ").append(stateId).append(" -> switch (transitionId) {\n");
+            out.append(cases);
+            out.append(INDENT).append(INDENT).append(INDENT).append(INDENT).append("default -> NOT_FOUND;\n");
+            out.append(INDENT).append(INDENT).append(INDENT).append("};\n");
+        }
+        out.append(INDENT).append(INDENT).append(INDENT).append("default -> NOT_FOUND;\n");
+        out.append(INDENT).append(INDENT).append("};\n");
+        out.append(INDENT).append("}\n\n");
+
+        out.append("""
+                    @Override
+                    public FSM initial(State state) {
+                        int stateId = stateId(state);
+                        currentTransition = stateId == %1$d ? INITIAL_TRANSITION : new Transition("initial", StateEnum.INITIAL, state);
+                        previousState = StateEnum.INITIAL;
+                        currentState = state;
+                        currentStateId = stateId;
+                        return this;
+                    }
+
+                    @Override
+                    public FSM t(String transition) {
+                        tryTransition(transitionId(transition), null);
+                        return this;
+                    }
+
+                    @Override
+                    public <T> FSM t(String transition, T input) {
+                        tryTransition(transitionId(transition), input);
+                        return this;
+                    }
+
+                    @Override
+                    public <T> TransitionResult tryTransition(String transition, T input) {
+                        return tryTransition(transitionId(transition), input);
+                    }
+
+                    @Override
+                    public TransitionResult tryTransition(String transition) {
+                        return tryTransition(transitionId(transition), null);
+                    }
+
+                    /**
+                     * Transitions to next state (outgoing state) using a transition id.
+                     * @param transitionId the id of the transition name, see transitionId().
+                     * @param input Some input data passed to next State. If null the name is used.
+                     * @return Returns the outcome of the transition.
+                     */
+                    public TransitionResult tryTransition(int transitionId, Object input) {
+                        int index = transitionIndex(currentStateId, transitionId);
+                        if (index == NOT_FOUND) {
+                            // don't set previous so caller can recover.
+                            currentState = StateEnum.INVALID;
+                            currentStateId = INVALID_ID;
+                            return TransitionResult.INVALID;
+                        }
+                        moveTo(index);
+                        encountered(index, input);
+                        return result(currentStateId);
+                    }
+
+                    private static TransitionResult result(int stateId) {
+                        if (stateId == INVALID_ID) {
+                            return TransitionResult.INVALID;
+                        }
+                        return stateId == STOP_ID ? TransitionResult.STOPPED : TransitionResult.MOVED;
+                    }
+
+                    private void moveTo(int index) {
+                        int toStateId = TO_STATE_IDS[index];
+                        previousState = currentState;
+                        currentState = STATES[toStateId];
+                        currentStateId = toStateId;
+                        currentTransition = TRANSITIONS[index];
+                    }
+
+                    private void encountered(int index, Object input) {
+                        int toStateId = TO_STATE_IDS[index];
+                        for (Runnable runnable : codeBlocks[toStateId]) {
+                            runnable.run();
+                        }
+                        InputTransition<Transition, Object>[] transitionInputConsumers = inputCodeBlocks[toStateId];
+                        if (transitionInputConsumers.length > 0) {
+                            Transition transition = TRANSITIONS[index];
+                            // use the transition name as input
+                            Object value = input == null ? transition.name() : input;
+                            for (InputTransition<Transition, Object> inputStateConsumer : transitionInputConsumers) {
+                                inputStateConsumer.accept(transition, value);
+                            }
+                        }
+                    }
+
+                    @Override
+                    public BatchResult applyAll(List<String> transitions, BatchMode mode) {
+                        int[] transitionIds = new int[transitions.size()];
+                        for (int i = 0; i < transitionIds.length; i++) {
+                            transitionIds[i] = transitionId(transitions.get(i));
+                        }
+                        return applyAll(transitionIds, mode);
+                    }
+
+                    @Override
+                    public BatchResult applyAll(TransitionKey[] transitions, BatchMode mode) {
+                        int[] transitionIds = new int[transitions.length];
+                        for (int i = 0; i < transitionIds.length; i++) {
+                            transitionIds[i] = transitionId(transitions[i].name());
+                        }
+                        return applyAll(transitionIds, mode);
+                    }
+
+                    private BatchResult applyAll(int[] transitionIds, BatchMode mode) {
+                        if (transitionIds.length == 0) {
+                            return new BatchResult(result(currentStateId), 0, -1);
+                        }
+                        if (mode == BatchMode.SEQUENTIAL) {
+                            TransitionResult result = null;
+                            for (int i = 0; i < transitionIds.length; i++) {
+                                result = tryTransition(transitionIds[i], null);
+                                if (result == TransitionResult.INVALID) {
+                                    return new BatchResult(result, i, i);
+                                }
+                            }
+                            return new BatchResult(result, transitionIds.length, -1);
+                        }
+                        // validate the whole sequence before anything changes.
+                        int stateId = currentStateId;
+                        for (int i = 0; i < transitionIds.length; i++) {
+                            int index = transitionIndex(stateId, transitionIds[i]);
+                            if (index == NOT_FOUND) {
+                                return new BatchResult(TransitionResult.INVALID, 0, i);
+                            }
+                            stateId = TO_STATE_IDS[index];
+                            transitionIds[i] = index;
+                        }
+                        // commit the final state then run the deferred code blocks of each state along the way.
+                        moveTo(transitionIds[transitionIds.length - 1]);
+                        previousState = currentTransition.fromState();
+                        for (int index : transitionIds) {
+                            encountered(index, null);
+                        }
+                        return new BatchResult(result(currentStateId), transitionIds.length, -1);
+                    }
+
+                    @Override
+                    public FSM tOrElse(String transition, Runnable invalid) {
+                        int index = transitionIndex(currentStateId, transitionId(transition));
+                        if (index == NOT_FOUND) {
+                            invalid.run();
+                        } else {
+                            moveTo(index);
+                            encountered(index, null);
+                        }
+                        return this;
+                    }
+
+                    @Override
+                    public <T> FSM tOrElse(String transition, T input, BiConsumer<String, T> invalid) {
+                        int index = transitionIndex(currentStateId, transitionId(transition));
+                        if (index == NOT_FOUND) {
+                            invalid.accept(transition, input);
+                        } else {
+                            moveTo(index);
+                            encountered(index, input);
+                        }
+                        return this;
+                    }
+
+                    @Override
+                    public Transition currentTransition() {
+                        return currentTransition;
+                    }
+
+                    @Override
+                    public Optional<Transition> lookupNextTransition(String transitionName) {
+                        int index = transitionIndex(currentStateId, transitionId(transitionName));
+                        return index == NOT_FOUND ? Optional.empty() : Optional.of(TRANSITIONS[index]);
+                    }
+
+                    @Override
+                    public List<Transition> outgoingTransitions() {
+                        return currentStateId == NOT_FOUND ? List.of() : OUTGOING.get(currentStateId);
+                    }
+
+                    @Override
+                    public State currentState() {
+                        return currentState;
+                    }
+
+                    /**
+                     * Returns the id of the current state.
+                     * @return Returns the id of the current state.
+                     */
+                    public int currentStateId() {
+                        return currentStateId;
+                    }
+
+                    @Override
+                    public State previousState() {
+                        return previousState;
+                    }
+
+                    @Override
+                    public Optional<State> lookupStateByName(String name) {
+                        for (State state : STATES) {
+                            if (state.getName().equals(name)) {
+                                return Optional.of(state);
+                            }
+                        }
+                        return Optional.empty();
+                    }
+
+                    @Override
+                    public FSM when(State state, Runnable codeBlock) {
+                        int stateId = checkedStateId(state);
+                        Runnable[] runnables = Arrays.copyOf(codeBlocks[stateId], codeBlocks[stateId].length + 1);
+                        runnables[runnables.length - 1] = codeBlock;
+                        codeBlocks[stateId] = runnables;
+                        return this;
+                    }
+
+                    @Override
+                    @SuppressWarnings("unchecked")
+                    public <T> FSM when(State state, InputTransition<Transition, T> codeBlock) {
+                        int stateId = checkedStateId(state);
+                        InputTransition<Transition, Object>[] consumers = Arrays.copyOf(inputCodeBlocks[stateId], inputCodeBlocks[stateId].length + 1);
+                        consumers[consumers.length - 1] = (InputTransition<Transition, Object>) (InputTransition<Transition, ?>) codeBlock;
+                        inputCodeBlocks[stateId] = consumers;
+                        return this;
+                    }
+
+                    private static int checkedStateId(State state) {
+                        int stateId = stateId(state);
+                        if (stateId == NOT_FOUND) {
+                            throw new IllegalArgumentException(state + " is not a state of %2$s");
+                        }
+                        return stateId;
+                    }
+                }
+                """.formatted(stateId(initial), className));
+        return out.toString();
+    }
+}
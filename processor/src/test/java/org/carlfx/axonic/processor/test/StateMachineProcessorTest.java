@@ -0,0 +1,205 @@
+/*
+ * SPDX-License-Identifier: Apache-2.0
+ *
+ * Copyright © 2024. Carl Dea.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.carlfx.axonic.processor.test;
+
+import org.carlfx.axonic.BatchMode;
+import org.carlfx.axonic.BatchResult;
+import org.carlfx.axonic.FSM;
+import org.carlfx.axonic.StateEnum;
+import org.carlfx.axonic.StateMachine;
+import org.carlfx.axonic.StatePattern;
+import org.carlfx.axonic.Transition;
+import org.carlfx.axonic.TransitionResult;
+import org.carlfx.axonic.processor.StateMachineProcessor;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+import javax.tools.Diagnostic;
+import javax.tools.DiagnosticCollector;
+import javax.tools.JavaCompiler;
+import javax.tools.JavaFileObject;
+import javax.tools.SimpleJavaFileObject;
+import javax.tools.ToolProvider;
+import java.io.IOException;
+import java.net.URI;
+import java.net.URL;
+import java.net.URLClassLoader;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+
+@DisplayName("State Machine Processor Test")
+public class StateMachineProcessorTest {
+
+    private static final String TURNSTILE = """
+            package demo;
+
+            import org.carlfx.axonic.State;
+            import org.carlfx.axonic.annotation.GenerateStateMachine;
+            import org.carlfx.axonic.annotation.On;
+
+            @GenerateStateMachine(initial = "LOCKED")
+            public enum Turnstile implements State {
+                @On(value = "coin", to = "UNLOCKED")
+                @On(value = "push", to = "LOCKED")
+                LOCKED("Locked"),
+                @On(value = "push", to = "LOCKED")
+                @On(value = "coin", to = "UNLOCKED")
+                @On(value = "break", to = "BROKEN", description = "Someone \\"broke\\" it")
+                UNLOCKED("Unlocked"),
+                @On(value = "done", to = "STOP")
+                BROKEN("Broken");
+
+                final String name;
+
+                Turnstile(String name) {
+                    this.name = name;
+                }
+
+                @Override
+                public String getName() {
+                    return name;
+                }
+            }
+            """;
+
+    private static final String DOOR = """
+            package demo;
+
+            import org.carlfx.axonic.State;
+            import org.carlfx.axonic.annotation.GenerateStateMachine;
+            import org.carlfx.axonic.annotation.On;
+
+            @GenerateStateMachine(initial = "CLOSED", states = Door.Position.class, className = "DoorFSM")
+            @On(value = "open", from = "CLOSED", to = "OPENED")
+            @On(value = "close", from = "OPENED", to = "CLOSED")
+            public class Door {
+                public enum Position implements State {
+                    CLOSED, OPENED;
+
+                    @Override
+                    public String getName() {
+                        return name();
+                    }
+                }
+            }
+            """;
+
+    /**
+     * The classes and diagnostics of an in process compilation.
+     */
+    private record Compiled(boolean success, ClassLoader classLoader, List<Diagnostic<? extends JavaFileObject>> diagnostics) {
+        FSM create(String className) throws ReflectiveOperationException {
+            return (FSM) classLoader.loadClass(className).getMethod("create").invoke(null);
+        }
+    }
+
+    private static Compiled compile(String className, String source) throws IOException {
+        JavaCompiler compiler = ToolProvider.getSystemJavaCompiler();
+        Path output = Files.createTempDirectory("axonic-processor");
+        JavaFileObject file = new SimpleJavaFileObject(URI.create("string:///" + className.replace('.', '/') + ".java"), JavaFileObject.Kind.SOURCE) {
+            @Override
+            public CharSequence getCharContent(boolean ignoreEncodingErrors) {
+                return source;
+            }
+        };
+        DiagnosticCollector<JavaFileObject> diagnostics = new DiagnosticCollector<>();
+        List<String> options = List.of("-classpath", System.getProperty("java.class.path"), "-d", output.toString(),
+                "-processor", StateMachineProcessor.class.getName());
+        boolean success = compiler.getTask(null, null, diagnostics, options, null, List.of(file)).call();
+        ClassLoader classLoader = new URLClassLoader(new URL[]{output.toUri().toURL()}, StateMachineProcessorTest.class.getClassLoader());
+        return new Compiled(success, classLoader, diagnostics.getDiagnostics());
+    }
+
+    @Test
+    @DisplayName("Generated state machine moves like a StateMachine of the same state pattern")
+    void generatedMachineTest() throws Exception {
+        Compiled compiled = compile("demo.Turnstile", TURNSTILE);
+        Assertions.assertTrue(compiled.success(), compiled.diagnostics().toString());
+        FSM turnstile = compiled.create("demo.TurnstileMachine");
+        StatePattern statePattern = (StatePattern) compiled.classLoader().loadClass("demo.TurnstileMachine").getMethod("statePattern").invoke(null);
+        FSM reference = StateMachine.create(statePattern);
+
+        Assertions.assertEquals(reference.currentState(), turnstile.currentState());
+        Assertions.assertEquals(reference.currentTransition(), turnstile.currentTransition());
+        for (String transition : List.of("coin", "coin", "push", "push", "coin", "break", "done")) {
+            Assertions.assertEquals(reference.tryTransition(transition), turnstile.tryTransition(transition), transition);
+            Assertions.assertEquals(reference.currentState(), turnstile.currentState());
+            Assertions.assertEquals(reference.previousState(), turnstile.previousState());
+            Assertions.assertEquals(reference.currentTransition(), turnstile.currentTransition());
+            Assertions.assertEquals(reference.outgoingTransitions(), turnstile.outgoingTransitions());
+        }
+        Assertions.assertEquals(StateEnum.STOP, turnstile.currentState());
+        Assertions.assertEquals("Someone \"broke\" it",
+                statePattern.transitions().stream().filter(t -> t.name().equals("break")).findFirst().orElseThrow().description());
+
+        // code blocks receive the transition and the input, or the transition name.
+        Object unlocked = turnstile.lookupStateByName("Unlocked").orElseThrow();
+        List<String> inputs = new ArrayList<>();
+        int[] entered = new int[1];
+        turnstile.initial(turnstile.lookupStateByName("Locked").orElseThrow());
+        turnstile.when((org.carlfx.axonic.State) unlocked, () -> entered[0]++)
+                .when((org.carlfx.axonic.State) unlocked, (transition, input) -> inputs.add(((Transition) transition).name() + "=" + input));
+        turnstile.t("coin").t("coin", "10 cents");
+        Assertions.assertEquals(2, entered[0]);
+        Assertions.assertEquals(List.of("coin=coin", "coin=10 cents"), inputs);
+        Assertions.assertEquals("coin", turnstile.lookupNextTransition("coin").orElseThrow().name());
+
+        // an invalid transition keeps the previous state, an atomic batch changes nothing when invalid.
+        turnstile.t("done");
+        Assertions.assertEquals(StateEnum.INVALID, turnstile.currentState());
+        Assertions.assertEquals(unlocked, turnstile.previousState());
+        boolean[] orElse = new boolean[1];
+        turnstile.tOrElse("coin", () -> orElse[0] = true);
+        Assertions.assertTrue(orElse[0]);
+        turnstile.initial((org.carlfx.axonic.State) unlocked);
+        BatchResult invalid = turnstile.applyAll(List.of("push", "break"), BatchMode.ATOMIC);
+        Assertions.assertEquals(new BatchResult(TransitionResult.INVALID, 0, 1), invalid);
+        Assertions.assertEquals(unlocked, turnstile.currentState());
+        BatchResult stopped = turnstile.applyAll(List.of("break", "done"), BatchMode.ATOMIC);
+        Assertions.assertEquals(new BatchResult(TransitionResult.STOPPED, 2, -1), stopped);
+        Assertions.assertThrows(IllegalArgumentException.class, () -> turnstile.when(StateEnum.INITIAL, () -> { }));
+    }
+
+    @Test
+    @DisplayName("A class declares the transitions of an enum of states")
+    void classDeclaringTransitionsTest() throws Exception {
+        Compiled compiled = compile("demo.Door", DOOR);
+        Assertions.assertTrue(compiled.success(), compiled.diagnostics().toString());
+        FSM door = compiled.create("demo.DoorFSM");
+        Assertions.assertEquals("CLOSED", door.currentState().getName());
+        Assertions.assertEquals(TransitionResult.MOVED, door.tryTransition("open"));
+        Assertions.assertEquals("OPENED", door.currentState().getName());
+        Assertions.assertEquals(TransitionResult.INVALID, door.tryTransition("open"));
+    }
+
+    @Test
+    @DisplayName("Mistakes in declared transitions are compile errors")
+    void compileErrorTest() throws Exception {
+        Compiled unknownState = compile("demo.Turnstile", TURNSTILE.replace("to = \"BROKEN\"", "to = \"FIXED\""));
+        Assertions.assertFalse(unknownState.success());
+        Assertions.assertTrue(unknownState.diagnostics().toString().contains("Unknown to state FIXED"), unknownState.diagnostics().toString());
+
+        Compiled duplicate = compile("demo.Turnstile", TURNSTILE.replace("@On(value = \"push\", to = \"LOCKED\")\n    LOCKED",
+                "@On(value = \"coin\", to = \"LOCKED\")\n    LOCKED"));
+        Assertions.assertFalse(duplicate.success());
+        Assertions.assertTrue(duplicate.diagnostics().toString().contains("Transition coin is declared twice on LOCKED"), duplicate.diagnostics().toString());
+    }
+}
@@ -19,7 +19,12 @@
  * Module Cognitive is a JavaFX based MVVM framework capability to decouple presentation logic from controller code.
  */
 module org.carlfx.axonic {
-    
+    // optional, flight recorder events are only emitted when the runtime has the jdk.jfr module.
+    requires static jdk.jfr;
+
     exports org.carlfx.axonic;
     exports org.carlfx.axonic.tools;
+    exports org.carlfx.axonic.runtime;
+    exports org.carlfx.axonic.journal;
+    exports org.carlfx.axonic.annotation;
 }
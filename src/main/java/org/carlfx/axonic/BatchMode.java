@@ -0,0 +1,35 @@
+/*
+ * SPDX-License-Identifier: Apache-2.0
+ *
+ * Copyright © 2024. Carl Dea.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.carlfx.axonic;
+
+/**
+ * How a sequence of transitions is applied. See FSM applyAll() methods.
+ */
+public enum BatchMode {
+    /**
+     * Transitions are applied one after another and code blocks run after each move. Applying stops at the
+     * first invalid transition leaving the state machine in the INVALID state, the transitions before it stay applied.
+     */
+    SEQUENTIAL,
+    /**
+     * All or nothing. The whole sequence is validated first. If any transition is invalid nothing is applied and
+     * the state machine keeps its state. Otherwise the state machine moves to the final state and then the code blocks
+     * of each state along the way are run in order.
+     */
+    ATOMIC
+}
@@ -0,0 +1,35 @@
+/*
+ * SPDX-License-Identifier: Apache-2.0
+ *
+ * Copyright © 2024. Carl Dea.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.carlfx.axonic;
+
+/**
+ * The outcome of applying a sequence of transitions. See FSM applyAll() methods.
+ * @param result The outcome of the last transition applied, or INVALID when a transition was invalid.
+ * @param applied The number of transitions applied.
+ * @param failedIndex The index of the first invalid transition or -1 when every transition was valid.
+ */
+public record BatchResult(TransitionResult result, int applied, int failedIndex) {
+
+    /**
+     * Returns true when every transition was valid.
+     * @return Returns true when every transition was valid.
+     */
+    public boolean isValid() {
+        return failedIndex < 0;
+    }
+}
@@ -0,0 +1,128 @@
+/*
+ * SPDX-License-Identifier: Apache-2.0
+ *
+ * Copyright © 2024. Carl Dea.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.carlfx.axonic;
+
+import java.lang.invoke.MethodHandles;
+import java.lang.reflect.InvocationTargetException;
+
+/**
+ * The code blocks of a machine definition compiled into a hidden class at runtime. Entering a state is a switch on
+ * the state id invoking the state's code blocks, loaded as constants, instead of calling them through arrays where
+ * each call site sees the code blocks of every state. The JIT can inline the code blocks of a state.
+ * <pre>
+ *     StateMachine turnstileSM = StateMachine.create("Turnstile", turnstilePattern).compileDispatch();
+ * </pre>
+ * State machines use it after StateMachine.compileDispatch() or StateMachineDefinition.compileDispatch().
+ * Definitions with too many code blocks for the JIT to compile the switch keep using the arrays, see hasCodeBlockSwitch().
+ */
+public final class CompiledDispatch {
+
+    /**
+     * Implemented by the hidden class.
+     */
+    interface Target {
+        void encounter(int stateId, Transition transition, Object input);
+    }
+
+    private final StateMachineDefinition definition;
+    // null when the code blocks are invoked from the definition's arrays.
+    private final Target target;
+
+    private CompiledDispatch(StateMachineDefinition definition, Target target) {
+        this.definition = definition;
+        this.target = target;
+    }
+
+    /**
+     * Compiles the code blocks of a machine definition. Code blocks added to the definition's
+     * state machines afterwards are not part of this compiled dispatch.
+     * @param definition a machine definition.
+     * @return Returns the compiled dispatch.
+     */
+    public static CompiledDispatch compile(StateMachineDefinition definition) {
+        DispatchClassWriter writer = new DispatchClassWriter(definition);
+        byte[] classFile = writer.write(CompiledDispatch.class.getName().replace('.', '/') + "$Switch");
+        if (classFile == null) {
+            return new CompiledDispatch(definition, null);
+        }
+        try {
+            MethodHandles.Lookup lookup = MethodHandles.lookup().defineHiddenClassWithClassData(classFile, writer.classData(), true);
+            return new CompiledDispatch(definition, (Target) lookup.lookupClass().getDeclaredConstructor().newInstance());
+        } catch (IllegalAccessException | InstantiationException | NoSuchMethodException | InvocationTargetException e) {
+            throw new RuntimeException("Unable to define the compiled dispatch of " + definition.getName(), e);
+        }
+    }
+
+    /**
+     * Invokes an input code block, called by the hidden class.
+     */
+    static void accept(InputTransition<Transition, Object> codeBlock, Transition transition, Object input) {
+        // use the transition name as input
+        codeBlock.accept(transition, input == null ? transition.name() : input);
+    }
+
+    /**
+     * Invokes the code blocks of a state from the definition's arrays.
+     */
+    private static void runCodeBlocks(StateMachineDefinition definition, int stateId, Transition transition, Object input) {
+        for (Runnable runnable : definition.codeBlocks(stateId)) {
+            runnable.run();
+        }
+        for (InputTransition<Transition, Object> codeBlock : definition.inputCodeBlocks(stateId)) {
+            accept(codeBlock, transition, input);
+        }
+    }
+
+    /**
+     * Returns the machine definition compiled.
+     * @return Returns the machine definition compiled.
+     */
+    public StateMachineDefinition definition() {
+        return definition;
+    }
+
+    /**
+     * Returns true when code blocks are invoked by a switch, false when there are too many and the arrays are used.
+     * @return Returns true when code blocks are invoked by a switch.
+     */
+    public boolean hasCodeBlockSwitch() {
+        return target != null;
+    }
+
+    /**
+     * Invokes the code blocks of an entered state.
+     * @param stateId the state entered.
+     * @param transition the transition into the state.
+     * @param input the input passed to code blocks. If null the transition name is used.
+     */
+    public void encounter(int stateId, Transition transition, Object input) {
+        if (target == null) {
+            runCodeBlocks(definition, stateId, transition, input);
+        } else {
+            target.encounter(stateId, transition, input);
+        }
+    }
+
+    @Override
+    public String toString() {
+        return "CompiledDispatch{" +
+                "definition=" + definition.getName() +
+                ", codeBlockSwitch=" + hasCodeBlockSwitch() +
+                '}';
+    }
+}
@@ -0,0 +1,949 @@
+/*
+ * SPDX-License-Identifier: Apache-2.0
+ *
+ * Copyright © 2024. Carl Dea.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.carlfx.axonic;
+
+import java.time.Duration;
+import java.util.*;
+import java.util.function.Predicate;
+
+import static org.carlfx.axonic.StateEnum.INITIAL;
+import static org.carlfx.axonic.StateEnum.INVALID;
+
+/**
+ * An immutable snapshot of a state pattern where every state and every transition name is given an int id.
+ * A compiled state pattern is created by calling {@link StatePattern#compile()} after the state pattern is defined.
+ * Looking up an outgoing transition is a couple of array reads:
+ * <pre>
+ *     state id x transition name id  --> transition index --> to state id
+ * </pre>
+ * Id assignment is deterministic. The INITIAL state is always id 0 and the INVALID state is always the last id.
+ * States and transition names are numbered in the order they first appear in the state pattern's transitions.
+ * When two outgoing transitions of a state share a name the first one defined is used.
+ */
+public final class CompiledStatePattern {
+    /**
+     * Returned by lookups when a state, a transition name or an outgoing transition does not exist.
+     */
+    public static final int NOT_FOUND = -1;
+
+    /**
+     * Largest number of cells (states x transition names) allocated for a dense table.
+     * Larger patterns use a sparse (compressed row) table that binary searches each state's row.
+     */
+    static final long MAX_DENSE_CELLS = 1L << 22;
+
+    // null for a pattern loaded from an archive until statePattern() rebuilds it.
+    private StatePattern source;
+
+    private final State[] states;
+    private final Map<State, Integer> stateIds;
+    // ids of enum states indexed by ordinal, one row per enum class, NOT_FOUND for constants not in the pattern.
+    private final Class<?>[] enumClasses;
+    private final int[][] enumStateIds;
+    private final String[] transitionNames;
+    private final Map<String, Integer> transitionNameIds;
+
+    // one entry per outgoing transition (transition index), created on first use for a pattern loaded from an archive.
+    private final Transition[] transitions;
+    // descriptions by transition index of a pattern loaded from an archive, null when none or when transitions are created.
+    private final String[] descriptions;
+    private final int[] fromStateIds;
+    private final int[] toStateIds;
+    private final int[] nameIds;
+    // guards by transition index and the next transition with the same from state and name, null when no transition has a guard.
+    private final Predicate<Object>[] guards;
+    private final int[] alternatives;
+    // the state entered by each state id, a parent state enters its initial substate.
+    private final int[] entryStateIds;
+    // history slots of history pseudo states, defaults of each slot and the slots each state records, null without history states.
+    private final int[] historySlots;
+    private final int[] historyDefaults;
+    private final int[][] historyRecords;
+    // delay in nanoseconds and transition name id of each state's timed transition, null when no state has one.
+    private final long[] timerDelays;
+    private final int[] timerNameIds;
+
+    // dense table: stateId * transitionNames.length + nameId --> transition index
+    private final int[] table;
+
+    // sparse table: rowOffsets[stateId] .. rowOffsets[stateId + 1] are sorted name ids and their transition index.
+    private final int[] rowOffsets;
+    private final int[] rowNameIds;
+    private final int[] rowTransitions;
+
+    // the transitions of a state are outgoingOffsets[stateId] .. outgoingOffsets[stateId + 1], their lists are created on first use.
+    private final int[] outgoingOffsets;
+    private final List<Transition>[] outgoing;
+    private final int initialTransition;
+
+    // interned handles
+    private final StateId[] stateKeys;
+    private final TransitionKey[] transitionKeys;
+    // computed on first use, 0 when not computed yet.
+    private volatile long fingerprint;
+
+    CompiledStatePattern(StatePattern statePattern) {
+        this.source = statePattern;
+
+        // number states in order of first appearance.
+        Map<State, Integer> stateIdMap = new HashMap<>();
+        List<State> stateList = new ArrayList<>();
+        addState(INITIAL, stateIdMap, stateList);
+        for (Transition transition : statePattern.transitions()) {
+            addState(transition.fromState(), stateIdMap, stateList);
+            addState(transition.toState(), stateIdMap, stateList);
+        }
+        for (State state : statePattern.states()) {
+            addState(state, stateIdMap, stateList);
+        }
+
+        // gather outgoing transitions by state in the order they were defined.
+        Map<String, Integer> nameIdMap = new HashMap<>();
+        List<String> nameList = new ArrayList<>();
+        for (Transition transition : statePattern.transitions()) {
+            addName(transition.name(), nameIdMap, nameList);
+        }
+        List<Transition> transitionList = new ArrayList<>();
+        List<Integer> fromStateIdList = new ArrayList<>();
+        for (int stateId = 0; stateId < stateList.size(); stateId++) {
+            State state = stateList.get(stateId);
+            // flatten the hierarchy, a substate's own transitions come before the ones inherited from its parents.
+            for (State declaring = state; declaring != null; declaring = statePattern.parentOf(declaring)) {
+                for (Transition transition : statePattern.outgoingTransitionsOf(declaring)) {
+                    if (transition.toState() == null) {
+                        continue;
+                    }
+                    Transition flattened = transition;
+                    if (declaring != state) {
+                        flattened = flattened.withFromState(state);
+                    }
+                    State toState = statePattern.entryState(transition.toState());
+                    if (toState != transition.toState()) {
+                        flattened = flattened.withToState(toState);
+                    }
+                    if (toState instanceof HistoryState historyState) {
+                        addState(statePattern.entryState(historyState.parent()), stateIdMap, stateList);
+                    }
+                    addState(toState, stateIdMap, stateList);
+                    addName(transition.name(), nameIdMap, nameList);
+                    transitionList.add(flattened);
+                    fromStateIdList.add(stateId);
+                }
+            }
+        }
+        // the INVALID state is always last and has no outgoing transitions.
+        stateIdMap.put(INVALID, stateList.size());
+        stateList.add(INVALID);
+
+        this.states = stateList.toArray(new State[0]);
+        this.stateIds = stateIdMap;
+        this.enumClasses = enumClasses(states);
+        this.enumStateIds = enumStateIds(states, enumClasses);
+        this.transitionNames = nameList.toArray(new String[0]);
+        this.transitionNameIds = nameIdMap;
+        this.transitions = transitionList.toArray(new Transition[0]);
+
+        int transitionCount = transitions.length;
+        this.fromStateIds = new int[transitionCount];
+        this.toStateIds = new int[transitionCount];
+        this.nameIds = new int[transitionCount];
+        for (int i = 0; i < transitionCount; i++) {
+            fromStateIds[i] = fromStateIdList.get(i);
+            toStateIds[i] = stateIds.get(transitions[i].toState());
+            nameIds[i] = transitionNameIds.get(transitions[i].name());
+        }
+
+        this.entryStateIds = new int[states.length];
+        for (int stateId = 0; stateId < states.length; stateId++) {
+            Integer entryStateId = stateIds.get(statePattern.entryState(states[stateId]));
+            entryStateIds[stateId] = entryStateId == null ? stateId : entryStateId;
+        }
+
+        // a slot for each parent state targeted by a history pseudo state.
+        Map<State, Integer> slotByParent = new LinkedHashMap<>();
+        for (State state : states) {
+            if (state instanceof HistoryState historyState) {
+                slotByParent.putIfAbsent(historyState.parent(), slotByParent.size());
+            }
+        }
+        if (slotByParent.isEmpty()) {
+            this.historySlots = null;
+            this.historyDefaults = null;
+            this.historyRecords = null;
+        } else {
+            this.historySlots = new int[states.length];
+            this.historyDefaults = new int[slotByParent.size()];
+            this.historyRecords = new int[states.length][];
+            for (int stateId = 0; stateId < states.length; stateId++) {
+                historySlots[stateId] = states[stateId] instanceof HistoryState historyState
+                        ? slotByParent.get(historyState.parent())
+                        : NOT_FOUND;
+                List<Integer> slots = new ArrayList<>();
+                for (State ancestor = statePattern.parentOf(states[stateId]); ancestor != null; ancestor = statePattern.parentOf(ancestor)) {
+                    Integer slot = slotByParent.get(ancestor);
+                    if (slot != null) {
+                        slots.add(slot);
+                    }
+                }
+                historyRecords[stateId] = slots.stream().mapToInt(Integer::intValue).toArray();
+            }
+            slotByParent.forEach((parent, slot) -> historyDefaults[slot] = stateIds.get(statePattern.entryState(parent)));
+        }
+
+        // a substate without its own timed transition inherits the one of its nearest parent.
+        if (statePattern.hasTimers()) {
+            this.timerDelays = new long[states.length];
+            this.timerNameIds = new int[states.length];
+            Arrays.fill(timerNameIds, NOT_FOUND);
+            for (int stateId = 0; stateId < states.length; stateId++) {
+                for (State declaring = states[stateId]; declaring != null; declaring = statePattern.parentOf(declaring)) {
+                    StatePattern.After after = statePattern.timerOf(declaring);
+                    if (after != null) {
+                        timerDelays[stateId] = after.delay().toNanos();
+                        timerNameIds[stateId] = transitionNameIds.get(after.transition());
+                        break;
+                    }
+                }
+            }
+        } else {
+            this.timerDelays = null;
+            this.timerNameIds = null;
+        }
+
+        // chain transitions sharing a from state and name in the order they were defined.
+        boolean guarded = false;
+        for (Transition transition : transitions) {
+            guarded |= transition.guard() != null;
+        }
+        if (guarded) {
+            @SuppressWarnings({"unchecked", "rawtypes"})
+            Predicate<Object>[] guardArray = new Predicate[transitionCount];
+            int[] alternativeArray = new int[transitionCount];
+            Map<Long, Integer> nextByKey = new HashMap<>();
+            for (int i = transitionCount - 1; i >= 0; i--) {
+                guardArray[i] = transitions[i].guard();
+                Integer next = nextByKey.put(((long) fromStateIds[i] << 32) | nameIds[i], i);
+                alternativeArray[i] = next == null ? NOT_FOUND : next;
+            }
+            this.guards = guardArray;
+            this.alternatives = alternativeArray;
+        } else {
+            this.guards = null;
+            this.alternatives = null;
+        }
+
+        long cells = (long) states.length * transitionNames.length;
+        if (cells <= MAX_DENSE_CELLS) {
+            table = new int[(int) cells];
+            Arrays.fill(table, NOT_FOUND);
+            for (int i = 0; i < transitionCount; i++) {
+                int cell = fromStateIds[i] * transitionNames.length + nameIds[i];
+                if (table[cell] == NOT_FOUND) {
+                    table[cell] = i; // first defined wins
+                }
+            }
+            rowOffsets = null;
+            rowNameIds = null;
+            rowTransitions = null;
+        } else {
+            table = null;
+            rowOffsets = new int[states.length + 1];
+            int[] names = new int[transitionCount];
+            int[] indexes = new int[transitionCount];
+            // transitions are grouped by from state already, sort each row by name id keeping the first defined.
+            int row = 0;
+            int size = 0;
+            for (int stateId = 0; stateId < states.length; stateId++) {
+                rowOffsets[stateId] = size;
+                int start = row;
+                while (row < transitionCount && fromStateIds[row] == stateId) {
+                    row++;
+                }
+                Integer[] order = new Integer[row - start];
+                for (int i = 0; i < order.length; i++) {
+                    order[i] = start + i;
+                }
+                Arrays.sort(order, Comparator.<Integer>comparingInt(i -> nameIds[i]).thenComparingInt(i -> i));
+                for (int i = 0; i < order.length; i++) {
+                    if (size > rowOffsets[stateId] && names[size - 1] == nameIds[order[i]]) {
+                        continue;
+                    }
+                    names[size] = nameIds[order[i]];
+                    indexes[size] = order[i];
+                    size++;
+                }
+            }
+            rowOffsets[states.length] = size;
+            rowNameIds = Arrays.copyOf(names, size);
+            rowTransitions = Arrays.copyOf(indexes, size);
+        }
+
+        this.descriptions = null;
+        this.outgoingOffsets = outgoingOffsets(fromStateIds, states.length);
+        this.outgoing = newOutgoing(states.length);
+        this.initialTransition = transitionCount > 0 && fromStateIds[0] == 0 ? 0 : NOT_FOUND;
+        this.stateKeys = stateKeys();
+        this.transitionKeys = transitionKeys();
+    }
+
+    /**
+     * Creates a compiled state pattern from the arrays of an archive. Transitions and outgoing transition lists are
+     * created on first use. See PatternArchive.
+     */
+    CompiledStatePattern(State[] states, String[] transitionNames, int[] fromStateIds, int[] toStateIds, int[] nameIds,
+                         String[] descriptions, int[] entryStateIds, long[] timerDelays, int[] timerNameIds,
+                         int[] table, int[] rowOffsets, int[] rowNameIds, int[] rowTransitions, int initialTransition) {
+        this.source = null;
+        this.states = states;
+        this.stateIds = new HashMap<>(states.length * 2);
+        for (int stateId = 0; stateId < states.length; stateId++) {
+            stateIds.put(states[stateId], stateId);
+        }
+        this.enumClasses = enumClasses(states);
+        this.enumStateIds = enumStateIds(states, enumClasses);
+        this.transitionNames = transitionNames;
+        this.transitionNameIds = new HashMap<>(transitionNames.length * 2);
+        for (int nameId = 0; nameId < transitionNames.length; nameId++) {
+            transitionNameIds.put(transitionNames[nameId], nameId);
+        }
+        this.transitions = new Transition[fromStateIds.length];
+        this.descriptions = descriptions;
+        this.fromStateIds = fromStateIds;
+        this.toStateIds = toStateIds;
+        this.nameIds = nameIds;
+        this.guards = null;
+        this.alternatives = null;
+        this.entryStateIds = entryStateIds;
+        this.historySlots = null;
+        this.historyDefaults = null;
+        this.historyRecords = null;
+        this.timerDelays = timerDelays;
+        this.timerNameIds = timerNameIds;
+        this.table = table;
+        this.rowOffsets = rowOffsets;
+        this.rowNameIds = rowNameIds;
+        this.rowTransitions = rowTransitions;
+        this.outgoingOffsets = outgoingOffsets(fromStateIds, states.length);
+        this.outgoing = newOutgoing(states.length);
+        this.initialTransition = initialTransition;
+        this.stateKeys = stateKeys();
+        this.transitionKeys = transitionKeys();
+    }
+
+    // transitions are grouped by from state id in ascending order.
+    private static int[] outgoingOffsets(int[] fromStateIds, int stateCount) {
+        int[] offsets = new int[stateCount + 1];
+        for (int fromStateId : fromStateIds) {
+            offsets[fromStateId + 1]++;
+        }
+        for (int stateId = 0; stateId < stateCount; stateId++) {
+            offsets[stateId + 1] += offsets[stateId];
+        }
+        return offsets;
+    }
+
+    @SuppressWarnings({"unchecked", "rawtypes"})
+    private static List<Transition>[] newOutgoing(int stateCount) {
+        return new List[stateCount];
+    }
+
+    private StateId[] stateKeys() {
+        StateId[] keys = new StateId[states.length];
+        for (int stateId = 0; stateId < states.length; stateId++) {
+            keys[stateId] = new StateId(this, stateId, states[stateId]);
+        }
+        return keys;
+    }
+
+    private TransitionKey[] transitionKeys() {
+        TransitionKey[] keys = new TransitionKey[transitionNames.length];
+        for (int nameId = 0; nameId < transitionNames.length; nameId++) {
+            keys[nameId] = new TransitionKey(this, nameId, transitionNames[nameId]);
+        }
+        return keys;
+    }
+
+    /**
+     * Returns the enum classes of the enum states, StateEnum first as every pattern has INITIAL and INVALID.
+     */
+    private static Class<?>[] enumClasses(State[] states) {
+        Set<Class<?>> enumClasses = new LinkedHashSet<>();
+        enumClasses.add(StateEnum.class);
+        for (State state : states) {
+            if (state instanceof Enum<?> constant) {
+                enumClasses.add(constant.getDeclaringClass());
+            }
+        }
+        return enumClasses.toArray(new Class<?>[0]);
+    }
+
+    private static int[][] enumStateIds(State[] states, Class<?>[] enumClasses) {
+        int[][] enumStateIds = new int[enumClasses.length][];
+        for (int i = 0; i < enumClasses.length; i++) {
+            enumStateIds[i] = new int[enumClasses[i].getEnumConstants().length];
+            Arrays.fill(enumStateIds[i], NOT_FOUND);
+        }
+        for (int stateId = 0; stateId < states.length; stateId++) {
+            if (states[stateId] instanceof Enum<?> constant) {
+                int row = Arrays.asList(enumClasses).indexOf(constant.getDeclaringClass());
+                enumStateIds[row][constant.ordinal()] = stateId;
+            }
+        }
+        return enumStateIds;
+    }
+
+    private static void addState(State state, Map<State, Integer> stateIdMap, List<State> stateList) {
+        if (state != null && state != INVALID && !stateIdMap.containsKey(state)) {
+            stateIdMap.put(state, stateList.size());
+            stateList.add(state);
+        }
+    }
+
+    private static void addName(String name, Map<String, Integer> nameIdMap, List<String> nameList) {
+        if (!nameIdMap.containsKey(name)) {
+            nameIdMap.put(name, nameList.size());
+            nameList.add(name);
+        }
+    }
+
+    /**
+     * Returns true if the state pattern was changed after this snapshot was compiled.
+     * @return Returns true if the state pattern was changed after this snapshot was compiled.
+     */
+    public boolean isStale() {
+        StatePattern statePattern = source;
+        return statePattern != null && statePattern.compiledPattern != this;
+    }
+
+    /**
+     * Returns the state pattern this snapshot was compiled from. A pattern loaded from an archive rebuilds
+     * an equivalent flat state pattern on first use, its compiled snapshot is this instance.
+     * @return Returns the state pattern.
+     */
+    synchronized StatePattern statePattern() {
+        if (source == null) {
+            StatePattern statePattern = new StatePattern();
+            if (initialTransition != NOT_FOUND) {
+                statePattern.initial(states[toStateIds[initialTransition]]);
+            }
+            List<Transition> rest = new ArrayList<>(transitions.length);
+            for (int i = 0; i < transitions.length; i++) {
+                if (i != initialTransition) {
+                    rest.add(transition(i));
+                }
+            }
+            statePattern.addTransitions(rest);
+            for (int stateId = 1; stateId < states.length - 1; stateId++) {
+                statePattern.states().add(states[stateId]);
+                if (timerNameId(stateId) != NOT_FOUND) {
+                    statePattern.timer(states[stateId], Duration.ofNanos(timerDelays[stateId]), transitionNames[timerNameIds[stateId]]);
+                }
+            }
+            statePattern.compiledPattern = this;
+            source = statePattern;
+        }
+        return source;
+    }
+
+    /**
+     * Returns the number of states including the INITIAL and INVALID states.
+     * @return Returns the number of states.
+     */
+    public int stateCount() {
+        return states.length;
+    }
+
+    /**
+     * Returns the state of a state id.
+     * @param stateId a state id.
+     * @return Returns the state of a state id.
+     */
+    public State state(int stateId) {
+        return states[stateId];
+    }
+
+    /**
+     * Returns the id of a state.
+     * @param state a state.
+     * @return Returns the id of a state or NOT_FOUND if the state is not part of the state pattern.
+     */
+    public int stateId(State state) {
+        if (state instanceof Enum<?> constant) {
+            // enum constants are only equal to themselves, their id is found by ordinal without hashing.
+            Class<?> enumClass = constant.getDeclaringClass();
+            for (int i = 0; i < enumClasses.length; i++) {
+                if (enumClasses[i] == enumClass) {
+                    return enumStateIds[i][constant.ordinal()];
+                }
+            }
+            return NOT_FOUND;
+        }
+        Integer stateId = stateIds.get(state);
+        return stateId == null ? NOT_FOUND : stateId;
+    }
+
+    /**
+     * Returns the state id of the INITIAL state.
+     * @return Returns the state id of the INITIAL state.
+     */
+    public int initialStateId() {
+        return 0;
+    }
+
+    /**
+     * Returns the state id of the INVALID state.
+     * @return Returns the state id of the INVALID state.
+     */
+    public int invalidStateId() {
+        return states.length - 1;
+    }
+
+    /**
+     * Returns the interned handle of a state.
+     * @param state a state.
+     * @return Returns the interned handle of a state.
+     * @throws IllegalArgumentException if the state is not part of the state pattern.
+     */
+    public StateId stateKey(State state) {
+        int stateId = stateId(state);
+        if (stateId == NOT_FOUND) {
+            throw new IllegalArgumentException("State %s is not part of the state pattern".formatted(state));
+        }
+        return stateKeys[stateId];
+    }
+
+    /**
+     * Returns the interned handle of a state id.
+     * @param stateId a state id.
+     * @return Returns the interned handle of a state id.
+     */
+    public StateId stateKey(int stateId) {
+        return stateKeys[stateId];
+    }
+
+    /**
+     * Returns the number of unique transition names.
+     * @return Returns the number of unique transition names.
+     */
+    public int transitionNameCount() {
+        return transitionNames.length;
+    }
+
+    /**
+     * Returns the transition name of a transition name id.
+     * @param nameId a transition name id.
+     * @return Returns the transition name.
+     */
+    public String transitionName(int nameId) {
+        return transitionNames[nameId];
+    }
+
+    /**
+     * Returns the id of a transition name.
+     * @param name the name of a transition.
+     * @return Returns the id of a transition name or NOT_FOUND.
+     */
+    public int transitionNameId(String name) {
+        Integer nameId = transitionNameIds.get(name);
+        return nameId == null ? NOT_FOUND : nameId;
+    }
+
+    /**
+     * Returns the interned handle of a transition name.
+     * @param name the name of a transition.
+     * @return Returns the interned handle of a transition name.
+     * @throws IllegalArgumentException if no transition has the name.
+     */
+    public TransitionKey transitionKey(String name) {
+        int nameId = transitionNameId(name);
+        if (nameId == NOT_FOUND) {
+            throw new IllegalArgumentException("Transition %s is not part of the state pattern".formatted(name));
+        }
+        return transitionKeys[nameId];
+    }
+
+    /**
+     * Returns the interned handle of a transition name id.
+     * @param nameId a transition name id.
+     * @return Returns the interned handle of a transition name id.
+     */
+    public TransitionKey transitionKey(int nameId) {
+        return transitionKeys[nameId];
+    }
+
+    /**
+     * Returns the transition name id of a key. Keys resolved from another compiled state pattern are resolved by name.
+     * @param key a transition key.
+     * @return Returns the transition name id or NOT_FOUND.
+     */
+    int transitionNameId(TransitionKey key) {
+        return key.compiledPattern == this ? key.id() : transitionNameId(key.name());
+    }
+
+    /**
+     * Returns the state id of a key. Keys resolved from another compiled state pattern are resolved by state.
+     * @param key a state key.
+     * @return Returns the state id or NOT_FOUND.
+     */
+    int stateId(StateId key) {
+        return key.compiledPattern == this ? key.id() : stateId(key.state());
+    }
+
+    /**
+     * Returns the number of outgoing transitions of all states.
+     * @return Returns the number of outgoing transitions.
+     */
+    public int transitionCount() {
+        return transitions.length;
+    }
+
+    /**
+     * Returns a transition by its transition index.
+     * @param index transition index.
+     * @return Returns a transition.
+     */
+    public Transition transition(int index) {
+        Transition transition = transitions[index];
+        if (transition == null) {
+            // a pattern loaded from an archive, racing threads create equal immutable transitions.
+            transition = new Transition(transitionNames[nameIds[index]], states[fromStateIds[index]], states[toStateIds[index]],
+                    descriptions == null ? null : descriptions[index]);
+            transitions[index] = transition;
+        }
+        return transition;
+    }
+
+    /**
+     * Returns the from state id of a transition.
+     * @param index transition index.
+     * @return Returns the from state id of a transition.
+     */
+    public int fromStateId(int index) {
+        return fromStateIds[index];
+    }
+
+    /**
+     * Returns the to state id of a transition.
+     * @param index transition index.
+     * @return Returns the to state id of a transition.
+     */
+    public int toStateId(int index) {
+        return toStateIds[index];
+    }
+
+    /**
+     * Returns the transition name id of a transition.
+     * @param index transition index.
+     * @return Returns the transition name id of a transition.
+     */
+    public int nameId(int index) {
+        return nameIds[index];
+    }
+
+    /**
+     * Returns the index of the initial transition.
+     * @return Returns the index of the initial transition or NOT_FOUND when the state pattern has no initial transition.
+     */
+    public int initialTransition() {
+        return initialTransition;
+    }
+
+    /**
+     * Returns the index of the outgoing transition of a state by its transition name id.
+     * @param stateId the from state id.
+     * @param nameId the transition name id.
+     * @return Returns the transition index or NOT_FOUND if the state does not have the outgoing transition.
+     */
+    public int transitionIndex(int stateId, int nameId) {
+        if (stateId < 0 || nameId < 0 || stateId >= states.length) {
+            return NOT_FOUND;
+        }
+        if (table != null) {
+            return table[stateId * transitionNames.length + nameId];
+        }
+        int low = rowOffsets[stateId];
+        int high = rowOffsets[stateId + 1] - 1;
+        while (low <= high) {
+            int mid = (low + high) >>> 1;
+            int midNameId = rowNameIds[mid];
+            if (midNameId < nameId) {
+                low = mid + 1;
+            } else if (midNameId > nameId) {
+                high = mid - 1;
+            } else {
+                return rowTransitions[mid];
+            }
+        }
+        return NOT_FOUND;
+    }
+
+    /**
+     * Returns the index of the outgoing transition of a state by its transition name id whose guard accepts the input.
+     * Transitions sharing a from state and name are tried in the order they were defined, the first transition without
+     * a guard or with a guard accepting the input is chosen. State patterns without guards skip guard evaluation.
+     * @param stateId the from state id.
+     * @param nameId the transition name id.
+     * @param input the input passed to the transition, may be null.
+     * @return Returns the transition index or NOT_FOUND if the state does not have an outgoing transition accepting the input.
+     */
+    public int transitionIndex(int stateId, int nameId, Object input) {
+        int index = transitionIndex(stateId, nameId);
+        if (guards == null) {
+            return index;
+        }
+        while (index != NOT_FOUND) {
+            Predicate<Object> guard = guards[index];
+            if (guard == null || guard.test(input)) {
+                return index;
+            }
+            index = alternatives[index];
+        }
+        return NOT_FOUND;
+    }
+
+    /**
+     * Returns true when at least one transition has a guard.
+     * @return Returns true when at least one transition has a guard.
+     */
+    public boolean hasGuards() {
+        return guards != null;
+    }
+
+    /**
+     * Returns the next transition sharing the from state and name of a transition.
+     * @param index a transition index.
+     * @return Returns the index of the next alternative transition or NOT_FOUND.
+     */
+    public int alternativeTransition(int index) {
+        return alternatives == null ? NOT_FOUND : alternatives[index];
+    }
+
+    /**
+     * Returns the next state id when transitioning from a state by its transition name id.
+     * @param stateId the from state id.
+     * @param nameId the transition name id.
+     * @return Returns the to state id or NOT_FOUND if the state does not have the outgoing transition.
+     */
+    public int nextStateId(int stateId, int nameId) {
+        int index = transitionIndex(stateId, nameId);
+        return index == NOT_FOUND ? NOT_FOUND : toStateIds[index];
+    }
+
+    /**
+     * Returns an unmodifiable list of outgoing transitions of a state.
+     * @param stateId the from state id.
+     * @return Returns an unmodifiable list of outgoing transitions.
+     */
+    public List<Transition> outgoingTransitions(int stateId) {
+        if (stateId < 0 || stateId >= states.length) {
+            return Collections.emptyList();
+        }
+        List<Transition> transitionList = outgoing[stateId];
+        if (transitionList == null) {
+            Transition[] row = new Transition[outgoingOffsets[stateId + 1] - outgoingOffsets[stateId]];
+            for (int i = 0; i < row.length; i++) {
+                row[i] = transition(outgoingOffsets[stateId] + i);
+            }
+            transitionList = Collections.unmodifiableList(Arrays.asList(row));
+            outgoing[stateId] = transitionList;
+        }
+        return transitionList;
+    }
+
+    /**
+     * Returns the state entered when transitioning to a state. A parent state enters its initial substate.
+     * @param stateId a state id.
+     * @return Returns the id of the state entered.
+     */
+    public int entryStateId(int stateId) {
+        return stateId < 0 || stateId >= states.length ? stateId : entryStateIds[stateId];
+    }
+
+    /**
+     * Returns true when a transition targets a history pseudo state. Each state machine then keeps
+     * the substate it was last in for the parent states with history.
+     * @return Returns true when a transition targets a history pseudo state.
+     */
+    public boolean hasHistory() {
+        return historySlots != null;
+    }
+
+    /**
+     * Returns the number of parent states with history.
+     * @return Returns the number of history slots.
+     */
+    public int historySlotCount() {
+        return historyDefaults == null ? 0 : historyDefaults.length;
+    }
+
+    /**
+     * Returns the history of a state machine that has not entered any parent state with history yet.
+     * @return Returns an array of NOT_FOUND for each history slot, empty without history states.
+     */
+    public int[] newHistory() {
+        int[] history = new int[historySlotCount()];
+        Arrays.fill(history, NOT_FOUND);
+        return history;
+    }
+
+    /**
+     * Resolves a state entered by a transition and records it in the history of its parents.
+     * Without history states the state id is returned unchanged.
+     * @param stateId the to state id of a transition, possibly a history pseudo state.
+     * @param history the state machine's last substate of each history slot, NOT_FOUND when never entered.
+     * @return Returns the state id entered.
+     */
+    public int enter(int stateId, int[] history) {
+        return enter(stateId, history, 0);
+    }
+
+    /**
+     * Resolves a state entered by a transition and records it in a history stored at an offset, e.g. one of
+     * many entities' histories stored in one array.
+     * @param stateId the to state id of a transition, possibly a history pseudo state.
+     * @param history the histories, NOT_FOUND when never entered.
+     * @param offset the index of the first history slot.
+     * @return Returns the state id entered.
+     */
+    int enter(int stateId, int[] history, int offset) {
+        if (historySlots == null) {
+            return stateId;
+        }
+        int slot = historySlots[stateId];
+        if (slot != NOT_FOUND) {
+            stateId = history[offset + slot] == NOT_FOUND ? historyDefaults[slot] : history[offset + slot];
+        }
+        for (int record : historyRecords[stateId]) {
+            history[offset + record] = stateId;
+        }
+        return stateId;
+    }
+
+    /**
+     * Returns true when a state has a timed transition.
+     * @return Returns true when a state has a timed transition.
+     */
+    public boolean hasTimers() {
+        return timerDelays != null;
+    }
+
+    /**
+     * Returns the delay of a state's timed transition.
+     * @param stateId a state id.
+     * @return Returns the delay in nanoseconds or 0 when the state has no timed transition.
+     */
+    public long timerDelayNanos(int stateId) {
+        return timerDelays == null || stateId < 0 || stateId >= states.length ? 0 : timerDelays[stateId];
+    }
+
+    /**
+     * Returns the transition name id fired by a state's timed transition.
+     * @param stateId a state id.
+     * @return Returns the transition name id or NOT_FOUND when the state has no timed transition.
+     */
+    public int timerNameId(int stateId) {
+        return timerNameIds == null || stateId < 0 || stateId >= states.length ? NOT_FOUND : timerNameIds[stateId];
+    }
+
+    /**
+     * Returns the dense table, null when the table is sparse. Used by PatternArchive.
+     * @return Returns the dense table or null.
+     */
+    int[] denseTable() {
+        return table;
+    }
+
+    /**
+     * Returns the row offsets of the sparse table, null when the table is dense. Used by PatternArchive.
+     * @return Returns the row offsets or null.
+     */
+    int[] rowOffsets() {
+        return rowOffsets;
+    }
+
+    /**
+     * Returns the sorted name ids of the sparse table rows, null when the table is dense. Used by PatternArchive.
+     * @return Returns the row name ids or null.
+     */
+    int[] rowNameIds() {
+        return rowNameIds;
+    }
+
+    /**
+     * Returns the transition indexes of the sparse table rows, null when the table is dense. Used by PatternArchive.
+     * @return Returns the row transition indexes or null.
+     */
+    int[] rowTransitions() {
+        return rowTransitions;
+    }
+
+    /**
+     * Returns a 64-bit fingerprint (FNV-1a) of the state names, transition names and the ids assigned to them.
+     * Two compiled state patterns with the same fingerprint assign the same ids, so ids written by one
+     * (e.g. a journal or snapshot file) can be read by the other.
+     * @return Returns the fingerprint of this compiled state pattern.
+     */
+    public long fingerprint() {
+        long hash = fingerprint;
+        if (hash == 0) {
+            hash = 0xcbf29ce484222325L;
+            hash = fnv(hash, states.length);
+            for (State state : states) {
+                hash = fnv(hash, state.getName());
+            }
+            hash = fnv(hash, transitions.length);
+            for (int i = 0; i < transitions.length; i++) {
+                hash = fnv(hash, transitionNames[nameIds[i]]);
+                hash = fnv(hash, fromStateIds[i]);
+                hash = fnv(hash, toStateIds[i]);
+            }
+            if (hash == 0) {
+                hash = 1;
+            }
+            fingerprint = hash;
+        }
+        return hash;
+    }
+
+    private static long fnv(long hash, int value) {
+        for (int shift = 0; shift < 32; shift += 8) {
+            hash = (hash ^ ((value >>> shift) & 0xff)) * 0x100000001b3L;
+        }
+        return hash;
+    }
+
+    private static long fnv(long hash, String value) {
+        hash = fnv(hash, value.length());
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            hash = (hash ^ (c & 0xff)) * 0x100000001b3L;
+            hash = (hash ^ (c >>> 8)) * 0x100000001b3L;
+        }
+        return hash;
+    }
+
+    @Override
+    public String toString() {
+        return "CompiledStatePattern{" +
+                "states=" + states.length +
+                ", transitionNames=" + transitionNames.length +
+                ", transitions=" + transitions.length +
+                ", dense=" + (table != null) +
+                '}';
+    }
+}
@@ -0,0 +1,40 @@
+/*
+ * SPDX-License-Identifier: Apache-2.0
+ *
+ * Copyright © 2024. Carl Dea.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.carlfx.axonic;
+
+import java.util.List;
+import java.util.stream.Collectors;
+
+/**
+ * The state of an OrthogonalStateMachine, the current state of each region in region order.
+ * @param states the current state of each region.
+ */
+public record CompositeState(List<State> states) implements State {
+    /**
+     * Creates a composite state of an immutable copy of the states.
+     * @param states the current state of each region.
+     */
+    public CompositeState {
+        states = List.copyOf(states);
+    }
+
+    @Override
+    public String getName() {
+        return states.stream().map(State::getName).collect(Collectors.joining(", ", "(", ")"));
+    }
+}
@@ -0,0 +1,437 @@
+/*
+ * SPDX-License-Identifier: Apache-2.0
+ *
+ * Copyright © 2024. Carl Dea.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.carlfx.axonic;
+
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.BiConsumer;
+
+import static org.carlfx.axonic.StateEnum.INITIAL;
+import static org.carlfx.axonic.StateEnum.INVALID;
+import static org.carlfx.axonic.StateEnum.STOP;
+
+/**
+ * A thread safe, lock free state machine. The previous state, current state and current transition are kept
+ * together in one immutable snapshot that is replaced with a compare-and-set.
+ * <pre>
+ *     Semantics for concurrent events:
+ *     1. Each transition is atomic and takes effect at its compare-and-set. All transitions form one
+ *        total order (linearizable) consistent with the state pattern.
+ *     2. An event is evaluated against the state current at its compare-and-set. When another thread
+ *        moved the state machine first the event is re-evaluated against the new state.
+ *     3. An event not valid at that moment moves to the INVALID state (t, tryTransition) or invokes the
+ *        invalid code block leaving the state unchanged (tOrElse).
+ *     4. when() code blocks run on the calling thread after the new state is published. Code blocks of
+ *        concurrent transitions may run in parallel and in any order.
+ * </pre>
+ * A valid transition does not allocate, the snapshot of every outgoing transition is created up front. When the
+ * state pattern has history states each snapshot carries its own copy of the history and a transition allocates one.
+ * The state machine uses the compiled state pattern of its definition even if the state pattern is changed later.
+ */
+public class ConcurrentStateMachine implements FSM {
+
+    /**
+     * An immutable view of the state machine's state.
+     * @param previousState The previous state.
+     * @param currentState The current state.
+     * @param currentTransition The transition into the current state.
+     * @param currentStateId The current state's id within the compiled state pattern.
+     * @param history The substate last entered within each parent state with history, null without history states.
+     *                It is never changed once the snapshot is published.
+     */
+    public record Snapshot(State previousState, State currentState, Transition currentTransition, int currentStateId, int[] history) {
+        /**
+         * Creates a snapshot of a state pattern without history states.
+         * @param previousState The previous state.
+         * @param currentState The current state.
+         * @param currentTransition The transition into the current state.
+         * @param currentStateId The current state's id within the compiled state pattern.
+         */
+        public Snapshot(State previousState, State currentState, Transition currentTransition, int currentStateId) {
+            this(previousState, currentState, currentTransition, currentStateId, null);
+        }
+
+        /**
+         * Returns the substate last entered within each parent state with history, see StateMachine.history().
+         * @return Returns a copy of the history, null without history states.
+         */
+        @Override
+        public int[] history() {
+            return history == null ? null : history.clone();
+        }
+    }
+
+    private final String name;
+    private final CompiledStatePattern compiledPattern;
+    private volatile StateMachineDefinition definition;
+    private final AtomicReference<Snapshot> snapshot;
+    // the snapshot after each outgoing transition indexed by transition index.
+    private final Snapshot[] moveSnapshots;
+
+    private ConcurrentStateMachine(String name, StateMachineDefinition definition) {
+        this.name = name;
+        this.definition = definition;
+        this.compiledPattern = definition.compiledPattern();
+        int initialTransition = compiledPattern.initialTransition();
+        if (initialTransition == CompiledStatePattern.NOT_FOUND) {
+            throw new RuntimeException("StatePattern does not contain an initial transition. Try calling state pattern's .initial(state)");
+        }
+        this.moveSnapshots = new Snapshot[compiledPattern.transitionCount()];
+        for (int i = 0; i < moveSnapshots.length; i++) {
+            Transition transition = compiledPattern.transition(i);
+            moveSnapshots[i] = new Snapshot(compiledPattern.state(compiledPattern.fromStateId(i)),
+                    transition.toState(), transition, compiledPattern.toStateId(i));
+        }
+        Snapshot initial = moveSnapshots[initialTransition];
+        if (compiledPattern.hasHistory()) {
+            int[] history = compiledPattern.newHistory();
+            int stateId = compiledPattern.enter(initial.currentStateId(), history);
+            initial = new Snapshot(INITIAL, compiledPattern.state(stateId), initial.currentTransition(), stateId, history);
+        }
+        this.snapshot = new AtomicReference<>(initial);
+    }
+
+    /**
+     * Returns the snapshot after moving along an outgoing transition of the current snapshot.
+     * @param current the current snapshot.
+     * @param index the transition index.
+     * @return Returns the next snapshot.
+     */
+    private Snapshot moved(Snapshot current, int index) {
+        if (current.history == null) {
+            return moveSnapshots[index];
+        }
+        int[] history = current.history.clone();
+        int toStateId = compiledPattern.enter(compiledPattern.toStateId(index), history);
+        return new Snapshot(moveSnapshots[index].previousState(), compiledPattern.state(toStateId),
+                compiledPattern.transition(index), toStateId, history);
+    }
+
+    /**
+     * Factory function to create a thread safe state machine sharing a machine definition.
+     * @param name Name of the state machine.
+     * @param definition A machine definition.
+     * @return Returns a ConcurrentStateMachine instance.
+     */
+    public static ConcurrentStateMachine create(String name, StateMachineDefinition definition) {
+        return new ConcurrentStateMachine(name, definition);
+    }
+
+    /**
+     * Factory function to create a thread safe state machine given a state pattern.
+     * @param name Name of the state machine.
+     * @param statePattern State pattern defined.
+     * @return Returns a ConcurrentStateMachine instance.
+     */
+    public static ConcurrentStateMachine create(String name, StatePattern statePattern) {
+        return new ConcurrentStateMachine(name, StateMachineDefinition.create(name, statePattern));
+    }
+
+    /**
+     * The name of the state machine
+     * @return name of state machine
+     */
+    public String getName() {
+        if (name == null) {
+            return super.toString();
+        }
+        return name;
+    }
+
+    /**
+     * Returns the machine definition.
+     * @return Returns the machine definition.
+     */
+    public StateMachineDefinition getDefinition() {
+        return definition;
+    }
+
+    /**
+     * Returns a consistent view of the previous state, current state and current transition.
+     * @return Returns the current snapshot.
+     */
+    public Snapshot snapshot() {
+        return snapshot.get();
+    }
+
+    @Override
+    public FSM initial(State state) {
+        int initialTransition = compiledPattern.initialTransition();
+        int stateId = compiledPattern.entryStateId(compiledPattern.stateId(state));
+        if (compiledPattern.hasHistory()) {
+            // enters the state with the history of the snapshot replaced.
+            Snapshot current;
+            Snapshot next;
+            do {
+                current = snapshot.get();
+                int[] history = current.history.clone();
+                int enteredId = stateId == CompiledStatePattern.NOT_FOUND ? stateId : compiledPattern.enter(stateId, history);
+                State entered = enteredId == CompiledStatePattern.NOT_FOUND ? state : compiledPattern.state(enteredId);
+                Transition transition = compiledPattern.toStateId(initialTransition) == enteredId
+                        ? compiledPattern.transition(initialTransition)
+                        : new Transition(INITIAL.name.toLowerCase(), INITIAL, entered);
+                next = new Snapshot(INITIAL, entered, transition, enteredId, history);
+            } while (!snapshot.compareAndSet(current, next));
+            return this;
+        }
+        if (stateId != CompiledStatePattern.NOT_FOUND) {
+            state = compiledPattern.state(stateId);
+        }
+        if (compiledPattern.toStateId(initialTransition) == stateId) {
+            snapshot.set(moveSnapshots[initialTransition]);
+        } else {
+            snapshot.set(new Snapshot(INITIAL, state, new Transition(INITIAL.name.toLowerCase(), INITIAL, state), stateId));
+        }
+        return this;
+    }
+
+    @Override
+    public FSM t(String transition) {
+        tryTransition(transition, null);
+        return this;
+    }
+
+    @Override
+    public <T> FSM t(String transition, T input) {
+        tryTransition(transition, input);
+        return this;
+    }
+
+    @Override
+    public <T> FSM t(TransitionKey transition, T input) {
+        tryTransition(transition, input);
+        return this;
+    }
+
+    @Override
+    public <T> TransitionResult tryTransition(String transition, T input) {
+        return tryTransition(compiledPattern.transitionNameId(transition), input);
+    }
+
+    @Override
+    public <T> TransitionResult tryTransition(TransitionKey transition, T input) {
+        return tryTransition(compiledPattern.transitionNameId(transition), input);
+    }
+
+    private TransitionResult tryTransition(int nameId, Object input) {
+        int invalidStateId = compiledPattern.invalidStateId();
+        while (true) {
+            Snapshot current = snapshot.get();
+            int index = compiledPattern.transitionIndex(current.currentStateId(), nameId, input);
+            if (index == CompiledStatePattern.NOT_FOUND) {
+                if (current.currentStateId() == invalidStateId) {
+                    return TransitionResult.INVALID;
+                }
+                // don't set previous so caller can recover.
+                Snapshot invalid = new Snapshot(current.previousState(), INVALID, current.currentTransition(), invalidStateId,
+                        current.history);
+                if (snapshot.compareAndSet(current, invalid)) {
+                    return TransitionResult.INVALID;
+                }
+            } else {
+                Snapshot next = moved(current, index);
+                if (snapshot.compareAndSet(current, next)) {
+                    return encountered(index, next.currentStateId(), input);
+                }
+            }
+        }
+    }
+
+    /**
+     * Moves only if the transition is valid at the moment of the compare-and-set.
+     * @param nameId transition name id.
+     * @param input the input passed to code blocks.
+     * @return Returns the transition index moved along or NOT_FOUND when the transition is not valid.
+     */
+    private int tryMove(int nameId, Object input) {
+        while (true) {
+            Snapshot current = snapshot.get();
+            int index = compiledPattern.transitionIndex(current.currentStateId(), nameId, input);
+            if (index == CompiledStatePattern.NOT_FOUND) {
+                return CompiledStatePattern.NOT_FOUND;
+            }
+            Snapshot next = moved(current, index);
+            if (snapshot.compareAndSet(current, next)) {
+                encountered(index, next.currentStateId(), input);
+                return index;
+            }
+        }
+    }
+
+    /**
+     * Invokes the code blocks of the state just entered.
+     * @param index the transition index.
+     * @param toStateId the id of the state entered.
+     * @param input the input passed to code blocks. If null the transition name is used.
+     * @return Returns MOVED or STOPPED.
+     */
+    private TransitionResult encountered(int index, int toStateId, Object input) {
+        StateMachineDefinition definition = this.definition;
+        for (Runnable runnable : definition.codeBlocks(toStateId)) {
+            runnable.run();
+        }
+        InputTransition<Transition, Object>[] transitionInputConsumers = definition.inputCodeBlocks(toStateId);
+        if (transitionInputConsumers.length > 0) {
+            Transition t = compiledPattern.transition(index);
+            // use the transition name as input
+            Object value = input == null ? t.name() : input;
+            for (InputTransition<Transition, Object> inputStateConsumer : transitionInputConsumers) {
+                inputStateConsumer.accept(t, value);
+            }
+        }
+        return compiledPattern.state(toStateId) == STOP ? TransitionResult.STOPPED : TransitionResult.MOVED;
+    }
+
+    @Override
+    public BatchResult applyAll(List<String> transitions, BatchMode mode) {
+        int[] nameIds = new int[transitions.size()];
+        for (int i = 0; i < nameIds.length; i++) {
+            nameIds[i] = compiledPattern.transitionNameId(transitions.get(i));
+        }
+        return applyAll(nameIds, mode);
+    }
+
+    @Override
+    public BatchResult applyAll(TransitionKey[] transitions, BatchMode mode) {
+        int[] nameIds = new int[transitions.length];
+        for (int i = 0; i < nameIds.length; i++) {
+            nameIds[i] = compiledPattern.transitionNameId(transitions[i]);
+        }
+        return applyAll(nameIds, mode);
+    }
+
+    /**
+     * Applies a sequence of transitions. In SEQUENTIAL mode each transition is a separate compare-and-set
+     * so transitions of other threads may be interleaved. In ATOMIC mode the whole sequence is one
+     * compare-and-set from the state it was validated against.
+     */
+    private BatchResult applyAll(int[] nameIds, BatchMode mode) {
+        if (nameIds.length == 0) {
+            return new BatchResult(TransitionResult.of(currentState()), 0, -1);
+        }
+        if (mode == BatchMode.SEQUENTIAL) {
+            TransitionResult result = null;
+            for (int i = 0; i < nameIds.length; i++) {
+                result = tryTransition(nameIds[i], null);
+                if (result == TransitionResult.INVALID) {
+                    return new BatchResult(result, i, i);
+                }
+            }
+            return new BatchResult(result, nameIds.length, -1);
+        }
+        // the transitions chosen by the validation, so guards are evaluated once for each attempt.
+        int[] indexes = new int[nameIds.length];
+        // the states entered along the way, their ids depend on the history.
+        int[] stateIds = new int[nameIds.length];
+        while (true) {
+            Snapshot current = snapshot.get();
+            int[] history = current.history == null ? null : current.history.clone();
+            // validate the whole sequence before anything changes.
+            int stateId = current.currentStateId();
+            int index = CompiledStatePattern.NOT_FOUND;
+            for (int i = 0; i < nameIds.length; i++) {
+                index = compiledPattern.transitionIndex(stateId, nameIds[i], null);
+                if (index == CompiledStatePattern.NOT_FOUND) {
+                    return new BatchResult(TransitionResult.INVALID, 0, i);
+                }
+                stateId = compiledPattern.toStateId(index);
+                if (history != null) {
+                    stateId = compiledPattern.enter(stateId, history);
+                }
+                indexes[i] = index;
+                stateIds[i] = stateId;
+            }
+            Snapshot next = history == null ? moveSnapshots[index] : new Snapshot(moveSnapshots[index].previousState(),
+                    compiledPattern.state(stateId), compiledPattern.transition(index), stateId, history);
+            if (snapshot.compareAndSet(current, next)) {
+                // run the deferred code blocks of each state along the way.
+                TransitionResult result = null;
+                for (int i = 0; i < indexes.length; i++) {
+                    result = encountered(indexes[i], stateIds[i], null);
+                }
+                return new BatchResult(result, nameIds.length, -1);
+            }
+        }
+    }
+
+    @Override
+    public FSM tOrElse(String transition, Runnable invalid) {
+        if (tryMove(compiledPattern.transitionNameId(transition), null) == CompiledStatePattern.NOT_FOUND) {
+            invalid.run();
+        }
+        return this;
+    }
+
+    @Override
+    public <T> FSM tOrElse(String transition, T input, BiConsumer<String, T> invalid) {
+        if (tryMove(compiledPattern.transitionNameId(transition), input) == CompiledStatePattern.NOT_FOUND) {
+            invalid.accept(transition, input);
+        }
+        return this;
+    }
+
+    @Override
+    public Transition currentTransition() {
+        return snapshot.get().currentTransition();
+    }
+
+    @Override
+    public Optional<Transition> lookupNextTransition(String transitionName) {
+        int index = compiledPattern.transitionIndex(snapshot.get().currentStateId(), compiledPattern.transitionNameId(transitionName));
+        return index == CompiledStatePattern.NOT_FOUND ? Optional.empty() : Optional.of(compiledPattern.transition(index));
+    }
+
+    @Override
+    public Optional<Transition> lookupNextTransition(String transitionName, Object input) {
+        int index = compiledPattern.transitionIndex(snapshot.get().currentStateId(), compiledPattern.transitionNameId(transitionName), input);
+        return index == CompiledStatePattern.NOT_FOUND ? Optional.empty() : Optional.of(compiledPattern.transition(index));
+    }
+
+    @Override
+    public List<Transition> outgoingTransitions() {
+        return compiledPattern.outgoingTransitions(snapshot.get().currentStateId());
+    }
+
+    @Override
+    public State currentState() {
+        return snapshot.get().currentState();
+    }
+
+    @Override
+    public State previousState() {
+        return snapshot.get().previousState();
+    }
+
+    @Override
+    public Optional<State> lookupStateByName(String name) {
+        return Optional.ofNullable(definition.getStatePattern().stateByName(name));
+    }
+
+    @Override
+    public synchronized <T> FSM when(State state, InputTransition<Transition, T> codeBlock) {
+        definition = definition.when(state, codeBlock);
+        return this;
+    }
+
+    @Override
+    public synchronized FSM when(State state, Runnable codeBlock) {
+        definition = definition.when(state, codeBlock);
+        return this;
+    }
+}
@@ -0,0 +1,364 @@
+/*
+ * SPDX-License-Identifier: Apache-2.0
+ *
+ * Copyright © 2024. Carl Dea.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.carlfx.axonic;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeSet;
+
+/**
+ * Writes the class file of the hidden class behind a CompiledDispatch. The class implements CompiledDispatch.Target,
+ * encounter() is a tableswitch on the state id invoking the state's code blocks one after another. Code blocks are
+ * loaded from the class data by ldc of a dynamic constant (MethodHandles.classDataAt) so the JIT treats them as
+ * constants and can inline them.
+ */
+final class DispatchClassWriter {
+    /**
+     * Methods larger than this are not compiled by the JIT (-XX:+DontCompileHugeMethods).
+     */
+    static final int HUGE_METHOD_LIMIT = 8000;
+
+    private static final String OBJECT = "java/lang/Object";
+    private static final String DISPATCH = "org/carlfx/axonic/CompiledDispatch";
+    private static final String ENCOUNTER = "(ILorg/carlfx/axonic/Transition;Ljava/lang/Object;)V";
+
+    private static final int LDC_W = 0x13, ILOAD_1 = 0x1b, ALOAD_0 = 0x2a, ALOAD_2 = 0x2c, ALOAD_3 = 0x2d;
+    private static final int TABLESWITCH = 0xaa, RETURN = 0xb1;
+    private static final int INVOKESPECIAL = 0xb7, INVOKESTATIC = 0xb8, INVOKEINTERFACE = 0xb9;
+
+    private final StateMachineDefinition definition;
+    private final List<Object> classData = new ArrayList<>();
+    private final Map<String, Integer> constants = new HashMap<>();
+    private final Bytes pool = new Bytes();
+    private int poolCount = 1;
+    private final List<Integer> bootstrapIndexes = new ArrayList<>();
+
+    DispatchClassWriter(StateMachineDefinition definition) {
+        this.definition = definition;
+    }
+
+    /**
+     * Returns the objects loaded by the class as constants, available after write().
+     * @return Returns the class data.
+     */
+    List<Object> classData() {
+        return classData;
+    }
+
+    /**
+     * Writes the class file.
+     * @param className the internal name of the class, in the package of CompiledDispatch.
+     * @return Returns the class file or null when encounter() would be larger than the JIT compiles.
+     */
+    byte[] write(String className) {
+        Code encounter = codeBlockSwitch();
+        if (encounter.size() > HUGE_METHOD_LIMIT) {
+            return null;
+        }
+        int thisClass = classRef(className);
+        int superClass = classRef(OBJECT);
+        int target = classRef(DISPATCH + "$Target");
+        int code = utf8("Code");
+        int stackMapTable = utf8("StackMapTable");
+
+        List<byte[]> methods = new ArrayList<>();
+        Code init = new Code();
+        init.u1(ALOAD_0);
+        init.u1(INVOKESPECIAL);
+        init.u2(methodRef(10, OBJECT, "<init>", "()V"));
+        init.u1(RETURN);
+        methods.add(method(utf8("<init>"), utf8("()V"), code, stackMapTable, init, 1, 1));
+
+        methods.add(method(utf8("encounter"), utf8(ENCOUNTER), code, stackMapTable, encounter, 3, 4));
+
+        int bootstrapMethods = utf8("BootstrapMethods");
+        int classDataAt = constant("H:classDataAt", () -> {
+            int ref = methodRef(10, "java/lang/invoke/MethodHandles", "classDataAt",
+                    "(Ljava/lang/invoke/MethodHandles$Lookup;Ljava/lang/String;Ljava/lang/Class;I)Ljava/lang/Object;");
+            pool.u1(15);
+            pool.u1(6); // REF_invokeStatic
+            pool.u2(ref);
+        });
+        Bytes out = new Bytes();
+        out.u4(0xCAFEBABE);
+        out.u2(0);
+        out.u2(61); // Java 17
+        out.u2(poolCount);
+        out.writeBytes(pool.toByteArray());
+        out.u2(0x0030); // final super
+        out.u2(thisClass);
+        out.u2(superClass);
+        out.u2(1);
+        out.u2(target);
+        out.u2(0); // fields
+        out.u2(methods.size());
+        methods.forEach(out::writeBytes);
+        out.u2(1);
+        out.u2(bootstrapMethods);
+        out.u4(2 + bootstrapIndexes.size() * 6);
+        out.u2(bootstrapIndexes.size());
+        for (int index : bootstrapIndexes) {
+            out.u2(classDataAt);
+            out.u2(1);
+            out.u2(index);
+        }
+        return out.toByteArray();
+    }
+
+    /**
+     * iload_1, tableswitch on the state id, each state invokes its code blocks, runnables first.
+     */
+    private Code codeBlockSwitch() {
+        int stateCount = definition.compiledPattern().stateCount();
+        Code code = new Code();
+        code.u1(ILOAD_1);
+        int[] stateSlots = code.tableSwitch(stateCount);
+        int none = code.label();
+        code.u1(RETURN);
+        code.patch(stateSlots[0], none);
+        for (int stateId = 0; stateId < stateCount; stateId++) {
+            Runnable[] runnables = definition.codeBlocks(stateId);
+            InputTransition<Transition, Object>[] inputCodeBlocks = definition.inputCodeBlocks(stateId);
+            if (runnables.length == 0 && inputCodeBlocks.length == 0) {
+                code.patch(stateSlots[stateId + 1], none);
+                continue;
+            }
+            code.patch(stateSlots[stateId + 1], code.label());
+            for (Runnable runnable : runnables) {
+                code.u1(LDC_W);
+                code.u2(classDataConstant(addClassData(runnable)));
+                code.u1(INVOKEINTERFACE);
+                code.u2(methodRef(11, "java/lang/Runnable", "run", "()V"));
+                code.u1(1);
+                code.u1(0);
+            }
+            for (InputTransition<Transition, Object> inputCodeBlock : inputCodeBlocks) {
+                code.u1(LDC_W);
+                code.u2(classDataConstant(addClassData(inputCodeBlock)));
+                code.u1(ALOAD_2);
+                code.u1(ALOAD_3);
+                code.u1(INVOKESTATIC);
+                code.u2(methodRef(10, DISPATCH, "accept", "(Lorg/carlfx/axonic/InputTransition;Lorg/carlfx/axonic/Transition;Ljava/lang/Object;)V"));
+            }
+            code.u1(RETURN);
+        }
+        return code;
+    }
+
+    private int addClassData(Object value) {
+        classData.add(value);
+        return classData.size() - 1;
+    }
+
+    private byte[] method(int name, int descriptor, int codeName, int stackMapTable, Code code, int maxStack, int maxLocals) {
+        byte[] frames = code.stackMapFrames();
+        Bytes out = new Bytes();
+        out.u2(0x0001); // public
+        out.u2(name);
+        out.u2(descriptor);
+        out.u2(1);
+        out.u2(codeName);
+        out.u4(12 + code.size() + (frames == null ? 0 : 6 + frames.length));
+        out.u2(maxStack);
+        out.u2(maxLocals);
+        out.u4(code.size());
+        out.writeBytes(code.toByteArray());
+        out.u2(0); // exception table
+        if (frames == null) {
+            out.u2(0);
+        } else {
+            out.u2(1);
+            out.u2(stackMapTable);
+            out.u4(frames.length);
+            out.writeBytes(frames);
+        }
+        return out.toByteArray();
+    }
+
+    // constant pool entries, each added once.
+
+    private int constant(String key, Runnable writer) {
+        Integer index = constants.get(key);
+        if (index == null) {
+            // the writer may add the entries it refers to first.
+            writer.run();
+            index = poolCount++;
+            constants.put(key, index);
+        }
+        return index;
+    }
+
+    private int utf8(String value) {
+        return constant("U:" + value, () -> {
+            pool.u1(1);
+            pool.utf(value);
+        });
+    }
+
+    private int classRef(String internalName) {
+        int name = utf8(internalName);
+        return constant("C:" + internalName, () -> {
+            pool.u1(7);
+            pool.u2(name);
+        });
+    }
+
+    private int nameAndType(String name, String descriptor) {
+        int nameIndex = utf8(name);
+        int descriptorIndex = utf8(descriptor);
+        return constant("N:" + name + ":" + descriptor, () -> {
+            pool.u1(12);
+            pool.u2(nameIndex);
+            pool.u2(descriptorIndex);
+        });
+    }
+
+    private int methodRef(int tag, String owner, String name, String descriptor) {
+        int ownerIndex = classRef(owner);
+        int nameAndType = nameAndType(name, descriptor);
+        return constant("M:" + owner + "." + name + descriptor, () -> {
+            pool.u1(tag);
+            pool.u2(ownerIndex);
+            pool.u2(nameAndType);
+        });
+    }
+
+    /**
+     * A dynamic constant loading a code block of the class data. It is typed Object as the verifier accepts
+     * any object where an interface is expected.
+     */
+    private int classDataConstant(int index) {
+        int nameAndType = nameAndType("_", "Ljava/lang/Object;");
+        int argument = constant("I:" + index, () -> {
+            pool.u1(3);
+            pool.u4(index);
+        });
+        return constant("D:" + index, () -> {
+            bootstrapIndexes.add(argument);
+            pool.u1(17);
+            pool.u2(bootstrapIndexes.size() - 1);
+            pool.u2(nameAndType);
+        });
+    }
+
+    /**
+     * A growable byte array.
+     */
+    private static class Bytes extends ByteArrayOutputStream {
+        void u1(int value) {
+            write(value);
+        }
+
+        void u2(int value) {
+            write(value >>> 8);
+            write(value);
+        }
+
+        void u4(int value) {
+            u2(value >>> 16);
+            u2(value);
+        }
+
+        void utf(String value) {
+            byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+            u2(bytes.length);
+            write(bytes, 0, bytes.length);
+        }
+    }
+
+    /**
+     * The bytecode of a method. Every branch target is a label whose frame is the method's initial frame,
+     * the locals are the parameters and the stack is empty.
+     */
+    private static final class Code extends Bytes {
+        private final TreeSet<Integer> labels = new TreeSet<>();
+        // the offset of the switch instruction each 4 byte offset slot is relative to.
+        private final Map<Integer, Integer> switchOf = new HashMap<>();
+
+        int label() {
+            labels.add(size());
+            return size();
+        }
+
+        /**
+         * Writes a tableswitch on 0 .. cases - 1.
+         * @return Returns the offset slots, the default first.
+         */
+        int[] tableSwitch(int cases) {
+            int opcode = size();
+            u1(TABLESWITCH);
+            pad();
+            int[] slots = new int[cases + 1];
+            slots[0] = slot(opcode);
+            u4(0);
+            u4(cases - 1);
+            for (int i = 0; i < cases; i++) {
+                slots[i + 1] = slot(opcode);
+            }
+            return slots;
+        }
+
+        private void pad() {
+            while (size() % 4 != 0) {
+                u1(0);
+            }
+        }
+
+        private int slot(int opcode) {
+            int slot = size();
+            switchOf.put(slot, opcode);
+            u4(0);
+            return slot;
+        }
+
+        void patch(int slot, int target) {
+            int offset = target - switchOf.get(slot);
+            buf[slot] = (byte) (offset >>> 24);
+            buf[slot + 1] = (byte) (offset >>> 16);
+            buf[slot + 2] = (byte) (offset >>> 8);
+            buf[slot + 3] = (byte) offset;
+        }
+
+        /**
+         * Returns the StackMapTable entries, same_frame for each label, or null without branches.
+         */
+        byte[] stackMapFrames() {
+            if (labels.isEmpty()) {
+                return null;
+            }
+            Bytes frames = new Bytes();
+            frames.u2(labels.size());
+            int previous = -1;
+            for (int label : labels) {
+                int delta = label - previous - 1;
+                if (delta <= 63) {
+                    frames.u1(delta); // same_frame
+                } else {
+                    frames.u1(251); // same_frame_extended
+                    frames.u2(delta);
+                }
+                previous = label;
+            }
+            return frames.toByteArray();
+        }
+    }
+}
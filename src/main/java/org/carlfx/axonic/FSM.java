@@ -19,6 +19,7 @@ package org.carlfx.axonic;
 
 import java.util.List;
 import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
 import java.util.function.BiConsumer;
 
 /**
@@ -43,6 +44,153 @@ public interface FSM {
      */
     FSM t(String transition);
 
+    /**
+     * Transitions to next state (outgoing state) using an interned transition key.
+     * @param transition The transition key resolved from a compiled state pattern.
+     * @return The current FSM (finite state machine) this allows method chaining.
+     */
+    default FSM t(TransitionKey transition) {
+        return t(transition.name());
+    }
+
+    /**
+     * Transitions to next state (outgoing state) using an interned transition key with an optional input.
+     * @param transition The transition key resolved from a compiled state pattern.
+     * @param input Some input data passed to next State.
+     * @return The current FSM (finite state machine) this allows method chaining.
+     * @param <T> The input object type.
+     */
+    default <T> FSM t(TransitionKey transition, T input) {
+        return t(transition.name(), input);
+    }
+
+    /**
+     * Transitions to next state (outgoing state) returning the outcome instead of the state machine.
+     * Implementations should look up the transition once and not allocate on this path.
+     * @param transition The transition name.
+     * @param input Some input data passed to next State. If input is null the name is used.
+     * @return Returns MOVED, STOPPED or INVALID. When INVALID the current state becomes the INVALID state.
+     * @param <T> The input object type.
+     */
+    default <T> TransitionResult tryTransition(String transition, T input) {
+        t(transition, input);
+        return TransitionResult.of(currentState());
+    }
+
+    /**
+     * Transitions to next state (outgoing state) returning the outcome instead of the state machine.
+     * @param transition The transition name.
+     * @return Returns MOVED, STOPPED or INVALID. When INVALID the current state becomes the INVALID state.
+     */
+    default TransitionResult tryTransition(String transition) {
+        return tryTransition(transition, null);
+    }
+
+    /**
+     * Transitions to next state (outgoing state) by an interned transition key returning the outcome.
+     * @param transition The transition key resolved from a compiled state pattern.
+     * @param input Some input data passed to next State. If input is null the name is used.
+     * @return Returns MOVED, STOPPED or INVALID. When INVALID the current state becomes the INVALID state.
+     * @param <T> The input object type.
+     */
+    default <T> TransitionResult tryTransition(TransitionKey transition, T input) {
+        t(transition, input);
+        return TransitionResult.of(currentState());
+    }
+
+    /**
+     * Transitions to next state (outgoing state) by an interned transition key returning the outcome.
+     * @param transition The transition key resolved from a compiled state pattern.
+     * @return Returns MOVED, STOPPED or INVALID. When INVALID the current state becomes the INVALID state.
+     */
+    default TransitionResult tryTransition(TransitionKey transition) {
+        return tryTransition(transition, null);
+    }
+
+    /**
+     * Transitions to next state returning a future completed when the code blocks of the next state finish.
+     * State machines running code blocks synchronously return a completed future.
+     * @param transition The name of the transition.
+     * @param input Some input data passed to next State. If input is null the name is used.
+     * @return Returns a future of MOVED, STOPPED or INVALID.
+     * @param <T> The input object type.
+     */
+    default <T> CompletableFuture<TransitionResult> tAsync(String transition, T input) {
+        return CompletableFuture.completedFuture(tryTransition(transition, input));
+    }
+
+    /**
+     * Transitions to next state returning a future completed when the code blocks of the next state finish.
+     * @param transition The name of the transition.
+     * @return Returns a future of MOVED, STOPPED or INVALID.
+     */
+    default CompletableFuture<TransitionResult> tAsync(String transition) {
+        return tAsync(transition, null);
+    }
+
+    /**
+     * Transitions to next state by an interned transition key returning a future completed when the
+     * code blocks of the next state finish.
+     * @param transition The transition key resolved from a compiled state pattern.
+     * @param input Some input data passed to next State. If input is null the name is used.
+     * @return Returns a future of MOVED, STOPPED or INVALID.
+     * @param <T> The input object type.
+     */
+    default <T> CompletableFuture<TransitionResult> tAsync(TransitionKey transition, T input) {
+        return CompletableFuture.completedFuture(tryTransition(transition, input));
+    }
+
+    /**
+     * Applies a sequence of transitions one after another stopping at the first invalid transition.
+     * @param transitions The transition names in order.
+     * @return Returns the outcome of the sequence.
+     */
+    default BatchResult applyAll(List<String> transitions) {
+        return applyAll(transitions, BatchMode.SEQUENTIAL);
+    }
+
+    /**
+     * Applies a sequence of transitions.
+     * @param transitions The transition names in order.
+     * @param mode SEQUENTIAL or ATOMIC (all or nothing).
+     * @return Returns the outcome of the sequence. An empty sequence returns the outcome of the current state.
+     * @throws UnsupportedOperationException in ATOMIC mode unless the implementation validates a whole sequence.
+     */
+    default BatchResult applyAll(List<String> transitions, BatchMode mode) {
+        if (mode == BatchMode.ATOMIC) {
+            throw new UnsupportedOperationException(getClass().getSimpleName() + " does not support atomic batches");
+        }
+        TransitionResult result = TransitionResult.of(currentState());
+        for (int i = 0; i < transitions.size(); i++) {
+            result = tryTransition(transitions.get(i));
+            if (result == TransitionResult.INVALID) {
+                return new BatchResult(result, i, i);
+            }
+        }
+        return new BatchResult(result, transitions.size(), -1);
+    }
+
+    /**
+     * Applies a sequence of interned transition keys.
+     * @param transitions The transition keys in order.
+     * @param mode SEQUENTIAL or ATOMIC (all or nothing).
+     * @return Returns the outcome of the sequence. An empty sequence returns the outcome of the current state.
+     * @throws UnsupportedOperationException in ATOMIC mode unless the implementation validates a whole sequence.
+     */
+    default BatchResult applyAll(TransitionKey[] transitions, BatchMode mode) {
+        if (mode == BatchMode.ATOMIC) {
+            throw new UnsupportedOperationException(getClass().getSimpleName() + " does not support atomic batches");
+        }
+        TransitionResult result = TransitionResult.of(currentState());
+        for (int i = 0; i < transitions.length; i++) {
+            result = tryTransition(transitions[i]);
+            if (result == TransitionResult.INVALID) {
+                return new BatchResult(result, i, i);
+            }
+        }
+        return new BatchResult(result, transitions.length, -1);
+    }
+
     /**
      * If a transition is invalid invoke code block (Runnable).
      * @param transition the name of the transition.
@@ -76,11 +224,23 @@ public interface FSM {
     Transition currentTransition();
 
     /**
-     * Returns an Optional containing a Transition instance.
+     * Returns an Optional containing a Transition instance. Guards are not evaluated, the first outgoing transition
+     * having the name is returned even when its guard rejects every input, see lookupNextTransition(String, Object).
      * @param transitionName the name of an outgoing transition name of the current state.
      * @return Returns an Optional containing a Transition instance.
      */
     Optional<Transition> lookupNextTransition(String transitionName);
+
+    /**
+     * Returns an Optional containing the outgoing transition t(transitionName, input) would move along, the first
+     * one whose guard accepts the input. The default ignores the input, for state machines without guards.
+     * @param transitionName the name of an outgoing transition name of the current state.
+     * @param input the input passed to guards.
+     * @return Returns an Optional containing a Transition instance.
+     */
+    default Optional<Transition> lookupNextTransition(String transitionName, Object input) {
+        return lookupNextTransition(transitionName);
+    }
     /**
      * Outgoing transitions.
      * @return A list of transition names.
@@ -123,4 +283,25 @@ public interface FSM {
      * @return The current FSM (finite state machine) this allows method chaining.
      */
     FSM when(State state, Runnable codeBlock);
+
+    /**
+     * When an encountered state code can get invoked. Code block will receive the called transition and the input value.
+     * @param state An interned state handle.
+     * @param codeBlock Code to be invoked when state is encountered.
+     * @return The current FSM (finite state machine) this allows method chaining.
+     * @param <T> T is the type of the input value when transitioning.
+     */
+    default <T> FSM when(StateId state, InputTransition<Transition, T> codeBlock) {
+        return when(state.state(), codeBlock);
+    }
+
+    /**
+     * When an encountered state code can get invoked.
+     * @param state An interned state handle.
+     * @param codeBlock Code to be invoked when state is encountered.
+     * @return The current FSM (finite state machine) this allows method chaining.
+     */
+    default FSM when(StateId state, Runnable codeBlock) {
+        return when(state.state(), codeBlock);
+    }
 }
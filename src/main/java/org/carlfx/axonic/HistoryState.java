@@ -0,0 +1,36 @@
+/*
+ * SPDX-License-Identifier: Apache-2.0
+ *
+ * Copyright © 2024. Carl Dea.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.carlfx.axonic;
+
+/**
+ * A history pseudo state of a parent state. A transition to it resumes the substate the state machine was last in
+ * within the parent (deep history), or the parent's initial substate when the parent was never entered.
+ * See StatePattern.history(State).
+ * @param parent the parent state.
+ */
+public record HistoryState(State parent) implements State {
+    @Override
+    public String getName() {
+        return parent.getName() + " (H)";
+    }
+
+    @Override
+    public String getDescription() {
+        return "History of " + parent.getName();
+    }
+}
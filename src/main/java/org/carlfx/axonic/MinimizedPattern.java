@@ -0,0 +1,48 @@
+/*
+ * SPDX-License-Identifier: Apache-2.0
+ *
+ * Copyright © 2024. Carl Dea.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.carlfx.axonic;
+
+import java.util.Map;
+
+/**
+ * A state pattern whose equivalent states were merged, see StatePattern.minimize().
+ * Each merged state is replaced by the first of its equivalent states, which keeps its outgoing transitions.
+ * @param statePattern the minimized state pattern.
+ * @param stateMap every state of the original state pattern mapped to the state it was merged into, itself if kept.
+ */
+public record MinimizedPattern(StatePattern statePattern, Map<State, State> stateMap) {
+
+    /**
+     * Returns the state of the minimized state pattern an original state was merged into.
+     * @param state a state of the original state pattern.
+     * @return Returns the state kept or null when the state is not part of the original state pattern.
+     */
+    public State state(State state) {
+        return stateMap.get(state);
+    }
+
+    /**
+     * Returns the number of states merged into another state.
+     * @return Returns the number of states removed.
+     */
+    public int removedCount() {
+        return (int) stateMap.entrySet().stream()
+                .filter(entry -> !entry.getKey().equals(entry.getValue()))
+                .count();
+    }
+}
@@ -0,0 +1,417 @@
+/*
+ * SPDX-License-Identifier: Apache-2.0
+ *
+ * Copyright © 2024. Carl Dea.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.carlfx.axonic;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Executor;
+import java.util.function.BiConsumer;
+
+import static org.carlfx.axonic.StateEnum.INITIAL;
+import static org.carlfx.axonic.StateEnum.INVALID;
+import static org.carlfx.axonic.StateEnum.STOP;
+
+/**
+ * A state machine of independent (orthogonal) regions, each region is a state machine of its own state pattern.
+ * An event is delivered to every region having a matching outgoing transition, regions without it are left unchanged.
+ * The current state is a CompositeState holding the current state of each region.
+ * <pre>
+ *     OrthogonalStateMachine device = OrthogonalStateMachine.create("Device", power, connectivity, job)
+ *             .executor(ForkJoinPool.commonPool());
+ *     device.t("reset");
+ * </pre>
+ * With an executor the regions matching an event step concurrently and the composite state is published after
+ * all of them finished (a join barrier). Regions with heavy code blocks can step on virtual threads on JDK 21 or later
+ * by passing {@code Executors.newVirtualThreadPerTaskExecutor()}. Like StateMachine, events should be fired by one thread at a time.
+ */
+public class OrthogonalStateMachine implements FSM {
+    private final String name;
+    private final StateMachine[] regions;
+    private final List<StateMachine> regionList;
+    // when set regions matching an event step concurrently.
+    private Executor executor;
+
+    // per event scratch, the matching transition index of each region.
+    private final int[] indexes;
+
+    private volatile CompositeState currentState;
+    private volatile CompositeState previousState;
+    private volatile Transition currentTransition;
+
+    private OrthogonalStateMachine(String name, StateMachine[] regions) {
+        if (regions.length == 0) {
+            throw new IllegalArgumentException("An orthogonal state machine needs at least one region");
+        }
+        this.name = name;
+        this.regions = regions;
+        this.regionList = Collections.unmodifiableList(Arrays.asList(regions));
+        this.indexes = new int[regions.length];
+        this.currentState = compose();
+        this.previousState = new CompositeState(Collections.nCopies(regions.length, INITIAL));
+        this.currentTransition = new Transition(INITIAL.getName().toLowerCase(), previousState, currentState);
+    }
+
+    /**
+     * Factory function to create an orthogonal state machine of regions. Each region is a new instance of a definition.
+     * @param name Name of the state machine.
+     * @param regions the machine definition of each region, the definition's name is the region's name.
+     * @return Returns an OrthogonalStateMachine instance.
+     */
+    public static OrthogonalStateMachine create(String name, StateMachineDefinition... regions) {
+        StateMachine[] stateMachines = new StateMachine[regions.length];
+        for (int i = 0; i < regions.length; i++) {
+            stateMachines[i] = regions[i].newInstance(regions[i].getName());
+        }
+        return new OrthogonalStateMachine(name, stateMachines);
+    }
+
+    /**
+     * Factory function to create an orthogonal state machine of existing state machines.
+     * @param name Name of the state machine.
+     * @param regions the state machine of each region. They should only be used through this state machine afterwards.
+     * @return Returns an OrthogonalStateMachine instance.
+     */
+    public static OrthogonalStateMachine create(String name, StateMachine... regions) {
+        return new OrthogonalStateMachine(name, regions.clone());
+    }
+
+    /**
+     * The name of the state machine
+     * @return name of state machine
+     */
+    public String getName() {
+        if (name == null) {
+            return super.toString();
+        }
+        return name;
+    }
+
+    /**
+     * Steps the regions matching an event concurrently on an executor, e.g. a ForkJoinPool.
+     * @param executor an executor or null to step regions one after another on the calling thread.
+     * @return Returns this state machine.
+     */
+    public OrthogonalStateMachine executor(Executor executor) {
+        this.executor = executor;
+        return this;
+    }
+
+    /**
+     * Returns the regions in order.
+     * @return Returns an unmodifiable list of the region state machines.
+     */
+    public List<StateMachine> regions() {
+        return regionList;
+    }
+
+    /**
+     * Returns a region by name.
+     * @param regionName the region's name.
+     * @return Returns the region's state machine if found.
+     */
+    public Optional<StateMachine> region(String regionName) {
+        return regionList.stream().filter(region -> regionName.equals(region.getName())).findFirst();
+    }
+
+    private CompositeState compose() {
+        State[] states = new State[regions.length];
+        for (int i = 0; i < regions.length; i++) {
+            states[i] = regions[i].currentState();
+        }
+        return new CompositeState(Arrays.asList(states));
+    }
+
+    /**
+     * Begins the flow of the first region containing the state.
+     * @param state The state to begin flow.
+     * @return The current FSM (finite state machine) this allows method chaining.
+     */
+    @Override
+    public FSM initial(State state) {
+        for (StateMachine region : regions) {
+            if (contains(region, state)) {
+                region.initial(state);
+                publish(new Transition(INITIAL.getName().toLowerCase(), currentState, null));
+                return this;
+            }
+        }
+        throw new IllegalArgumentException("State %s is not part of any region".formatted(state));
+    }
+
+    private static boolean contains(StateMachine region, State state) {
+        return state != INITIAL && state != INVALID && state != STOP
+                && region.getStatePattern().compile().stateId(state) != CompiledStatePattern.NOT_FOUND;
+    }
+
+    @Override
+    public FSM t(String transition) {
+        tryTransition(transition, null);
+        return this;
+    }
+
+    @Override
+    public <T> FSM t(String transition, T input) {
+        tryTransition(transition, input);
+        return this;
+    }
+
+    /**
+     * Delivers an event to every region having a matching outgoing transition.
+     * @param transition The name of the transition.
+     * @param input Some input data passed to next State. If input is null the name is used.
+     * @return Returns MOVED, STOPPED when every region is in the STOP state, or INVALID when no region has
+     *         the outgoing transition. An invalid event leaves every region unchanged.
+     * @param <T> The input object type.
+     */
+    @Override
+    public <T> TransitionResult tryTransition(String transition, T input) {
+        int matched = 0;
+        int last = -1;
+        for (int i = 0; i < regions.length; i++) {
+            indexes[i] = regions[i].transitionIndexOf(transition, input);
+            if (indexes[i] != CompiledStatePattern.NOT_FOUND) {
+                matched++;
+                last = i;
+            }
+        }
+        if (matched == 0) {
+            return TransitionResult.INVALID;
+        }
+        try {
+            if (executor == null || matched == 1) {
+                for (int i = 0; i <= last; i++) {
+                    if (indexes[i] != CompiledStatePattern.NOT_FOUND) {
+                        regions[i].moveAlong(indexes[i], input);
+                    }
+                }
+            } else {
+                CompletableFuture<?>[] steps = new CompletableFuture<?>[matched];
+                int step = 0;
+                for (int i = 0; i <= last; i++) {
+                    if (indexes[i] != CompiledStatePattern.NOT_FOUND) {
+                        StateMachine region = regions[i];
+                        int index = indexes[i];
+                        steps[step++] = CompletableFuture.runAsync(() -> region.moveAlong(index, input), executor);
+                    }
+                }
+                // join barrier, the composite state is published after every region finished.
+                CompletableFuture.allOf(steps).join();
+            }
+        } catch (CompletionException e) {
+            if (e.getCause() instanceof RuntimeException runtimeException) {
+                throw runtimeException;
+            }
+            throw e;
+        } finally {
+            publish(new Transition(transition, currentState, null));
+        }
+        return moved();
+    }
+
+    /**
+     * Returns STOPPED when every region is in the STOP state, otherwise MOVED.
+     */
+    private TransitionResult moved() {
+        for (StateMachine region : regions) {
+            if (region.currentState() != STOP) {
+                return TransitionResult.MOVED;
+            }
+        }
+        return TransitionResult.STOPPED;
+    }
+
+    /**
+     * Applies a sequence of events. In ATOMIC mode every event is validated against each region's compiled
+     * state pattern before any region moves, an event no region accepts rejects the whole sequence. The regions
+     * then step on the calling thread one event after another.
+     * @param transitions The transition names in order.
+     * @param mode SEQUENTIAL or ATOMIC (all or nothing).
+     * @return Returns the outcome of the sequence. An empty sequence returns the outcome of the current state.
+     */
+    @Override
+    public BatchResult applyAll(List<String> transitions, BatchMode mode) {
+        if (mode == BatchMode.SEQUENTIAL) {
+            return FSM.super.applyAll(transitions, mode);
+        }
+        if (transitions.isEmpty()) {
+            return new BatchResult(TransitionResult.of(currentState), 0, -1);
+        }
+        // validate the whole sequence before anything changes.
+        int[][] regionIndexes = new int[regions.length][];
+        for (int i = 0; i < regions.length; i++) {
+            regionIndexes[i] = regions[i].transitionIndexesOf(transitions);
+        }
+        for (int step = 0; step < transitions.size(); step++) {
+            boolean matched = false;
+            for (int[] stepIndexes : regionIndexes) {
+                matched |= stepIndexes[step] != CompiledStatePattern.NOT_FOUND;
+            }
+            if (!matched) {
+                return new BatchResult(TransitionResult.INVALID, 0, step);
+            }
+        }
+        // the transitions chosen by the validation, so guards are evaluated once.
+        for (int step = 0; step < transitions.size(); step++) {
+            try {
+                for (int i = 0; i < regions.length; i++) {
+                    if (regionIndexes[i][step] != CompiledStatePattern.NOT_FOUND) {
+                        regions[i].moveAlong(regionIndexes[i][step], null);
+                    }
+                }
+            } finally {
+                publish(new Transition(transitions.get(step), currentState, null));
+            }
+        }
+        return new BatchResult(moved(), transitions.size(), -1);
+    }
+
+    @Override
+    public BatchResult applyAll(TransitionKey[] transitions, BatchMode mode) {
+        List<String> names = new ArrayList<>(transitions.length);
+        for (TransitionKey transition : transitions) {
+            names.add(transition.name());
+        }
+        return applyAll(names, mode);
+    }
+
+    private void publish(Transition transition) {
+        CompositeState next = compose();
+        previousState = currentState;
+        currentTransition = transition.withToState(next);
+        currentState = next;
+    }
+
+    @Override
+    public FSM tOrElse(String transition, Runnable invalid) {
+        if (tryTransition(transition, null) == TransitionResult.INVALID) {
+            invalid.run();
+        }
+        return this;
+    }
+
+    @Override
+    public <T> FSM tOrElse(String transition, T input, BiConsumer<String, T> invalid) {
+        if (tryTransition(transition, input) == TransitionResult.INVALID) {
+            invalid.accept(transition, input);
+        }
+        return this;
+    }
+
+    @Override
+    public Transition currentTransition() {
+        return currentTransition;
+    }
+
+    /**
+     * Returns the outgoing transition of the first region having it.
+     * @param transitionName transition name.
+     * @return Returns the outgoing transition of the first region having it.
+     */
+    @Override
+    public Optional<Transition> lookupNextTransition(String transitionName) {
+        for (StateMachine region : regions) {
+            Optional<Transition> transition = region.lookupNextTransition(transitionName);
+            if (transition.isPresent()) {
+                return transition;
+            }
+        }
+        return Optional.empty();
+    }
+
+    /**
+     * Returns the outgoing transition of the first region whose guard accepts the input.
+     * @param transitionName transition name.
+     * @param input the input passed to guards.
+     * @return Returns the outgoing transition of the first region accepting the input.
+     */
+    @Override
+    public Optional<Transition> lookupNextTransition(String transitionName, Object input) {
+        for (StateMachine region : regions) {
+            Optional<Transition> transition = region.lookupNextTransition(transitionName, input);
+            if (transition.isPresent()) {
+                return transition;
+            }
+        }
+        return Optional.empty();
+    }
+
+    /**
+     * Returns the outgoing transitions of every region's current state.
+     * @return Returns the outgoing transitions of every region's current state.
+     */
+    @Override
+    public List<Transition> outgoingTransitions() {
+        List<Transition> transitions = new ArrayList<>();
+        for (StateMachine region : regions) {
+            transitions.addAll(region.outgoingTransitions());
+        }
+        return transitions;
+    }
+
+    @Override
+    public State currentState() {
+        return currentState;
+    }
+
+    @Override
+    public State previousState() {
+        return previousState;
+    }
+
+    @Override
+    public Optional<State> lookupStateByName(String name) {
+        for (StateMachine region : regions) {
+            Optional<State> state = region.lookupStateByName(name);
+            if (state.isPresent()) {
+                return state;
+            }
+        }
+        return Optional.empty();
+    }
+
+    /**
+     * Adds a code block to every region containing the state.
+     */
+    @Override
+    public <T> FSM when(State state, InputTransition<Transition, T> codeBlock) {
+        for (StateMachine region : regions) {
+            if (contains(region, state)) {
+                region.when(state, codeBlock);
+            }
+        }
+        return this;
+    }
+
+    /**
+     * Adds a code block to every region containing the state.
+     */
+    @Override
+    public FSM when(State state, Runnable codeBlock) {
+        for (StateMachine region : regions) {
+            if (contains(region, state)) {
+                region.when(state, codeBlock);
+            }
+        }
+        return this;
+    }
+}
@@ -0,0 +1,333 @@
+/*
+ * SPDX-License-Identifier: Apache-2.0
+ *
+ * Copyright © 2024. Carl Dea.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.carlfx.axonic;
+
+import java.io.IOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.function.Function;
+
+import static org.carlfx.axonic.StateEnum.INITIAL;
+import static org.carlfx.axonic.StateEnum.INVALID;
+import static org.carlfx.axonic.StateEnum.STOP;
+
+/**
+ * A versioned binary file of a compiled state pattern: a string table of state and transition names, the transition id
+ * arrays and the precomputed lookup table. Loading maps the file once and bulk copies the arrays, no builder calls are made
+ * and transitions are only created when used. The file is read only so several JVMs on a host share it through the page cache.
+ * <pre>
+ *     PatternArchive.write(Path.of("turnstile.axp"), turnstilePattern.compile());
+ *     ...
+ *     CompiledStatePattern compiled = PatternArchive.load(Path.of("turnstile.axp"), TurnstileState.values());
+ *     StateMachine turnstileSM = StateMachine.create("Turnstile", StateMachineDefinition.create("Turnstile", compiled));
+ * </pre>
+ * States are stored by name and resolved to State objects when loaded. Guards (code) and history states cannot be archived.
+ * <pre>
+ * header:  int magic (AXP1), int version, long fingerprint, int flags, int state count, int transition name count,
+ *          int transition count, int initial transition, int description count
+ * strings: byte kind and name of each state, transition names, (int index, description) pairs. A string is an int length and UTF-8 bytes.
+ * arrays:  int from state ids, to state ids, name ids (by transition), int entry state ids (by state),
+ *          dense table (state x name) or sparse table (row offsets, int row size, row name ids, row transitions),
+ *          timed transitions: long delays and int name ids (by state) when the timers flag is set.
+ * </pre>
+ */
+public final class PatternArchive {
+    /**
+     * Magic number at the start of every archive, "AXP1".
+     */
+    public static final int MAGIC = 0x41585031;
+
+    /**
+     * Version of the archive layout.
+     */
+    public static final int VERSION = 1;
+
+    /**
+     * Size of the header: magic, version, fingerprint (a long), flags, state count, transition name count,
+     * transition count, initial transition and description count.
+     */
+    public static final int HEADER_SIZE = 8 * Integer.BYTES + Long.BYTES;
+
+    static final int FLAG_DENSE = 1;
+    static final int FLAG_TIMERS = 2;
+
+    // kinds of states
+    static final byte USER_STATE = 0;
+    static final byte INITIAL_STATE = 1;
+    static final byte STOP_STATE = 2;
+    static final byte INVALID_STATE = 3;
+
+    private PatternArchive() {
+    }
+
+    /**
+     * Writes a compiled state pattern to a file, replacing it.
+     * @param file the archive file.
+     * @param compiled the compiled state pattern.
+     * @throws IOException if the file cannot be written.
+     * @throws IllegalArgumentException if the state pattern has guards or history states.
+     */
+    public static void write(Path file, CompiledStatePattern compiled) throws IOException {
+        if (compiled.hasGuards()) {
+            throw new IllegalArgumentException("A state pattern with guards cannot be archived");
+        }
+        if (compiled.hasHistory()) {
+            throw new IllegalArgumentException("A state pattern with history states cannot be archived");
+        }
+        int stateCount = compiled.stateCount();
+        int nameCount = compiled.transitionNameCount();
+        int transitionCount = compiled.transitionCount();
+        byte[][] stateNames = new byte[stateCount][];
+        byte[][] names = new byte[nameCount][];
+        Map<Integer, byte[]> descriptions = new HashMap<>();
+        long size = HEADER_SIZE;
+        for (int stateId = 0; stateId < stateCount; stateId++) {
+            stateNames[stateId] = compiled.state(stateId).getName().getBytes(StandardCharsets.UTF_8);
+            size += 1 + 4 + stateNames[stateId].length;
+        }
+        for (int nameId = 0; nameId < nameCount; nameId++) {
+            names[nameId] = compiled.transitionName(nameId).getBytes(StandardCharsets.UTF_8);
+            size += 4 + names[nameId].length;
+        }
+        for (int i = 0; i < transitionCount; i++) {
+            String description = compiled.transition(i).description();
+            if (description != null) {
+                byte[] bytes = description.getBytes(StandardCharsets.UTF_8);
+                descriptions.put(i, bytes);
+                size += 8 + bytes.length;
+            }
+        }
+        int[] table = compiled.denseTable();
+        size += 4L * (3L * transitionCount + stateCount);
+        size += table != null ? 4L * table.length : 4L * (stateCount + 2 + 2L * compiled.rowNameIds().length);
+        if (compiled.hasTimers()) {
+            size += 12L * stateCount;
+        }
+
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.READ,
+                StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, size);
+            buffer.putInt(MAGIC);
+            buffer.putInt(VERSION);
+            buffer.putLong(compiled.fingerprint());
+            buffer.putInt((table != null ? FLAG_DENSE : 0) | (compiled.hasTimers() ? FLAG_TIMERS : 0));
+            buffer.putInt(stateCount);
+            buffer.putInt(nameCount);
+            buffer.putInt(transitionCount);
+            buffer.putInt(compiled.initialTransition());
+            buffer.putInt(descriptions.size());
+            for (int stateId = 0; stateId < stateCount; stateId++) {
+                buffer.put(kind(compiled.state(stateId)));
+                putString(buffer, stateNames[stateId]);
+            }
+            for (byte[] name : names) {
+                putString(buffer, name);
+            }
+            for (int i = 0; i < transitionCount; i++) {
+                byte[] description = descriptions.get(i);
+                if (description != null) {
+                    buffer.putInt(i);
+                    putString(buffer, description);
+                }
+            }
+            int[] ids = new int[transitionCount];
+            for (int i = 0; i < transitionCount; i++) {
+                ids[i] = compiled.fromStateId(i);
+            }
+            putInts(buffer, ids);
+            for (int i = 0; i < transitionCount; i++) {
+                ids[i] = compiled.toStateId(i);
+            }
+            putInts(buffer, ids);
+            for (int i = 0; i < transitionCount; i++) {
+                ids[i] = compiled.nameId(i);
+            }
+            putInts(buffer, ids);
+            int[] entryStateIds = new int[stateCount];
+            for (int stateId = 0; stateId < stateCount; stateId++) {
+                entryStateIds[stateId] = compiled.entryStateId(stateId);
+            }
+            putInts(buffer, entryStateIds);
+            if (table != null) {
+                putInts(buffer, table);
+            } else {
+                putInts(buffer, compiled.rowOffsets());
+                buffer.putInt(compiled.rowNameIds().length);
+                putInts(buffer, compiled.rowNameIds());
+                putInts(buffer, compiled.rowTransitions());
+            }
+            if (compiled.hasTimers()) {
+                for (int stateId = 0; stateId < stateCount; stateId++) {
+                    buffer.putLong(compiled.timerDelayNanos(stateId));
+                }
+                for (int stateId = 0; stateId < stateCount; stateId++) {
+                    buffer.putInt(compiled.timerNameId(stateId));
+                }
+            }
+            if (buffer.hasRemaining()) {
+                throw new IllegalStateException("Archive size " + size + " does not match the layout, " + buffer.remaining() + " bytes left");
+            }
+            buffer.force();
+        }
+    }
+
+    private static byte kind(State state) {
+        if (state == INITIAL) {
+            return INITIAL_STATE;
+        } else if (state == STOP) {
+            return STOP_STATE;
+        } else if (state == INVALID) {
+            return INVALID_STATE;
+        }
+        return USER_STATE;
+    }
+
+    private static void putString(ByteBuffer buffer, byte[] bytes) {
+        buffer.putInt(bytes.length);
+        buffer.put(bytes);
+    }
+
+    private static void putInts(ByteBuffer buffer, int[] values) {
+        buffer.asIntBuffer().put(values);
+        buffer.position(buffer.position() + 4 * values.length);
+    }
+
+    /**
+     * Loads a compiled state pattern resolving states by name.
+     * @param file the archive file.
+     * @param states the states of the state pattern, e.g. MyState.values(). The predefined states are resolved automatically.
+     * @return Returns the compiled state pattern.
+     * @throws IOException if the file cannot be read or is not an archive of a known version.
+     * @throws IllegalArgumentException if a state cannot be resolved.
+     */
+    public static CompiledStatePattern load(Path file, State... states) throws IOException {
+        Map<String, State> byName = new HashMap<>(states.length * 2);
+        for (State state : states) {
+            byName.putIfAbsent(state.getName(), state);
+        }
+        return load(file, byName::get);
+    }
+
+    /**
+     * Loads a compiled state pattern resolving states by name.
+     * @param file the archive file.
+     * @param stateResolver returns the state of a state name or null. The predefined states are resolved automatically.
+     * @return Returns the compiled state pattern.
+     * @throws IOException if the file cannot be read or is not an archive of a known version.
+     * @throws IllegalArgumentException if a state cannot be resolved.
+     */
+    public static CompiledStatePattern load(Path file, Function<String, ? extends State> stateResolver) throws IOException {
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            if (buffer.remaining() < HEADER_SIZE || buffer.getInt() != MAGIC) {
+                throw new IOException("Not a state pattern archive " + file);
+            }
+            int version = buffer.getInt();
+            if (version != VERSION) {
+                throw new IOException("Unsupported state pattern archive version " + version);
+            }
+            long fingerprint = buffer.getLong();
+            int flags = buffer.getInt();
+            int stateCount = buffer.getInt();
+            int nameCount = buffer.getInt();
+            int transitionCount = buffer.getInt();
+            int initialTransition = buffer.getInt();
+            int descriptionCount = buffer.getInt();
+
+            State[] states = new State[stateCount];
+            for (int stateId = 0; stateId < stateCount; stateId++) {
+                byte kind = buffer.get();
+                String name = getString(buffer);
+                states[stateId] = switch (kind) {
+                    case INITIAL_STATE -> INITIAL;
+                    case STOP_STATE -> STOP;
+                    case INVALID_STATE -> INVALID;
+                    default -> {
+                        State state = stateResolver.apply(name);
+                        if (state == null) {
+                            throw new IllegalArgumentException("State %s cannot be resolved".formatted(name));
+                        }
+                        yield state;
+                    }
+                };
+            }
+            String[] names = new String[nameCount];
+            for (int nameId = 0; nameId < nameCount; nameId++) {
+                names[nameId] = getString(buffer);
+            }
+            String[] descriptions = descriptionCount == 0 ? null : new String[transitionCount];
+            for (int i = 0; i < descriptionCount; i++) {
+                int index = buffer.getInt();
+                descriptions[index] = getString(buffer);
+            }
+            int[] fromStateIds = getInts(buffer, transitionCount);
+            int[] toStateIds = getInts(buffer, transitionCount);
+            int[] nameIds = getInts(buffer, transitionCount);
+            int[] entryStateIds = getInts(buffer, stateCount);
+            int[] table = null;
+            int[] rowOffsets = null;
+            int[] rowNameIds = null;
+            int[] rowTransitions = null;
+            if ((flags & FLAG_DENSE) != 0) {
+                table = getInts(buffer, stateCount * nameCount);
+            } else {
+                rowOffsets = getInts(buffer, stateCount + 1);
+                int rowSize = buffer.getInt();
+                rowNameIds = getInts(buffer, rowSize);
+                rowTransitions = getInts(buffer, rowSize);
+            }
+            long[] timerDelays = null;
+            int[] timerNameIds = null;
+            if ((flags & FLAG_TIMERS) != 0) {
+                timerDelays = new long[stateCount];
+                buffer.asLongBuffer().get(timerDelays);
+                buffer.position(buffer.position() + 8 * stateCount);
+                timerNameIds = getInts(buffer, stateCount);
+            }
+            CompiledStatePattern compiled = new CompiledStatePattern(states, names, fromStateIds, toStateIds, nameIds,
+                    descriptions, entryStateIds, timerDelays, timerNameIds,
+                    table, rowOffsets, rowNameIds, rowTransitions, initialTransition);
+            if (compiled.fingerprint() != fingerprint) {
+                throw new IOException("Corrupt state pattern archive " + file);
+            }
+            return compiled;
+        } catch (BufferUnderflowException | IndexOutOfBoundsException | NegativeArraySizeException e) {
+            throw new IOException("Corrupt state pattern archive " + file, e);
+        }
+    }
+
+    private static String getString(ByteBuffer buffer) {
+        byte[] bytes = new byte[buffer.getInt()];
+        buffer.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    private static int[] getInts(ByteBuffer buffer, int length) {
+        int[] values = new int[length];
+        buffer.asIntBuffer().get(values);
+        buffer.position(buffer.position() + 4 * length);
+        return values;
+    }
+}
@@ -0,0 +1,302 @@
+/*
+ * SPDX-License-Identifier: Apache-2.0
+ *
+ * Copyright © 2024. Carl Dea.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.carlfx.axonic;
+
+import java.util.*;
+import java.util.function.Function;
+import java.util.function.Predicate;
+
+import static org.carlfx.axonic.StateEnum.INITIAL;
+
+/**
+ * Merges the states of a state pattern having identical futures using Hopcroft's partition refinement.
+ * Two states are equivalent when they accept the same transitions (name, guard and order among transitions of the
+ * same name), lead to equivalent states, have the same timed transition and the same distinguishing key.
+ * Predefined states, history states, parent states and substates are never merged.
+ * <pre>
+ *     blocks = states grouped by key and accepted transitions
+ *     waiting = all blocks
+ *     while waiting is not empty
+ *         take a block C, for each transition letter a split every block by "moves to C on a"
+ *         a split block that was waiting waits as both halves, otherwise only the smaller half waits
+ * </pre>
+ * Each transition is looked at O(log n) times for n states.
+ */
+final class PatternMinimizer {
+    /**
+     * A transition letter, the occurrence tells apart transitions of a state sharing a name (e.g. guarded ones).
+     */
+    private record Letter(String name, Predicate<Object> guard, int occurrence) {
+    }
+
+    private final StatePattern statePattern;
+    private final Function<State, ?> distinguish;
+
+    private final List<State> states = new ArrayList<>();
+    private final Map<State, Integer> stateIds = new HashMap<>();
+    // edges of the transition graph.
+    private final List<int[]> edges = new ArrayList<>();
+
+    // partition: the states of block b are elements[first[b]] .. elements[last[b] - 1].
+    private int[] elements;
+    private int[] location;
+    private int[] blockOf;
+    private int[] first;
+    private int[] last;
+    private int[] marked;
+    private int blockCount;
+    private boolean[] waiting;
+    private final Deque<Integer> worklist = new ArrayDeque<>();
+
+    PatternMinimizer(StatePattern statePattern, Function<State, ?> distinguish) {
+        this.statePattern = statePattern;
+        this.distinguish = distinguish;
+    }
+
+    MinimizedPattern minimize() {
+        addState(INITIAL);
+        for (Transition transition : statePattern.transitions()) {
+            addState(transition.fromState());
+            addState(transition.toState());
+        }
+        for (State state : statePattern.states()) {
+            addState(state);
+        }
+        List<List<Integer>> lettersOf = letters();
+        partition(lettersOf);
+        refine();
+
+        Map<State, State> stateMap = new LinkedHashMap<>();
+        State[] kept = new State[blockCount];
+        for (int stateId = 0; stateId < states.size(); stateId++) {
+            // states are numbered in order, the first state of a block is kept.
+            int block = blockOf[stateId];
+            if (kept[block] == null) {
+                kept[block] = states.get(stateId);
+            }
+            stateMap.put(states.get(stateId), kept[block]);
+        }
+        return new MinimizedPattern(build(stateMap), stateMap);
+    }
+
+    private void addState(State state) {
+        if (state != null && !stateIds.containsKey(state)) {
+            stateIds.put(state, states.size());
+            states.add(state);
+        }
+    }
+
+    /**
+     * Numbers the transition letters and gathers the edges. Returns the sorted letters of each state.
+     */
+    private List<List<Integer>> letters() {
+        Map<Letter, Integer> letterIds = new HashMap<>();
+        List<List<Integer>> lettersOf = new ArrayList<>();
+        // target states may add states while iterating.
+        for (int stateId = 0; stateId < states.size(); stateId++) {
+            Map<String, Integer> occurrences = new HashMap<>();
+            List<Integer> letters = new ArrayList<>();
+            for (Transition transition : statePattern.outgoingTransitionsOf(states.get(stateId))) {
+                if (transition.toState() == null) {
+                    continue;
+                }
+                addState(transition.toState());
+                int occurrence = occurrences.merge(transition.name(), 1, Integer::sum);
+                Letter letter = new Letter(transition.name(), transition.guard(), occurrence);
+                int letterId = letterIds.computeIfAbsent(letter, key -> letterIds.size());
+                letters.add(letterId);
+                edges.add(new int[] {stateId, letterId, stateIds.get(transition.toState())});
+            }
+            Collections.sort(letters);
+            lettersOf.add(letters);
+        }
+        return lettersOf;
+    }
+
+    /**
+     * Creates the initial blocks, states are only merged with states having the same key and letters.
+     */
+    private void partition(List<List<Integer>> lettersOf) {
+        int stateCount = states.size();
+        elements = new int[stateCount];
+        location = new int[stateCount];
+        blockOf = new int[stateCount];
+        first = new int[stateCount];
+        last = new int[stateCount];
+        marked = new int[stateCount];
+        waiting = new boolean[stateCount];
+
+        Map<List<Object>, Integer> blockByKey = new HashMap<>();
+        int[] sizes = new int[stateCount];
+        for (int stateId = 0; stateId < stateCount; stateId++) {
+            State state = states.get(stateId);
+            int block;
+            if (isKept(state)) {
+                block = blockCount++;
+            } else {
+                List<Object> key = Arrays.asList(distinguish.apply(state), lettersOf.get(stateId), statePattern.timerOf(state));
+                block = blockByKey.computeIfAbsent(key, k -> blockCount++);
+            }
+            blockOf[stateId] = block;
+            sizes[block]++;
+        }
+        for (int block = 0, offset = 0; block < blockCount; block++) {
+            first[block] = offset;
+            last[block] = offset;
+            offset += sizes[block];
+        }
+        for (int stateId = 0; stateId < stateCount; stateId++) {
+            int block = blockOf[stateId];
+            elements[last[block]] = stateId;
+            location[stateId] = last[block]++;
+        }
+        for (int block = 0; block < blockCount; block++) {
+            waiting[block] = true;
+            worklist.add(block);
+        }
+    }
+
+    private boolean isKept(State state) {
+        return state instanceof StateEnum
+                || state instanceof HistoryState
+                || statePattern.parentOf(state) != null
+                || !statePattern.substatesOf(state).isEmpty();
+    }
+
+    private void refine() {
+        // incoming edges of each state: incomingOffsets[s] .. incomingOffsets[s + 1] index incoming.
+        int stateCount = states.size();
+        int[] incomingOffsets = new int[stateCount + 1];
+        for (int[] edge : edges) {
+            incomingOffsets[edge[2] + 1]++;
+        }
+        for (int stateId = 0; stateId < stateCount; stateId++) {
+            incomingOffsets[stateId + 1] += incomingOffsets[stateId];
+        }
+        int[] incoming = new int[edges.size()];
+        int[] fill = Arrays.copyOf(incomingOffsets, stateCount);
+        for (int i = 0; i < edges.size(); i++) {
+            incoming[fill[edges.get(i)[2]]++] = i;
+        }
+
+        long[] splitters = new long[edges.size()];
+        while (!worklist.isEmpty()) {
+            int splitter = worklist.poll();
+            waiting[splitter] = false;
+            // the (letter, from state) pairs moving into the splitter, sorted by letter.
+            int count = 0;
+            for (int i = first[splitter]; i < last[splitter]; i++) {
+                int stateId = elements[i];
+                for (int e = incomingOffsets[stateId]; e < incomingOffsets[stateId + 1]; e++) {
+                    int[] edge = edges.get(incoming[e]);
+                    splitters[count++] = (long) edge[1] << 32 | edge[0];
+                }
+            }
+            Arrays.sort(splitters, 0, count);
+            for (int start = 0; start < count; ) {
+                int end = start;
+                while (end < count && splitters[end] >>> 32 == splitters[start] >>> 32) {
+                    end++;
+                }
+                split(splitters, start, end);
+                start = end;
+            }
+        }
+    }
+
+    /**
+     * Splits every block into its states found in splitters[start] .. splitters[end - 1] and the others.
+     */
+    private void split(long[] splitters, int start, int end) {
+        List<Integer> touched = new ArrayList<>();
+        for (int i = start; i < end; i++) {
+            int stateId = (int) splitters[i];
+            int block = blockOf[stateId];
+            if (marked[block] == 0) {
+                touched.add(block);
+            }
+            // move the state to the marked front of its block.
+            int position = first[block] + marked[block]++;
+            int other = elements[position];
+            elements[location[stateId]] = other;
+            location[other] = location[stateId];
+            elements[position] = stateId;
+            location[stateId] = position;
+        }
+        for (int block : touched) {
+            int size = marked[block];
+            marked[block] = 0;
+            if (size == last[block] - first[block]) {
+                continue;
+            }
+            int created = blockCount++;
+            first[created] = first[block];
+            last[created] = first[block] + size;
+            first[block] = last[created];
+            for (int i = first[created]; i < last[created]; i++) {
+                blockOf[elements[i]] = created;
+            }
+            if (waiting[block]) {
+                waiting[created] = true;
+                worklist.add(created);
+            } else {
+                int smaller = size <= last[block] - first[block] ? created : block;
+                waiting[smaller] = true;
+                worklist.add(smaller);
+            }
+        }
+    }
+
+    /**
+     * Creates the minimized state pattern from the outgoing transitions of the states kept.
+     */
+    private StatePattern build(Map<State, State> stateMap) {
+        StatePattern minimized = new StatePattern();
+        List<Transition> initialTransitions = statePattern.outgoingTransitionsOf(INITIAL);
+        if (!initialTransitions.isEmpty()) {
+            minimized.initial(stateMap.get(initialTransitions.get(0).toState()));
+        }
+        List<State> kept = states.stream()
+                .filter(state -> state.equals(stateMap.get(state)))
+                .toList();
+        List<Transition> transitions = new ArrayList<>();
+        for (State state : kept) {
+            if (state == INITIAL) {
+                continue;
+            }
+            for (Transition transition : statePattern.outgoingTransitionsOf(state)) {
+                if (transition.toState() != null) {
+                    transitions.add(transition.withToState(stateMap.get(transition.toState())));
+                }
+            }
+        }
+        minimized.addTransitions(transitions);
+        for (State state : kept) {
+            minimized.states().add(state);
+            List<State> substates = statePattern.substatesOf(state);
+            if (!substates.isEmpty()) {
+                minimized.substates(state, substates.toArray(new State[0]));
+            }
+            StatePattern.After after = statePattern.timerOf(state);
+            if (after != null) {
+                minimized.timer(state, after.delay(), after.transition());
+            }
+        }
+        return minimized;
+    }
+}
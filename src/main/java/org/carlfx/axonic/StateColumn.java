@@ -0,0 +1,301 @@
+/*
+ * SPDX-License-Identifier: Apache-2.0
+ *
+ * Copyright © 2024. Carl Dea.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.carlfx.axonic;
+
+import java.util.Arrays;
+
+import static org.carlfx.axonic.StateEnum.STOP;
+
+/**
+ * Stores the current state of many entities as primitive state ids, indexed by entity number.
+ * A state column is an alternative to creating a StateMachine per entity when only the current
+ * state is needed. Each entity takes 2 bytes (4 bytes when the state pattern has more than 32767 states)
+ * plus 4 bytes for each parent state with history, holding the substate it last entered.
+ * Transitions use the definition's compiled state pattern and invoke the same when() code blocks.
+ * <pre>
+ *     StateColumn orders = StateColumn.create(definition, 1_000_000);
+ *     orders.tryTransition(42, "coin");
+ *     State state = orders.currentState(42);
+ * </pre>
+ * A state column does not track previous states or transitions and is not thread safe.
+ * The column keeps using the compiled state pattern of its definition even if the state pattern is changed later.
+ */
+public final class StateColumn {
+    private final StateMachineDefinition definition;
+    private final CompiledStatePattern compiledPattern;
+    private final int size;
+    // exactly one of these stores the state ids.
+    private final short[] shortStateIds;
+    private final int[] intStateIds;
+    // the number of parent states with history.
+    private final int historySlots;
+    // the history slots of every entity one after another, null when the state pattern has no history states.
+    private final int[] histories;
+
+    private StateColumn(StateMachineDefinition definition, int size) {
+        this.definition = definition;
+        this.compiledPattern = definition.compiledPattern();
+        this.size = size;
+        this.historySlots = compiledPattern.historySlotCount();
+        if (compiledPattern.hasHistory()) {
+            if ((long) size * historySlots > Integer.MAX_VALUE) {
+                throw new IllegalArgumentException("A state column with " + historySlots + " history slots holds at most "
+                        + Integer.MAX_VALUE / historySlots + " entities");
+            }
+            histories = new int[size * historySlots];
+            Arrays.fill(histories, CompiledStatePattern.NOT_FOUND);
+        } else {
+            histories = null;
+        }
+        if (compiledPattern.stateCount() <= Short.MAX_VALUE) {
+            shortStateIds = new short[size];
+            intStateIds = null;
+        } else {
+            shortStateIds = null;
+            intStateIds = new int[size];
+        }
+        int initialTransition = compiledPattern.initialTransition();
+        if (initialTransition == CompiledStatePattern.NOT_FOUND) {
+            throw new RuntimeException("StatePattern does not contain an initial transition. Try calling state pattern's .initial(state)");
+        }
+        int stateId = compiledPattern.toStateId(initialTransition);
+        if (histories != null) {
+            // every entity enters the same state and records the same history.
+            stateId = compiledPattern.enter(stateId, histories, 0);
+            for (int offset = historySlots; offset < histories.length; offset += historySlots) {
+                System.arraycopy(histories, 0, histories, offset, historySlots);
+            }
+        }
+        fill(stateId);
+    }
+
+    /**
+     * Factory function to create a state column where every entity begins at the initial state.
+     * @param definition The machine definition shared by all entities.
+     * @param size number of entities.
+     * @return Returns a new state column.
+     */
+    public static StateColumn create(StateMachineDefinition definition, int size) {
+        return new StateColumn(definition, size);
+    }
+
+    /**
+     * Factory function to create a state column where every entity begins at the initial state.
+     * @param statePattern State pattern defined.
+     * @param size number of entities.
+     * @return Returns a new state column.
+     */
+    public static StateColumn create(StatePattern statePattern, int size) {
+        return new StateColumn(StateMachineDefinition.create(null, statePattern), size);
+    }
+
+    /**
+     * Returns the machine definition.
+     * @return Returns the machine definition.
+     */
+    public StateMachineDefinition getDefinition() {
+        return definition;
+    }
+
+    /**
+     * Returns the number of entities.
+     * @return Returns the number of entities.
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * Returns the current state id of an entity.
+     * @param entity entity number.
+     * @return Returns the current state id of an entity.
+     */
+    public int currentStateId(int entity) {
+        return shortStateIds != null ? shortStateIds[entity] : intStateIds[entity];
+    }
+
+    /**
+     * Returns the current state of an entity.
+     * @param entity entity number.
+     * @return Returns the current state of an entity.
+     */
+    public State currentState(int entity) {
+        return compiledPattern.state(currentStateId(entity));
+    }
+
+    private void setStateId(int entity, int stateId) {
+        if (shortStateIds != null) {
+            shortStateIds[entity] = (short) stateId;
+        } else {
+            intStateIds[entity] = stateId;
+        }
+    }
+
+    /**
+     * Resolves a state entered by an entity and records it in the entity's history.
+     */
+    private int enter(int entity, int stateId) {
+        return histories == null ? stateId : compiledPattern.enter(stateId, histories, entity * historySlots);
+    }
+
+    private void fill(int stateId) {
+        if (shortStateIds != null) {
+            Arrays.fill(shortStateIds, (short) stateId);
+        } else {
+            Arrays.fill(intStateIds, stateId);
+        }
+    }
+
+    /**
+     * Moves an entity to any state without invoking code blocks.
+     * @param entity entity number.
+     * @param state The state to begin flow.
+     * @return The current state column this allows method chaining.
+     */
+    public StateColumn initial(int entity, State state) {
+        int stateId = compiledPattern.entryStateId(compiledPattern.stateId(state));
+        if (stateId == CompiledStatePattern.NOT_FOUND) {
+            throw new IllegalArgumentException("State %s is not part of the state pattern".formatted(state));
+        }
+        setStateId(entity, enter(entity, stateId));
+        return this;
+    }
+
+    /**
+     * Moves every entity to any state without invoking code blocks.
+     * @param state The state to begin flow.
+     * @return The current state column this allows method chaining.
+     */
+    public StateColumn initialAll(State state) {
+        int stateId = compiledPattern.entryStateId(compiledPattern.stateId(state));
+        if (stateId == CompiledStatePattern.NOT_FOUND) {
+            throw new IllegalArgumentException("State %s is not part of the state pattern".formatted(state));
+        }
+        if (histories == null) {
+            fill(stateId);
+        } else {
+            for (int entity = 0; entity < size; entity++) {
+                setStateId(entity, enter(entity, stateId));
+            }
+        }
+        return this;
+    }
+
+    /**
+     * Transitions an entity to its next state.
+     * @param entity entity number.
+     * @param transition The transition name.
+     * @return Returns MOVED, STOPPED or INVALID. When INVALID the entity's state becomes the INVALID state.
+     */
+    public TransitionResult tryTransition(int entity, String transition) {
+        return tryTransition(entity, compiledPattern.transitionNameId(transition), null);
+    }
+
+    /**
+     * Transitions an entity to its next state with an optional input.
+     * @param entity entity number.
+     * @param transition The transition name.
+     * @param input Some input data passed to code blocks. If input is null the name is used.
+     * @return Returns MOVED, STOPPED or INVALID. When INVALID the entity's state becomes the INVALID state.
+     * @param <T> The input object type.
+     */
+    public <T> TransitionResult tryTransition(int entity, String transition, T input) {
+        return tryTransition(entity, compiledPattern.transitionNameId(transition), input);
+    }
+
+    /**
+     * Transitions an entity to its next state with an optional input.
+     * @param entity entity number.
+     * @param transition The transition key resolved from a compiled state pattern.
+     * @param input Some input data passed to code blocks. If input is null the name is used.
+     * @return Returns MOVED, STOPPED or INVALID. When INVALID the entity's state becomes the INVALID state.
+     * @param <T> The input object type.
+     */
+    public <T> TransitionResult tryTransition(int entity, TransitionKey transition, T input) {
+        return tryTransition(entity, compiledPattern.transitionNameId(transition), input);
+    }
+
+    private TransitionResult tryTransition(int entity, int nameId, Object input) {
+        int index = compiledPattern.transitionIndex(currentStateId(entity), nameId, input);
+        if (index == CompiledStatePattern.NOT_FOUND) {
+            setStateId(entity, compiledPattern.invalidStateId());
+            return TransitionResult.INVALID;
+        }
+        return moveTo(entity, index, input);
+    }
+
+    /**
+     * Transitions every entity having the outgoing transition. Entities without it are left unchanged.
+     * @param transition The transition key resolved from a compiled state pattern.
+     * @return Returns the number of entities that moved.
+     */
+    public int advanceAll(TransitionKey transition) {
+        int nameId = compiledPattern.transitionNameId(transition);
+        int moved = 0;
+        for (int entity = 0; entity < size; entity++) {
+            int index = compiledPattern.transitionIndex(currentStateId(entity), nameId, null);
+            if (index != CompiledStatePattern.NOT_FOUND) {
+                moveTo(entity, index, null);
+                moved++;
+            }
+        }
+        return moved;
+    }
+
+    /**
+     * Returns the number of entities in a state.
+     * @param state a state.
+     * @return Returns the number of entities in a state.
+     */
+    public int count(State state) {
+        int stateId = compiledPattern.stateId(state);
+        int count = 0;
+        for (int entity = 0; entity < size; entity++) {
+            if (currentStateId(entity) == stateId) {
+                count++;
+            }
+        }
+        return count;
+    }
+
+    private TransitionResult moveTo(int entity, int index, Object input) {
+        int toStateId = enter(entity, compiledPattern.toStateId(index));
+        setStateId(entity, toStateId);
+        for (Runnable runnable : definition.codeBlocks(toStateId)) {
+            runnable.run();
+        }
+        InputTransition<Transition, Object>[] transitionInputConsumers = definition.inputCodeBlocks(toStateId);
+        if (transitionInputConsumers.length > 0) {
+            Transition t = compiledPattern.transition(index);
+            // use the transition name as input
+            Object value = input == null ? t.name() : input;
+            for (InputTransition<Transition, Object> inputStateConsumer : transitionInputConsumers) {
+                inputStateConsumer.accept(t, value);
+            }
+        }
+        return compiledPattern.state(toStateId) == STOP ? TransitionResult.STOPPED : TransitionResult.MOVED;
+    }
+
+    @Override
+    public String toString() {
+        return "StateColumn{" +
+                "size=" + size +
+                ", definition=" + definition +
+                '}';
+    }
+}
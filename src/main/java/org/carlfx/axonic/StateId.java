@@ -0,0 +1,56 @@
+/*
+ * SPDX-License-Identifier: Apache-2.0
+ *
+ * Copyright © 2024. Carl Dea.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.carlfx.axonic;
+
+/**
+ * An interned handle of a state resolved once from a compiled state pattern.
+ * Handles are unique per compiled state pattern so they can be compared by identity or by id.
+ * See {@link CompiledStatePattern#stateKey(State)}.
+ */
+public final class StateId {
+    final CompiledStatePattern compiledPattern;
+    private final int id;
+    private final State state;
+
+    StateId(CompiledStatePattern compiledPattern, int id, State state) {
+        this.compiledPattern = compiledPattern;
+        this.id = id;
+        this.state = state;
+    }
+
+    /**
+     * Returns the state id within the compiled state pattern.
+     * @return Returns the state id.
+     */
+    public int id() {
+        return id;
+    }
+
+    /**
+     * Returns the state.
+     * @return Returns the state.
+     */
+    public State state() {
+        return state;
+    }
+
+    @Override
+    public String toString() {
+        return "StateId{" + "id=" + id + ", state=" + state + '}';
+    }
+}
@@ -17,32 +17,80 @@
  */
 package org.carlfx.axonic;
 
+import org.carlfx.axonic.jfr.StateMachineEvents;
+
 import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
 import java.util.function.BiConsumer;
 import java.util.function.Consumer;
 
 import static org.carlfx.axonic.StateEnum.INITIAL;
 import static org.carlfx.axonic.StateEnum.INVALID;
+import static org.carlfx.axonic.StateEnum.STOP;
 
 /**
  * A default implementation of a state machine. Manages state.
+ * A state machine is a lightweight instance of a machine definition (a compiled state pattern and its code blocks).
+ * The instance only holds its current state, previous state and current transition so many instances
+ * can share one definition. See {@link StateMachineDefinition#newInstance(String)}.
  */
 public class StateMachine implements FSM {
-    private final StatePattern statePattern;
+    private StateMachineDefinition definition;
+    // a shared definition is copied before this instance changes it (when() code blocks).
+    private boolean sharedDefinition;
+
     private State previousState;
     private State currentState;
     private Transition currentTransition;
+    // the current state's id within the definition's compiled state pattern.
+    private int currentStateId;
 
-    private final Map<State, List<Runnable>> stateCodeMap = new LinkedHashMap<>();
-    private final Map<State, List<InputTransition<Transition, Object>>> inputStateCodeMap = new LinkedHashMap<>();
+    // the substate last entered within each parent state with history, null when the state pattern has no history states.
+    private int[] history;
+
+    // callback executor, listener, metrics and timers, null until one of them is set.
+    private Extensions extensions;
 
     private final String name;
-    private StateMachine(StatePattern statePattern) {
-        this(null, statePattern);
+
+    /**
+     * The optional features of a state machine. Allocated when one of them is first set so a plain instance
+     * only holds its states, its transition and its definition.
+     */
+    private static final class Extensions {
+        // when set code blocks run on this executor in transition order.
+        Executor callbackExecutor;
+        // the code blocks of the latest transition, the tail of the chain, null until code blocks run on an executor.
+        CompletableFuture<Void> callbacks;
+
+        // observes state changes, null when not observed.
+        TransitionListener listener;
+
+        // counts transitions and times code blocks, null when metrics are disabled.
+        TransitionMetrics metrics;
+
+        // schedules timed transitions, null when timed transitions are not fired.
+        TimingWheel timers;
+        Executor timerDispatcher;
+        // the timeout of the current state and the number of states entered, a stale timeout checks the epoch.
+        TimingWheel.Timeout pendingTimer;
+        int timerEpoch;
     }
-    private StateMachine(String name, StatePattern statePattern) {
-        this.statePattern = statePattern;
+
+    private StateMachine(String name, StateMachineDefinition definition, boolean sharedDefinition) {
         this.name = name;
+        this.definition = definition;
+        this.sharedDefinition = sharedDefinition;
+    }
+
+    private Extensions extensions() {
+        Extensions extensions = this.extensions;
+        if (extensions == null) {
+            extensions = new Extensions();
+            this.extensions = extensions;
+        }
+        return extensions;
     }
     /**
      * The name of the state machine
@@ -60,7 +108,18 @@ public class StateMachine implements FSM {
      * @return Returns the state pattern.
      */
     public StatePattern getStatePattern() {
-        return statePattern;
+        return definition.getStatePattern();
+    }
+
+    /**
+     * Returns the machine definition (compiled state pattern and code blocks) of this instance.
+     * The returned definition may be shared with other instances. Later calls to when() on this
+     * instance do not change it.
+     * @return Returns the machine definition.
+     */
+    public StateMachineDefinition getDefinition() {
+        sharedDefinition = true;
+        return definition;
     }
 
     /**
@@ -70,15 +129,41 @@ public class StateMachine implements FSM {
      * @return Returns a StateMachine instance.
      */
     public static StateMachine create(String name, StatePattern statePattern) {
-        StateMachine stateMachine = new StateMachine(name, statePattern);
-        stateMachine.previousState = INITIAL;
-        stateMachine.currentTransition = statePattern.lookupOutgoingTransitions(INITIAL).stream().findAny().orElse(null);
-        if (stateMachine.currentTransition == null) {
+        return create(name, StateMachineDefinition.create(name, statePattern), false);
+    }
+
+    /**
+     * Factory function to create a state machine instance sharing a machine definition.
+     * @param name Name of the state machine.
+     * @param definition A machine definition shared by many instances.
+     * @return Returns a StateMachine instance.
+     */
+    public static StateMachine create(String name, StateMachineDefinition definition) {
+        return create(name, definition, true);
+    }
+
+    static StateMachine create(String name, StateMachineDefinition definition, boolean sharedDefinition) {
+        CompiledStatePattern compiled = definition.compiledPattern();
+        int initialTransition = compiled.initialTransition();
+        if (initialTransition == CompiledStatePattern.NOT_FOUND) {
             throw new RuntimeException("StatePattern does not contain an initial transition. Try calling state pattern's .initial(state)");
         }
-        stateMachine.currentState = stateMachine.currentTransition.toState();
+        StateMachine stateMachine = new StateMachine(name, definition, sharedDefinition);
+        stateMachine.previousState = INITIAL;
+        stateMachine.currentTransition = compiled.transition(initialTransition);
+        stateMachine.currentStateId = compiled.toStateId(initialTransition);
+        stateMachine.history = newHistory(compiled);
+        if (stateMachine.history != null) {
+            stateMachine.currentStateId = compiled.enter(stateMachine.currentStateId, stateMachine.history);
+        }
+        stateMachine.currentState = compiled.state(stateMachine.currentStateId);
         return stateMachine;
     }
+
+    private static int[] newHistory(CompiledStatePattern compiled) {
+        return compiled.hasHistory() ? compiled.newHistory() : null;
+    }
+
     /**
      * Factory function to create a state machine given a state pattern.
      * @param statePattern State pattern defined.
@@ -109,43 +194,552 @@ public class StateMachine implements FSM {
         return create(null, statePatternConsumer);
     }
 
+    /**
+     * Begins the flow at any state. The shared state pattern is not changed, to move the
+     * state pattern's initial transition use StatePattern.moveInitial().
+     * @param state The state to begin flow.
+     * @return The current FSM (finite state machine) this allows method chaining.
+     */
     @Override
     public FSM initial(State state) {
-        statePattern.moveInitial(state);
-        currentState = state;
+        CompiledStatePattern compiled = compiledPattern();
+        int initialTransition = compiled.initialTransition();
+        if (initialTransition != CompiledStatePattern.NOT_FOUND && compiled.toStateId(initialTransition) == compiled.stateId(state)) {
+            currentTransition = compiled.transition(initialTransition);
+        } else {
+            currentTransition = new Transition(INITIAL.name.toLowerCase(), INITIAL, state);
+        }
+        currentStateId = compiled.entryStateId(compiled.stateId(state));
+        if (history != null && currentStateId != CompiledStatePattern.NOT_FOUND) {
+            currentStateId = compiled.enter(currentStateId, history);
+        }
+        currentState = currentStateId == CompiledStatePattern.NOT_FOUND ? state : compiled.state(currentStateId);
         previousState = INITIAL;
-        currentTransition = statePattern.lookupOutgoingTransitions(INITIAL).get(0);
+        Extensions extensions = this.extensions;
+        if (extensions != null) {
+            if (extensions.listener != null) {
+                extensions.listener.initial(compiled, currentStateId);
+            }
+            if (extensions.metrics != null) {
+                extensions.metrics.initial(compiled, currentStateId);
+            }
+            if (extensions.timers != null) {
+                armTimer(extensions, compiled);
+            }
+        }
+        return this;
+    }
+
+    /**
+     * Restores the state of this state machine, e.g. from a journal or snapshot. Code blocks are not run.
+     * @param previousState the previous state.
+     * @param currentState the current state.
+     * @param currentTransition the transition into the current state.
+     * @return Returns this state machine.
+     */
+    public StateMachine restore(State previousState, State currentState, Transition currentTransition) {
+        return restore(previousState, currentState, currentTransition, null);
+    }
+
+    /**
+     * Restores the state of this state machine and the substate last entered within each parent state with history,
+     * e.g. from a journal or snapshot. Code blocks are not run.
+     * @param previousState the previous state.
+     * @param currentState the current state.
+     * @param currentTransition the transition into the current state.
+     * @param history the history as returned by history(), or null to keep the current history.
+     * @return Returns this state machine.
+     */
+    public StateMachine restore(State previousState, State currentState, Transition currentTransition, int[] history) {
+        CompiledStatePattern compiled = compiledPattern();
+        if (history != null && this.history != null) {
+            if (history.length != this.history.length) {
+                throw new IllegalArgumentException("Expected a history of " + this.history.length + " slots but was " + history.length);
+            }
+            System.arraycopy(history, 0, this.history, 0, history.length);
+        }
+        this.previousState = previousState;
+        this.currentState = currentState;
+        this.currentTransition = currentTransition;
+        this.currentStateId = compiled.stateId(currentState);
+        if (extensions != null && extensions.timers != null) {
+            armTimer(extensions, compiled);
+        }
+        return this;
+    }
+
+    /**
+     * Sets the listener observing state changes of this state machine.
+     * @param listener a listener or null to remove it.
+     * @return Returns this state machine.
+     */
+    public StateMachine listener(TransitionListener listener) {
+        if (listener != null || extensions != null) {
+            extensions().listener = listener;
+        }
         return this;
     }
 
+    /**
+     * Returns the compiled state pattern. When the state pattern was changed this instance
+     * recompiles its own copy of the definition and resolves the current state's id again.
+     * @return Returns the compiled state pattern.
+     */
+    private CompiledStatePattern compiledPattern() {
+        if (definition.isStale()) {
+            definition = definition.recompile();
+            sharedDefinition = false;
+            currentStateId = definition.compiledPattern().stateId(currentState);
+            history = newHistory(definition.compiledPattern());
+        }
+        return definition.compiledPattern();
+    }
+
     @Override
     public <T> FSM t(String transition, T input) {
-        List<Transition> outTransitions = statePattern.lookupOutgoingTransitions(currentState());
-        Optional<Transition> choice = outTransitions.stream().filter(t -> t.name().equals(transition)).findFirst();
-        // current state find out transition if make previous = current and transition to as next state.
-        choice.ifPresentOrElse( t -> {
-                    // transition to next state.
-                    previousState = currentState();
-                    currentState = t.toState();
-                    currentTransition = t;
-                    List<Runnable> runnables = stateCodeMap.get(t.toState());
-                    if (runnables != null) {
-                        runnables.forEach(Runnable::run);
-                    }
-                    // This facility allows input
-                    List<InputTransition<Transition, Object>> transitionInputConsumers = inputStateCodeMap.get(t.toState());
-                    if (transitionInputConsumers != null) {
-                        transitionInputConsumers.forEach(inputStateConsumer ->
-                                // use the transition name as input
-                            inputStateConsumer.accept(t, input==null ? t.name() : input)
-                        );
-                    }
-
-                },
-                ()-> currentState = INVALID); // don't set previous so caller can recover.
-        // if (previous != current) call when (code blocks)
+        tryTransition(transition, input);
         return this;
     }
+
+    @Override
+    public <T> FSM t(TransitionKey transition, T input) {
+        tryTransition(transition, input);
+        return this;
+    }
+
+    @Override
+    public FSM t(TransitionKey transition) {
+        return t(transition, null);
+    }
+
+    @Override
+    public <T> TransitionResult tryTransition(String transition, T input) {
+        CompiledStatePattern compiled = compiledPattern();
+        return tryTransition(compiled, compiled.transitionNameId(transition), input);
+    }
+
+    @Override
+    public <T> TransitionResult tryTransition(TransitionKey transition, T input) {
+        CompiledStatePattern compiled = compiledPattern();
+        return tryTransition(compiled, compiled.transitionNameId(transition), input);
+    }
+
+    private TransitionResult tryTransition(CompiledStatePattern compiled, int nameId, Object input) {
+        int index = compiled.transitionIndex(currentStateId, nameId, input);
+        if (index == CompiledStatePattern.NOT_FOUND) {
+            if (StateMachineEvents.isInvalidTransitionEnabled()) {
+                StateMachineEvents.invalidTransition(getName(), currentState,
+                        nameId == CompiledStatePattern.NOT_FOUND ? null : compiled.transitionName(nameId));
+            }
+            // don't set previous so caller can recover.
+            currentState = INVALID;
+            currentStateId = compiled.invalidStateId();
+            Extensions extensions = this.extensions;
+            if (extensions != null) {
+                if (extensions.listener != null) {
+                    extensions.listener.invalid(compiled, nameId);
+                }
+                if (extensions.metrics != null) {
+                    extensions.metrics.invalid(compiled, nameId);
+                }
+                if (extensions.timers != null) {
+                    armTimer(extensions, compiled);
+                }
+            }
+            return TransitionResult.INVALID;
+        }
+        return moveTo(compiled, index, input);
+    }
+
+    /**
+     * Returns the index of the current state's outgoing transition accepting the input without moving.
+     * @param transitionName the name of the transition.
+     * @param input the input passed to guards.
+     * @return Returns the transition index or NOT_FOUND.
+     */
+    int transitionIndexOf(String transitionName, Object input) {
+        CompiledStatePattern compiled = compiledPattern();
+        return compiled.transitionIndex(currentStateId, compiled.transitionNameId(transitionName), input);
+    }
+
+    /**
+     * Resolves a sequence of transitions from the current state without moving, e.g. to validate a region's part of
+     * an atomic batch. A transition without a matching outgoing transition leaves the state unchanged.
+     * @param transitions the transition names in order.
+     * @return Returns the transition index of each step, NOT_FOUND where the state machine stays.
+     */
+    int[] transitionIndexesOf(List<String> transitions) {
+        CompiledStatePattern compiled = compiledPattern();
+        int[] indexes = new int[transitions.size()];
+        int[] batchHistory = history == null ? null : history.clone();
+        int stateId = currentStateId;
+        for (int i = 0; i < indexes.length; i++) {
+            int index = compiled.transitionIndex(stateId, compiled.transitionNameId(transitions.get(i)), null);
+            indexes[i] = index;
+            if (index != CompiledStatePattern.NOT_FOUND) {
+                stateId = compiled.toStateId(index);
+                if (batchHistory != null) {
+                    stateId = compiled.enter(stateId, batchHistory);
+                }
+            }
+        }
+        return indexes;
+    }
+
+    /**
+     * Moves along an outgoing transition found by transitionIndexOf().
+     * @param index the transition index.
+     * @param input the input passed to code blocks.
+     * @return Returns MOVED or STOPPED.
+     */
+    TransitionResult moveAlong(int index, Object input) {
+        return moveTo(compiledPattern(), index, input);
+    }
+
+    /**
+     * Moves to the next state of an outgoing transition and invokes the code blocks of the next state.
+     * This path does not allocate.
+     * @param compiled the compiled state pattern.
+     * @param index the transition index.
+     * @param input the input passed to code blocks. If null the transition name is used.
+     * @return Returns MOVED or STOPPED.
+     */
+    private TransitionResult moveTo(CompiledStatePattern compiled, int index, Object input) {
+        // transition to next state.
+        Transition t = compiled.transition(index);
+        int toStateId = compiled.toStateId(index);
+        if (history != null) {
+            toStateId = compiled.enter(toStateId, history);
+        }
+        previousState = currentState;
+        currentState = compiled.state(toStateId);
+        currentStateId = toStateId;
+        currentTransition = t;
+        Extensions extensions = this.extensions;
+        if (extensions != null) {
+            if (extensions.listener != null) {
+                extensions.listener.moved(compiled, index);
+            }
+            if (extensions.metrics != null) {
+                extensions.metrics.moved(compiled, index);
+                extensions.metrics.entered(compiled, toStateId);
+            }
+        }
+        if (StateMachineEvents.isTransitionEnabled()) {
+            StateMachineEvents.transition(getName(), previousState, currentState, t.name());
+        }
+        if (extensions != null && extensions.timers != null) {
+            armTimer(extensions, compiled);
+        }
+        encountered(compiled, index, toStateId, input);
+        return currentState == STOP ? TransitionResult.STOPPED : TransitionResult.MOVED;
+    }
+
+    /**
+     * Invokes the code blocks of the next state of an outgoing transition. When a callback executor is set
+     * the code blocks are chained after the code blocks of the previous transition and run on the executor.
+     * @param compiled the compiled state pattern.
+     * @param index the transition index.
+     * @param toStateId the state entered.
+     * @param input the input passed to code blocks. If null the transition name is used.
+     */
+    private void encountered(CompiledStatePattern compiled, int index, int toStateId, Object input) {
+        Runnable[] runnables = definition.codeBlocks(toStateId);
+        InputTransition<Transition, Object>[] transitionInputConsumers = definition.inputCodeBlocks(toStateId);
+        Transition t = compiled.transition(index);
+        Extensions extensions = this.extensions;
+        TransitionMetrics metrics = extensions == null ? null : extensions.metrics;
+        if (extensions == null || extensions.callbackExecutor == null) {
+            if (metrics == null && !StateMachineEvents.isCallbackEnabled()) {
+                CompiledDispatch dispatch = definition.dispatch();
+                if (dispatch == null) {
+                    runCodeBlocks(runnables, transitionInputConsumers, t, input);
+                } else {
+                    dispatch.encounter(toStateId, t, input);
+                }
+            } else if (runnables.length > 0 || transitionInputConsumers.length > 0) {
+                timeCodeBlocks(metrics, compiled, toStateId, runnables, transitionInputConsumers, t, input);
+            }
+        } else if (runnables.length > 0 || transitionInputConsumers.length > 0) {
+            // runs even if earlier code blocks failed, a failure only completes its own transition's future.
+            CompletableFuture<Void> callbacks = extensions.callbacks;
+            if (callbacks == null) {
+                callbacks = CompletableFuture.completedFuture(null);
+            }
+            extensions.callbacks = callbacks.handleAsync((ignored, throwable) -> {
+                if (metrics == null && !StateMachineEvents.isCallbackEnabled()) {
+                    runCodeBlocks(runnables, transitionInputConsumers, t, input);
+                } else {
+                    timeCodeBlocks(metrics, compiled, toStateId, runnables, transitionInputConsumers, t, input);
+                }
+                return null;
+            }, extensions.callbackExecutor);
+        }
+    }
+
+    /**
+     * Runs code blocks recording their latency in the metrics (if set) and as a flight recorder event (if enabled).
+     */
+    private void timeCodeBlocks(TransitionMetrics metrics, CompiledStatePattern compiled, int toStateId, Runnable[] runnables, InputTransition<Transition, Object>[] transitionInputConsumers, Transition t, Object input) {
+        Object event = StateMachineEvents.beginCallback();
+        long start = System.nanoTime();
+        try {
+            runCodeBlocks(runnables, transitionInputConsumers, t, input);
+        } finally {
+            if (metrics != null) {
+                metrics.callbacks(compiled, toStateId, System.nanoTime() - start);
+            }
+            StateMachineEvents.endCallback(event, getName(), compiled.state(toStateId), t.name());
+        }
+    }
+
+    private static void runCodeBlocks(Runnable[] runnables, InputTransition<Transition, Object>[] transitionInputConsumers, Transition t, Object input) {
+        for (Runnable runnable : runnables) {
+            runnable.run();
+        }
+        // This facility allows input
+        if (transitionInputConsumers.length > 0) {
+            // use the transition name as input
+            Object value = input == null ? t.name() : input;
+            for (InputTransition<Transition, Object> inputStateConsumer : transitionInputConsumers) {
+                inputStateConsumer.accept(t, value);
+            }
+        }
+    }
+
+    /**
+     * Invokes code blocks through a dispatch compiled into a hidden class, see CompiledDispatch.
+     * The dispatch is compiled on the next transition and again after when() adds a code block.
+     * @return Returns this state machine.
+     */
+    public StateMachine compileDispatch() {
+        compiledPattern();
+        definition = definition.compileDispatch();
+        sharedDefinition = false;
+        return this;
+    }
+
+    /**
+     * Runs when() code blocks asynchronously on an executor. t() returns right after the state is updated.
+     * Code blocks still run one at a time in transition order. As the state machine may have moved on, code blocks
+     * should use the transition passed to them instead of currentState().
+     * @param executor the executor running code blocks or null to run code blocks synchronously within t().
+     * @return Returns this state machine.
+     */
+    public StateMachine callbackExecutor(Executor executor) {
+        if (executor != null || extensions != null) {
+            extensions().callbackExecutor = executor;
+        }
+        return this;
+    }
+
+    /**
+     * Counts the transitions, states entered and invalid events of this state machine and records the latency of
+     * its code blocks. Metrics can be shared by the state machines of a definition.
+     * @param metrics the metrics or null to disable metrics.
+     * @return Returns this state machine.
+     */
+    public StateMachine metrics(TransitionMetrics metrics) {
+        if (metrics != null || extensions != null) {
+            extensions().metrics = metrics;
+        }
+        return this;
+    }
+
+    /**
+     * Fires the timed transitions declared with StatePattern.after() using a timing wheel. Entering a state with a
+     * timed transition schedules a timeout, leaving the state cancels it. Timeouts fire on the thread calling
+     * wheel.advance().
+     * @param wheel the timing wheel or null to stop firing timed transitions.
+     * @return Returns this state machine.
+     */
+    public StateMachine timers(TimingWheel wheel) {
+        return timers(wheel, null);
+    }
+
+    /**
+     * Fires the timed transitions declared with StatePattern.after() using a timing wheel. A dispatcher hands the
+     * firing over to the thread owning this state machine, e.g. a mailbox when the wheel runs on its own thread.
+     * <pre>
+     *     turnstileSM.timers(wheel.start(), fire -&gt; mailbox.tell(fsm -&gt; fire.run()));
+     * </pre>
+     * @param wheel the timing wheel or null to stop firing timed transitions.
+     * @param dispatcher runs the firing of a timed transition or null to fire on the thread calling wheel.advance().
+     * @return Returns this state machine.
+     */
+    public StateMachine timers(TimingWheel wheel, Executor dispatcher) {
+        if (wheel == null && extensions == null) {
+            return this;
+        }
+        Extensions extensions = extensions();
+        if (extensions.pendingTimer != null) {
+            extensions.pendingTimer.cancel();
+            extensions.pendingTimer = null;
+        }
+        extensions.timerEpoch++;
+        extensions.timers = wheel;
+        extensions.timerDispatcher = dispatcher;
+        if (wheel != null) {
+            armTimer(extensions, compiledPattern());
+        }
+        return this;
+    }
+
+    /**
+     * Cancels the timeout of the state left and schedules the timeout of the current state if it has a timed transition.
+     * @param extensions the extensions holding the timing wheel.
+     * @param compiled the compiled state pattern.
+     */
+    private void armTimer(Extensions extensions, CompiledStatePattern compiled) {
+        if (extensions.pendingTimer != null) {
+            extensions.pendingTimer.cancel();
+            extensions.pendingTimer = null;
+        }
+        int epoch = ++extensions.timerEpoch;
+        long delay = compiled.timerDelayNanos(currentStateId);
+        if (delay > 0) {
+            String transitionName = compiled.transitionName(compiled.timerNameId(currentStateId));
+            Runnable fire = () -> {
+                // the state may have been left after the timeout expired but before it was dispatched.
+                if (extensions.timerEpoch == epoch) {
+                    extensions.pendingTimer = null;
+                    tryTransition(transitionName, null);
+                }
+            };
+            Executor dispatcher = extensions.timerDispatcher;
+            extensions.pendingTimer = extensions.timers.schedule(delay, dispatcher == null ? fire : () -> dispatcher.execute(fire));
+        }
+    }
+
+    /**
+     * Returns a future completed when the code blocks of all transitions so far have finished.
+     * @return Returns a future completed when the code blocks of all transitions so far have finished.
+     */
+    public CompletableFuture<Void> callbacksCompleted() {
+        CompletableFuture<Void> callbacks = pendingCallbacks();
+        return callbacks == null ? CompletableFuture.completedFuture(null) : callbacks;
+    }
+
+    private CompletableFuture<Void> pendingCallbacks() {
+        Extensions extensions = this.extensions;
+        return extensions == null ? null : extensions.callbacks;
+    }
+
+    @Override
+    public <T> CompletableFuture<TransitionResult> tAsync(String transition, T input) {
+        CompiledStatePattern compiled = compiledPattern();
+        return tAsync(compiled, compiled.transitionNameId(transition), input);
+    }
+
+    @Override
+    public <T> CompletableFuture<TransitionResult> tAsync(TransitionKey transition, T input) {
+        CompiledStatePattern compiled = compiledPattern();
+        return tAsync(compiled, compiled.transitionNameId(transition), input);
+    }
+
+    private CompletableFuture<TransitionResult> tAsync(CompiledStatePattern compiled, int nameId, Object input) {
+        CompletableFuture<Void> before = pendingCallbacks();
+        TransitionResult result = tryTransition(compiled, nameId, input);
+        CompletableFuture<Void> callbacks = pendingCallbacks();
+        if (callbacks == before) {
+            // no code blocks were scheduled.
+            return CompletableFuture.completedFuture(result);
+        }
+        return callbacks.thenApply(ignored -> result);
+    }
+
+    @Override
+    public BatchResult applyAll(List<String> transitions, BatchMode mode) {
+        CompiledStatePattern compiled = compiledPattern();
+        int[] nameIds = new int[transitions.size()];
+        for (int i = 0; i < nameIds.length; i++) {
+            nameIds[i] = compiled.transitionNameId(transitions.get(i));
+        }
+        return applyAll(compiled, nameIds, mode);
+    }
+
+    @Override
+    public BatchResult applyAll(TransitionKey[] transitions, BatchMode mode) {
+        CompiledStatePattern compiled = compiledPattern();
+        int[] nameIds = new int[transitions.length];
+        for (int i = 0; i < nameIds.length; i++) {
+            nameIds[i] = compiled.transitionNameId(transitions[i]);
+        }
+        return applyAll(compiled, nameIds, mode);
+    }
+
+    private BatchResult applyAll(CompiledStatePattern compiled, int[] nameIds, BatchMode mode) {
+        if (nameIds.length == 0) {
+            return new BatchResult(TransitionResult.of(currentState), 0, -1);
+        }
+        if (mode == BatchMode.SEQUENTIAL) {
+            TransitionResult result = null;
+            for (int i = 0; i < nameIds.length; i++) {
+                result = tryTransition(compiled, nameIds[i], null);
+                if (result == TransitionResult.INVALID) {
+                    return new BatchResult(result, i, i);
+                }
+            }
+            return new BatchResult(result, nameIds.length, -1);
+        }
+
+        // validate the whole sequence before anything changes.
+        int[] batchHistory = history == null ? null : history.clone();
+        int[] enteredStateIds = history == null ? null : new int[nameIds.length];
+        int stateId = currentStateId;
+        int index = CompiledStatePattern.NOT_FOUND;
+        for (int i = 0; i < nameIds.length; i++) {
+            index = compiled.transitionIndex(stateId, nameIds[i], null);
+            if (index == CompiledStatePattern.NOT_FOUND) {
+                return new BatchResult(TransitionResult.INVALID, 0, i);
+            }
+            stateId = compiled.toStateId(index);
+            if (batchHistory != null) {
+                stateId = compiled.enter(stateId, batchHistory);
+                enteredStateIds[i] = stateId;
+            }
+            // keep the transition chosen so guards are evaluated once.
+            nameIds[i] = index;
+        }
+
+        // commit the final state then run the deferred code blocks of each state along the way.
+        Transition last = compiled.transition(index);
+        previousState = last.fromState();
+        currentState = compiled.state(stateId);
+        currentStateId = stateId;
+        currentTransition = last;
+        if (batchHistory != null) {
+            history = batchHistory;
+        }
+        Extensions extensions = this.extensions;
+        if (extensions != null && extensions.listener != null) {
+            for (int transitionIndex : nameIds) {
+                extensions.listener.moved(compiled, transitionIndex);
+            }
+        }
+        if (extensions != null && extensions.metrics != null) {
+            for (int i = 0; i < nameIds.length; i++) {
+                extensions.metrics.moved(compiled, nameIds[i]);
+                extensions.metrics.entered(compiled, enteredStateIds == null ? compiled.toStateId(nameIds[i]) : enteredStateIds[i]);
+            }
+        }
+        if (StateMachineEvents.isTransitionEnabled()) {
+            for (int i = 0; i < nameIds.length; i++) {
+                Transition transition = compiled.transition(nameIds[i]);
+                int toStateId = enteredStateIds == null ? compiled.toStateId(nameIds[i]) : enteredStateIds[i];
+                StateMachineEvents.transition(getName(), transition.fromState(), compiled.state(toStateId), transition.name());
+            }
+        }
+        if (extensions != null && extensions.timers != null) {
+            armTimer(extensions, compiled);
+        }
+        for (int i = 0; i < nameIds.length; i++) {
+            int toStateId = enteredStateIds == null ? compiled.toStateId(nameIds[i]) : enteredStateIds[i];
+            encountered(compiled, nameIds[i], toStateId, null);
+        }
+        return new BatchResult(currentState == STOP ? TransitionResult.STOPPED : TransitionResult.MOVED, nameIds.length, -1);
+    }
+
     @Override
     public FSM t(String transition) {
         return t(transition, null);
@@ -158,13 +752,21 @@ public class StateMachine implements FSM {
 
     @Override
     public List<Transition> outgoingTransitions() {
-        return statePattern.lookupOutgoingTransitions(currentState());
+        return compiledPattern().outgoingTransitions(currentStateId);
     }
 
     @Override
     public Optional<Transition> lookupNextTransition(String transitionName) {
-        List<Transition> outTransitions = statePattern.lookupOutgoingTransitions(currentState());
-        return outTransitions.stream().filter(t -> t.name().equals(transitionName)).findAny();
+        CompiledStatePattern compiled = compiledPattern();
+        int index = compiled.transitionIndex(currentStateId, compiled.transitionNameId(transitionName));
+        return index == CompiledStatePattern.NOT_FOUND ? Optional.empty() : Optional.of(compiled.transition(index));
+    }
+
+    @Override
+    public Optional<Transition> lookupNextTransition(String transitionName, Object input) {
+        CompiledStatePattern compiled = compiledPattern();
+        int index = compiled.transitionIndex(currentStateId, compiled.transitionNameId(transitionName), input);
+        return index == CompiledStatePattern.NOT_FOUND ? Optional.empty() : Optional.of(compiled.transition(index));
     }
 
     @Override
@@ -172,9 +774,27 @@ public class StateMachine implements FSM {
         return currentState;
     }
 
+    /**
+     * Returns the substate last entered within each parent state with history, see CompiledStatePattern.enter().
+     * @return Returns a copy of the history, NOT_FOUND for parent states never entered. Empty without history states.
+     */
+    public int[] history() {
+        compiledPattern();
+        return history == null ? new int[0] : history.clone();
+    }
+
+    /**
+     * Returns the id of the current state within the compiled state pattern.
+     * @return Returns the id of the current state.
+     */
+    public int currentStateId() {
+        compiledPattern();
+        return currentStateId;
+    }
+
     @Override
     public Optional<State> lookupStateByName(String name) {
-        return getStatePattern().states().stream().filter(state -> state.getName().equals(name)).findAny();
+        return Optional.ofNullable(getStatePattern().stateByName(name));
     }
 
     @Override
@@ -184,39 +804,50 @@ public class StateMachine implements FSM {
 
     @Override
     public FSM when(State state, Runnable codeBlock) {
-        List<Runnable> list = stateCodeMap.get(state);
-        if (list == null) {
-            list = new ArrayList<>();
-        }
-        list.add(codeBlock);
-        stateCodeMap.put(state, list);
+        ownDefinition().addCodeBlock(state, codeBlock);
         return this;
     }
 
     @Override
     public <T> FSM when(State state, InputTransition<Transition, T> codeBlock){
-        List<InputTransition<Transition, Object>> list = inputStateCodeMap.get(state);
-        if (list == null) {
-            list = new ArrayList<>();
-        }
-        list.add((InputTransition<Transition, Object>) codeBlock);
-        inputStateCodeMap.put(state, list);
-
+        ownDefinition().addCodeBlock(state, codeBlock);
         return this;
     }
 
+    /**
+     * Returns a definition only this instance uses, copying a shared definition first.
+     * @return Returns a definition only this instance uses.
+     */
+    private StateMachineDefinition ownDefinition() {
+        compiledPattern();
+        if (sharedDefinition) {
+            definition = definition.copy();
+            sharedDefinition = false;
+        }
+        return definition;
+    }
+
     @Override
     public FSM tOrElse(String transitionName, Runnable invalid) {
-        Optional<Transition> transitionOpt = lookupNextTransition(transitionName);
-        transitionOpt.ifPresentOrElse( transition -> t(transition.name()), invalid);
+        CompiledStatePattern compiled = compiledPattern();
+        int index = compiled.transitionIndex(currentStateId, compiled.transitionNameId(transitionName), null);
+        if (index == CompiledStatePattern.NOT_FOUND) {
+            invalid.run();
+        } else {
+            moveTo(compiled, index, null);
+        }
         return this;
     }
 
     @Override
     public <T> FSM tOrElse(String transitionName, T input, BiConsumer<String, T> invalid) {
-        Optional<Transition> transitionOpt = lookupNextTransition(transitionName);
-        transitionOpt.ifPresentOrElse( transition -> t(transition.name()),
-                () ->  invalid.accept(transitionName, input));
+        CompiledStatePattern compiled = compiledPattern();
+        int index = compiled.transitionIndex(currentStateId, compiled.transitionNameId(transitionName), input);
+        if (index == CompiledStatePattern.NOT_FOUND) {
+            invalid.accept(transitionName, input);
+        } else {
+            moveTo(compiled, index, input);
+        }
         return this;
     }
 }
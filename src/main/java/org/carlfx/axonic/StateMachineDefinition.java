@@ -0,0 +1,316 @@
+/*
+ * SPDX-License-Identifier: Apache-2.0
+ *
+ * Copyright © 2024. Carl Dea.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.carlfx.axonic;
+
+import java.util.*;
+import java.util.function.Consumer;
+
+/**
+ * A machine definition is a compiled state pattern plus the code blocks registered with when().
+ * Many lightweight state machine instances can share one definition. Each instance only holds
+ * its current state, previous state and current transition.
+ * <pre>
+ *     StateMachineDefinition definition = StateMachineDefinition.create("Turnstile", turnstilePattern)
+ *             .when(LOCKED, () -> System.out.println("Locked"))
+ *             .when(UNLOCKED, (t, input) -> System.out.println("Unlocked by " + input));
+ *
+ *     StateMachine order1 = definition.newInstance("order-1");
+ *     StateMachine order2 = definition.newInstance("order-2");
+ * </pre>
+ * A definition is immutable. Calling when() returns a new definition using the same compiled state pattern.
+ * If the state pattern is changed after a definition was created each StateMachine instance recompiles
+ * its own copy on the next transition.
+ */
+public final class StateMachineDefinition {
+    private static final Runnable[] NO_CODE_BLOCKS = new Runnable[0];
+    @SuppressWarnings({"unchecked", "rawtypes"})
+    private static final InputTransition<Transition, Object>[] NO_INPUT_CODE_BLOCKS = new InputTransition[0];
+
+    private final String name;
+    private final CompiledStatePattern compiledPattern;
+
+    private final Map<State, List<Runnable>> stateCodeMap;
+    private final Map<State, List<InputTransition<Transition, Object>>> inputStateCodeMap;
+
+    // code blocks indexed by state id.
+    private final Runnable[][] codeBlocks;
+    private final InputTransition<Transition, Object>[][] inputCodeBlocks;
+
+    // when set state machines invoke code blocks through a compiled dispatch, compiled again after code blocks change.
+    private final boolean compiledDispatch;
+    private CompiledDispatch dispatch;
+
+    @SuppressWarnings({"unchecked", "rawtypes"})
+    private StateMachineDefinition(String name,
+                                   CompiledStatePattern compiledPattern,
+                                   Map<State, List<Runnable>> stateCodeMap,
+                                   Map<State, List<InputTransition<Transition, Object>>> inputStateCodeMap,
+                                   boolean compiledDispatch) {
+        this.name = name;
+        this.compiledPattern = compiledPattern;
+        this.stateCodeMap = stateCodeMap;
+        this.inputStateCodeMap = inputStateCodeMap;
+        this.compiledDispatch = compiledDispatch;
+        this.codeBlocks = new Runnable[compiledPattern.stateCount()][];
+        this.inputCodeBlocks = new InputTransition[compiledPattern.stateCount()][];
+        Arrays.fill(codeBlocks, NO_CODE_BLOCKS);
+        Arrays.fill(inputCodeBlocks, NO_INPUT_CODE_BLOCKS);
+        stateCodeMap.keySet().forEach(this::bindCodeBlocks);
+        inputStateCodeMap.keySet().forEach(this::bindCodeBlocks);
+    }
+
+    /**
+     * Factory function to create a machine definition without code blocks.
+     * @param name Name of the state machine.
+     * @param statePattern State pattern defined.
+     * @return Returns a machine definition.
+     */
+    public static StateMachineDefinition create(String name, StatePattern statePattern) {
+        return create(name, statePattern.compile());
+    }
+
+    /**
+     * Factory function to create a machine definition without code blocks from a compiled state pattern,
+     * e.g. one loaded by PatternArchive.
+     * @param name Name of the state machine.
+     * @param compiledPattern a compiled state pattern.
+     * @return Returns a machine definition.
+     */
+    public static StateMachineDefinition create(String name, CompiledStatePattern compiledPattern) {
+        return new StateMachineDefinition(name, compiledPattern, new LinkedHashMap<>(), new LinkedHashMap<>(), false);
+    }
+
+    /**
+     * Factory function to create a machine definition without code blocks.
+     * @param name Name of the state machine.
+     * @param statePatternConsumer allowing caller to define a state pattern.
+     * @return Returns a machine definition.
+     */
+    public static StateMachineDefinition create(String name, Consumer<StatePattern> statePatternConsumer) {
+        StatePattern statePattern = new StatePattern();
+        statePatternConsumer.accept(statePattern);
+        return create(name, statePattern);
+    }
+
+    /**
+     * The name of the state machines created from this definition.
+     * @return name of the state machine.
+     */
+    public String getName() {
+        return name;
+    }
+
+    /**
+     * Returns the state pattern.
+     * @return Returns the state pattern.
+     */
+    public StatePattern getStatePattern() {
+        return compiledPattern.statePattern();
+    }
+
+    /**
+     * Returns the compiled state pattern this definition was created with.
+     * @return Returns the compiled state pattern.
+     */
+    public CompiledStatePattern compiledPattern() {
+        return compiledPattern;
+    }
+
+    /**
+     * Creates a new state machine instance sharing this definition. The instance begins at the initial state.
+     * @return Returns a new StateMachine instance.
+     */
+    public StateMachine newInstance() {
+        return newInstance(name);
+    }
+
+    /**
+     * Creates a new state machine instance sharing this definition. The instance begins at the initial state.
+     * @param name Name of the state machine instance.
+     * @return Returns a new StateMachine instance.
+     */
+    public StateMachine newInstance(String name) {
+        return StateMachine.create(name, this, true);
+    }
+
+    /**
+     * Returns a new definition with an additional code block invoked when a state is encountered.
+     * @param state A state encountered.
+     * @param codeBlock Code to be invoked when state is encountered.
+     * @return Returns a new machine definition.
+     */
+    public StateMachineDefinition when(State state, Runnable codeBlock) {
+        StateMachineDefinition definition = copy();
+        definition.addCodeBlock(state, codeBlock);
+        return definition;
+    }
+
+    /**
+     * Returns a new definition with an additional code block invoked when a state is encountered.
+     * Code block will receive the called transition and the input value. If input value is null the transition name is used.
+     * @param state A state encountered.
+     * @param codeBlock Code to be invoked when state is encountered.
+     * @return Returns a new machine definition.
+     * @param <T> T is the type of the input value when transitioning.
+     */
+    public <T> StateMachineDefinition when(State state, InputTransition<Transition, T> codeBlock) {
+        StateMachineDefinition definition = copy();
+        definition.addCodeBlock(state, codeBlock);
+        return definition;
+    }
+
+    /**
+     * Returns a new definition whose state machines invoke code blocks through a CompiledDispatch
+     * instead of the code block arrays. Code blocks run on a callback executor or timed by metrics use the arrays.
+     * @return Returns a new machine definition.
+     */
+    public StateMachineDefinition compileDispatch() {
+        return new StateMachineDefinition(name, compiledPattern, copyOf(stateCodeMap), copyOf(inputStateCodeMap), true);
+    }
+
+    /**
+     * Returns the compiled dispatch, compiling it on first use.
+     * @return Returns the compiled dispatch or null when this definition doesn't compile its dispatch.
+     */
+    CompiledDispatch dispatch() {
+        if (!compiledDispatch) {
+            return null;
+        }
+        CompiledDispatch compiled = dispatch;
+        if (compiled == null) {
+            // compiling twice on a race is harmless, a compiled dispatch is immutable.
+            compiled = CompiledDispatch.compile(this);
+            dispatch = compiled;
+        }
+        return compiled;
+    }
+
+    /**
+     * Returns a new definition on the minimized state pattern, see StatePattern.minimize(). States having
+     * different code blocks are kept apart, each state kept keeps its code blocks.
+     * @return Returns a new machine definition.
+     */
+    public StateMachineDefinition minimize() {
+        MinimizedPattern minimized = compiledPattern.statePattern()
+                .minimize(state -> Arrays.asList(stateCodeMap.get(state), inputStateCodeMap.get(state)));
+        return new StateMachineDefinition(name, minimized.statePattern().compile(),
+                keptCodeBlocks(stateCodeMap, minimized), keptCodeBlocks(inputStateCodeMap, minimized), compiledDispatch);
+    }
+
+    private static <V> Map<State, List<V>> keptCodeBlocks(Map<State, List<V>> codeMap, MinimizedPattern minimized) {
+        Map<State, List<V>> kept = copyOf(codeMap);
+        // a merged state had the same code blocks as the state kept.
+        kept.keySet().removeIf(state -> minimized.state(state) != null && !state.equals(minimized.state(state)));
+        return kept;
+    }
+
+    /**
+     * Returns the code blocks of a state.
+     * @param stateId state id.
+     * @return Returns the code blocks of a state, an empty array if none.
+     */
+    Runnable[] codeBlocks(int stateId) {
+        return codeBlocks[stateId];
+    }
+
+    /**
+     * Returns the input code blocks of a state.
+     * @param stateId state id.
+     * @return Returns the input code blocks of a state, an empty array if none.
+     */
+    InputTransition<Transition, Object>[] inputCodeBlocks(int stateId) {
+        return inputCodeBlocks[stateId];
+    }
+
+    /**
+     * Adds a code block in place. Only used on a definition that is not shared yet.
+     * @param state A state encountered.
+     * @param codeBlock Code to be invoked when state is encountered.
+     */
+    void addCodeBlock(State state, Runnable codeBlock) {
+        stateCodeMap.computeIfAbsent(state, s -> new ArrayList<>()).add(codeBlock);
+        bindCodeBlocks(state);
+    }
+
+    /**
+     * Adds a code block in place. Only used on a definition that is not shared yet.
+     * @param state A state encountered.
+     * @param codeBlock Code to be invoked when state is encountered.
+     * @param <T> T is the type of the input value when transitioning.
+     */
+    @SuppressWarnings("unchecked")
+    <T> void addCodeBlock(State state, InputTransition<Transition, T> codeBlock) {
+        inputStateCodeMap.computeIfAbsent(state, s -> new ArrayList<>()).add((InputTransition<Transition, Object>) codeBlock);
+        bindCodeBlocks(state);
+    }
+
+    @SuppressWarnings("unchecked")
+    private void bindCodeBlocks(State state) {
+        int stateId = compiledPattern.stateId(state);
+        if (stateId == CompiledStatePattern.NOT_FOUND) {
+            return;
+        }
+        dispatch = null;
+        List<Runnable> runnables = stateCodeMap.get(state);
+        if (runnables != null) {
+            codeBlocks[stateId] = runnables.toArray(new Runnable[0]);
+        }
+        List<InputTransition<Transition, Object>> inputTransitions = inputStateCodeMap.get(state);
+        if (inputTransitions != null) {
+            inputCodeBlocks[stateId] = inputTransitions.toArray(NO_INPUT_CODE_BLOCKS);
+        }
+    }
+
+    /**
+     * Returns a copy of this definition that can be changed in place. The copy uses the same compiled state pattern.
+     * @return Returns a copy of this definition.
+     */
+    StateMachineDefinition copy() {
+        return new StateMachineDefinition(name, compiledPattern, copyOf(stateCodeMap), copyOf(inputStateCodeMap), compiledDispatch);
+    }
+
+    /**
+     * Returns a copy of this definition compiled from the current state pattern.
+     * @return Returns a copy of this definition compiled from the current state pattern.
+     */
+    StateMachineDefinition recompile() {
+        return new StateMachineDefinition(name, compiledPattern.statePattern().compile(), copyOf(stateCodeMap), copyOf(inputStateCodeMap), compiledDispatch);
+    }
+
+    /**
+     * Returns true if the state pattern was changed after this definition was compiled.
+     * @return Returns true if the state pattern was changed after this definition was compiled.
+     */
+    boolean isStale() {
+        return compiledPattern.isStale();
+    }
+
+    private static <V> Map<State, List<V>> copyOf(Map<State, List<V>> codeMap) {
+        Map<State, List<V>> copy = new LinkedHashMap<>();
+        codeMap.forEach((state, list) -> copy.put(state, new ArrayList<>(list)));
+        return copy;
+    }
+
+    @Override
+    public String toString() {
+        return "StateMachineDefinition{" +
+                "name=" + name +
+                ", compiledPattern=" + compiledPattern +
+                '}';
+    }
+}
@@ -17,7 +17,11 @@
  */
 package org.carlfx.axonic;
 
+import java.time.Duration;
 import java.util.*;
+import java.util.function.Function;
+import java.util.function.Predicate;
+import java.util.stream.Stream;
 
 import static org.carlfx.axonic.StateEnum.INITIAL;
 import static org.carlfx.axonic.StateEnum.STOP;
@@ -29,11 +33,35 @@ import static org.carlfx.axonic.StateEnum.STOP;
  * a state diagram and a state machine manages a user state.
  */
 public class StatePattern implements FSMBuilder {
-    private List<Transition> transitions;
-    private Set<State> states;
+    private NameIndexedTransitions transitions;
+    private NameIndexedStates states;
+    // states by name, the first state added with a name wins. Kept in step with states().
+    private final Map<String, State> statesByName = new HashMap<>();
+    // names shared by more than one state and all the states having them in the order they were added.
+    private final Map<String, List<State>> duplicateNames = new LinkedHashMap<>();
+    // the number of transitions by name. Kept in step with transitions().
+    private final Map<String, Integer> transitionNameCounts = new HashMap<>();
     private Map<State, List<Transition>> outgoingTransitions = new HashMap<>();
     private boolean initCalled = false;
     private State currentState;
+    // parent states and their substates in the order they were added, the first substate is the initial substate.
+    private final Map<State, List<State>> substates = new HashMap<>();
+    private final Map<State, State> parents = new HashMap<>();
+    // the timed transition of a state.
+    private final Map<State, After> timers = new HashMap<>();
+
+    /**
+     * A timed transition of a state.
+     * @param delay time spent in the state before the transition fires.
+     * @param transition name of the transition fired.
+     */
+    record After(Duration delay, String transition) {
+    }
+
+    /**
+     * The last compiled snapshot. Any change to the state pattern clears it.
+     */
+    CompiledStatePattern compiledPattern;
 
     /**
      * When the simple transition method is called. e.g. s.(MYSTATE1).t("north")
@@ -67,6 +95,7 @@ public class StatePattern implements FSMBuilder {
     }
     @Override
     public StatePattern initial(State state) {
+        modified();
         currentState = state;
         states().add(INITIAL);
         states().add(state);
@@ -82,17 +111,21 @@ public class StatePattern implements FSMBuilder {
 
     @Override
     public StatePattern moveInitial(State state) {
-        if (initCalled) {
-            // remove from log
-            Transition initialTransition = lookupOutgoingTransitions(INITIAL).get(0);
-            transitions().remove(initialTransition);
-            outgoingTransitions.remove(INITIAL);
-        }
-
+        modified();
+        Transition initialT = new Transition(INITIAL.name.toLowerCase(), INITIAL, state);
         currentState = state;
         states().add(state);
-        Transition initialT = new Transition(INITIAL.name.toLowerCase(), INITIAL, state);
-        transitions().add(0, initialT);
+        if (initCalled && !transitions().isEmpty() && INITIAL.equals(transitions().get(0).fromState())) {
+            // replace in place rather than shifting every transition.
+            transitions().set(0, initialT);
+        } else {
+            if (initCalled) {
+                // remove from log
+                Transition initialTransition = lookupOutgoingTransitions(INITIAL).get(0);
+                transitions().remove(initialTransition);
+            }
+            transitions().add(0, initialT);
+        }
         outgoingTransitions.put(INITIAL, List.of(initialT));
         initCalled = true;
 
@@ -104,9 +137,11 @@ public class StatePattern implements FSMBuilder {
         if (STOP.equals(currentState())) {
             throw new RuntimeException("Cannot make consecutive stop transitions");
         }
+        modified();
         states().add(STOP);
         Transition stop = new Transition(STOP.name.toLowerCase(), currentState(), STOP);
-        if (!transitions().contains(stop)) {
+        // a stop transition is an outgoing transition of the current state, only its transitions are searched.
+        if (!lookupOutgoingTransitions(currentState()).contains(stop)) {
             transitions().add(stop);
         }
         outgoingTransitions.putIfAbsent(STOP, Collections.EMPTY_LIST);
@@ -115,7 +150,8 @@ public class StatePattern implements FSMBuilder {
     }
 
     /**
-     * Returns a list of outgoing transitions based on current state.
+     * Returns a list of outgoing transitions based on current state. Changing the list changes the state pattern
+     * and the next compile() picks the change up.
      * @param state current state.
      * @return Returns a list of outgoing transitions based on current state.
      */
@@ -123,7 +159,7 @@ public class StatePattern implements FSMBuilder {
     public List<Transition> lookupOutgoingTransitions(State state) {
         List<Transition> transitionList = outgoingTransitions.get(state);
         if (transitionList == null) {
-            transitionList = new ArrayList<>();
+            transitionList = new OutgoingTransitions();
             outgoingTransitions.put(state, transitionList);
         }
         return transitionList;
@@ -136,6 +172,7 @@ public class StatePattern implements FSMBuilder {
      */
     @Override
     public StatePattern addOutgoingTransitionsByState(State state, Transition transition) {
+        modified();
         List<Transition> transitionList = lookupOutgoingTransitions(state);
         transitionList.add(transition);
         return this;
@@ -148,8 +185,13 @@ public class StatePattern implements FSMBuilder {
      */
     @Override
     public StatePattern removeOutgoingTransitionsByState(State state, Transition transition) {
+        modified();
         List<Transition> transitionList = lookupOutgoingTransitions(state);
-        transitionList.remove(transition);
+        // usually the transition just added, search from the end.
+        int index = transitionList.lastIndexOf(transition);
+        if (index >= 0) {
+            transitionList.remove(index);
+        }
         return this;
     }
 
@@ -174,6 +216,7 @@ public class StatePattern implements FSMBuilder {
      */
     @Override
     public StatePattern t(Transition transition) {
+        modified();
         simpleTransitionCalled = false;
         if (STOP.equals(transition.fromState())) {
             throw new RuntimeException("The From state (previous) cannot be a STOP state");
@@ -202,6 +245,45 @@ public class StatePattern implements FSMBuilder {
         return this;
     }
 
+    /**
+     * Adds many transitions at once, e.g. a generated state pattern. Each transition is added like t(Transition),
+     * the transition list grows once and the indexes are updated in constant time per transition.
+     * <pre>
+     *     new StatePattern()
+     *         .initial(S0)
+     *         .addTransitions(generatedTransitions);
+     * </pre>
+     * @param added the transitions in the order they are defined.
+     * @return StatePattern itself.
+     */
+    public StatePattern addTransitions(Transition... added) {
+        return addTransitions(Arrays.asList(added));
+    }
+
+    /**
+     * Adds many transitions at once in linear time. See addTransitions(Transition...).
+     * @param added the transitions in the order they are defined.
+     * @return StatePattern itself.
+     */
+    public StatePattern addTransitions(Collection<Transition> added) {
+        transitions();
+        transitions.ensureCapacity(transitions.size() + added.size());
+        for (Transition transition : added) {
+            t(transition);
+        }
+        return this;
+    }
+
+    /**
+     * Adds a stream of transitions in linear time, e.g. transitions read from a file. See addTransitions(Transition...).
+     * @param added the transitions in the order they are defined.
+     * @return StatePattern itself.
+     */
+    public StatePattern addTransitions(Stream<Transition> added) {
+        added.forEachOrdered(this::t);
+        return this;
+    }
+
     @Override
     public StatePattern t(String transition, State toState) {
         simpleTransitionCalled = false;
@@ -231,8 +313,97 @@ public class StatePattern implements FSMBuilder {
         return t(transition1);
     }
 
+    /**
+     * Guards the last transition defined. When a transition is fired with an input rejected by the guard the next
+     * transition with the same name and from state is tried in the order they were defined.
+     * <pre>
+     *     .t("coin", LOCKED, UNLOCKED).guard(input -&gt; (Integer) input &gt;= 25)
+     *     .t("coin", LOCKED, LOCKED)
+     * </pre>
+     * @param guard a condition on the input passed to the transition. The input is null when none was passed.
+     * @return StatePattern itself.
+     */
+    public StatePattern guard(Predicate<Object> guard) {
+        if (transitions().isEmpty()) {
+            throw new RuntimeException("A guard must follow a transition");
+        }
+        modified();
+        int last = transitions().size() - 1;
+        Transition transition = transitions().get(last);
+        Transition guarded = transition.withGuard(guard);
+        transitions().set(last, guarded);
+        List<Transition> transitionList = lookupOutgoingTransitions(transition.fromState());
+        transitionList.set(transitionList.lastIndexOf(transition), guarded);
+        return this;
+    }
+
+    /**
+     * Timed transition from the current state. When a state machine with timers stays in the from state for the delay
+     * the transition is fired, leaving the state earlier cancels the timer.
+     * <pre>
+     *     .s(UNLOCKED)
+     *     .after(Duration.ofSeconds(30), "timeout", LOCKED)
+     * </pre>
+     * @param delay time spent in the from state before the transition fires.
+     * @param transition name of the transition, it can also be fired like any other transition.
+     * @param toState next state
+     * @return StatePattern itself.
+     */
+    public StatePattern after(Duration delay, String transition, State toState) {
+        return after(delay, transition, currentState(), toState);
+    }
+
+    /**
+     * Timed transition from and to a known state. A state has at most one timed transition.
+     * @param delay time spent in the from state before the transition fires.
+     * @param transition name of the transition, it can also be fired like any other transition.
+     * @param fromState previous state
+     * @param toState next state
+     * @return StatePattern itself.
+     */
+    public StatePattern after(Duration delay, String transition, State fromState, State toState) {
+        if (delay.isNegative() || delay.isZero()) {
+            throw new RuntimeException("The delay of a timed transition must be positive");
+        }
+        if (timers.containsKey(fromState)) {
+            throw new RuntimeException(fromState.getName() + " already has a timed transition");
+        }
+        t(transition, fromState, toState);
+        timers.put(fromState, new After(delay, transition));
+        return this;
+    }
+
+    /**
+     * Declares the timed transition of a state whose transition was already added.
+     * @param state the from state.
+     * @param delay time spent in the state before the transition fires.
+     * @param transition name of the transition fired.
+     */
+    void timer(State state, Duration delay, String transition) {
+        modified();
+        timers.put(state, new After(delay, transition));
+    }
+
+    /**
+     * Returns the timed transition declared by a state.
+     * @param state a from state.
+     * @return Returns the timed transition or null.
+     */
+    After timerOf(State state) {
+        return timers.get(state);
+    }
+
+    /**
+     * Returns true when a state declares a timed transition.
+     * @return Returns true when a state declares a timed transition.
+     */
+    boolean hasTimers() {
+        return !timers.isEmpty();
+    }
+
     @Override
     public StatePattern s(State state) {
+        modified();
         currentState = state;
         states().add(state);
         Transition transition = null;
@@ -254,22 +425,420 @@ public class StatePattern implements FSMBuilder {
         return this;
     }
 
+    /**
+     * Adds substates to a parent state. Substates inherit the parent's outgoing transitions unless they define a
+     * transition with the same name themselves. A transition to the parent enters its first (initial) substate.
+     * @param parent the parent state.
+     * @param children the substates, the first one is the initial substate.
+     * @return StatePattern itself.
+     */
+    public StatePattern substates(State parent, State... children) {
+        modified();
+        states().add(parent);
+        List<State> childList = substates.computeIfAbsent(parent, key -> new ArrayList<>());
+        for (State child : children) {
+            State existing = parents.get(child);
+            if (existing != null && !existing.equals(parent)) {
+                throw new RuntimeException(child.getName() + " is already a substate of " + existing.getName());
+            }
+            for (State ancestor = parent; ancestor != null; ancestor = parents.get(ancestor)) {
+                if (ancestor.equals(child)) {
+                    throw new RuntimeException(child.getName() + " cannot be a substate of itself");
+                }
+            }
+            if (existing == null) {
+                parents.put(child, parent);
+                childList.add(child);
+                states().add(child);
+            }
+        }
+        return this;
+    }
+
+    /**
+     * Returns the parent of a substate.
+     * @param state a state.
+     * @return Returns the parent state or null when the state is not a substate.
+     */
+    public State parentOf(State state) {
+        return parents.get(state);
+    }
+
+    /**
+     * Returns the substates of a parent state, the first one is the initial substate.
+     * @param parent a parent state.
+     * @return Returns an unmodifiable list of substates.
+     */
+    public List<State> substatesOf(State parent) {
+        List<State> childList = substates.get(parent);
+        return childList == null ? Collections.emptyList() : Collections.unmodifiableList(childList);
+    }
+
+    /**
+     * Returns the history pseudo state of a parent state. A transition to it resumes the substate the state machine
+     * was last in within the parent.
+     * <pre>
+     *     .substates(EDITING, TEXT, IMAGE)
+     *     .t("help", EDITING, HELP)
+     *     .t("back", HELP, StatePattern.history(EDITING))
+     * </pre>
+     * @param parent a parent state.
+     * @return Returns the history pseudo state.
+     */
+    public static State history(State parent) {
+        return new HistoryState(parent);
+    }
+
+    /**
+     * Returns the state entered by a transition to a state. A parent state enters its initial substate (recursively).
+     * @param state a target state.
+     * @return Returns the state entered.
+     */
+    State entryState(State state) {
+        List<State> childList = substates.get(state);
+        while (childList != null && !childList.isEmpty()) {
+            state = childList.get(0);
+            childList = substates.get(state);
+        }
+        return state;
+    }
+
+    /**
+     * Returns the outgoing transitions of a state without creating an entry for unknown states.
+     * @param state a from state.
+     * @return Returns the outgoing transitions of a state.
+     */
+    List<Transition> outgoingTransitionsOf(State state) {
+        List<Transition> transitionList = outgoingTransitions.get(state);
+        return transitionList == null ? Collections.emptyList() : transitionList;
+    }
+
+    /**
+     * Freezes the state pattern into a dense int indexed transition table. The compiled pattern
+     * is cached and returned until the state pattern is changed again by a builder method.
+     * @return Returns a compiled snapshot of this state pattern.
+     */
+    public CompiledStatePattern compile() {
+        CompiledStatePattern compiled = compiledPattern;
+        if (compiled == null) {
+            compiled = new CompiledStatePattern(this);
+            compiledPattern = compiled;
+        }
+        return compiled;
+    }
+
+    /**
+     * Returns a copy of this state pattern with the states having identical futures merged, e.g. a state pattern
+     * generated from business rules. Equivalent states accept the same transitions (and guards) leading to
+     * equivalent states. The first of equivalent states is kept with its outgoing transitions.
+     * <pre>
+     *     MinimizedPattern minimized = statePattern.minimize();
+     *     StateMachine stateMachine = StateMachine.create(minimized.statePattern());
+     *     State kept = minimized.state(SHIPPED_EXPRESS);
+     * </pre>
+     * States without outgoing transitions are equivalent, see minimize(Function) to keep states apart.
+     * Predefined states, history states, parent states and substates are kept. This state pattern is not changed.
+     * @return Returns the minimized state pattern and each state mapped to the state it was merged into.
+     */
+    public MinimizedPattern minimize() {
+        return minimize(state -> null);
+    }
+
+    /**
+     * Returns a copy of this state pattern with the states having identical futures merged, states with different
+     * keys are kept apart. e.g. minimize(State::getDescription) keeps states having different descriptions.
+     * See minimize().
+     * @param distinguish returns the key of a state, states are only merged when their keys are equal.
+     * @return Returns the minimized state pattern and each state mapped to the state it was merged into.
+     */
+    public MinimizedPattern minimize(Function<State, ?> distinguish) {
+        return new PatternMinimizer(this, distinguish).minimize();
+    }
+
+    private void modified() {
+        compiledPattern = null;
+    }
+
+    /**
+     * Returns the transitions in the order they were added. Changing the list changes the state pattern
+     * and the next compile() picks the change up.
+     * @return Returns the transitions of this state pattern.
+     */
     @Override
     public List<Transition> transitions() {
         if (transitions == null) {
-            transitions = new ArrayList<>();
+            transitions = new NameIndexedTransitions();
         }
         return transitions;
     }
 
+    /**
+     * Returns the states in the order they were added. Changing the set changes the state pattern
+     * and the next compile() picks the change up.
+     * @return Returns the states of this state pattern.
+     */
     @Override
     public Set<State> states() {
         if (states == null) {
-            states = new HashSet<>();
+            states = new NameIndexedStates();
         }
         return states;
     }
 
+    /**
+     * Returns a state by its name. When states share a name the first state added is returned, see duplicateStateNames().
+     * @param name the name of a state.
+     * @return Returns the state or null when no state has the name.
+     */
+    public State stateByName(String name) {
+        return statesByName.get(name);
+    }
+
+    /**
+     * Returns true when a transition has the name.
+     * @param name the name of a transition.
+     * @return Returns true when a transition has the name.
+     */
+    public boolean hasTransitionName(String name) {
+        return transitionNameCounts.containsKey(name);
+    }
+
+    /**
+     * Returns the names shared by more than one state. Lookups by such a name return the first state added.
+     * @return Returns an unmodifiable map of duplicate names to the states having them in the order they were added.
+     */
+    public Map<String, List<State>> duplicateStateNames() {
+        return Collections.unmodifiableMap(duplicateNames);
+    }
+
+    private void indexState(State state) {
+        if (state == null || state.getName() == null) {
+            return;
+        }
+        State existing = statesByName.putIfAbsent(state.getName(), state);
+        if (existing != null && !existing.equals(state)) {
+            duplicateNames.computeIfAbsent(state.getName(), name -> new ArrayList<>(List.of(existing))).add(state);
+        }
+    }
+
+    private void unindexState(State state) {
+        if (state == null || state.getName() == null) {
+            return;
+        }
+        List<State> sharing = duplicateNames.get(state.getName());
+        if (sharing == null) {
+            statesByName.remove(state.getName(), state);
+            return;
+        }
+        sharing.remove(state);
+        statesByName.put(state.getName(), sharing.get(0));
+        if (sharing.size() == 1) {
+            duplicateNames.remove(state.getName());
+        }
+    }
+
+    private void countTransitionName(Transition transition, int delta) {
+        if (transition != null) {
+            transitionNameCounts.merge(transition.name(), delta, (count, change) -> count + change == 0 ? null : count + change);
+        }
+    }
+
+    /**
+     * The states of a state pattern in the order they were added, indexed by name as they are added or removed.
+     * Every removal, including the iterator's, goes through remove(Object) or the iterator below. Every change
+     * clears the compiled snapshot.
+     */
+    private class NameIndexedStates extends AbstractSet<State> {
+        private final Set<State> backing = new LinkedHashSet<>();
+
+        @Override
+        public boolean add(State state) {
+            if (backing.add(state)) {
+                modified();
+                indexState(state);
+                return true;
+            }
+            return false;
+        }
+
+        @Override
+        public boolean remove(Object state) {
+            if (backing.remove(state)) {
+                modified();
+                unindexState((State) state);
+                return true;
+            }
+            return false;
+        }
+
+        @Override
+        public boolean contains(Object state) {
+            return backing.contains(state);
+        }
+
+        @Override
+        public Iterator<State> iterator() {
+            Iterator<State> iterator = backing.iterator();
+            return new Iterator<>() {
+                private State last;
+
+                @Override
+                public boolean hasNext() {
+                    return iterator.hasNext();
+                }
+
+                @Override
+                public State next() {
+                    last = iterator.next();
+                    return last;
+                }
+
+                @Override
+                public void remove() {
+                    iterator.remove();
+                    modified();
+                    unindexState(last);
+                }
+            };
+        }
+
+        @Override
+        public int size() {
+            return backing.size();
+        }
+
+        @Override
+        public void clear() {
+            modified();
+            backing.clear();
+            statesByName.clear();
+            duplicateNames.clear();
+        }
+    }
+
+    /**
+     * The transitions of a state pattern counting their names as they are added, replaced or removed.
+     * AbstractList routes every other change (iterators, sub lists, removeIf, replaceAll) through these methods.
+     * Every change clears the compiled snapshot.
+     */
+    private class NameIndexedTransitions extends AbstractList<Transition> implements RandomAccess {
+        private final ArrayList<Transition> backing = new ArrayList<>();
+
+        void ensureCapacity(int capacity) {
+            backing.ensureCapacity(capacity);
+        }
+
+        @Override
+        public Transition get(int index) {
+            return backing.get(index);
+        }
+
+        @Override
+        public int size() {
+            return backing.size();
+        }
+
+        @Override
+        public Transition set(int index, Transition transition) {
+            modified();
+            Transition replaced = backing.set(index, transition);
+            countTransitionName(replaced, -1);
+            countTransitionName(transition, 1);
+            return replaced;
+        }
+
+        @Override
+        public void add(int index, Transition transition) {
+            modified();
+            backing.add(index, transition);
+            countTransitionName(transition, 1);
+            modCount++;
+        }
+
+        @Override
+        public Transition remove(int index) {
+            modified();
+            Transition removed = backing.remove(index);
+            countTransitionName(removed, -1);
+            modCount++;
+            return removed;
+        }
+
+        @Override
+        protected void removeRange(int fromIndex, int toIndex) {
+            modified();
+            List<Transition> range = backing.subList(fromIndex, toIndex);
+            range.forEach(transition -> countTransitionName(transition, -1));
+            range.clear();
+            modCount++;
+        }
+
+        @Override
+        public void clear() {
+            modified();
+            backing.clear();
+            transitionNameCounts.clear();
+            modCount++;
+        }
+    }
+
+    /**
+     * The outgoing transitions of a state. Every change clears the compiled snapshot.
+     */
+    private class OutgoingTransitions extends AbstractList<Transition> implements RandomAccess {
+        private final ArrayList<Transition> backing = new ArrayList<>();
+
+        @Override
+        public Transition get(int index) {
+            return backing.get(index);
+        }
+
+        @Override
+        public int size() {
+            return backing.size();
+        }
+
+        @Override
+        public int lastIndexOf(Object transition) {
+            return backing.lastIndexOf(transition);
+        }
+
+        @Override
+        public Transition set(int index, Transition transition) {
+            modified();
+            return backing.set(index, transition);
+        }
+
+        @Override
+        public void add(int index, Transition transition) {
+            modified();
+            backing.add(index, transition);
+            modCount++;
+        }
+
+        @Override
+        public Transition remove(int index) {
+            modified();
+            Transition removed = backing.remove(index);
+            modCount++;
+            return removed;
+        }
+
+        @Override
+        protected void removeRange(int fromIndex, int toIndex) {
+            modified();
+            backing.subList(fromIndex, toIndex).clear();
+            modCount++;
+        }
+
+        @Override
+        public void clear() {
+            modified();
+            backing.clear();
+            modCount++;
+        }
+    }
+
     @Override
     public State currentState() {
         return currentState;
@@ -0,0 +1,329 @@
+/*
+ * SPDX-License-Identifier: Apache-2.0
+ *
+ * Copyright © 2024. Carl Dea.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.carlfx.axonic;
+
+import java.time.Duration;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+import java.util.function.BiConsumer;
+import java.util.function.LongSupplier;
+
+/**
+ * A hashed timing wheel scheduling the timed transitions of many state machines. Each slot of the wheel is a
+ * doubly linked list of timeouts, so scheduling and cancelling a timeout is O(1) regardless of how many are pending.
+ * Time advances in ticks, a timeout fires on the first tick at or after its deadline.
+ * <pre>
+ *     TimingWheel wheel = TimingWheel.create(Duration.ofMillis(10), 512);
+ *     StateMachine turnstileSM = StateMachine.create(turnstilePattern).timers(wheel);
+ *     ...
+ *     wheel.advance(); // fires due timeouts on the calling thread, e.g. from an event loop.
+ * </pre>
+ * A wheel driven by a VirtualClock makes timed transitions deterministic in tests. Calling start() advances
+ * the wheel every tick on its own daemon thread.
+ */
+public final class TimingWheel implements AutoCloseable {
+    /**
+     * Default duration of a tick.
+     */
+    public static final Duration DEFAULT_TICK = Duration.ofMillis(10);
+
+    /**
+     * Default number of slots, rounded up to a power of two.
+     */
+    public static final int DEFAULT_SLOTS = 512;
+
+    private final long tickNanos;
+    private final Timeout[] slots;
+    private final int mask;
+    private final LongSupplier clock;
+    private final long startNanos;
+    // the last tick processed.
+    private long tick;
+    private int size;
+    private volatile Thread driver;
+    private volatile BiConsumer<Timeout, Throwable> errorHandler = (timeout, throwable) -> {
+        Thread thread = Thread.currentThread();
+        thread.getUncaughtExceptionHandler().uncaughtException(thread, throwable);
+    };
+
+    private TimingWheel(long tickNanos, int slotCount, LongSupplier clock) {
+        if (tickNanos <= 0) {
+            throw new IllegalArgumentException("The tick must be positive");
+        }
+        if (slotCount <= 0 || slotCount > 1 << 30) {
+            throw new IllegalArgumentException("Slot count must be between 1 and 2^30: " + slotCount);
+        }
+        int length = Integer.highestOneBit(slotCount - 1) << 1;
+        if (slotCount == 1) {
+            length = 1;
+        }
+        this.tickNanos = tickNanos;
+        this.slots = new Timeout[length];
+        this.mask = length - 1;
+        this.clock = clock;
+        this.startNanos = clock.getAsLong();
+    }
+
+    /**
+     * Creates a timing wheel with a 10 millisecond tick and 512 slots using System.nanoTime().
+     * @return Returns a timing wheel.
+     */
+    public static TimingWheel create() {
+        return create(DEFAULT_TICK, DEFAULT_SLOTS);
+    }
+
+    /**
+     * Creates a timing wheel using System.nanoTime().
+     * @param tick duration of a tick, the resolution of timeouts.
+     * @param slots number of slots, rounded up to a power of two. Timeouts longer than tick x slots take extra turns of the wheel.
+     * @return Returns a timing wheel.
+     */
+    public static TimingWheel create(Duration tick, int slots) {
+        return create(tick, slots, System::nanoTime);
+    }
+
+    /**
+     * Creates a timing wheel driven by a clock, e.g. a VirtualClock.
+     * @param tick duration of a tick, the resolution of timeouts.
+     * @param slots number of slots, rounded up to a power of two.
+     * @param clock a monotonic clock in nanoseconds.
+     * @return Returns a timing wheel.
+     */
+    public static TimingWheel create(Duration tick, int slots, LongSupplier clock) {
+        return new TimingWheel(tick.toNanos(), slots, clock);
+    }
+
+    /**
+     * Schedules a task to run after a delay.
+     * @param delay the delay.
+     * @param task the task run by advance() once the delay elapsed.
+     * @return Returns a handle to cancel the timeout.
+     */
+    public Timeout schedule(Duration delay, Runnable task) {
+        return schedule(delay.toNanos(), task);
+    }
+
+    /**
+     * Schedules a task to run after a delay.
+     * @param delayNanos the delay in nanoseconds.
+     * @param task the task run by advance() once the delay elapsed.
+     * @return Returns a handle to cancel the timeout.
+     */
+    public Timeout schedule(long delayNanos, Runnable task) {
+        Timeout timeout = new Timeout(this, task);
+        long elapsed = clock.getAsLong() - startNanos + Math.max(delayNanos, 0);
+        // round up so a timeout never fires early.
+        long deadline = (elapsed + tickNanos - 1) / tickNanos;
+        synchronized (this) {
+            timeout.deadline = Math.max(deadline, tick + 1);
+            link(timeout);
+        }
+        return timeout;
+    }
+
+    private void link(Timeout timeout) {
+        int slot = (int) (timeout.deadline & mask);
+        Timeout head = slots[slot];
+        timeout.next = head;
+        if (head != null) {
+            head.previous = timeout;
+        }
+        slots[slot] = timeout;
+        size++;
+    }
+
+    private void unlink(Timeout timeout) {
+        if (timeout.previous != null) {
+            timeout.previous.next = timeout.next;
+        } else {
+            slots[(int) (timeout.deadline & mask)] = timeout.next;
+        }
+        if (timeout.next != null) {
+            timeout.next.previous = timeout.previous;
+        }
+        timeout.next = null;
+        timeout.previous = null;
+        size--;
+    }
+
+    private synchronized boolean cancel(Timeout timeout) {
+        if (timeout.state != Timeout.PENDING) {
+            return false;
+        }
+        timeout.state = Timeout.CANCELLED;
+        unlink(timeout);
+        return true;
+    }
+
+    /**
+     * Fires every timeout due at the clock's current time. Tasks run on the calling thread after the wheel is
+     * updated, so they may schedule or cancel timeouts. An exception thrown by a task is passed to the error handler
+     * and the other due timeouts still fire, see onError().
+     * @return Returns the number of timeouts fired.
+     */
+    public int advance() {
+        Timeout expired = null;
+        synchronized (this) {
+            long now = (clock.getAsLong() - startNanos) / tickNanos;
+            if (size == 0) {
+                tick = Math.max(tick, now);
+                return 0;
+            }
+            // a whole turn visits every slot, further ticks would visit the same slots again.
+            long last = Math.min(now, tick + slots.length);
+            while (tick < last) {
+                tick++;
+                Timeout timeout = slots[(int) (tick & mask)];
+                while (timeout != null) {
+                    Timeout next = timeout.next;
+                    if (timeout.deadline <= now) {
+                        unlink(timeout);
+                        timeout.state = Timeout.EXPIRED;
+                        timeout.next = expired;
+                        expired = timeout;
+                    }
+                    timeout = next;
+                }
+            }
+            tick = Math.max(tick, now);
+        }
+        int fired = 0;
+        while (expired != null) {
+            Timeout next = expired.next;
+            expired.next = null;
+            try {
+                expired.task.run();
+            } catch (Throwable throwable) {
+                errorHandler.accept(expired, throwable);
+            }
+            expired = next;
+            fired++;
+        }
+        return fired;
+    }
+
+    /**
+     * Sets the handler of exceptions thrown by tasks, e.g. by a when() code block of a timed transition. By default
+     * the exception is passed to the uncaught exception handler of the thread calling advance(). Either way the
+     * thread started by start() keeps advancing the wheel.
+     * @param errorHandler receives the timeout and the exception.
+     * @return Returns this timing wheel.
+     */
+    public TimingWheel onError(BiConsumer<Timeout, Throwable> errorHandler) {
+        this.errorHandler = errorHandler;
+        return this;
+    }
+
+    /**
+     * Returns the number of pending timeouts.
+     * @return Returns the number of pending timeouts.
+     */
+    public synchronized int size() {
+        return size;
+    }
+
+    /**
+     * Advances the wheel every tick on a daemon thread until closed. Tasks then run on that thread.
+     * @return Returns this timing wheel.
+     */
+    public synchronized TimingWheel start() {
+        if (driver == null) {
+            Thread thread = new Thread(() -> {
+                while (driver == Thread.currentThread()) {
+                    advance();
+                    LockSupport.parkNanos(tickNanos);
+                }
+            }, "axonic-timing-wheel");
+            thread.setDaemon(true);
+            driver = thread;
+            thread.start();
+        }
+        return this;
+    }
+
+    /**
+     * Stops the thread started by start(). Pending timeouts are kept.
+     */
+    @Override
+    public synchronized void close() {
+        Thread thread = driver;
+        driver = null;
+        if (thread != null) {
+            LockSupport.unpark(thread);
+        }
+    }
+
+    @Override
+    public String toString() {
+        return "TimingWheel{" +
+                "tick=" + TimeUnit.NANOSECONDS.toMillis(tickNanos) + "ms" +
+                ", slots=" + slots.length +
+                ", size=" + size() +
+                '}';
+    }
+
+    /**
+     * A scheduled task of a timing wheel.
+     */
+    public static final class Timeout {
+        static final int PENDING = 0;
+        static final int CANCELLED = 1;
+        static final int EXPIRED = 2;
+
+        private final TimingWheel wheel;
+        private final Runnable task;
+        // guarded by the wheel.
+        private long deadline;
+        private int state;
+        private Timeout next;
+        private Timeout previous;
+
+        private Timeout(TimingWheel wheel, Runnable task) {
+            this.wheel = wheel;
+            this.task = task;
+        }
+
+        /**
+         * Cancels the timeout in O(1).
+         * @return Returns true if the timeout was pending, false if it already fired or was cancelled.
+         */
+        public boolean cancel() {
+            return wheel.cancel(this);
+        }
+
+        /**
+         * Returns true when the timeout was cancelled.
+         * @return Returns true when the timeout was cancelled.
+         */
+        public boolean isCancelled() {
+            synchronized (wheel) {
+                return state == CANCELLED;
+            }
+        }
+
+        /**
+         * Returns true when the timeout fired.
+         * @return Returns true when the timeout fired.
+         */
+        public boolean isExpired() {
+            synchronized (wheel) {
+                return state == EXPIRED;
+            }
+        }
+    }
+}
@@ -17,14 +17,29 @@
  */
 package org.carlfx.axonic;
 
+import java.util.function.Predicate;
+
 /**
  * A transition object representing its name, a from and to state, and an optional description.
  * @param name Name of transition
  * @param fromState The from state.
  * @param toState The to state.
  * @param description The description of the transition. Some diagram tools allow notes or comments.
+ * @param guard An optional condition on the input passed to the transition. When it rejects the input the next
+ *              transition with the same name and from state is tried. Null when the transition is not guarded.
  */
-public record Transition(String name, State fromState, State toState, String description) {
+public record Transition(String name, State fromState, State toState, String description, Predicate<Object> guard) {
+
+    /**
+     * A transition object representing its name, a from and to state, and an optional description.
+     * @param name Name of transition
+     * @param fromState The from state.
+     * @param toState The to state.
+     * @param description The description of the transition. Some diagram tools allow notes or comments.
+     */
+    public Transition(String name, State fromState, State toState, String description) {
+        this(name, fromState, toState, description, null);
+    }
 
     /**
      * A transition object representing its name, a from and to state.
@@ -42,7 +57,7 @@ public record Transition(String name, State fromState, State toState, String des
      * @return  A new Transition record.
      */
     public Transition withName(String name) {
-        return new Transition(name, fromState(), toState(), description());
+        return new Transition(name, fromState(), toState(), description(), guard());
     }
 
     /**
@@ -51,7 +66,7 @@ public record Transition(String name, State fromState, State toState, String des
      * @return A new Transition record.
      */
     public Transition withFromState(State fromState) {
-        return new Transition(name(), fromState, toState(), description());
+        return new Transition(name(), fromState, toState(), description(), guard());
     }
 
     /**
@@ -60,7 +75,7 @@ public record Transition(String name, State fromState, State toState, String des
      * @return A new Transition record.
      */
     public Transition withToState(State toState) {
-        return new Transition(name(), fromState(), toState, description());
+        return new Transition(name(), fromState(), toState, description(), guard());
     }
 
     /**
@@ -69,7 +84,16 @@ public record Transition(String name, State fromState, State toState, String des
      * @return A new Transition record.
      */
     public Transition withDescription(String description) {
-        return new Transition(name(), fromState(), toState(), description);
+        return new Transition(name(), fromState(), toState(), description, guard());
+    }
+
+    /**
+     * Create a new instance of a transition with a guard.
+     * @param guard a condition on the input passed to the transition or null.
+     * @return A new Transition record.
+     */
+    public Transition withGuard(Predicate<Object> guard) {
+        return new Transition(name(), fromState(), toState(), description(), guard);
     }
 
 }
@@ -0,0 +1,57 @@
+/*
+ * SPDX-License-Identifier: Apache-2.0
+ *
+ * Copyright © 2024. Carl Dea.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.carlfx.axonic;
+
+/**
+ * An interned handle of a transition name resolved once from a compiled state pattern.
+ * Firing a transition by key avoids hashing the transition name on every call.
+ * Keys are unique per compiled state pattern so they can be compared by identity.
+ * See {@link CompiledStatePattern#transitionKey(String)}.
+ */
+public final class TransitionKey {
+    final CompiledStatePattern compiledPattern;
+    private final int id;
+    private final String name;
+
+    TransitionKey(CompiledStatePattern compiledPattern, int id, String name) {
+        this.compiledPattern = compiledPattern;
+        this.id = id;
+        this.name = name;
+    }
+
+    /**
+     * Returns the transition name id within the compiled state pattern.
+     * @return Returns the transition name id.
+     */
+    public int id() {
+        return id;
+    }
+
+    /**
+     * Returns the transition name.
+     * @return Returns the transition name.
+     */
+    public String name() {
+        return name;
+    }
+
+    @Override
+    public String toString() {
+        return "TransitionKey{" + "id=" + id + ", name=" + name + '}';
+    }
+}
@@ -0,0 +1,48 @@
+/*
+ * SPDX-License-Identifier: Apache-2.0
+ *
+ * Copyright © 2024. Carl Dea.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.carlfx.axonic;
+
+/**
+ * Observes the state changes of a state machine by compiled ids, e.g. to journal them.
+ * A listener is called on the thread changing the state, right after the state changes and before any when() code blocks run.
+ * See StateMachine.listener(TransitionListener).
+ */
+public interface TransitionListener {
+    /**
+     * Called after the state machine moved along an outgoing transition.
+     * @param compiled the compiled state pattern.
+     * @param transitionIndex the transition index. See CompiledStatePattern.transition(int).
+     */
+    void moved(CompiledStatePattern compiled, int transitionIndex);
+
+    /**
+     * Called after initial(state) began the flow at a state.
+     * @param compiled the compiled state pattern.
+     * @param stateId the state id or NOT_FOUND when the state is not part of the state pattern.
+     */
+    default void initial(CompiledStatePattern compiled, int stateId) {
+    }
+
+    /**
+     * Called after an invalid transition moved the state machine to the INVALID state.
+     * @param compiled the compiled state pattern.
+     * @param nameId the transition name id or NOT_FOUND when the name is not part of the state pattern.
+     */
+    default void invalid(CompiledStatePattern compiled, int nameId) {
+    }
+}
@@ -0,0 +1,212 @@
+/*
+ * SPDX-License-Identifier: Apache-2.0
+ *
+ * Copyright © 2024. Carl Dea.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.carlfx.axonic;
+
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Counts the transitions fired, the states entered and the invalid events of state machines sharing a compiled
+ * state pattern, and records the latency of their when() code blocks. Counters are striped (LongAdder) and
+ * indexed by compiled ids so many state machines on many threads can share one instance, and they can be read
+ * while the state machines run.
+ * <pre>
+ *     TransitionMetrics metrics = TransitionMetrics.create(turnstilePattern.compile());
+ *     StateMachine turnstileSM = StateMachine.create(turnstilePattern).metrics(metrics);
+ *     ...
+ *     metrics.transitionCount("coin");
+ *     metrics.callbackLatency(UNLOCKED).valueAtPercentile(99);
+ * </pre>
+ * Metrics are disabled by default and then cost a null check per transition. State machines of a changed
+ * (recompiled) state pattern are not counted, create new metrics for the new compiled state pattern.
+ */
+public final class TransitionMetrics implements TransitionListener {
+    private final CompiledStatePattern compiled;
+    // by transition index.
+    private final LongAdder[] transitions;
+    // by state id.
+    private final LongAdder[] states;
+    // by transition name id, the last one counts names that are not part of the state pattern.
+    private final LongAdder[] invalid;
+    // by state id, created when a state's code blocks first run.
+    private final AtomicReferenceArray<LatencyHistogram> callbackLatencies;
+
+    private TransitionMetrics(CompiledStatePattern compiled) {
+        this.compiled = compiled;
+        this.transitions = adders(compiled.transitionCount());
+        this.states = adders(compiled.stateCount());
+        this.invalid = adders(compiled.transitionNameCount() + 1);
+        this.callbackLatencies = new AtomicReferenceArray<>(compiled.stateCount());
+    }
+
+    private static LongAdder[] adders(int length) {
+        LongAdder[] adders = new LongAdder[length];
+        for (int i = 0; i < length; i++) {
+            adders[i] = new LongAdder();
+        }
+        return adders;
+    }
+
+    /**
+     * Creates metrics for the state machines of a compiled state pattern.
+     * @param compiled the compiled state pattern.
+     * @return Returns a TransitionMetrics instance.
+     */
+    public static TransitionMetrics create(CompiledStatePattern compiled) {
+        return new TransitionMetrics(compiled);
+    }
+
+    /**
+     * Returns the compiled state pattern counted.
+     * @return Returns the compiled state pattern.
+     */
+    public CompiledStatePattern compiledPattern() {
+        return compiled;
+    }
+
+    @Override
+    public void moved(CompiledStatePattern compiled, int transitionIndex) {
+        if (compiled == this.compiled) {
+            transitions[transitionIndex].increment();
+        }
+    }
+
+    @Override
+    public void initial(CompiledStatePattern compiled, int stateId) {
+        if (compiled == this.compiled && stateId != CompiledStatePattern.NOT_FOUND) {
+            states[stateId].increment();
+        }
+    }
+
+    @Override
+    public void invalid(CompiledStatePattern compiled, int nameId) {
+        if (compiled == this.compiled) {
+            invalid[nameId == CompiledStatePattern.NOT_FOUND ? invalid.length - 1 : nameId].increment();
+        }
+    }
+
+    /**
+     * Counts a state entered by a transition, a parent state's substate or a history state is the state entered.
+     * @param compiled the compiled state pattern.
+     * @param stateId the state id entered.
+     */
+    void entered(CompiledStatePattern compiled, int stateId) {
+        if (compiled == this.compiled) {
+            states[stateId].increment();
+        }
+    }
+
+    /**
+     * Records the time the code blocks of a state took.
+     * @param compiled the compiled state pattern.
+     * @param stateId the state id entered.
+     * @param nanos the latency in nanoseconds.
+     */
+    void callbacks(CompiledStatePattern compiled, int stateId, long nanos) {
+        if (compiled == this.compiled) {
+            callbackLatency(stateId).record(nanos);
+        }
+    }
+
+    /**
+     * Returns the number of times a transition fired.
+     * @param transitionIndex the transition index.
+     * @return Returns the number of times a transition fired.
+     */
+    public long transitionCount(int transitionIndex) {
+        return transitions[transitionIndex].sum();
+    }
+
+    /**
+     * Returns the number of times transitions with a name fired from any state.
+     * @param transitionName the name of a transition.
+     * @return Returns the number of times transitions with the name fired.
+     */
+    public long transitionCount(String transitionName) {
+        int nameId = compiled.transitionNameId(transitionName);
+        long sum = 0;
+        for (int i = 0; i < transitions.length; i++) {
+            if (compiled.nameId(i) == nameId) {
+                sum += transitions[i].sum();
+            }
+        }
+        return sum;
+    }
+
+    /**
+     * Returns the number of times a state was entered, by a transition or by initial().
+     * @param state a state.
+     * @return Returns the number of times a state was entered.
+     */
+    public long stateCount(State state) {
+        int stateId = compiled.stateId(state);
+        return stateId == CompiledStatePattern.NOT_FOUND ? 0 : states[stateId].sum();
+    }
+
+    /**
+     * Returns the number of invalid events.
+     * @return Returns the number of invalid events.
+     */
+    public long invalidCount() {
+        long sum = 0;
+        for (LongAdder adder : invalid) {
+            sum += adder.sum();
+        }
+        return sum;
+    }
+
+    /**
+     * Returns the number of invalid events with a name.
+     * @param transitionName the name of the event.
+     * @return Returns the number of invalid events with the name.
+     */
+    public long invalidCount(String transitionName) {
+        int nameId = compiled.transitionNameId(transitionName);
+        return invalid[nameId == CompiledStatePattern.NOT_FOUND ? invalid.length - 1 : nameId].sum();
+    }
+
+    /**
+     * Returns the latency histogram of the when() code blocks of a state.
+     * @param state a state.
+     * @return Returns the latency histogram of the code blocks run when entering the state.
+     */
+    public LatencyHistogram callbackLatency(State state) {
+        return callbackLatency(compiled.stateKey(state).id());
+    }
+
+    private LatencyHistogram callbackLatency(int stateId) {
+        LatencyHistogram histogram = callbackLatencies.get(stateId);
+        if (histogram == null) {
+            callbackLatencies.compareAndSet(stateId, null, new LatencyHistogram());
+            histogram = callbackLatencies.get(stateId);
+        }
+        return histogram;
+    }
+
+    @Override
+    public String toString() {
+        long moved = 0;
+        for (LongAdder adder : transitions) {
+            moved += adder.sum();
+        }
+        return "TransitionMetrics{" +
+                "transitions=" + moved +
+                ", invalid=" + invalidCount() +
+                '}';
+    }
+}
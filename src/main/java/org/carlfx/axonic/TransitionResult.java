@@ -0,0 +1,48 @@
+/*
+ * SPDX-License-Identifier: Apache-2.0
+ *
+ * Copyright © 2024. Carl Dea.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.carlfx.axonic;
+
+/**
+ * The outcome of a transition attempt. See FSM tryTransition() methods.
+ */
+public enum TransitionResult {
+    /**
+     * The transition was valid and the state machine moved to the next state.
+     */
+    MOVED,
+    /**
+     * The transition was valid and the state machine moved to the STOP state.
+     */
+    STOPPED,
+    /**
+     * The current state does not have the outgoing transition.
+     */
+    INVALID;
+
+    /**
+     * Returns the outcome of a transition based on the state the state machine is in afterwards.
+     * @param state the state after a transition.
+     * @return Returns the outcome of a transition.
+     */
+    static TransitionResult of(State state) {
+        if (state == StateEnum.INVALID) {
+            return INVALID;
+        }
+        return state == StateEnum.STOP ? STOPPED : MOVED;
+    }
+}
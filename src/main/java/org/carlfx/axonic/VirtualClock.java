@@ -0,0 +1,59 @@
+/*
+ * SPDX-License-Identifier: Apache-2.0
+ *
+ * Copyright © 2024. Carl Dea.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.carlfx.axonic;
+
+import java.time.Duration;
+import java.util.function.LongSupplier;
+
+/**
+ * A manually advanced clock in nanoseconds. Driving a TimingWheel with a virtual clock makes timed
+ * transitions deterministic in tests.
+ * <pre>
+ *     VirtualClock clock = new VirtualClock();
+ *     TimingWheel wheel = TimingWheel.create(Duration.ofMillis(10), 64, clock);
+ *     clock.advance(Duration.ofSeconds(30));
+ *     wheel.advance();
+ * </pre>
+ */
+public final class VirtualClock implements LongSupplier {
+    private volatile long nanos;
+
+    /**
+     * Creates a clock starting at zero.
+     */
+    public VirtualClock() {
+    }
+
+    /**
+     * Moves the clock forward.
+     * @param duration a positive or zero duration.
+     * @return Returns this clock.
+     */
+    public synchronized VirtualClock advance(Duration duration) {
+        if (duration.isNegative()) {
+            throw new IllegalArgumentException("A clock cannot move backwards");
+        }
+        nanos += duration.toNanos();
+        return this;
+    }
+
+    @Override
+    public long getAsLong() {
+        return nanos;
+    }
+}
@@ -0,0 +1,67 @@
+/*
+ * SPDX-License-Identifier: Apache-2.0
+ *
+ * Copyright © 2024. Carl Dea.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.carlfx.axonic.annotation;
+
+import java.lang.annotation.Documented;
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+
+/**
+ * Generates a finite state machine at compile time from an enum of states. The axonic-processor annotation
+ * processor reads the transitions declared with @On and writes a class implementing FSM in the same package.
+ * The generated class switches on the state's ordinal and the transition's id instead of looking up a state pattern.
+ * <pre>
+ * &#64;GenerateStateMachine(initial = "LOCKED")
+ * public enum TurnstileState implements State {
+ *     &#64;On(value = "coin", to = "UNLOCKED")
+ *     &#64;On(value = "push", to = "LOCKED")
+ *     LOCKED,
+ *     &#64;On(value = "push", to = "LOCKED")
+ *     &#64;On(value = "coin", to = "UNLOCKED")
+ *     UNLOCKED;
+ *     ...
+ * }
+ * FSM turnstile = TurnstileStateMachine.create();
+ * </pre>
+ * When placed on a class instead of an enum, states() names the enum of states and every @On on the class
+ * declares its from state.
+ */
+@Documented
+@Retention(RetentionPolicy.SOURCE)
+@Target(ElementType.TYPE)
+public @interface GenerateStateMachine {
+    /**
+     * The name of the enum constant the initial transition moves to.
+     * @return Returns the name of the initial state.
+     */
+    String initial();
+
+    /**
+     * The simple name of the generated class. Defaults to the annotated type's name followed by Machine.
+     * @return Returns the simple name of the generated class.
+     */
+    String className() default "";
+
+    /**
+     * The enum of states when a class declares the transitions. Ignored when an enum is annotated.
+     * @return Returns the enum of states.
+     */
+    Class<?> states() default void.class;
+}
@@ -0,0 +1,60 @@
+/*
+ * SPDX-License-Identifier: Apache-2.0
+ *
+ * Copyright © 2024. Carl Dea.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.carlfx.axonic.annotation;
+
+import java.lang.annotation.Documented;
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Repeatable;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+
+/**
+ * Declares an outgoing transition for a state machine generated by @GenerateStateMachine. On an enum constant the
+ * constant is the from state. On the annotated type from() names the from state.
+ * States are named by their enum constant. STOP names StateEnum.STOP unless the enum declares a STOP constant.
+ */
+@Documented
+@Retention(RetentionPolicy.SOURCE)
+@Target({ElementType.FIELD, ElementType.TYPE})
+@Repeatable(Transitions.class)
+public @interface On {
+    /**
+     * The name of the transition.
+     * @return Returns the name of the transition.
+     */
+    String value();
+
+    /**
+     * The enum constant of the from state. Only used when declared on the annotated type.
+     * @return Returns the name of the from state.
+     */
+    String from() default "";
+
+    /**
+     * The enum constant of the to state.
+     * @return Returns the name of the to state.
+     */
+    String to();
+
+    /**
+     * The description of the transition.
+     * @return Returns the description or an empty string.
+     */
+    String description() default "";
+}
@@ -0,0 +1,50 @@
+/*
+ * SPDX-License-Identifier: Apache-2.0
+ *
+ * Copyright © 2024. Carl Dea.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.carlfx.axonic.jfr;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+/**
+ * A flight recorder event timing the when() code blocks run when a state machine entered a state.
+ */
+@Name("org.carlfx.axonic.Callback")
+@Label("Callback")
+@Category({"Axonic", "State Machine"})
+@Description("The when() code blocks run when a state machine entered a state")
+@StackTrace(false)
+final class CallbackEvent extends Event {
+    @Label("State Machine")
+    String machine;
+
+    @Label("State")
+    String state;
+
+    @Label("Transition")
+    String transition;
+
+    /**
+     * Created by EventRecorder.
+     */
+    CallbackEvent() {
+    }
+}
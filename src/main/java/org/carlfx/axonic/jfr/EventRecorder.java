@@ -0,0 +1,86 @@
+/*
+ * SPDX-License-Identifier: Apache-2.0
+ *
+ * Copyright © 2024. Carl Dea.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.carlfx.axonic.jfr;
+
+import jdk.jfr.EventType;
+import org.carlfx.axonic.State;
+
+/**
+ * Creates and commits the flight recorder events. Only loaded by StateMachineEvents when the jdk.jfr module is present.
+ */
+final class EventRecorder {
+    private static final EventType TRANSITION = EventType.getEventType(TransitionEvent.class);
+    private static final EventType INVALID_TRANSITION = EventType.getEventType(InvalidTransitionEvent.class);
+    private static final EventType CALLBACK = EventType.getEventType(CallbackEvent.class);
+
+    private EventRecorder() {
+    }
+
+    static boolean isTransitionEnabled() {
+        return TRANSITION.isEnabled();
+    }
+
+    static void transition(String machine, State fromState, State toState, String transition) {
+        TransitionEvent event = new TransitionEvent();
+        if (event.shouldCommit()) {
+            event.machine = machine;
+            event.fromState = fromState == null ? null : fromState.getName();
+            event.toState = toState == null ? null : toState.getName();
+            event.transition = transition;
+            event.commit();
+        }
+    }
+
+    static boolean isInvalidTransitionEnabled() {
+        return INVALID_TRANSITION.isEnabled();
+    }
+
+    static void invalidTransition(String machine, State fromState, String transition) {
+        InvalidTransitionEvent event = new InvalidTransitionEvent();
+        if (event.shouldCommit()) {
+            event.machine = machine;
+            event.fromState = fromState == null ? null : fromState.getName();
+            event.transition = transition;
+            event.commit();
+        }
+    }
+
+    static boolean isCallbackEnabled() {
+        return CALLBACK.isEnabled();
+    }
+
+    static Object beginCallback() {
+        if (!CALLBACK.isEnabled()) {
+            return null;
+        }
+        CallbackEvent event = new CallbackEvent();
+        event.begin();
+        return event;
+    }
+
+    static void endCallback(Object started, String machine, State state, String transition) {
+        CallbackEvent event = (CallbackEvent) started;
+        event.end();
+        if (event.shouldCommit()) {
+            event.machine = machine;
+            event.state = state == null ? null : state.getName();
+            event.transition = transition;
+            event.commit();
+        }
+    }
+}
@@ -0,0 +1,50 @@
+/*
+ * SPDX-License-Identifier: Apache-2.0
+ *
+ * Copyright © 2024. Carl Dea.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.carlfx.axonic.jfr;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+/**
+ * A flight recorder event for a state machine rejecting a transition, the state machine moved to the INVALID state.
+ */
+@Name("org.carlfx.axonic.InvalidTransition")
+@Label("Invalid Transition")
+@Category({"Axonic", "State Machine"})
+@Description("A state machine rejected a transition the current state does not have")
+@StackTrace(false)
+final class InvalidTransitionEvent extends Event {
+    @Label("State Machine")
+    String machine;
+
+    @Label("From State")
+    String fromState;
+
+    @Label("Transition")
+    String transition;
+
+    /**
+     * Created by EventRecorder.
+     */
+    InvalidTransitionEvent() {
+    }
+}
@@ -0,0 +1,108 @@
+/*
+ * SPDX-License-Identifier: Apache-2.0
+ *
+ * Copyright © 2024. Carl Dea.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.carlfx.axonic.jfr;
+
+import org.carlfx.axonic.State;
+
+/**
+ * Emits the flight recorder events of state machines. Each event type is checked with isEnabled() before an
+ * event is created, so a state machine only pays a branch when no recording has the events enabled.
+ * <pre>
+ *     java -XX:StartFlightRecording:filename=axonic.jfr ...
+ *     jfr print --events org.carlfx.axonic.Transition axonic.jfr
+ * </pre>
+ * The jdk.jfr module is optional. Without it, e.g. a jlinked runtime leaving it out, no event is ever enabled and
+ * no jdk.jfr type is loaded. A modular application resolves it with --add-modules jdk.jfr.
+ */
+public final class StateMachineEvents {
+    // checked before EventRecorder (and with it any jdk.jfr type) is loaded.
+    private static final boolean AVAILABLE = ModuleLayer.boot().findModule("jdk.jfr").isPresent();
+
+    private StateMachineEvents() {
+    }
+
+    /**
+     * Returns true when a recording has transition events enabled.
+     * @return Returns true when a recording has transition events enabled.
+     */
+    public static boolean isTransitionEnabled() {
+        return AVAILABLE && EventRecorder.isTransitionEnabled();
+    }
+
+    /**
+     * Commits a transition event. Only call it when isTransitionEnabled() returned true.
+     * @param machine the name of the state machine.
+     * @param fromState the state left.
+     * @param toState the state entered.
+     * @param transition the name of the transition.
+     */
+    public static void transition(String machine, State fromState, State toState, String transition) {
+        if (AVAILABLE) {
+            EventRecorder.transition(machine, fromState, toState, transition);
+        }
+    }
+
+    /**
+     * Returns true when a recording has invalid transition events enabled.
+     * @return Returns true when a recording has invalid transition events enabled.
+     */
+    public static boolean isInvalidTransitionEnabled() {
+        return AVAILABLE && EventRecorder.isInvalidTransitionEnabled();
+    }
+
+    /**
+     * Commits an invalid transition event. Only call it when isInvalidTransitionEnabled() returned true.
+     * @param machine the name of the state machine.
+     * @param fromState the state not having the transition.
+     * @param transition the name of the transition.
+     */
+    public static void invalidTransition(String machine, State fromState, String transition) {
+        if (AVAILABLE) {
+            EventRecorder.invalidTransition(machine, fromState, transition);
+        }
+    }
+
+    /**
+     * Returns true when a recording has callback events enabled.
+     * @return Returns true when a recording has callback events enabled.
+     */
+    public static boolean isCallbackEnabled() {
+        return AVAILABLE && EventRecorder.isCallbackEnabled();
+    }
+
+    /**
+     * Begins timing the code blocks of a state.
+     * @return Returns a started callback event or null when callback events are not enabled.
+     */
+    public static Object beginCallback() {
+        return AVAILABLE ? EventRecorder.beginCallback() : null;
+    }
+
+    /**
+     * Ends timing the code blocks of a state and commits the event if it lasted longer than the recording's threshold.
+     * @param event the event returned by beginCallback() or null.
+     * @param machine the name of the state machine.
+     * @param state the state entered.
+     * @param transition the name of the transition.
+     */
+    public static void endCallback(Object event, String machine, State state, String transition) {
+        if (event != null) {
+            EventRecorder.endCallback(event, machine, state, transition);
+        }
+    }
+}
@@ -0,0 +1,61 @@
+/*
+ * SPDX-License-Identifier: Apache-2.0
+ *
+ * Copyright © 2024. Carl Dea.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.carlfx.axonic.journal;
+
+import java.time.Duration;
+
+/**
+ * When a journal forces appended records to the storage device (fsync). Records are written to memory mapped
+ * segments right away, they survive the process crashing but not the operating system crashing until forced.
+ * Forcing after a number of records or a delay commits a group of records with one fsync.
+ * @param maxRecords force after this many records, 0 to not force by count.
+ * @param maxDelay force when a record is appended this long after the last force, null to not force by time.
+ */
+public record FsyncPolicy(int maxRecords, Duration maxDelay) {
+    /**
+     * Leaves forcing to the operating system. Segments are still forced when rolled or closed.
+     */
+    public static final FsyncPolicy NEVER = new FsyncPolicy(0, null);
+
+    /**
+     * Forces after every record.
+     */
+    public static final FsyncPolicy ALWAYS = new FsyncPolicy(1, null);
+
+    /**
+     * Validates the policy.
+     * @param maxRecords force after this many records, 0 to not force by count.
+     * @param maxDelay force when a record is appended this long after the last force, null to not force by time.
+     */
+    public FsyncPolicy {
+        if (maxRecords < 0) {
+            throw new IllegalArgumentException("maxRecords must not be negative but was " + maxRecords);
+        }
+    }
+
+    /**
+     * Group commit. Forces after a number of records or when a record is appended a delay after the last force,
+     * whichever comes first.
+     * @param maxRecords force after this many records.
+     * @param maxDelay force when a record is appended this long after the last force.
+     * @return Returns a group commit policy.
+     */
+    public static FsyncPolicy groupCommit(int maxRecords, Duration maxDelay) {
+        return new FsyncPolicy(maxRecords, maxDelay);
+    }
+}
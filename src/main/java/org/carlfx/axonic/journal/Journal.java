@@ -0,0 +1,385 @@
+/*
+ * SPDX-License-Identifier: Apache-2.0
+ *
+ * Copyright © 2024. Carl Dea.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.carlfx.axonic.journal;
+
+import org.carlfx.axonic.CompiledStatePattern;
+import org.carlfx.axonic.State;
+import org.carlfx.axonic.StateMachine;
+import org.carlfx.axonic.Transition;
+import org.carlfx.axonic.TransitionListener;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.List;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import static org.carlfx.axonic.StateEnum.INITIAL;
+
+/**
+ * An append only journal of a state machine's transitions. Attach it as the state machine's listener and every
+ * transition is appended to memory mapped segment files:
+ * <pre>
+ *     Journal journal = Journal.open(directory, statePattern.compile(), FsyncPolicy.groupCommit(64, Duration.ofMillis(5)));
+ *     StateMachine turnstileSM = StateMachine.create("Turnstile", statePattern).listener(journal);
+ *
+ *     // after a restart
+ *     Journal.replay(directory, StateMachine.create("Turnstile", statePattern));
+ * </pre>
+ * Each segment starts with a 16 byte header (magic, version, fingerprint of the compiled state pattern)
+ * followed by records. A record is one varint holding an id and the record type in its low 2 bits:
+ * a moved record holds the transition index, an initial record the state id and an invalid record the transition name id.
+ * A full segment is rolled over to the next segment file.
+ */
+public final class Journal implements TransitionListener, AutoCloseable {
+    /**
+     * Default size of a segment file.
+     */
+    public static final int DEFAULT_SEGMENT_SIZE = 16 << 20;
+
+    static final int MAGIC = 0x41584a31; // AXJ1
+    static final short VERSION = 1;
+    static final int HEADER_SIZE = 16;
+    // type 0 is never written so a zero byte marks the end of the records.
+    static final int MOVED = 1;
+    static final int INITIAL_STATE = 2;
+    static final int INVALID = 3;
+    // a 34 bit varint.
+    private static final int MAX_RECORD_SIZE = 5;
+
+    private final Path directory;
+    private final CompiledStatePattern compiled;
+    private final FsyncPolicy fsyncPolicy;
+    private final long maxDelayNanos;
+    private final int segmentSize;
+
+    private int segmentNumber;
+    private FileChannel channel;
+    private MappedByteBuffer buffer;
+    private int unsynced;
+    private long lastSync;
+
+    private Journal(Path directory, CompiledStatePattern compiled, FsyncPolicy fsyncPolicy, int segmentSize) {
+        if (segmentSize < HEADER_SIZE + MAX_RECORD_SIZE) {
+            throw new IllegalArgumentException("segmentSize is too small " + segmentSize);
+        }
+        this.directory = directory;
+        this.compiled = compiled;
+        this.fsyncPolicy = fsyncPolicy;
+        this.maxDelayNanos = fsyncPolicy.maxDelay() == null ? Long.MAX_VALUE : fsyncPolicy.maxDelay().toNanos();
+        this.segmentSize = segmentSize;
+        this.lastSync = System.nanoTime();
+    }
+
+    /**
+     * Opens a journal for appending, continuing after the last record of an existing journal.
+     * @param directory directory of the segment files, created if missing.
+     * @param compiled the compiled state pattern of the journaled state machine.
+     * @return Returns a journal.
+     */
+    public static Journal open(Path directory, CompiledStatePattern compiled) {
+        return open(directory, compiled, FsyncPolicy.NEVER, DEFAULT_SEGMENT_SIZE);
+    }
+
+    /**
+     * Opens a journal for appending, continuing after the last record of an existing journal.
+     * @param directory directory of the segment files, created if missing.
+     * @param compiled the compiled state pattern of the journaled state machine.
+     * @param fsyncPolicy when appended records are forced to the storage device.
+     * @return Returns a journal.
+     */
+    public static Journal open(Path directory, CompiledStatePattern compiled, FsyncPolicy fsyncPolicy) {
+        return open(directory, compiled, fsyncPolicy, DEFAULT_SEGMENT_SIZE);
+    }
+
+    /**
+     * Opens a journal for appending, continuing after the last record of an existing journal.
+     * @param directory directory of the segment files, created if missing.
+     * @param compiled the compiled state pattern of the journaled state machine.
+     * @param fsyncPolicy when appended records are forced to the storage device.
+     * @param segmentSize size in bytes of each segment file.
+     * @return Returns a journal.
+     */
+    public static Journal open(Path directory, CompiledStatePattern compiled, FsyncPolicy fsyncPolicy, int segmentSize) {
+        Journal journal = new Journal(directory, compiled, fsyncPolicy, segmentSize);
+        try {
+            Files.createDirectories(directory);
+            List<Path> segments = segments(directory);
+            if (segments.isEmpty()) {
+                journal.createSegment(0);
+            } else {
+                journal.openSegment(segments.size() - 1, segments.get(segments.size() - 1));
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        return journal;
+    }
+
+    @Override
+    public void moved(CompiledStatePattern compiled, int transitionIndex) {
+        checkPattern(compiled);
+        append(((long) transitionIndex << 2) | MOVED);
+    }
+
+    @Override
+    public void initial(CompiledStatePattern compiled, int stateId) {
+        checkPattern(compiled);
+        append(((long) (stateId + 1) << 2) | INITIAL_STATE);
+    }
+
+    @Override
+    public void invalid(CompiledStatePattern compiled, int nameId) {
+        checkPattern(compiled);
+        append(((long) (nameId + 1) << 2) | INVALID);
+    }
+
+    private void checkPattern(CompiledStatePattern compiled) {
+        if (compiled != this.compiled && compiled.fingerprint() != this.compiled.fingerprint()) {
+            throw new IllegalStateException("The state pattern changed, ids no longer match the journal's state pattern");
+        }
+    }
+
+    private void append(long record) {
+        if (buffer.remaining() < MAX_RECORD_SIZE) {
+            roll();
+        }
+        while ((record & ~0x7fL) != 0) {
+            buffer.put((byte) ((record & 0x7f) | 0x80));
+            record >>>= 7;
+        }
+        buffer.put((byte) record);
+        unsynced++;
+        if (unsynced == fsyncPolicy.maxRecords()) {
+            sync();
+        } else if (maxDelayNanos != Long.MAX_VALUE && System.nanoTime() - lastSync >= maxDelayNanos) {
+            sync();
+        }
+    }
+
+    /**
+     * Forces the records appended so far to the storage device.
+     */
+    public void sync() {
+        buffer.force();
+        unsynced = 0;
+        lastSync = System.nanoTime();
+    }
+
+    private void roll() {
+        try {
+            sync();
+            channel.close();
+            createSegment(segmentNumber + 1);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    private void createSegment(int number) throws IOException {
+        segmentNumber = number;
+        channel = FileChannel.open(directory.resolve(segmentName(number)),
+                StandardOpenOption.CREATE_NEW, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, segmentSize);
+        buffer.putInt(MAGIC);
+        buffer.putShort(VERSION);
+        buffer.putShort((short) 0);
+        buffer.putLong(compiled.fingerprint());
+    }
+
+    private void openSegment(int number, Path segment) throws IOException {
+        segmentNumber = number;
+        channel = FileChannel.open(segment, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, channel.size());
+        checkHeader(buffer, compiled, segment);
+        int end = HEADER_SIZE;
+        while (true) {
+            long record = readRecord(buffer);
+            if (record <= 0) {
+                break;
+            }
+            end = buffer.position();
+        }
+        // clear a record torn by a crash.
+        for (int i = end; i < Math.min(end + MAX_RECORD_SIZE, buffer.limit()); i++) {
+            buffer.put(i, (byte) 0);
+        }
+        buffer.position(end);
+    }
+
+    /**
+     * Forces the records and closes the current segment.
+     */
+    @Override
+    public void close() {
+        try {
+            buffer.force();
+            channel.close();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    /**
+     * Reads every record of a journal in order.
+     * @param directory directory of the segment files.
+     * @param compiled the compiled state pattern the journal was written with.
+     * @param listener receives the records.
+     * @return Returns the number of records read.
+     */
+    public static long read(Path directory, CompiledStatePattern compiled, TransitionListener listener) {
+        long count = 0;
+        try {
+            for (Path segment : segments(directory)) {
+                MappedByteBuffer buffer;
+                try (FileChannel channel = FileChannel.open(segment, StandardOpenOption.READ)) {
+                    buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+                }
+                checkHeader(buffer, compiled, segment);
+                long record;
+                while ((record = readRecord(buffer)) > 0) {
+                    int id = (int) (record >>> 2);
+                    switch ((int) (record & 3)) {
+                        case MOVED -> listener.moved(compiled, id);
+                        case INITIAL_STATE -> listener.initial(compiled, id - 1);
+                        case INVALID -> listener.invalid(compiled, id - 1);
+                        default -> throw new IllegalStateException("Unknown journal record " + record + " in " + segment);
+                    }
+                    count++;
+                }
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        return count;
+    }
+
+    /**
+     * Rebuilds the previous state, current state, current transition and history of a state machine from a journal.
+     * Only the resulting state is restored, code blocks are not run.
+     * @param directory directory of the segment files.
+     * @param stateMachine a state machine created with the journal's state pattern.
+     * @return Returns the number of records replayed.
+     */
+    public static long replay(Path directory, StateMachine stateMachine) {
+        CompiledStatePattern compiled = stateMachine.getStatePattern().compile();
+        // transitions to history states resume the substates entered by the records before them.
+        int[] history = stateMachine.history();
+        int[] ids = {-1, -1, -1}; // previous state id, current state id, transition index
+        boolean[] initial = new boolean[1];
+        long count = read(directory, compiled, new TransitionListener() {
+            @Override
+            public void moved(CompiledStatePattern compiled, int transitionIndex) {
+                ids[0] = compiled.fromStateId(transitionIndex);
+                ids[1] = compiled.enter(compiled.toStateId(transitionIndex), history);
+                ids[2] = transitionIndex;
+                initial[0] = false;
+            }
+
+            @Override
+            public void initial(CompiledStatePattern compiled, int stateId) {
+                if (stateId == CompiledStatePattern.NOT_FOUND) {
+                    throw new IllegalStateException("The journal begins the flow at a state not part of the state pattern");
+                }
+                ids[0] = compiled.initialStateId();
+                ids[1] = compiled.enter(stateId, history);
+                initial[0] = true;
+            }
+
+            @Override
+            public void invalid(CompiledStatePattern compiled, int nameId) {
+                ids[1] = compiled.invalidStateId();
+            }
+        });
+        if (ids[1] < 0) {
+            return count;
+        }
+        State currentState = compiled.state(ids[1]);
+        Transition transition;
+        int initialTransition = compiled.initialTransition();
+        if (!initial[0]) {
+            transition = ids[2] < 0 ? stateMachine.currentTransition() : compiled.transition(ids[2]);
+        } else if (initialTransition != CompiledStatePattern.NOT_FOUND && compiled.toStateId(initialTransition) == ids[1]) {
+            transition = compiled.transition(initialTransition);
+        } else {
+            transition = new Transition(INITIAL.getName().toLowerCase(), INITIAL, currentState);
+        }
+        State previousState = ids[0] < 0 ? stateMachine.previousState() : compiled.state(ids[0]);
+        stateMachine.restore(previousState, currentState, transition, history);
+        return count;
+    }
+
+    /**
+     * Reads a varint record.
+     * @return Returns the record, 0 at the end of the records or -1 for a record torn by a crash.
+     */
+    private static long readRecord(MappedByteBuffer buffer) {
+        long record = 0;
+        for (int shift = 0; shift < 7 * MAX_RECORD_SIZE; shift += 7) {
+            if (!buffer.hasRemaining()) {
+                // the end of the segment, possibly cutting off a record.
+                return shift == 0 ? 0 : -1;
+            }
+            byte b = buffer.get();
+            if (b == 0) {
+                // the end of the records. A zero byte never ends a multi byte varint.
+                buffer.position(buffer.position() - 1);
+                return shift == 0 ? 0 : -1;
+            }
+            record |= (long) (b & 0x7f) << shift;
+            if (b > 0) {
+                return record;
+            }
+        }
+        return -1;
+    }
+
+    private static void checkHeader(MappedByteBuffer buffer, CompiledStatePattern compiled, Path segment) {
+        if (buffer.limit() < HEADER_SIZE || buffer.getInt() != MAGIC) {
+            throw new IllegalStateException(segment + " is not a journal segment");
+        }
+        short version = buffer.getShort();
+        if (version != VERSION) {
+            throw new IllegalStateException(segment + " has unsupported version " + version);
+        }
+        buffer.getShort();
+        if (buffer.getLong() != compiled.fingerprint()) {
+            throw new IllegalStateException(segment + " was written for a different state pattern");
+        }
+    }
+
+    private static String segmentName(int number) {
+        return String.format("segment-%08d.axj", number);
+    }
+
+    private static List<Path> segments(Path directory) throws IOException {
+        if (!Files.isDirectory(directory)) {
+            return List.of();
+        }
+        try (Stream<Path> files = Files.list(directory)) {
+            return files.filter(path -> path.getFileName().toString().matches("segment-\\d{8}\\.axj"))
+                    .sorted()
+                    .collect(Collectors.toList());
+        }
+    }
+}
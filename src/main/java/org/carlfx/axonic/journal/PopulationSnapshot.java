@@ -0,0 +1,213 @@
+/*
+ * SPDX-License-Identifier: Apache-2.0
+ *
+ * Copyright © 2024. Carl Dea.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.carlfx.axonic.journal;
+
+import org.carlfx.axonic.CompiledStatePattern;
+import org.carlfx.axonic.StateMachine;
+import org.carlfx.axonic.StateMachineDefinition;
+import org.carlfx.axonic.Transition;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.HashMap;
+import java.util.Map;
+
+import static org.carlfx.axonic.StateEnum.INITIAL;
+
+/**
+ * A snapshot of the state of a population of state machines sharing a state pattern, restored without replaying events.
+ * <pre>
+ *     PopulationSnapshot.write(file, definition.compiledPattern(), machinesById);
+ *
+ *     // after a restart
+ *     Map&lt;Long, StateMachine&gt; machinesById = PopulationSnapshot.restore(file, definition);
+ * </pre>
+ * The file holds a 24 byte header (magic, version, record size, fingerprint of the compiled state pattern, record count)
+ * followed by one fixed width record per state machine: its id, the previous state id, the current state id,
+ * the current transition and the substate last entered within each parent state with history (see StateMachine.history()).
+ * The transition is stored as its index or, for an initial transition not part of the
+ * state pattern (see StateMachine.initial(state)), as -(to state id + 2).
+ * Files are written and read through a memory mapping.
+ */
+public final class PopulationSnapshot {
+    static final int MAGIC = 0x41585331; // AXS1
+    static final short VERSION = 1;
+    static final int HEADER_SIZE = 24;
+    // without history states.
+    static final int RECORD_SIZE = 20;
+
+    /**
+     * Receives the records of a snapshot.
+     */
+    @FunctionalInterface
+    public interface RecordConsumer {
+        /**
+         * Receives a state machine's record.
+         * @param id the state machine's id.
+         * @param previousStateId the previous state id.
+         * @param currentStateId the current state id.
+         * @param transition the current transition index, or -(to state id + 2) for an initial transition not in the state pattern.
+         * @param history the substate last entered within each parent state with history, empty without history states.
+         *                The array is reused for the next record.
+         */
+        void accept(long id, int previousStateId, int currentStateId, int transition, int[] history);
+    }
+
+    private PopulationSnapshot() {
+    }
+
+    /**
+     * Writes the state of a population of state machines to a file, replacing an existing file.
+     * @param file the snapshot file.
+     * @param compiled the compiled state pattern all state machines were created with.
+     * @param population the state machines by id.
+     */
+    public static void write(Path file, CompiledStatePattern compiled, Map<Long, ? extends StateMachine> population) {
+        int recordSize = recordSize(compiled);
+        long size = HEADER_SIZE + (long) recordSize * population.size();
+        if (size > Integer.MAX_VALUE) {
+            throw new IllegalArgumentException("A snapshot holds at most " + (Integer.MAX_VALUE - HEADER_SIZE) / recordSize + " state machines");
+        }
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING,
+                StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, size);
+            buffer.putInt(MAGIC);
+            buffer.putShort(VERSION);
+            buffer.putShort((short) recordSize);
+            buffer.putLong(compiled.fingerprint());
+            buffer.putLong(population.size());
+            for (Map.Entry<Long, ? extends StateMachine> entry : population.entrySet()) {
+                StateMachine stateMachine = entry.getValue();
+                buffer.putLong(entry.getKey());
+                buffer.putInt(compiled.stateId(stateMachine.previousState()));
+                buffer.putInt(stateMachine.currentStateId());
+                buffer.putInt(transition(compiled, stateMachine.currentTransition()));
+                if (compiled.hasHistory()) {
+                    for (int stateId : stateMachine.history()) {
+                        buffer.putInt(stateId);
+                    }
+                }
+            }
+            buffer.force();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    private static int recordSize(CompiledStatePattern compiled) {
+        return RECORD_SIZE + Integer.BYTES * compiled.historySlotCount();
+    }
+
+    private static int transition(CompiledStatePattern compiled, Transition transition) {
+        int fromStateId = compiled.stateId(transition.fromState());
+        int nameId = compiled.transitionNameId(transition.name());
+        for (int index = compiled.transitionIndex(fromStateId, nameId); index != CompiledStatePattern.NOT_FOUND;
+             index = compiled.alternativeTransition(index)) {
+            if (compiled.transition(index) == transition) {
+                return index;
+            }
+        }
+        // an initial transition created by StateMachine.initial(state).
+        return -(compiled.stateId(transition.toState()) + 2);
+    }
+
+    /**
+     * Reads every record of a snapshot in file order.
+     * @param file the snapshot file.
+     * @param compiled the compiled state pattern the snapshot was written with.
+     * @param consumer receives the records.
+     * @return Returns the number of records.
+     */
+    public static long read(Path file, CompiledStatePattern compiled, RecordConsumer consumer) {
+        MappedByteBuffer buffer;
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        if (buffer.limit() < HEADER_SIZE || buffer.getInt() != MAGIC) {
+            throw new IllegalStateException(file + " is not a population snapshot");
+        }
+        short version = buffer.getShort();
+        short recordSize = buffer.getShort();
+        if (version != VERSION) {
+            throw new IllegalStateException(file + " has unsupported version " + version);
+        }
+        if (buffer.getLong() != compiled.fingerprint() || recordSize != recordSize(compiled)) {
+            throw new IllegalStateException(file + " was written for a different state pattern");
+        }
+        long count = buffer.getLong();
+        if (buffer.remaining() < count * recordSize) {
+            throw new IllegalStateException(file + " is truncated");
+        }
+        int[] history = new int[compiled.historySlotCount()];
+        for (long i = 0; i < count; i++) {
+            long id = buffer.getLong();
+            int previousStateId = buffer.getInt();
+            int currentStateId = buffer.getInt();
+            int transition = buffer.getInt();
+            for (int slot = 0; slot < history.length; slot++) {
+                history[slot] = buffer.getInt();
+            }
+            consumer.accept(id, previousStateId, currentStateId, transition, history);
+        }
+        return count;
+    }
+
+    /**
+     * Restores a population of state machines from a snapshot. Code blocks are not run.
+     * @param file the snapshot file.
+     * @param definition the machine definition every state machine is an instance of.
+     * @return Returns the state machines by id.
+     */
+    public static Map<Long, StateMachine> restore(Path file, StateMachineDefinition definition) {
+        CompiledStatePattern compiled = definition.compiledPattern();
+        Map<Long, StateMachine> population;
+        try {
+            // sized for the records so the map does not rehash while loading.
+            long records = Math.max(0, Files.size(file) - HEADER_SIZE) / recordSize(compiled);
+            population = new HashMap<>((int) Math.min(1 << 30, records * 4 / 3 + 1));
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        // initial transitions to states without an initial transition in the state pattern, shared by all instances.
+        Transition[] initialTransitions = new Transition[compiled.stateCount()];
+        read(file, compiled, (id, previousStateId, currentStateId, transitionRecord, history) -> {
+            Transition transition;
+            if (transitionRecord >= 0) {
+                transition = compiled.transition(transitionRecord);
+            } else {
+                int toStateId = -transitionRecord - 2;
+                transition = initialTransitions[toStateId];
+                if (transition == null) {
+                    transition = new Transition(INITIAL.getName().toLowerCase(), INITIAL, compiled.state(toStateId));
+                    initialTransitions[toStateId] = transition;
+                }
+            }
+            StateMachine stateMachine = definition.newInstance()
+                    .restore(compiled.state(previousStateId), compiled.state(currentStateId), transition, history);
+            population.put(id, stateMachine);
+        });
+        return population;
+    }
+}
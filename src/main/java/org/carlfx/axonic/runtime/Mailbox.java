@@ -0,0 +1,249 @@
+/*
+ * SPDX-License-Identifier: Apache-2.0
+ *
+ * Copyright © 2024. Carl Dea.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.carlfx.axonic.runtime;
+
+import org.carlfx.axonic.FSM;
+import org.carlfx.axonic.TransitionKey;
+import org.carlfx.axonic.TransitionResult;
+
+import java.util.Queue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.Consumer;
+import java.util.function.Function;
+
+/**
+ * A state machine's mailbox. Events are queued by any number of threads (multiple producers) and applied in
+ * order by a single consumer. The mailbox is only scheduled on its runtime when it has pending events and is
+ * drained in batches. When the runtime's executor rejects the mailbox (bounded or shut down) the pending events
+ * fail, submitted events complete their future exceptionally and the others go to the runtime's error handler.
+ * @param <F> type of state machine.
+ */
+public final class Mailbox<F extends FSM> {
+    private final MailboxRuntime runtime;
+    private final F fsm;
+    private final Queue<Message> queue = new ConcurrentLinkedQueue<>();
+    private final AtomicBoolean scheduled = new AtomicBoolean();
+    private final Runnable drain = this::drain;
+
+    /**
+     * A queued event or action. Either transitionName, transitionKey or action is set.
+     */
+    private record Message(String transitionName, TransitionKey transitionKey, Object input,
+                           Function<FSM, ?> action, CompletableFuture<Object> future) {
+    }
+
+    Mailbox(MailboxRuntime runtime, F fsm) {
+        this.runtime = runtime;
+        this.fsm = fsm;
+    }
+
+    /**
+     * Returns the state machine. It should only be read from within actions run by this mailbox.
+     * @return Returns the state machine.
+     */
+    public F fsm() {
+        return fsm;
+    }
+
+    /**
+     * Returns true when no events are waiting.
+     * @return Returns true when no events are waiting.
+     */
+    public boolean isIdle() {
+        return queue.isEmpty();
+    }
+
+    /**
+     * Posts a transition without waiting. Invalid transitions move the state machine to INVALID like t().
+     * @param transitionName the transition name.
+     * @return Returns this mailbox.
+     */
+    public Mailbox<F> post(String transitionName) {
+        return post(transitionName, null);
+    }
+
+    /**
+     * Posts a transition with input without waiting.
+     * @param transitionName the transition name.
+     * @param input the input passed to code blocks.
+     * @param <T> type of input.
+     * @return Returns this mailbox.
+     */
+    public <T> Mailbox<F> post(String transitionName, T input) {
+        enqueue(new Message(transitionName, null, input, null, null));
+        return this;
+    }
+
+    /**
+     * Posts a transition with input without waiting.
+     * @param transitionKey the interned transition key.
+     * @param input the input passed to code blocks.
+     * @param <T> type of input.
+     * @return Returns this mailbox.
+     */
+    public <T> Mailbox<F> post(TransitionKey transitionKey, T input) {
+        enqueue(new Message(null, transitionKey, input, null, null));
+        return this;
+    }
+
+    /**
+     * Posts a transition and returns a future completed with its result once applied.
+     * @param transitionName the transition name.
+     * @return Returns a future of the transition result.
+     */
+    public CompletableFuture<TransitionResult> submit(String transitionName) {
+        return submit(transitionName, null);
+    }
+
+    /**
+     * Posts a transition with input and returns a future completed with its result once applied.
+     * @param transitionName the transition name.
+     * @param input the input passed to code blocks.
+     * @param <T> type of input.
+     * @return Returns a future of the transition result.
+     */
+    @SuppressWarnings("unchecked")
+    public <T> CompletableFuture<TransitionResult> submit(String transitionName, T input) {
+        CompletableFuture<Object> future = new CompletableFuture<>();
+        enqueue(new Message(transitionName, null, input, null, future));
+        return (CompletableFuture<TransitionResult>) (CompletableFuture<?>) future;
+    }
+
+    /**
+     * Posts a transition with input and returns a future completed with its result once applied.
+     * @param transitionKey the interned transition key.
+     * @param input the input passed to code blocks.
+     * @param <T> type of input.
+     * @return Returns a future of the transition result.
+     */
+    @SuppressWarnings("unchecked")
+    public <T> CompletableFuture<TransitionResult> submit(TransitionKey transitionKey, T input) {
+        CompletableFuture<Object> future = new CompletableFuture<>();
+        enqueue(new Message(null, transitionKey, input, null, future));
+        return (CompletableFuture<TransitionResult>) (CompletableFuture<?>) future;
+    }
+
+    /**
+     * Runs an action on the state machine in order with the posted events. Use it to read the state or to
+     * call other FSM methods such as initial() or tOrElse() from the single writer.
+     * @param action an action given the state machine.
+     * @param <R> type of result.
+     * @return Returns a future of the action's result.
+     */
+    @SuppressWarnings("unchecked")
+    public <R> CompletableFuture<R> ask(Function<F, R> action) {
+        CompletableFuture<Object> future = new CompletableFuture<>();
+        enqueue(new Message(null, null, null, (Function<FSM, ?>) action, future));
+        return (CompletableFuture<R>) future;
+    }
+
+    /**
+     * Runs an action on the state machine in order with the posted events without waiting.
+     * @param action an action given the state machine.
+     * @return Returns this mailbox.
+     */
+    @SuppressWarnings("unchecked")
+    public Mailbox<F> tell(Consumer<F> action) {
+        Function<F, Object> function = f -> {
+            action.accept(f);
+            return null;
+        };
+        enqueue(new Message(null, null, null, (Function<FSM, ?>) (Function<?, ?>) function, null));
+        return this;
+    }
+
+    private void enqueue(Message message) {
+        queue.offer(message);
+        if (scheduled.compareAndSet(false, true)) {
+            schedule();
+        }
+    }
+
+    /**
+     * Schedules a drain of this mailbox. When the executor rejects it nothing would apply the pending events,
+     * they are failed and the mailbox can be scheduled again by the next event.
+     */
+    private void schedule() {
+        try {
+            runtime.schedule(drain);
+        } catch (RejectedExecutionException e) {
+            Message message;
+            while ((message = queue.poll()) != null) {
+                fail(message, e);
+            }
+            scheduled.set(false);
+            // an event may have been offered after the last poll but before the flag was cleared.
+            if (!queue.isEmpty() && scheduled.compareAndSet(false, true)) {
+                schedule();
+            }
+        }
+    }
+
+    /**
+     * Applies up to a batch of events. A mailbox with more events is scheduled again so busy machines
+     * can't starve the others.
+     */
+    private void drain() {
+        int batchSize = runtime.batchSize();
+        for (int i = 0; i < batchSize; i++) {
+            Message message = queue.poll();
+            if (message == null) {
+                break;
+            }
+            apply(message);
+        }
+        if (!queue.isEmpty()) {
+            schedule();
+            return;
+        }
+        scheduled.set(false);
+        // an event may have been offered after the last poll but before the flag was cleared.
+        if (!queue.isEmpty() && scheduled.compareAndSet(false, true)) {
+            schedule();
+        }
+    }
+
+    private void apply(Message message) {
+        try {
+            Object result;
+            if (message.action() != null) {
+                result = message.action().apply(fsm);
+            } else if (message.transitionKey() != null) {
+                result = fsm.tryTransition(message.transitionKey(), message.input());
+            } else {
+                result = fsm.tryTransition(message.transitionName(), message.input());
+            }
+            if (message.future() != null) {
+                message.future().complete(result);
+            }
+        } catch (Throwable throwable) {
+            fail(message, throwable);
+        }
+    }
+
+    private void fail(Message message, Throwable throwable) {
+        if (message.future() != null) {
+            message.future().completeExceptionally(throwable);
+        } else {
+            runtime.error(this, throwable);
+        }
+    }
+}
@@ -0,0 +1,150 @@
+/*
+ * SPDX-License-Identifier: Apache-2.0
+ *
+ * Copyright © 2024. Carl Dea.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.carlfx.axonic.runtime;
+
+import org.carlfx.axonic.FSM;
+
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.BiConsumer;
+
+/**
+ * An actor style runtime driving state machines from their mailboxes. Any thread can post events to a
+ * machine's mailbox without blocking. Only machines with pending events are scheduled on the executor and
+ * each mailbox is drained by one thread at a time, so a StateMachine and its when() code blocks are
+ * only used by a single writer without locks.
+ * <pre>
+ *     MailboxRuntime runtime = MailboxRuntime.create();
+ *     Mailbox&lt;StateMachine&gt; turnstile = runtime.mailbox(StateMachine.create("Turnstile", turnstilePattern));
+ *     turnstile.post("coin");
+ *     turnstile.submit("push").thenAccept(result -&gt; ...);
+ * </pre>
+ * An idle mailbox holds no thread, so hundreds of thousands of mostly idle machines can share a small pool.
+ * On JDK 21 or later pass {@code Executors.newVirtualThreadPerTaskExecutor()} to run each drain on a virtual thread.
+ */
+public final class MailboxRuntime implements AutoCloseable {
+    /**
+     * The default maximum number of events applied before a busy mailbox yields its thread to other mailboxes.
+     */
+    public static final int DEFAULT_BATCH_SIZE = 64;
+
+    private final Executor executor;
+    private final boolean ownsExecutor;
+    private final int batchSize;
+    private BiConsumer<Mailbox<?>, Throwable> errorHandler = (mailbox, throwable) -> {
+        Thread thread = Thread.currentThread();
+        thread.getUncaughtExceptionHandler().uncaughtException(thread, throwable);
+    };
+
+    private MailboxRuntime(Executor executor, boolean ownsExecutor, int batchSize) {
+        if (batchSize < 1) {
+            throw new IllegalArgumentException("batchSize must be at least 1 but was " + batchSize);
+        }
+        this.executor = executor;
+        this.ownsExecutor = ownsExecutor;
+        this.batchSize = batchSize;
+    }
+
+    /**
+     * Factory function creating a runtime with a pool of daemon carrier threads, one for each processor.
+     * @return Returns a MailboxRuntime instance.
+     */
+    public static MailboxRuntime create() {
+        return create(Runtime.getRuntime().availableProcessors());
+    }
+
+    /**
+     * Factory function creating a runtime with a pool of daemon carrier threads.
+     * @param carrierThreads number of carrier threads.
+     * @return Returns a MailboxRuntime instance.
+     */
+    public static MailboxRuntime create(int carrierThreads) {
+        AtomicInteger count = new AtomicInteger();
+        ThreadFactory threadFactory = runnable -> {
+            Thread thread = new Thread(runnable, "axonic-mailbox-" + count.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        };
+        return new MailboxRuntime(Executors.newFixedThreadPool(carrierThreads, threadFactory), true, DEFAULT_BATCH_SIZE);
+    }
+
+    /**
+     * Factory function creating a runtime on the caller's executor. The executor is not shut down by close().
+     * @param executor executor running the mailbox drains.
+     * @return Returns a MailboxRuntime instance.
+     */
+    public static MailboxRuntime create(Executor executor) {
+        return create(executor, DEFAULT_BATCH_SIZE);
+    }
+
+    /**
+     * Factory function creating a runtime on the caller's executor. The executor is not shut down by close().
+     * @param executor executor running the mailbox drains.
+     * @param batchSize maximum number of events applied before a busy mailbox yields its thread.
+     * @return Returns a MailboxRuntime instance.
+     */
+    public static MailboxRuntime create(Executor executor, int batchSize) {
+        return new MailboxRuntime(executor, false, batchSize);
+    }
+
+    /**
+     * Creates a mailbox for a state machine. The state machine should only be used through its mailbox afterwards.
+     * @param fsm a state machine.
+     * @param <F> type of state machine.
+     * @return Returns a mailbox driving the state machine.
+     */
+    public <F extends FSM> Mailbox<F> mailbox(F fsm) {
+        return new Mailbox<>(this, fsm);
+    }
+
+    /**
+     * Sets the handler of exceptions thrown while applying posted events or actions. By default the exception
+     * is passed to the carrier thread's uncaught exception handler. Exceptions of submitted events complete their future instead.
+     * @param errorHandler receives the mailbox and the exception.
+     * @return Returns this runtime.
+     */
+    public MailboxRuntime onError(BiConsumer<Mailbox<?>, Throwable> errorHandler) {
+        this.errorHandler = errorHandler;
+        return this;
+    }
+
+    int batchSize() {
+        return batchSize;
+    }
+
+    void schedule(Runnable drain) {
+        executor.execute(drain);
+    }
+
+    void error(Mailbox<?> mailbox, Throwable throwable) {
+        errorHandler.accept(mailbox, throwable);
+    }
+
+    /**
+     * Shuts down the carrier threads created by this runtime. An executor passed by the caller is left running.
+     */
+    @Override
+    public void close() {
+        if (ownsExecutor) {
+            ((ExecutorService) executor).shutdown();
+        }
+    }
+}
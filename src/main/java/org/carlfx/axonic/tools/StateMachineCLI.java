@@ -33,6 +33,12 @@ import static org.carlfx.axonic.tools.DiagramHelper.*;
 import static org.carlfx.axonic.tools.DiagramHelper.toPlantUml;
 
 public class StateMachineCLI {
+    /**
+     * Default constructor.
+     */
+    public StateMachineCLI() {
+    }
+
     public static void beginConsoleSession(StateMachine stateMachine) {
         Scanner scanner = new Scanner(System.in);
         System.out.println("Here is a state pattern of a %s depicted here: ".formatted(stateMachine.getName()));
@@ -116,6 +122,9 @@ public class StateMachineCLI {
                 if (pair.length > 1) {
                     String jumpToState = pair[1];
                     System.out.println("Jumping to a new state " + jumpToState);
+                    if (stateMachine.getStatePattern().duplicateStateNames().containsKey(jumpToState)) {
+                        System.out.println("More than one state is named " + jumpToState + ", jumping to the first one defined.");
+                    }
                     Optional<State> toStateOpt = stateMachine.lookupStateByName(jumpToState);
                     toStateOpt.ifPresentOrElse(state -> stateMachine.initial(state), ()->{
                         System.out.println("Invalid State to begin, please try again.");
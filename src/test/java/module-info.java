@@ -21,6 +21,8 @@
 module org.carlfx.axonic.test {
 
     requires org.slf4j;
+    requires jdk.management;
+    requires jdk.jfr;
     requires org.carlfx.axonic;
     requires org.junit.jupiter.engine;
     requires org.junit.jupiter.params;
@@ -0,0 +1,127 @@
+/*
+ * SPDX-License-Identifier: Apache-2.0
+ *
+ * Copyright © 2024. Carl Dea.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.carlfx.axonic.test;
+
+import com.sun.management.ThreadMXBean;
+import org.carlfx.axonic.StateEnum;
+import org.carlfx.axonic.StateMachine;
+import org.carlfx.axonic.TransitionKey;
+import org.carlfx.axonic.TransitionResult;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Assumptions;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+import java.lang.management.ManagementFactory;
+
+import static org.carlfx.axonic.StateEnum.STOP;
+import static org.carlfx.axonic.TransitionResult.MOVED;
+import static org.carlfx.axonic.TransitionResult.STOPPED;
+import static org.carlfx.axonic.test.TurnstileState.*;
+
+@DisplayName("Allocation free transition Test")
+public class AllocationFreeTransitionTest {
+    private static final int WARMUP = 50_000;
+    private static final int ITERATIONS = 200_000;
+    private static final int ROUNDS = 10;
+
+    private int lockedCount;
+    private int unlockedCount;
+
+    private StateMachine createTurnstileSM() {
+        StateMachine turnstileSM = StateMachine.create("Turnstile", statePattern ->
+                statePattern
+                        .initial(LOCKED)
+                        .t("push")
+                        .t("coin")
+                        .s(UNLOCKED)
+                        .t("coin")
+                        .t("push")
+                        .s(LOCKED)
+                        .t("hello")
+                        .s(FRED)
+                        .stop()
+        );
+        turnstileSM.when(LOCKED, () -> lockedCount++)
+                .when(UNLOCKED, (t, input) -> unlockedCount++);
+        return turnstileSM;
+    }
+
+    @Test
+    @DisplayName("tryTransition returns MOVED, STOPPED and INVALID")
+    void tryTransitionResultTest() {
+        StateMachine turnstileSM = createTurnstileSM();
+        Assertions.assertEquals(MOVED, turnstileSM.tryTransition("coin"));
+        Assertions.assertEquals(UNLOCKED, turnstileSM.currentState());
+        Assertions.assertEquals(TransitionResult.INVALID, turnstileSM.tryTransition("hello"));
+        Assertions.assertEquals(StateEnum.INVALID, turnstileSM.currentState());
+        Assertions.assertEquals(LOCKED, turnstileSM.previousState());
+
+        turnstileSM.initial(LOCKED);
+        Assertions.assertEquals(MOVED, turnstileSM.tryTransition("hello"));
+        Assertions.assertEquals(STOPPED, turnstileSM.tryTransition("stop"));
+        Assertions.assertEquals(STOP, turnstileSM.currentState());
+
+        // tOrElse does not move to the INVALID state.
+        turnstileSM.initial(LOCKED);
+        boolean[] invalidCalled = new boolean[1];
+        turnstileSM.tOrElse("stop", () -> invalidCalled[0] = true);
+        Assertions.assertTrue(invalidCalled[0]);
+        Assertions.assertEquals(LOCKED, turnstileSM.currentState());
+    }
+
+    @Test
+    @DisplayName("Steady state transitions produce zero garbage")
+    void zeroAllocationTest() {
+        ThreadMXBean threadMXBean = (ThreadMXBean) ManagementFactory.getThreadMXBean();
+        Assumptions.assumeTrue(threadMXBean.isThreadAllocatedMemorySupported());
+        threadMXBean.setThreadAllocatedMemoryEnabled(true);
+        long threadId = Thread.currentThread().getId();
+
+        StateMachine turnstileSM = createTurnstileSM();
+        TransitionKey coin = turnstileSM.getStatePattern().compile().transitionKey("coin");
+        TransitionKey push = turnstileSM.getStatePattern().compile().transitionKey("push");
+        runTransitions(turnstileSM, coin, push, WARMUP);
+
+        // measure the cost of measuring.
+        long before = threadMXBean.getThreadAllocatedBytes(threadId);
+        long overhead = threadMXBean.getThreadAllocatedBytes(threadId) - before;
+
+        // one off allocations by the JVM (e.g. while compiling) can land in a round, a steady state round allocates nothing.
+        long allocated = Long.MAX_VALUE;
+        for (int round = 0; round < ROUNDS && allocated != 0; round++) {
+            before = threadMXBean.getThreadAllocatedBytes(threadId);
+            int moved = runTransitions(turnstileSM, coin, push, ITERATIONS);
+            allocated = threadMXBean.getThreadAllocatedBytes(threadId) - before - overhead;
+            Assertions.assertEquals(ITERATIONS * 4, moved);
+        }
+        Assertions.assertEquals(LOCKED, turnstileSM.currentState());
+        Assertions.assertEquals(0, allocated, "bytes allocated by %s transitions".formatted(ITERATIONS * 4));
+    }
+
+    private static int runTransitions(StateMachine turnstileSM, TransitionKey coin, TransitionKey push, int iterations) {
+        int moved = 0;
+        for (int i = 0; i < iterations; i++) {
+            if (turnstileSM.tryTransition("coin", "10 cents") == MOVED) moved++;
+            if (turnstileSM.tryTransition(coin) == MOVED) moved++;
+            if (turnstileSM.tryTransition("push") == MOVED) moved++;
+            if (turnstileSM.tryTransition(push, "p") == MOVED) moved++;
+        }
+        return moved;
+    }
+}
@@ -0,0 +1,109 @@
+/*
+ * SPDX-License-Identifier: Apache-2.0
+ *
+ * Copyright © 2024. Carl Dea.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.carlfx.axonic.test;
+
+import org.carlfx.axonic.StateMachine;
+import org.carlfx.axonic.TransitionResult;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import static org.carlfx.axonic.test.TurnstileFixture.createTurnstilePattern;
+import static org.carlfx.axonic.test.TurnstileState.*;
+
+@DisplayName("Async Callback Test")
+public class AsyncCallbackTest {
+
+    @Test
+    @DisplayName("t() returns before slow code blocks finish")
+    void nonBlockingTest() throws Exception {
+        ExecutorService executor = Executors.newFixedThreadPool(2);
+        try {
+            CountDownLatch release = new CountDownLatch(1);
+            StateMachine turnstileSM = StateMachine.create(createTurnstilePattern()).callbackExecutor(executor);
+            turnstileSM.when(UNLOCKED, () -> {
+                try {
+                    release.await();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            });
+            CompletableFuture<TransitionResult> coin = turnstileSM.tAsync("coin");
+            Assertions.assertEquals(UNLOCKED, turnstileSM.currentState());
+            Assertions.assertFalse(coin.isDone());
+            release.countDown();
+            Assertions.assertEquals(TransitionResult.MOVED, coin.get(10, TimeUnit.SECONDS));
+            Assertions.assertEquals(TransitionResult.INVALID, turnstileSM.tAsync("hello").get(10, TimeUnit.SECONDS));
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    @Test
+    @DisplayName("Code blocks run in transition order on a multi threaded executor")
+    void orderingTest() throws Exception {
+        ExecutorService executor = Executors.newFixedThreadPool(4);
+        try {
+            List<Object> inputs = Collections.synchronizedList(new ArrayList<>());
+            StateMachine turnstileSM = StateMachine.create(createTurnstilePattern()).callbackExecutor(executor);
+            turnstileSM.when(UNLOCKED, (t, input) -> inputs.add(input));
+            turnstileSM.when(LOCKED, (t, input) -> inputs.add(input));
+            List<Object> expected = new ArrayList<>();
+            for (int i = 0; i < 2_000; i++) {
+                turnstileSM.t(i % 2 == 0 ? "coin" : "push", i);
+                expected.add(i);
+            }
+            turnstileSM.callbacksCompleted().get(10, TimeUnit.SECONDS);
+            Assertions.assertEquals(expected, inputs);
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    @Test
+    @DisplayName("A failing code block only fails its own transition")
+    void failureTest() throws Exception {
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+        try {
+            List<String> encountered = Collections.synchronizedList(new ArrayList<>());
+            StateMachine turnstileSM = StateMachine.create(createTurnstilePattern()).callbackExecutor(executor);
+            turnstileSM.when(UNLOCKED, () -> {
+                throw new IllegalStateException("jammed");
+            });
+            turnstileSM.when(LOCKED, (t, input) -> encountered.add(t.name()));
+            CompletableFuture<TransitionResult> coin = turnstileSM.tAsync("coin");
+            CompletableFuture<TransitionResult> push = turnstileSM.tAsync("push");
+            Assertions.assertEquals(TransitionResult.MOVED, push.get(10, TimeUnit.SECONDS));
+            ExecutionException exception = Assertions.assertThrows(ExecutionException.class, coin::get);
+            Assertions.assertTrue(exception.getCause() instanceof IllegalStateException, exception.toString());
+            Assertions.assertEquals(List.of("push"), encountered);
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+}
@@ -0,0 +1,110 @@
+/*
+ * SPDX-License-Identifier: Apache-2.0
+ *
+ * Copyright © 2024. Carl Dea.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.carlfx.axonic.test;
+
+import org.carlfx.axonic.BatchMode;
+import org.carlfx.axonic.BatchResult;
+import org.carlfx.axonic.ConcurrentStateMachine;
+import org.carlfx.axonic.FSM;
+import org.carlfx.axonic.StateMachine;
+import org.carlfx.axonic.StatePattern;
+import org.carlfx.axonic.TransitionKey;
+import org.carlfx.axonic.TransitionResult;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.carlfx.axonic.StateEnum.INVALID;
+import static org.carlfx.axonic.StateEnum.STOP;
+import static org.carlfx.axonic.test.TurnstileState.*;
+
+@DisplayName("Batch Transition Test")
+public class BatchTransitionTest {
+
+    private static StatePattern createTurnstilePattern() {
+        return new StatePattern()
+                .initial(LOCKED)
+                .t("coin", LOCKED, UNLOCKED)
+                .t("push", UNLOCKED, LOCKED)
+                .t("hello", LOCKED, FRED)
+                .t("bye", FRED, STOP);
+    }
+
+    private static List<String> record(FSM fsm) {
+        List<String> encountered = new ArrayList<>();
+        fsm.when(UNLOCKED, (t, input) -> encountered.add(fsm.currentState() + " " + input));
+        fsm.when(LOCKED, (t, input) -> encountered.add(fsm.currentState() + " " + input));
+        return encountered;
+    }
+
+    @Test
+    @DisplayName("Sequential batches stop at the first invalid transition")
+    void sequentialTest() {
+        for (FSM fsm : List.<FSM>of(StateMachine.create(createTurnstilePattern()),
+                ConcurrentStateMachine.create("Turnstile", createTurnstilePattern()))) {
+            List<String> encountered = record(fsm);
+            BatchResult result = fsm.applyAll(List.of("coin", "push", "push", "coin"));
+            Assertions.assertEquals(new BatchResult(TransitionResult.INVALID, 2, 2), result);
+            Assertions.assertEquals(INVALID, fsm.currentState());
+            Assertions.assertEquals(UNLOCKED, fsm.previousState());
+            Assertions.assertEquals(List.of("UNLOCKED coin", "LOCKED push"), encountered);
+
+            fsm.initial(LOCKED);
+            result = fsm.applyAll(List.of("hello", "bye"), BatchMode.SEQUENTIAL);
+            Assertions.assertEquals(new BatchResult(TransitionResult.STOPPED, 2, -1), result);
+            Assertions.assertTrue(result.isValid());
+        }
+    }
+
+    @Test
+    @DisplayName("Atomic batches apply all or nothing and defer code blocks until commit")
+    void atomicTest() {
+        for (FSM fsm : List.<FSM>of(StateMachine.create(createTurnstilePattern()),
+                ConcurrentStateMachine.create("Turnstile", createTurnstilePattern()))) {
+            List<String> encountered = record(fsm);
+            BatchResult result = fsm.applyAll(List.of("coin", "push", "push", "coin"), BatchMode.ATOMIC);
+            Assertions.assertEquals(new BatchResult(TransitionResult.INVALID, 0, 2), result);
+            Assertions.assertEquals(LOCKED, fsm.currentState());
+            Assertions.assertTrue(encountered.isEmpty());
+
+            result = fsm.applyAll(List.of("coin", "push", "coin"), BatchMode.ATOMIC);
+            Assertions.assertEquals(new BatchResult(TransitionResult.MOVED, 3, -1), result);
+            Assertions.assertEquals(UNLOCKED, fsm.currentState());
+            Assertions.assertEquals(LOCKED, fsm.previousState());
+            Assertions.assertEquals("coin", fsm.currentTransition().name());
+            // code blocks run after the final state is committed.
+            Assertions.assertEquals(List.of("UNLOCKED coin", "UNLOCKED push", "UNLOCKED coin"), encountered);
+        }
+    }
+
+    @Test
+    @DisplayName("Batches of interned keys")
+    void transitionKeyTest() {
+        StatePattern statePattern = createTurnstilePattern();
+        StateMachine turnstileSM = StateMachine.create(statePattern);
+        TransitionKey coin = statePattern.compile().transitionKey("coin");
+        TransitionKey push = statePattern.compile().transitionKey("push");
+        BatchResult result = turnstileSM.applyAll(new TransitionKey[]{coin, push, coin}, BatchMode.ATOMIC);
+        Assertions.assertEquals(3, result.applied());
+        Assertions.assertEquals(UNLOCKED, turnstileSM.currentState());
+        Assertions.assertEquals(new BatchResult(TransitionResult.MOVED, 0, -1), turnstileSM.applyAll(List.of()));
+    }
+}
@@ -0,0 +1,129 @@
+/*
+ * SPDX-License-Identifier: Apache-2.0
+ *
+ * Copyright © 2024. Carl Dea.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.carlfx.axonic.test;
+
+import org.carlfx.axonic.CompiledDispatch;
+import org.carlfx.axonic.State;
+import org.carlfx.axonic.StateMachine;
+import org.carlfx.axonic.StateMachineDefinition;
+import org.carlfx.axonic.StatePattern;
+import org.carlfx.axonic.Transition;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.carlfx.axonic.StateEnum.INVALID;
+import static org.carlfx.axonic.test.TurnstileState.*;
+
+@DisplayName("Compiled Dispatch Test")
+public class CompiledDispatchTest {
+
+    record NumberedState(String getName) implements State {
+    }
+
+    @Test
+    @DisplayName("Compiled dispatch moves and runs code blocks like the compiled state pattern")
+    void dispatchTest() {
+        List<String> entered = new ArrayList<>();
+        StatePattern statePattern = new StatePattern()
+                .initial(LOCKED)
+                .t("coin").guard(input -> input instanceof Integer cents && cents >= 25).s(UNLOCKED)
+                .t("push", LOCKED)
+                .t("coin", LOCKED, LOCKED)
+                .t("hello", LOCKED, FRED);
+        StateMachine turnstileSM = StateMachine.create("Turnstile", statePattern)
+                .compileDispatch();
+        turnstileSM.when(UNLOCKED, () -> entered.add("runnable"))
+                .when(UNLOCKED, (transition, input) -> entered.add(((Transition) transition).name() + "=" + input));
+
+        turnstileSM.t("coin", 5);
+        Assertions.assertEquals(LOCKED, turnstileSM.currentState(), "the guard rejects 5 cents");
+        turnstileSM.t("coin", 25);
+        Assertions.assertEquals(UNLOCKED, turnstileSM.currentState());
+        Assertions.assertEquals(List.of("runnable", "coin=25"), entered, "runnables run first");
+
+        // a code block added after the dispatch was compiled is part of the next dispatch.
+        turnstileSM.when(FRED, () -> entered.add("fred"));
+        turnstileSM.t("push").t("hello");
+        Assertions.assertEquals(FRED, turnstileSM.currentState());
+        Assertions.assertEquals("fred", entered.get(entered.size() - 1));
+        turnstileSM.t("push");
+        Assertions.assertEquals(INVALID, turnstileSM.currentState());
+
+        boolean[] invalid = new boolean[1];
+        turnstileSM.initial(UNLOCKED);
+        turnstileSM.tOrElse("hello", () -> invalid[0] = true);
+        Assertions.assertTrue(invalid[0]);
+        turnstileSM.tOrElse("push", null, (name, input) -> invalid[0] = false);
+        Assertions.assertEquals(LOCKED, turnstileSM.currentState());
+    }
+
+    @Test
+    @DisplayName("Each state runs only its own code blocks")
+    void stateCodeBlocksTest() {
+        List<String> entered = new ArrayList<>();
+        State hub = new NumberedState("hub");
+        StatePattern statePattern = new StatePattern().initial(hub);
+        for (int i = 0; i < 20; i++) {
+            State spoke = new NumberedState("s" + i);
+            statePattern.t("to" + i, hub, spoke);
+            statePattern.t("back", spoke, hub);
+            statePattern.t("to" + ((i + 1) % 20), spoke, new NumberedState("s" + ((i + 1) % 20)));
+        }
+        StateMachineDefinition definition = StateMachineDefinition.create("Hub", statePattern);
+        for (int i = 0; i < 20; i += 2) {
+            String name = "s" + i;
+            definition = definition.when(new NumberedState(name), () -> entered.add(name));
+        }
+        definition = definition.when(hub, (transition, input) -> entered.add("hub<-" + input));
+        CompiledDispatch dispatch = CompiledDispatch.compile(definition);
+        Assertions.assertTrue(dispatch.hasCodeBlockSwitch(), dispatch.toString());
+
+        StateMachine hubSM = definition.compileDispatch().newInstance();
+        hubSM.t("to7").t("to8").t("back", "s8").t("to19").t("to0");
+        Assertions.assertEquals(new NumberedState("s0"), hubSM.currentState());
+        Assertions.assertEquals(List.of("s8", "hub<-s8", "s0"), entered);
+    }
+
+    @Test
+    @DisplayName("Large state patterns use the table and code block arrays")
+    void largePatternTest() {
+        int size = 2100;
+        int[] entered = new int[1];
+        StatePattern statePattern = new StatePattern().initial(new NumberedState("s0"));
+        for (int i = 0; i < size; i++) {
+            statePattern.t("next" + i, new NumberedState("s" + i), new NumberedState("s" + (i + 1)));
+        }
+        StateMachineDefinition definition = StateMachineDefinition.create("Large", statePattern);
+        for (int i = 1; i <= size; i++) {
+            definition = definition.when(new NumberedState("s" + i), () -> entered[0]++);
+        }
+        CompiledDispatch dispatch = CompiledDispatch.compile(definition);
+        Assertions.assertFalse(dispatch.hasCodeBlockSwitch(), dispatch.toString());
+
+        StateMachine stateMachine = definition.compileDispatch().newInstance();
+        for (int i = 0; i < size; i++) {
+            stateMachine.t("next" + i);
+        }
+        Assertions.assertEquals(new NumberedState("s" + size), stateMachine.currentState());
+        Assertions.assertEquals(size, entered[0]);
+    }
+}
@@ -0,0 +1,168 @@
+/*
+ * SPDX-License-Identifier: Apache-2.0
+ *
+ * Copyright © 2024. Carl Dea.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.carlfx.axonic.test;
+
+import org.carlfx.axonic.CompiledStatePattern;
+import org.carlfx.axonic.State;
+import org.carlfx.axonic.StateMachine;
+import org.carlfx.axonic.StateId;
+import org.carlfx.axonic.StatePattern;
+import org.carlfx.axonic.TransitionKey;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+import static org.carlfx.axonic.CompiledStatePattern.NOT_FOUND;
+import static org.carlfx.axonic.StateEnum.INITIAL;
+import static org.carlfx.axonic.StateEnum.INVALID;
+import static org.carlfx.axonic.StateEnum.STOP;
+import static org.carlfx.axonic.test.TurnstileFixture.createTurnstilePattern;
+import static org.carlfx.axonic.test.TurnstileState.*;
+
+@DisplayName("Compiled StatePattern Test")
+public class CompiledStatePatternTest {
+
+    /**
+     * A generated state used to build large state patterns.
+     * @param getName name of state
+     */
+    record NumberedState(String getName) implements State {
+    }
+
+
+    @Test
+    @DisplayName("Compiled table assigns ids and resolves next states")
+    void compiledTableTest() {
+        StatePattern statePattern = createTurnstilePattern();
+        CompiledStatePattern compiled = statePattern.compile();
+
+        Assertions.assertSame(compiled, statePattern.compile(), "unchanged pattern should return the cached snapshot");
+        Assertions.assertEquals(INITIAL, compiled.state(compiled.initialStateId()));
+        Assertions.assertEquals(INVALID, compiled.state(compiled.invalidStateId()));
+        Assertions.assertEquals(5, compiled.stateCount());
+        Assertions.assertEquals(5, compiled.transitionNameCount());
+
+        int locked = compiled.stateId(LOCKED);
+        int unlocked = compiled.stateId(UNLOCKED);
+        int coin = compiled.transitionNameId("coin");
+        int push = compiled.transitionNameId("push");
+        Assertions.assertEquals(unlocked, compiled.nextStateId(locked, coin));
+        Assertions.assertEquals(locked, compiled.nextStateId(unlocked, push));
+        Assertions.assertEquals(NOT_FOUND, compiled.nextStateId(compiled.stateId(FRED), coin));
+        Assertions.assertEquals(NOT_FOUND, compiled.transitionNameId("unknown"));
+        Assertions.assertEquals(NOT_FOUND, compiled.nextStateId(locked, NOT_FOUND));
+        Assertions.assertEquals(LOCKED, compiled.transition(compiled.initialTransition()).toState());
+    }
+
+    @Test
+    @DisplayName("Changing a state pattern recompiles it for the state machine")
+    void recompileTest() {
+        StatePattern statePattern = createTurnstilePattern();
+        StateMachine turnstileSM = StateMachine.create("Turnstile", statePattern);
+        CompiledStatePattern compiled = statePattern.compile();
+
+        turnstileSM.t("hello");
+        Assertions.assertEquals(FRED, turnstileSM.currentState());
+        turnstileSM.t("push");
+        Assertions.assertEquals(INVALID, turnstileSM.currentState());
+
+        turnstileSM.initial(FRED);
+        statePattern.s(FRED).t("bye", LOCKED);
+        Assertions.assertTrue(compiled.isStale());
+        turnstileSM.t("bye");
+        Assertions.assertEquals(LOCKED, turnstileSM.currentState());
+        Assertions.assertEquals(FRED, turnstileSM.previousState());
+    }
+
+    @Test
+    @DisplayName("Interned keys fire transitions and register code blocks")
+    void transitionKeyTest() {
+        StatePattern statePattern = createTurnstilePattern();
+        StateMachine turnstileSM = StateMachine.create("Turnstile", statePattern);
+        CompiledStatePattern compiled = statePattern.compile();
+        TransitionKey coin = compiled.transitionKey("coin");
+        TransitionKey push = compiled.transitionKey("push");
+        StateId unlocked = compiled.stateKey(UNLOCKED);
+
+        Assertions.assertSame(coin, compiled.transitionKey("coin"));
+        Assertions.assertSame(unlocked, compiled.stateKey(unlocked.id()));
+        Assertions.assertThrows(IllegalArgumentException.class, () -> compiled.transitionKey("unknown"));
+
+        int[] unlockedCount = new int[1];
+        turnstileSM.when(unlocked, () -> unlockedCount[0]++);
+        turnstileSM.t(coin).t(coin, "10 cents");
+        Assertions.assertEquals(UNLOCKED, turnstileSM.currentState());
+        Assertions.assertEquals(unlocked.id(), turnstileSM.currentStateId());
+        Assertions.assertEquals(2, unlockedCount[0]);
+        turnstileSM.t(push);
+        Assertions.assertEquals(LOCKED, turnstileSM.currentState());
+
+        // keys from an older snapshot still work after the pattern is recompiled.
+        statePattern.s(FRED).t("bye", LOCKED);
+        turnstileSM.t(coin);
+        Assertions.assertEquals(UNLOCKED, turnstileSM.currentState());
+    }
+
+    @Test
+    @DisplayName("Enum and other states mixed in a pattern are found by id")
+    void enumStateIdTest() {
+        State door = new NumberedState("door");
+        StatePattern statePattern = new StatePattern()
+                .initial(LOCKED)
+                .t("coin", UNLOCKED)
+                .t("open", door)
+                .t("close", LOCKED);
+        CompiledStatePattern compiled = statePattern.compile();
+
+        for (int stateId = 0; stateId < compiled.stateCount(); stateId++) {
+            Assertions.assertEquals(stateId, compiled.stateId(compiled.state(stateId)), compiled.state(stateId).getName());
+        }
+        Assertions.assertEquals(compiled.stateId(door), compiled.stateId(new NumberedState("door")));
+        Assertions.assertEquals(NOT_FOUND, compiled.stateId(FRED));
+        Assertions.assertEquals(NOT_FOUND, compiled.stateId(STOP));
+        Assertions.assertEquals(NOT_FOUND, compiled.stateId(new NumberedState("LOCKED")));
+
+        StateMachine turnstileSM = StateMachine.create(statePattern);
+        turnstileSM.initial(UNLOCKED);
+        turnstileSM.t("open").t("close");
+        Assertions.assertEquals(LOCKED, turnstileSM.currentState());
+    }
+
+    @Test
+    @DisplayName("Large state patterns use a sparse table with the same results")
+    void sparseTableTest() {
+        int size = 2100;
+        StatePattern statePattern = new StatePattern().initial(new NumberedState("s0"));
+        for (int i = 0; i < size; i++) {
+            statePattern.t("next" + i, new NumberedState("s" + i), new NumberedState("s" + (i + 1)));
+            statePattern.t("reset", new NumberedState("s" + (i + 1)), new NumberedState("s0"));
+        }
+        CompiledStatePattern compiled = statePattern.compile();
+        Assertions.assertTrue(compiled.toString().contains("dense=false"), compiled.toString());
+
+        StateMachine stateMachine = StateMachine.create(statePattern);
+        for (int i = 0; i < size; i++) {
+            stateMachine.t("next" + i);
+        }
+        Assertions.assertEquals(new NumberedState("s" + size), stateMachine.currentState());
+        stateMachine.t("reset");
+        Assertions.assertEquals(new NumberedState("s0"), stateMachine.currentState());
+        stateMachine.t("next5");
+        Assertions.assertEquals(INVALID, stateMachine.currentState());
+    }
+}
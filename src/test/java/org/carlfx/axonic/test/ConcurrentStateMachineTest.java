@@ -0,0 +1,185 @@
+/*
+ * SPDX-License-Identifier: Apache-2.0
+ *
+ * Copyright © 2024. Carl Dea.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.carlfx.axonic.test;
+
+import org.carlfx.axonic.ConcurrentStateMachine;
+import org.carlfx.axonic.State;
+import org.carlfx.axonic.StateMachineDefinition;
+import org.carlfx.axonic.StatePattern;
+import org.carlfx.axonic.TransitionResult;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.IntUnaryOperator;
+
+import static org.carlfx.axonic.StateEnum.INVALID;
+import static org.carlfx.axonic.test.TurnstileState.*;
+
+@DisplayName("ConcurrentStateMachine Test")
+public class ConcurrentStateMachineTest {
+    private static final int THREADS = 4;
+
+    /**
+     * A numbered state of a ring.
+     * @param getName name of state
+     */
+    record RingState(String getName) implements State {
+    }
+
+    /**
+     * Runs a task on each thread starting them at the same time.
+     */
+    private static List<Integer> race(int threads, IntUnaryOperator task) throws Exception {
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        try {
+            CountDownLatch start = new CountDownLatch(1);
+            List<Future<Integer>> futures = new ArrayList<>();
+            for (int i = 0; i < threads; i++) {
+                int thread = i;
+                futures.add(executor.submit(() -> {
+                    start.await();
+                    return task.applyAsInt(thread);
+                }));
+            }
+            start.countDown();
+            List<Integer> results = new ArrayList<>();
+            for (Future<Integer> future : futures) {
+                results.add(future.get());
+            }
+            return results;
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    @Test
+    @DisplayName("Concurrent transitions are never lost and snapshots stay consistent")
+    void ringTest() throws Exception {
+        int size = 7;
+        int perThread = 25_000;
+        RingState[] ring = new RingState[size];
+        for (int i = 0; i < size; i++) {
+            ring[i] = new RingState("r" + i);
+        }
+        StatePattern statePattern = new StatePattern().initial(ring[0]);
+        for (int i = 0; i < size; i++) {
+            statePattern.t("next", ring[i], ring[(i + 1) % size]);
+        }
+        LongAdder encountered = new LongAdder();
+        StateMachineDefinition definition = StateMachineDefinition.create("Ring", statePattern);
+        for (RingState state : ring) {
+            definition = definition.when(state, encountered::increment);
+        }
+        ConcurrentStateMachine stateMachine = ConcurrentStateMachine.create("Ring", definition);
+
+        // a reader checks every snapshot it sees is a single edge of the pattern.
+        AtomicBoolean running = new AtomicBoolean(true);
+        AtomicInteger torn = new AtomicInteger();
+        Thread reader = new Thread(() -> {
+            while (running.get()) {
+                ConcurrentStateMachine.Snapshot snapshot = stateMachine.snapshot();
+                if (snapshot.currentTransition().toState() != snapshot.currentState()
+                        || snapshot.currentTransition().fromState() != snapshot.previousState()) {
+                    torn.incrementAndGet();
+                }
+            }
+        });
+        reader.start();
+        race(THREADS, thread -> {
+            int moved = 0;
+            for (int i = 0; i < perThread; i++) {
+                if (stateMachine.tryTransition("next") == TransitionResult.MOVED) {
+                    moved++;
+                }
+            }
+            return moved;
+        }).forEach(moved -> Assertions.assertEquals(perThread, moved));
+        running.set(false);
+        reader.join();
+
+        long total = (long) THREADS * perThread;
+        Assertions.assertEquals(0, torn.get(), "snapshots should never mix two transitions");
+        Assertions.assertEquals(total, encountered.sum());
+        Assertions.assertEquals(ring[(int) (total % size)], stateMachine.currentState());
+        Assertions.assertEquals(ring[(int) ((total - 1) % size)], stateMachine.previousState());
+    }
+
+    @Test
+    @DisplayName("Conflicting events are ordered, exactly one of two racing events wins")
+    void conflictingEventsTest() throws Exception {
+        int perThread = 20_000;
+        StatePattern statePattern = new StatePattern()
+                .initial(LOCKED)
+                .t("coin", LOCKED, UNLOCKED)
+                .t("push", UNLOCKED, LOCKED);
+        ConcurrentStateMachine stateMachine = ConcurrentStateMachine.create("Turnstile", statePattern);
+
+        // even threads insert coins, odd threads push. Only valid events move the turnstile.
+        List<Integer> moved = race(THREADS, thread -> {
+            String event = thread % 2 == 0 ? "coin" : "push";
+            int[] count = new int[1];
+            for (int i = 0; i < perThread; i++) {
+                boolean[] rejected = new boolean[1];
+                stateMachine.tOrElse(event, () -> rejected[0] = true);
+                if (!rejected[0]) {
+                    count[0]++;
+                }
+            }
+            return count[0];
+        });
+        int coins = 0;
+        int pushes = 0;
+        for (int i = 0; i < moved.size(); i++) {
+            if (i % 2 == 0) {
+                coins += moved.get(i);
+            } else {
+                pushes += moved.get(i);
+            }
+        }
+        // every accepted push follows exactly one accepted coin.
+        int difference = coins - pushes;
+        Assertions.assertTrue(difference == 0 || difference == 1, "coins=" + coins + " pushes=" + pushes);
+        Assertions.assertEquals(difference == 1 ? UNLOCKED : LOCKED, stateMachine.currentState());
+    }
+
+    @Test
+    @DisplayName("An invalid event moves to INVALID keeping the previous state")
+    void invalidTest() {
+        ConcurrentStateMachine stateMachine = ConcurrentStateMachine.create("Turnstile", new StatePattern()
+                .initial(LOCKED)
+                .t("coin", LOCKED, UNLOCKED)
+                .t("push", UNLOCKED, LOCKED));
+        Assertions.assertEquals(TransitionResult.MOVED, stateMachine.tryTransition("coin"));
+        Assertions.assertEquals(TransitionResult.INVALID, stateMachine.tryTransition("coin"));
+        Assertions.assertEquals(INVALID, stateMachine.currentState());
+        Assertions.assertEquals(LOCKED, stateMachine.previousState());
+        stateMachine.initial(UNLOCKED);
+        stateMachine.t("push");
+        Assertions.assertEquals(LOCKED, stateMachine.currentState());
+    }
+}
@@ -0,0 +1,87 @@
+/*
+ * SPDX-License-Identifier: Apache-2.0
+ *
+ * Copyright © 2024. Carl Dea.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.carlfx.axonic.test;
+
+import jdk.jfr.Recording;
+import jdk.jfr.consumer.RecordedEvent;
+import jdk.jfr.consumer.RecordingFile;
+import org.carlfx.axonic.StateMachine;
+import org.carlfx.axonic.StatePattern;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.List;
+import java.util.concurrent.locks.LockSupport;
+
+import static org.carlfx.axonic.test.TurnstileState.*;
+
+@DisplayName("Flight Recorder Event Test")
+public class FlightRecorderEventTest {
+
+    @Test
+    @DisplayName("Transitions, invalid transitions and callbacks are recorded")
+    void recordingTest() throws IOException {
+        StateMachine turnstileSM = StateMachine.create("Turnstile", new StatePattern()
+                .initial(LOCKED)
+                .t("coin", LOCKED, UNLOCKED)
+                .t("push", UNLOCKED, LOCKED));
+        turnstileSM.when(UNLOCKED, () -> LockSupport.parkNanos(1_000_000));
+
+        // nothing is recorded without a recording.
+        turnstileSM.t("coin").t("push");
+
+        Path file = Files.createTempFile("axonic", ".jfr");
+        try (Recording recording = new Recording()) {
+            recording.enable("org.carlfx.axonic.Transition");
+            recording.enable("org.carlfx.axonic.InvalidTransition");
+            recording.enable("org.carlfx.axonic.Callback").withThreshold(Duration.ZERO);
+            recording.start();
+            turnstileSM.t("coin").t("coin");
+            recording.stop();
+            recording.dump(file);
+        }
+        List<RecordedEvent> events = RecordingFile.readAllEvents(file);
+        Files.deleteIfExists(file);
+
+        List<RecordedEvent> transitions = events.stream()
+                .filter(event -> event.getEventType().getName().equals("org.carlfx.axonic.Transition")).toList();
+        Assertions.assertEquals(1, transitions.size());
+        RecordedEvent transition = transitions.get(0);
+        Assertions.assertEquals("Turnstile", transition.getString("machine"));
+        Assertions.assertEquals("Locked", transition.getString("fromState"));
+        Assertions.assertEquals("Unlocked", transition.getString("toState"));
+        Assertions.assertEquals("coin", transition.getString("transition"));
+
+        RecordedEvent invalid = events.stream()
+                .filter(event -> event.getEventType().getName().equals("org.carlfx.axonic.InvalidTransition"))
+                .findFirst().orElseThrow();
+        Assertions.assertEquals("Unlocked", invalid.getString("fromState"));
+        Assertions.assertEquals("coin", invalid.getString("transition"));
+
+        RecordedEvent callback = events.stream()
+                .filter(event -> event.getEventType().getName().equals("org.carlfx.axonic.Callback"))
+                .findFirst().orElseThrow();
+        Assertions.assertEquals("Unlocked", callback.getString("state"));
+        Assertions.assertTrue(callback.getDuration().toNanos() >= 1_000_000);
+    }
+}
@@ -0,0 +1,102 @@
+/*
+ * SPDX-License-Identifier: Apache-2.0
+ *
+ * Copyright © 2024. Carl Dea.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.carlfx.axonic.test;
+
+import org.carlfx.axonic.OrthogonalStateMachine;
+import org.carlfx.axonic.StateMachine;
+import org.carlfx.axonic.StatePattern;
+import org.carlfx.axonic.Transition;
+import org.carlfx.axonic.TransitionResult;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Optional;
+
+import static org.carlfx.axonic.StateEnum.INVALID;
+import static org.carlfx.axonic.test.TurnstileState.*;
+
+@DisplayName("Guarded Transition Test")
+public class GuardedTransitionTest {
+
+    @Test
+    @DisplayName("Guards choose between transitions with the same name in declaration order")
+    void guardTest() {
+        List<String> evaluated = new ArrayList<>();
+        StatePattern statePattern = new StatePattern()
+                .initial(LOCKED)
+                .t("coin").guard(input -> {
+                    evaluated.add("quarter");
+                    return input instanceof Integer cents && cents >= 25;
+                }).s(UNLOCKED)
+                .t("push", LOCKED)
+                .t("coin", LOCKED, FRED).guard(input -> {
+                    evaluated.add("dime");
+                    return input instanceof Integer cents && cents >= 10;
+                })
+                .t("coin", LOCKED, LOCKED);
+        Assertions.assertTrue(statePattern.compile().hasGuards());
+        Assertions.assertEquals(UNLOCKED, statePattern.transitions().get(1).toState(), "s() keeps the guard");
+        Assertions.assertNotNull(statePattern.transitions().get(1).guard());
+
+        StateMachine turnstileSM = StateMachine.create("Turnstile", statePattern);
+        turnstileSM.t("coin", 5);
+        Assertions.assertEquals(LOCKED, turnstileSM.currentState());
+        Assertions.assertEquals(List.of("quarter", "dime"), evaluated);
+
+        evaluated.clear();
+        turnstileSM.t("coin", 25);
+        Assertions.assertEquals(UNLOCKED, turnstileSM.currentState());
+        Assertions.assertEquals(List.of("quarter"), evaluated, "guards short circuit");
+
+        turnstileSM.t("push").t("coin", 10);
+        Assertions.assertEquals(FRED, turnstileSM.currentState());
+        Assertions.assertEquals("coin", turnstileSM.currentTransition().name());
+    }
+
+    @Test
+    @DisplayName("A transition is invalid when every guard rejects the input")
+    void rejectedTest() {
+        List<Transition> unlockedBy = new ArrayList<>();
+        StatePattern statePattern = new StatePattern()
+                .initial(LOCKED)
+                .t("coin", LOCKED, UNLOCKED).guard(input -> "token".equals(input))
+                .t("push", UNLOCKED, LOCKED);
+        Assertions.assertFalse(new StatePattern().initial(LOCKED).t("coin", LOCKED, UNLOCKED).compile().hasGuards());
+
+        StateMachine turnstileSM = StateMachine.create("Turnstile", statePattern);
+        turnstileSM.when(UNLOCKED, (t, input) -> unlockedBy.add(t));
+        Assertions.assertEquals(TransitionResult.INVALID, turnstileSM.tryTransition("coin"));
+        Assertions.assertEquals(INVALID, turnstileSM.currentState());
+        turnstileSM.initial(LOCKED);
+        boolean[] rejected = new boolean[1];
+        turnstileSM.tOrElse("coin", "button", (name, input) -> rejected[0] = true);
+        Assertions.assertTrue(rejected[0]);
+        Assertions.assertEquals(LOCKED, turnstileSM.currentState());
+        Assertions.assertEquals(Optional.of(UNLOCKED), turnstileSM.lookupNextTransition("coin").map(Transition::toState),
+                "the lookup without input ignores guards");
+        Assertions.assertEquals(Optional.empty(), turnstileSM.lookupNextTransition("coin", "button"));
+        Assertions.assertEquals(Optional.of(UNLOCKED), turnstileSM.lookupNextTransition("coin", "token").map(Transition::toState));
+        OrthogonalStateMachine regions = OrthogonalStateMachine.create("Regions", StateMachine.create("Turnstile", statePattern));
+        Assertions.assertEquals(Optional.empty(), regions.lookupNextTransition("coin", "button"));
+        Assertions.assertEquals(TransitionResult.MOVED, turnstileSM.tryTransition("coin", "token"));
+        Assertions.assertEquals(1, unlockedBy.size());
+    }
+}
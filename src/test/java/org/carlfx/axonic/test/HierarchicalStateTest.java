@@ -0,0 +1,141 @@
+/*
+ * SPDX-License-Identifier: Apache-2.0
+ *
+ * Copyright © 2024. Carl Dea.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.carlfx.axonic.test;
+
+import org.carlfx.axonic.BatchMode;
+import org.carlfx.axonic.CompiledStatePattern;
+import org.carlfx.axonic.ConcurrentStateMachine;
+import org.carlfx.axonic.State;
+import org.carlfx.axonic.StateColumn;
+import org.carlfx.axonic.StateMachine;
+import org.carlfx.axonic.StatePattern;
+import org.carlfx.axonic.Transition;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.carlfx.axonic.test.HierarchicalStateTest.EditorState.*;
+
+@DisplayName("Hierarchical State Test")
+public class HierarchicalStateTest {
+
+    enum EditorState implements State {
+        EDITING, TEXT, IMAGE, CROP, RESIZE, SAVED, HELP;
+
+        @Override
+        public String getName() {
+            return name();
+        }
+    }
+
+    static StatePattern createEditorPattern() {
+        return new StatePattern()
+                .substates(EDITING, TEXT, IMAGE)
+                .substates(IMAGE, CROP, RESIZE)
+                .initial(EDITING)
+                .t("next", TEXT, IMAGE)
+                .t("resize", CROP, RESIZE)
+                .t("save", CROP, CROP)
+                .t("save", EDITING, SAVED)
+                .t("help", EDITING, HELP)
+                .t("back", HELP, StatePattern.history(EDITING))
+                .t("edit", SAVED, EDITING);
+    }
+
+    @Test
+    @DisplayName("Substates inherit their parents' transitions and parents enter their initial substate")
+    void inheritedTransitionsTest() {
+        StatePattern statePattern = createEditorPattern();
+        Assertions.assertEquals(IMAGE, statePattern.parentOf(CROP));
+        Assertions.assertEquals(List.of(CROP, RESIZE), statePattern.substatesOf(IMAGE));
+        CompiledStatePattern compiled = statePattern.compile();
+        List<String> resizeOutgoing = compiled.outgoingTransitions(compiled.stateId(RESIZE)).stream().map(Transition::name).toList();
+        Assertions.assertEquals(List.of("save", "help"), resizeOutgoing);
+        Assertions.assertEquals(compiled.stateId(TEXT), compiled.entryStateId(compiled.stateId(EDITING)));
+
+        List<State> entered = new ArrayList<>();
+        StateMachine editor = StateMachine.create("Editor", statePattern);
+        editor.when(CROP, () -> entered.add(CROP));
+        Assertions.assertEquals(TEXT, editor.currentState());
+        editor.t("next");
+        Assertions.assertEquals(CROP, editor.currentState());
+        Assertions.assertEquals(List.of(CROP), entered);
+        // a substate's own transition wins over the inherited one.
+        editor.t("save");
+        Assertions.assertEquals(CROP, editor.currentState());
+        editor.t("resize").t("save");
+        Assertions.assertEquals(SAVED, editor.currentState());
+        Assertions.assertEquals(RESIZE, editor.previousState());
+        Assertions.assertEquals(RESIZE, editor.currentTransition().fromState());
+        editor.t("edit");
+        Assertions.assertEquals(TEXT, editor.currentState());
+        editor.initial(IMAGE);
+        Assertions.assertEquals(CROP, editor.currentState());
+    }
+
+    @Test
+    @DisplayName("History states resume the last substate of each state machine")
+    void historyTest() {
+        StatePattern statePattern = createEditorPattern();
+        Assertions.assertTrue(statePattern.compile().hasHistory());
+        StateMachine editor1 = StateMachine.create("Editor 1", statePattern);
+        StateMachine editor2 = StateMachine.create("Editor 2", statePattern);
+
+        editor1.t("next").t("resize").t("help");
+        Assertions.assertEquals(HELP, editor1.currentState());
+        editor1.t("back");
+        Assertions.assertEquals(RESIZE, editor1.currentState());
+
+        // never left EDITING through help before, resumes the initial substate.
+        editor2.t("help").t("back");
+        Assertions.assertEquals(TEXT, editor2.currentState());
+
+        editor1.applyAll(List.of("help", "back", "save", "edit", "help", "back"), BatchMode.ATOMIC);
+        Assertions.assertEquals(TEXT, editor1.currentState());
+    }
+
+    @Test
+    @DisplayName("ConcurrentStateMachine and StateColumn keep the history of each state machine")
+    void historyStorageTest() {
+        StatePattern statePattern = createEditorPattern();
+        ConcurrentStateMachine editor = ConcurrentStateMachine.create("Editor", statePattern);
+        editor.t("next").t("resize").t("help").t("back");
+        Assertions.assertEquals(RESIZE, editor.currentState());
+        Assertions.assertEquals(HELP, editor.previousState());
+        editor.applyAll(List.of("help", "back", "save", "edit", "help", "back"), BatchMode.ATOMIC);
+        Assertions.assertEquals(TEXT, editor.currentState());
+
+        StateColumn editors = StateColumn.create(statePattern, 3);
+        editors.tryTransition(0, "next");
+        editors.tryTransition(0, "resize");
+        for (int entity = 0; entity < editors.size(); entity++) {
+            editors.tryTransition(entity, "help");
+        }
+        editors.initial(2, IMAGE);
+        editors.tryTransition(2, "help");
+        for (int entity = 0; entity < editors.size(); entity++) {
+            editors.tryTransition(entity, "back");
+        }
+        Assertions.assertEquals(RESIZE, editors.currentState(0));
+        Assertions.assertEquals(TEXT, editors.currentState(1));
+        Assertions.assertEquals(CROP, editors.currentState(2));
+    }
+}
@@ -0,0 +1,152 @@
+/*
+ * SPDX-License-Identifier: Apache-2.0
+ *
+ * Copyright © 2024. Carl Dea.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.carlfx.axonic.test;
+
+import org.carlfx.axonic.StateMachine;
+import org.carlfx.axonic.StatePattern;
+import org.carlfx.axonic.journal.FsyncPolicy;
+import org.carlfx.axonic.journal.Journal;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.Comparator;
+import java.util.stream.Stream;
+
+import static org.carlfx.axonic.StateEnum.INITIAL;
+import static org.carlfx.axonic.StateEnum.INVALID;
+import static org.carlfx.axonic.test.TurnstileFixture.createTurnstilePattern;
+import static org.carlfx.axonic.test.TurnstileState.*;
+
+@DisplayName("Journal Test")
+public class JournalTest {
+
+    private static void delete(Path directory) throws IOException {
+        try (Stream<Path> files = Files.walk(directory)) {
+            files.sorted(Comparator.reverseOrder()).forEach(path -> path.toFile().delete());
+        }
+    }
+
+    @Test
+    @DisplayName("Replaying a journal rebuilds the history of parent states")
+    void historyReplayTest() throws IOException {
+        Path directory = Files.createTempDirectory("axonic-journal");
+        try {
+            StatePattern statePattern = HierarchicalStateTest.createEditorPattern();
+            try (Journal journal = Journal.open(directory, statePattern.compile(), FsyncPolicy.ALWAYS)) {
+                StateMachine editor = StateMachine.create("Editor", statePattern).listener(journal);
+                editor.t("next").t("resize").t("help");
+                StateMachine replayed = StateMachine.create("Editor", statePattern);
+                Assertions.assertEquals(3, Journal.replay(directory, replayed));
+                Assertions.assertEquals(HierarchicalStateTest.EditorState.HELP, replayed.currentState());
+                Assertions.assertArrayEquals(editor.history(), replayed.history());
+                replayed.t("back");
+                Assertions.assertEquals(HierarchicalStateTest.EditorState.RESIZE, replayed.currentState());
+
+                editor.t("back");
+                replayed = StateMachine.create("Editor", statePattern);
+                Journal.replay(directory, replayed);
+                Assertions.assertEquals(HierarchicalStateTest.EditorState.RESIZE, replayed.currentState());
+            }
+        } finally {
+            delete(directory);
+        }
+    }
+
+    @Test
+    @DisplayName("Replaying a journal rebuilds the state")
+    void replayTest() throws IOException {
+        Path directory = Files.createTempDirectory("axonic-journal");
+        try {
+            StatePattern statePattern = createTurnstilePattern();
+            try (Journal journal = Journal.open(directory, statePattern.compile(), FsyncPolicy.ALWAYS)) {
+                StateMachine turnstileSM = StateMachine.create("Turnstile", statePattern).listener(journal);
+                turnstileSM.t("coin").t("push").t("hello");
+                StateMachine replayed = StateMachine.create("Turnstile", statePattern);
+                Assertions.assertEquals(3, Journal.replay(directory, replayed));
+                Assertions.assertEquals(FRED, replayed.currentState());
+                Assertions.assertEquals(LOCKED, replayed.previousState());
+                Assertions.assertEquals(turnstileSM.currentTransition(), replayed.currentTransition());
+
+                // invalid keeps the previous state, initial restarts the flow.
+                turnstileSM.t("coin");
+                Journal.replay(directory, replayed);
+                Assertions.assertEquals(INVALID, replayed.currentState());
+                Assertions.assertEquals(LOCKED, replayed.previousState());
+                turnstileSM.initial(UNLOCKED);
+                Journal.replay(directory, replayed);
+                Assertions.assertEquals(UNLOCKED, replayed.currentState());
+                Assertions.assertEquals(INITIAL, replayed.previousState());
+                replayed.t("push");
+                Assertions.assertEquals(LOCKED, replayed.currentState());
+            }
+        } finally {
+            delete(directory);
+        }
+    }
+
+    @Test
+    @DisplayName("Full segments roll over and a reopened journal appends after the last record")
+    void rollingTest() throws IOException {
+        Path directory = Files.createTempDirectory("axonic-journal");
+        try {
+            StatePattern statePattern = createTurnstilePattern();
+            FsyncPolicy groupCommit = FsyncPolicy.groupCommit(16, Duration.ofMillis(5));
+            try (Journal journal = Journal.open(directory, statePattern.compile(), groupCommit, 64)) {
+                StateMachine turnstileSM = StateMachine.create(statePattern).listener(journal);
+                for (int i = 0; i < 100; i++) {
+                    turnstileSM.t("coin").t("push");
+                }
+            }
+            try (Stream<Path> files = Files.list(directory)) {
+                Assertions.assertTrue(files.count() > 1, "segments should roll over");
+            }
+            try (Journal journal = Journal.open(directory, statePattern.compile(), groupCommit, 64)) {
+                StateMachine turnstileSM = StateMachine.create(statePattern).listener(journal);
+                turnstileSM.t("coin");
+            }
+            StateMachine replayed = StateMachine.create(statePattern);
+            Assertions.assertEquals(201, Journal.replay(directory, replayed));
+            Assertions.assertEquals(UNLOCKED, replayed.currentState());
+        } finally {
+            delete(directory);
+        }
+    }
+
+    @Test
+    @DisplayName("A journal only replays with the state pattern it was written with")
+    void fingerprintTest() throws IOException {
+        Path directory = Files.createTempDirectory("axonic-journal");
+        try {
+            StatePattern statePattern = createTurnstilePattern();
+            try (Journal journal = Journal.open(directory, statePattern.compile())) {
+                StateMachine.create(statePattern).listener(journal).t("coin");
+            }
+            StatePattern changed = createTurnstilePattern().t("bye", FRED, LOCKED);
+            Assertions.assertEquals(statePattern.compile().fingerprint(), createTurnstilePattern().compile().fingerprint());
+            Assertions.assertNotEquals(statePattern.compile().fingerprint(), changed.compile().fingerprint());
+            Assertions.assertThrows(IllegalStateException.class, () -> Journal.replay(directory, StateMachine.create(changed)));
+        } finally {
+            delete(directory);
+        }
+    }
+}
@@ -0,0 +1,178 @@
+/*
+ * SPDX-License-Identifier: Apache-2.0
+ *
+ * Copyright © 2024. Carl Dea.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.carlfx.axonic.test;
+
+import org.carlfx.axonic.State;
+import org.carlfx.axonic.StateMachine;
+import org.carlfx.axonic.StateMachineDefinition;
+import org.carlfx.axonic.StatePattern;
+import org.carlfx.axonic.TransitionResult;
+import org.carlfx.axonic.runtime.Mailbox;
+import org.carlfx.axonic.runtime.MailboxRuntime;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.carlfx.axonic.test.TurnstileState.*;
+
+@DisplayName("MailboxRuntime Test")
+public class MailboxRuntimeTest {
+
+    /**
+     * A numbered state of a ring.
+     * @param getName name of state
+     */
+    record RingState(String getName) implements State {
+    }
+
+    @Test
+    @DisplayName("Events posted from many threads are applied in order by a single writer")
+    void singleWriterTest() throws Exception {
+        int machines = 2_000;
+        int producers = 4;
+        int perProducer = 50;
+        int size = 5;
+        RingState[] ring = new RingState[size];
+        StatePattern statePattern = new StatePattern();
+        for (int i = 0; i < size; i++) {
+            ring[i] = new RingState("r" + i);
+        }
+        statePattern.initial(ring[0]);
+        for (int i = 0; i < size; i++) {
+            statePattern.t("next", ring[i], ring[(i + 1) % size]);
+        }
+        AtomicInteger overlaps = new AtomicInteger();
+        AtomicInteger encountered = new AtomicInteger();
+        StateMachineDefinition definition = StateMachineDefinition.create("Ring", statePattern);
+
+        try (MailboxRuntime runtime = MailboxRuntime.create(4)) {
+            List<Mailbox<StateMachine>> mailboxes = new ArrayList<>();
+            for (int i = 0; i < machines; i++) {
+                Mailbox<StateMachine> mailbox = runtime.mailbox(definition.newInstance("ring-" + i));
+                // code blocks of one machine must never run at the same time.
+                AtomicBoolean busy = new AtomicBoolean();
+                mailbox.tell(sm -> {
+                    for (RingState state : ring) {
+                        sm.when(state, () -> {
+                            if (!busy.compareAndSet(false, true)) {
+                                overlaps.incrementAndGet();
+                            }
+                            encountered.incrementAndGet();
+                            busy.set(false);
+                        });
+                    }
+                });
+                mailboxes.add(mailbox);
+            }
+            CountDownLatch start = new CountDownLatch(1);
+            List<Thread> threads = new ArrayList<>();
+            for (int p = 0; p < producers; p++) {
+                Thread thread = new Thread(() -> {
+                    try {
+                        start.await();
+                    } catch (InterruptedException e) {
+                        return;
+                    }
+                    for (int i = 0; i < perProducer; i++) {
+                        for (Mailbox<StateMachine> mailbox : mailboxes) {
+                            mailbox.post("next");
+                        }
+                    }
+                });
+                thread.start();
+                threads.add(thread);
+            }
+            start.countDown();
+            for (Thread thread : threads) {
+                thread.join();
+            }
+            int total = producers * perProducer;
+            for (Mailbox<StateMachine> mailbox : mailboxes) {
+                State state = mailbox.ask(StateMachine::currentState).get(10, TimeUnit.SECONDS);
+                Assertions.assertEquals(ring[total % size], state, mailbox.fsm().getName());
+            }
+            Assertions.assertEquals(machines * total, encountered.get());
+            Assertions.assertEquals(0, overlaps.get(), "code blocks of a machine ran concurrently");
+        }
+    }
+
+    @Test
+    @DisplayName("Submitted events complete with their transition result")
+    void submitTest() throws Exception {
+        try (MailboxRuntime runtime = MailboxRuntime.create(2)) {
+            List<String> unlockedBy = new ArrayList<>();
+            Mailbox<StateMachine> turnstile = runtime.mailbox(StateMachine.create("Turnstile", new StatePattern()
+                    .initial(LOCKED)
+                    .t("coin", LOCKED, UNLOCKED)
+                    .t("push", UNLOCKED, LOCKED)));
+            turnstile.tell(sm -> sm.when(UNLOCKED, (t, input) -> unlockedBy.add((String) input)));
+            CompletableFuture<TransitionResult> coin = turnstile.submit("coin", "quarter");
+            CompletableFuture<TransitionResult> invalid = turnstile.submit("coin");
+            CompletableFuture<TransitionResult> recovered = turnstile.ask(sm -> {
+                sm.initial(UNLOCKED);
+                return sm.tryTransition("push");
+            });
+            Assertions.assertEquals(TransitionResult.MOVED, coin.get(10, TimeUnit.SECONDS));
+            Assertions.assertEquals(TransitionResult.INVALID, invalid.get(10, TimeUnit.SECONDS));
+            Assertions.assertEquals(TransitionResult.MOVED, recovered.get(10, TimeUnit.SECONDS));
+            Assertions.assertEquals(List.of("quarter"), turnstile.ask(sm -> unlockedBy).get(10, TimeUnit.SECONDS));
+
+            CompletableFuture<TransitionResult> failed = turnstile.ask(sm -> {
+                throw new IllegalStateException("boom");
+            });
+            Assertions.assertThrows(Exception.class, () -> failed.get(10, TimeUnit.SECONDS));
+            Assertions.assertEquals(LOCKED, turnstile.ask(StateMachine::currentState).get(10, TimeUnit.SECONDS));
+        }
+    }
+
+    @Test
+    @DisplayName("Events rejected by the executor fail and the mailbox is scheduled again by the next event")
+    void rejectedTest() throws Exception {
+        AtomicBoolean reject = new AtomicBoolean(true);
+        List<Throwable> errors = new ArrayList<>();
+        MailboxRuntime runtime = MailboxRuntime.create(task -> {
+            if (reject.get()) {
+                throw new RejectedExecutionException("full");
+            }
+            task.run();
+        }).onError((mailbox, throwable) -> errors.add(throwable));
+        Mailbox<StateMachine> turnstile = runtime.mailbox(StateMachine.create("Turnstile", new StatePattern()
+                .initial(LOCKED)
+                .t("coin", LOCKED, UNLOCKED)
+                .t("push", UNLOCKED, LOCKED)));
+        CompletableFuture<TransitionResult> rejected = turnstile.submit("coin");
+        Assertions.assertTrue(rejected.isCompletedExceptionally());
+        turnstile.post("coin");
+        Assertions.assertEquals(1, errors.size());
+        Assertions.assertInstanceOf(RejectedExecutionException.class, errors.get(0));
+        Assertions.assertTrue(turnstile.isIdle());
+
+        reject.set(false);
+        Assertions.assertEquals(TransitionResult.MOVED, turnstile.submit("coin").get(10, TimeUnit.SECONDS));
+        Assertions.assertEquals(UNLOCKED, turnstile.ask(StateMachine::currentState).get(10, TimeUnit.SECONDS));
+    }
+}
@@ -0,0 +1,147 @@
+/*
+ * SPDX-License-Identifier: Apache-2.0
+ *
+ * Copyright © 2024. Carl Dea.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.carlfx.axonic.test;
+
+import org.carlfx.axonic.BatchMode;
+import org.carlfx.axonic.BatchResult;
+import org.carlfx.axonic.CompositeState;
+import org.carlfx.axonic.OrthogonalStateMachine;
+import org.carlfx.axonic.State;
+import org.carlfx.axonic.StateMachineDefinition;
+import org.carlfx.axonic.TransitionResult;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ForkJoinPool;
+
+import static org.carlfx.axonic.StateEnum.STOP;
+
+@DisplayName("Orthogonal State Machine Test")
+public class OrthogonalStateMachineTest {
+
+    record DeviceState(String getName) implements State {
+    }
+
+    static final State OFF = new DeviceState("Off");
+    static final State ON = new DeviceState("On");
+    static final State OFFLINE = new DeviceState("Offline");
+    static final State ONLINE = new DeviceState("Online");
+    static final State IDLE = new DeviceState("Idle");
+    static final State PRINTING = new DeviceState("Printing");
+
+    private static OrthogonalStateMachine createDevice() {
+        StateMachineDefinition power = StateMachineDefinition.create("power", pattern -> pattern
+                .initial(OFF)
+                .t("switch", OFF, ON)
+                .t("switch", ON, OFF)
+                .t("reset", ON, OFF));
+        StateMachineDefinition connectivity = StateMachineDefinition.create("connectivity", pattern -> pattern
+                .initial(OFFLINE)
+                .t("connect", OFFLINE, ONLINE)
+                .t("reset", ONLINE, OFFLINE));
+        StateMachineDefinition job = StateMachineDefinition.create("job", pattern -> pattern
+                .initial(IDLE)
+                .t("print", IDLE, PRINTING)
+                .t("done", PRINTING, IDLE)
+                .t("stop", IDLE, STOP));
+        return OrthogonalStateMachine.create("Device", power, connectivity, job);
+    }
+
+    @Test
+    @DisplayName("Events are delivered to every region with a matching transition")
+    void regionsTest() {
+        OrthogonalStateMachine device = createDevice();
+        Assertions.assertEquals(new CompositeState(List.of(OFF, OFFLINE, IDLE)), device.currentState());
+        Assertions.assertEquals("(Off, Offline, Idle)", device.currentState().getName());
+
+        device.t("switch").t("connect");
+        Assertions.assertEquals(new CompositeState(List.of(ON, ONLINE, IDLE)), device.currentState());
+        Assertions.assertEquals(new CompositeState(List.of(ON, OFFLINE, IDLE)), device.previousState());
+        Assertions.assertEquals("connect", device.currentTransition().name());
+
+        Assertions.assertEquals(TransitionResult.MOVED, device.tryTransition("reset", null));
+        Assertions.assertEquals(new CompositeState(List.of(OFF, OFFLINE, IDLE)), device.currentState());
+
+        Assertions.assertEquals(TransitionResult.INVALID, device.tryTransition("done", null));
+        Assertions.assertEquals(new CompositeState(List.of(OFF, OFFLINE, IDLE)), device.currentState(),
+                "an event no region accepts leaves every region unchanged");
+        Assertions.assertEquals(IDLE, device.region("job").orElseThrow().currentState());
+        Assertions.assertEquals(4, device.outgoingTransitions().size());
+
+        device.initial(PRINTING);
+        Assertions.assertEquals(PRINTING, device.regions().get(2).currentState());
+        Assertions.assertThrows(IllegalArgumentException.class, () -> device.initial(new DeviceState("Unknown")));
+    }
+
+    @Test
+    @DisplayName("An atomic batch is validated against every region before any region moves")
+    void atomicBatchTest() {
+        OrthogonalStateMachine device = createDevice();
+        BatchResult rejected = device.applyAll(List.of("switch", "connect", "print", "connect"), BatchMode.ATOMIC);
+        Assertions.assertEquals(new BatchResult(TransitionResult.INVALID, 0, 3), rejected);
+        Assertions.assertEquals(new CompositeState(List.of(OFF, OFFLINE, IDLE)), device.currentState());
+
+        BatchResult applied = device.applyAll(List.of("switch", "connect", "print", "reset"), BatchMode.ATOMIC);
+        Assertions.assertEquals(new BatchResult(TransitionResult.MOVED, 4, -1), applied);
+        Assertions.assertEquals(new CompositeState(List.of(OFF, OFFLINE, PRINTING)), device.currentState());
+        Assertions.assertEquals(new CompositeState(List.of(ON, ONLINE, PRINTING)), device.previousState());
+        Assertions.assertEquals("reset", device.currentTransition().name());
+    }
+
+    @Test
+    @DisplayName("Regions step in parallel and join before the composite state is published")
+    void parallelTest() {
+        OrthogonalStateMachine device = createDevice().executor(ForkJoinPool.commonPool());
+        Set<String> threads = ConcurrentHashMap.newKeySet();
+        Set<State> entered = ConcurrentHashMap.newKeySet();
+        device.when(OFF, (transition, input) -> entered.add(((org.carlfx.axonic.Transition) transition).toState()));
+        device.when(OFFLINE, (transition, input) -> {
+            threads.add(Thread.currentThread().getName());
+            entered.add(((org.carlfx.axonic.Transition) transition).toState());
+        });
+
+        device.t("switch").t("connect").t("reset");
+        Assertions.assertEquals(Set.of(OFF, OFFLINE), entered, "both regions finished before t() returned");
+        Assertions.assertFalse(threads.contains(Thread.currentThread().getName()));
+        Assertions.assertEquals(new CompositeState(List.of(OFF, OFFLINE, IDLE)), device.currentState());
+
+        boolean[] invalid = new boolean[1];
+        device.tOrElse("connect", () -> invalid[0] = true);
+        Assertions.assertFalse(invalid[0]);
+        device.tOrElse("unknown", () -> invalid[0] = true);
+        Assertions.assertTrue(invalid[0]);
+    }
+
+    @Test
+    @DisplayName("The composite state machine stops when every region stops")
+    void stopTest() {
+        StateMachineDefinition a = StateMachineDefinition.create("a", pattern -> pattern
+                .initial(IDLE).t("stop", IDLE, STOP));
+        StateMachineDefinition b = StateMachineDefinition.create("b", pattern -> pattern
+                .initial(OFF).t("switch", OFF, ON).t("stop", ON, STOP));
+        OrthogonalStateMachine machine = OrthogonalStateMachine.create("Stopping", a, b);
+        Assertions.assertEquals(TransitionResult.MOVED, machine.tryTransition("stop", null));
+        Assertions.assertEquals(STOP, machine.regions().get(0).currentState());
+        machine.t("switch");
+        Assertions.assertEquals(TransitionResult.STOPPED, machine.tryTransition("stop", null));
+    }
+}
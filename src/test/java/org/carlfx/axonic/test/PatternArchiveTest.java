@@ -0,0 +1,161 @@
+/*
+ * SPDX-License-Identifier: Apache-2.0
+ *
+ * Copyright © 2024. Carl Dea.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.carlfx.axonic.test;
+
+import org.carlfx.axonic.CompiledStatePattern;
+import org.carlfx.axonic.PatternArchive;
+import org.carlfx.axonic.State;
+import org.carlfx.axonic.StateMachine;
+import org.carlfx.axonic.StateMachineDefinition;
+import org.carlfx.axonic.StatePattern;
+import org.carlfx.axonic.TimingWheel;
+import org.carlfx.axonic.VirtualClock;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+
+import static org.carlfx.axonic.StateEnum.STOP;
+import static org.carlfx.axonic.test.TurnstileState.*;
+
+@DisplayName("Pattern Archive Test")
+public class PatternArchiveTest {
+
+    record NumberedState(String getName) implements State {
+    }
+
+    @Test
+    @DisplayName("A loaded archive behaves like the compiled state pattern it was written from")
+    void roundTripTest() throws IOException {
+        StatePattern statePattern = new StatePattern()
+                .initial(LOCKED)
+                .t("coin", LOCKED, UNLOCKED, "insert a coin")
+                .t("push", UNLOCKED, LOCKED)
+                .t("hello", LOCKED, FRED)
+                .after(Duration.ofSeconds(30), "timeout", UNLOCKED, LOCKED)
+                .s(FRED)
+                .stop();
+        CompiledStatePattern compiled = statePattern.compile();
+        Path file = Files.createTempFile("axonic-pattern", ".axp");
+        try {
+            PatternArchive.write(file, compiled);
+            CompiledStatePattern loaded = PatternArchive.load(file, TurnstileState.values());
+
+            Assertions.assertFalse(loaded.isStale());
+            Assertions.assertEquals(compiled.fingerprint(), loaded.fingerprint());
+            Assertions.assertEquals(compiled.stateCount(), loaded.stateCount());
+            for (int i = 0; i < compiled.transitionCount(); i++) {
+                Assertions.assertEquals(compiled.transition(i), loaded.transition(i));
+            }
+            Assertions.assertEquals("insert a coin", loaded.transition(loaded.transitionIndex(
+                    loaded.stateId(LOCKED), loaded.transitionNameId("coin"))).description());
+            Assertions.assertEquals(compiled.outgoingTransitions(compiled.stateId(LOCKED)),
+                    loaded.outgoingTransitions(loaded.stateId(LOCKED)));
+            Assertions.assertEquals(STOP, loaded.state(loaded.stateId(STOP)));
+
+            VirtualClock clock = new VirtualClock();
+            TimingWheel wheel = TimingWheel.create(Duration.ofMillis(10), 64, clock);
+            StateMachine turnstileSM = StateMachine.create("Turnstile", StateMachineDefinition.create("Turnstile", loaded))
+                    .timers(wheel);
+            Assertions.assertEquals(LOCKED, turnstileSM.currentState());
+            turnstileSM.t("coin");
+            Assertions.assertEquals(UNLOCKED, turnstileSM.currentState());
+            clock.advance(Duration.ofSeconds(30));
+            wheel.advance();
+            Assertions.assertEquals(LOCKED, turnstileSM.currentState());
+            turnstileSM.t("hello").t("stop");
+            Assertions.assertEquals(STOP, turnstileSM.currentState());
+
+            // the state pattern is rebuilt on demand and changing it recompiles.
+            StatePattern rebuilt = turnstileSM.getStatePattern();
+            Assertions.assertSame(loaded, rebuilt.compile());
+            Assertions.assertSame(FRED, rebuilt.stateByName("Fred"));
+            rebuilt.t("bye", FRED, LOCKED);
+            Assertions.assertTrue(loaded.isStale());
+            turnstileSM.initial(FRED);
+            turnstileSM.t("bye");
+            Assertions.assertEquals(LOCKED, turnstileSM.currentState());
+
+            Assertions.assertThrows(IllegalArgumentException.class, () -> PatternArchive.load(file, LOCKED, UNLOCKED));
+        } finally {
+            Files.deleteIfExists(file);
+        }
+    }
+
+    @Test
+    @DisplayName("An archive is exactly the size of its header and sections")
+    void sizeTest() throws IOException {
+        StatePattern statePattern = new StatePattern()
+                .initial(LOCKED)
+                .t("coin", LOCKED, UNLOCKED);
+        CompiledStatePattern compiled = statePattern.compile();
+        // INITIAL, LOCKED, UNLOCKED and INVALID. "initial" and "coin". initial and coin transitions, no descriptions.
+        long expected = PatternArchive.HEADER_SIZE;
+        for (int stateId = 0; stateId < compiled.stateCount(); stateId++) {
+            expected += 1 + 4 + compiled.state(stateId).getName().length();
+        }
+        expected += 4 + "initial".length() + 4 + "coin".length();
+        expected += 4 * 3 * 2;                 // from, to and name ids of each transition
+        expected += 4 * compiled.stateCount(); // entry state ids
+        expected += 4 * compiled.stateCount() * compiled.transitionNameCount(); // dense table
+        Path file = Files.createTempFile("axonic-pattern", ".axp");
+        try {
+            PatternArchive.write(file, compiled);
+            Assertions.assertEquals(40, PatternArchive.HEADER_SIZE);
+            Assertions.assertEquals(expected, Files.size(file));
+            Assertions.assertEquals(UNLOCKED, PatternArchive.load(file, TurnstileState.values()).state(2));
+        } finally {
+            Files.deleteIfExists(file);
+        }
+    }
+
+    @Test
+    @DisplayName("Large patterns keep their sparse table and unsupported patterns are rejected")
+    void sparseTest() throws IOException {
+        int size = 3000;
+        StatePattern statePattern = new StatePattern().initial(new NumberedState("s0"));
+        for (int i = 0; i < size; i++) {
+            statePattern.t("next" + i, new NumberedState("s" + i), new NumberedState("s" + (i + 1)));
+            statePattern.t("reset", new NumberedState("s" + (i + 1)), new NumberedState("s0"));
+        }
+        Path file = Files.createTempFile("axonic-pattern", ".axp");
+        try {
+            PatternArchive.write(file, statePattern.compile());
+            CompiledStatePattern loaded = PatternArchive.load(file, name -> new NumberedState(name));
+            Assertions.assertTrue(loaded.toString().contains("dense=false"), loaded.toString());
+            StateMachine stateMachine = StateMachine.create("Numbers", StateMachineDefinition.create("Numbers", loaded));
+            for (int i = 0; i < size; i++) {
+                stateMachine.t("next" + i);
+            }
+            Assertions.assertEquals(new NumberedState("s" + size), stateMachine.currentState());
+            stateMachine.t("reset");
+            Assertions.assertEquals(new NumberedState("s0"), stateMachine.currentState());
+
+            Files.write(file, new byte[] {1, 2, 3});
+            Assertions.assertThrows(IOException.class, () -> PatternArchive.load(file, name -> new NumberedState(name)));
+            StatePattern guarded = new StatePattern().initial(LOCKED).t("coin", LOCKED, UNLOCKED).guard(input -> true);
+            Assertions.assertThrows(IllegalArgumentException.class, () -> PatternArchive.write(file, guarded.compile()));
+        } finally {
+            Files.deleteIfExists(file);
+        }
+    }
+}
@@ -0,0 +1,178 @@
+/*
+ * SPDX-License-Identifier: Apache-2.0
+ *
+ * Copyright © 2024. Carl Dea.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.carlfx.axonic.test;
+
+import org.carlfx.axonic.MinimizedPattern;
+import org.carlfx.axonic.State;
+import org.carlfx.axonic.StateMachine;
+import org.carlfx.axonic.StateMachineDefinition;
+import org.carlfx.axonic.StatePattern;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.Predicate;
+
+@DisplayName("StatePattern Minimize Test")
+public class PatternMinimizeTest {
+
+    record NumberedState(String getName) implements State {
+    }
+
+    private static State s(String name) {
+        return new NumberedState(name);
+    }
+
+    @Test
+    @DisplayName("States with identical futures are merged into the first one")
+    void mergeTest() {
+        StatePattern statePattern = new StatePattern()
+                .initial(s("ordered"))
+                .t("express", s("ordered"), s("packedExpress"))
+                .t("standard", s("ordered"), s("packedStandard"))
+                .t("ship", s("packedExpress"), s("shipped"))
+                .t("cancel", s("packedExpress"), s("cancelled"))
+                .t("cancel", s("packedStandard"), s("cancelled"))
+                .t("ship", s("packedStandard"), s("shipped"));
+        MinimizedPattern minimized = statePattern.minimize();
+
+        Assertions.assertEquals(2, minimized.removedCount());
+        Assertions.assertEquals(s("packedExpress"), minimized.state(s("packedStandard")));
+        Assertions.assertEquals(s("shipped"), minimized.state(s("cancelled")), "end states have the same future");
+        Assertions.assertEquals(1, statePattern.minimize(state -> state.equals(s("cancelled"))).removedCount());
+        Assertions.assertFalse(minimized.statePattern().states().contains(s("packedStandard")));
+        Assertions.assertEquals(7, statePattern.transitions().size(), "the state pattern is not changed");
+
+        StateMachine orderSM = StateMachine.create(minimized.statePattern());
+        orderSM.t("standard");
+        Assertions.assertEquals(s("packedExpress"), orderSM.currentState());
+        orderSM.t("ship");
+        Assertions.assertEquals(s("shipped"), orderSM.currentState());
+    }
+
+    @Test
+    @DisplayName("Refinement splits states whose successors differ")
+    void refineTest() {
+        // r0 and s1 only loop, r1 and s0 can also leave. r1 = s0 and r0 = s1.
+        StatePattern statePattern = new StatePattern()
+                .initial(s("r0"))
+                .t("a", s("r0"), s("r1"))
+                .t("a", s("r1"), s("r0"))
+                .t("b", s("r1"), s("end"))
+                .t("jump", s("end"), s("s0"))
+                .t("a", s("s0"), s("s1"))
+                .t("b", s("s0"), s("end"))
+                .t("a", s("s1"), s("s0"));
+        MinimizedPattern minimized = statePattern.minimize();
+
+        Assertions.assertEquals(s("r1"), minimized.state(s("s0")));
+        Assertions.assertEquals(s("r0"), minimized.state(s("s1")));
+        Assertions.assertEquals(2, minimized.removedCount());
+
+        // a chain of distinct lengths to the end merges nothing.
+        StatePattern chain = new StatePattern().initial(s("c0"));
+        for (int i = 0; i < 50; i++) {
+            chain.t("next", s("c" + i), s("c" + (i + 1)));
+        }
+        Assertions.assertEquals(0, chain.minimize().removedCount());
+    }
+
+    @Test
+    @DisplayName("Guards, timers, keys and nested states keep states apart")
+    void keepTest() {
+        Predicate<Object> paid = input -> input instanceof Integer cents && cents > 0;
+        StatePattern statePattern = new StatePattern()
+                .initial(s("start"))
+                .t("a", s("start"), s("x1"))
+                .t("b", s("start"), s("x2"))
+                .t("c", s("start"), s("x3"))
+                .t("d", s("start"), s("parent"))
+                .t("go", s("x1"), s("done")).guard(paid)
+                .t("go", s("x2"), s("done"))
+                .t("go", s("child"), s("done"))
+                .substates(s("parent"), s("child"))
+                .after(Duration.ofSeconds(5), "go", s("x3"), s("done"));
+
+        Assertions.assertEquals(0, statePattern.minimize().removedCount());
+        StatePattern timed = new StatePattern()
+                .initial(s("x1"))
+                .t("go", s("x1"), s("done"))
+                .t("go", s("x2"), s("done"))
+                .after(Duration.ofSeconds(5), "go", s("x2"), s("done"));
+        Assertions.assertEquals(0, timed.minimize().removedCount());
+
+        StatePattern same = new StatePattern()
+                .initial(s("x1"))
+                .t("go", s("x1"), s("done"))
+                .t("back", s("done"), s("x2"))
+                .t("go", s("x2"), s("done"));
+        Assertions.assertEquals(1, same.minimize().removedCount());
+        Assertions.assertEquals(0, same.minimize(state -> state.getName()).removedCount());
+    }
+
+    @Test
+    @DisplayName("Generated patterns with many identical paths shrink to one path")
+    void generatedPatternTest() {
+        StatePattern statePattern = new StatePattern().initial(s("start"));
+        for (int path = 0; path < 1000; path++) {
+            statePattern.t("rule" + path, s("start"), s(path + "-0"));
+            for (int step = 0; step < 5; step++) {
+                statePattern.t("next", s(path + "-" + step), s(path + "-" + (step + 1)));
+            }
+            statePattern.t("next", s(path + "-5"), s("end"));
+        }
+        MinimizedPattern minimized = statePattern.minimize();
+
+        Assertions.assertEquals(5 * 1000 + 1000 - 6, minimized.removedCount());
+        StateMachine stateMachine = StateMachine.create(minimized.statePattern());
+        stateMachine.t("rule999").t("next").t("next").t("next").t("next").t("next").t("next");
+        Assertions.assertEquals(s("end"), stateMachine.currentState());
+    }
+
+    @Test
+    @DisplayName("A minimized definition keeps states with different code blocks")
+    void definitionTest() {
+        List<String> entered = new ArrayList<>();
+        Runnable shipped = () -> entered.add("shipped");
+        StatePattern statePattern = new StatePattern()
+                .initial(s("ordered"))
+                .t("express", s("ordered"), s("express"))
+                .t("standard", s("ordered"), s("standard"))
+                .t("economy", s("ordered"), s("economy"))
+                .t("ship", s("express"), s("shipped"))
+                .t("ship", s("standard"), s("shipped"))
+                .t("ship", s("economy"), s("shipped"));
+        StateMachineDefinition definition = StateMachineDefinition.create("Order", statePattern)
+                .when(s("express"), () -> entered.add("express"))
+                .when(s("standard"), shipped)
+                .when(s("economy"), shipped)
+                .minimize();
+
+        // INITIAL, ordered, express, standard, shipped and INVALID, economy was merged into standard.
+        Assertions.assertEquals(6, definition.compiledPattern().stateCount(), definition.compiledPattern().toString());
+        StateMachine orderSM = definition.newInstance();
+        orderSM.t("economy");
+        Assertions.assertEquals(s("standard"), orderSM.currentState());
+        orderSM.initial(s("ordered"));
+        orderSM.t("express");
+        Assertions.assertEquals(List.of("shipped", "express"), entered);
+    }
+}
@@ -0,0 +1,118 @@
+/*
+ * SPDX-License-Identifier: Apache-2.0
+ *
+ * Copyright © 2024. Carl Dea.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.carlfx.axonic.test;
+
+import org.carlfx.axonic.StateMachine;
+import org.carlfx.axonic.StateMachineDefinition;
+import org.carlfx.axonic.journal.PopulationSnapshot;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.HashMap;
+import java.util.Map;
+
+import static org.carlfx.axonic.StateEnum.INITIAL;
+import static org.carlfx.axonic.StateEnum.INVALID;
+import static org.carlfx.axonic.test.TurnstileFixture.createTurnstilePattern;
+import static org.carlfx.axonic.test.TurnstileState.*;
+
+@DisplayName("PopulationSnapshot Test")
+public class PopulationSnapshotTest {
+
+    @Test
+    @DisplayName("A population restores with the same state triples")
+    void restoreTest() throws IOException {
+        Path file = Files.createTempFile("axonic-population", ".axs");
+        try {
+            StateMachineDefinition definition = StateMachineDefinition.create("Turnstile", createTurnstilePattern());
+            Map<Long, StateMachine> population = new HashMap<>();
+            for (long id = 0; id < 100_000; id++) {
+                StateMachine stateMachine = definition.newInstance();
+                switch ((int) (id % 5)) {
+                    case 1 -> stateMachine.t("coin");
+                    case 2 -> stateMachine.t("coin").t("push");
+                    case 3 -> stateMachine.t("hello").t("coin");
+                    case 4 -> stateMachine.initial(FRED);
+                    default -> {
+                    }
+                }
+                population.put(id * 7, stateMachine);
+            }
+            PopulationSnapshot.write(file, definition.compiledPattern(), population);
+            Assertions.assertEquals(24 + 20 * 100_000, Files.size(file));
+
+            Map<Long, StateMachine> restored = PopulationSnapshot.restore(file, definition);
+            Assertions.assertEquals(population.keySet(), restored.keySet());
+            population.forEach((id, expected) -> {
+                StateMachine actual = restored.get(id);
+                Assertions.assertEquals(expected.previousState(), actual.previousState());
+                Assertions.assertEquals(expected.currentState(), actual.currentState());
+                Assertions.assertEquals(expected.currentTransition(), actual.currentTransition());
+            });
+            Assertions.assertEquals(INVALID, restored.get(3L * 7).currentState());
+            Assertions.assertEquals(INITIAL, restored.get(4L * 7).previousState());
+            Assertions.assertEquals(LOCKED, restored.get(2L * 7).currentState());
+            restored.get(2L * 7).t("coin");
+            Assertions.assertEquals(UNLOCKED, restored.get(2L * 7).currentState());
+        } finally {
+            Files.deleteIfExists(file);
+        }
+    }
+
+    @Test
+    @DisplayName("A snapshot restores the history of parent states")
+    void historyTest() throws IOException {
+        Path file = Files.createTempFile("axonic-population", ".axs");
+        try {
+            StateMachineDefinition definition = StateMachineDefinition.create("Editor", HierarchicalStateTest.createEditorPattern());
+            StateMachine resized = definition.newInstance();
+            resized.t("next").t("resize").t("help");
+            StateMachine text = definition.newInstance();
+            text.t("help");
+            PopulationSnapshot.write(file, definition.compiledPattern(), Map.of(1L, resized, 2L, text));
+            Assertions.assertEquals(24 + (20 + 4) * 2, Files.size(file));
+
+            Map<Long, StateMachine> restored = PopulationSnapshot.restore(file, definition);
+            Assertions.assertArrayEquals(resized.history(), restored.get(1L).history());
+            restored.get(1L).t("back");
+            restored.get(2L).t("back");
+            Assertions.assertEquals(HierarchicalStateTest.EditorState.RESIZE, restored.get(1L).currentState());
+            Assertions.assertEquals(HierarchicalStateTest.EditorState.TEXT, restored.get(2L).currentState());
+        } finally {
+            Files.deleteIfExists(file);
+        }
+    }
+
+    @Test
+    @DisplayName("A snapshot only restores with the state pattern it was written with")
+    void fingerprintTest() throws IOException {
+        Path file = Files.createTempFile("axonic-population", ".axs");
+        try {
+            StateMachineDefinition definition = StateMachineDefinition.create("Turnstile", createTurnstilePattern());
+            PopulationSnapshot.write(file, definition.compiledPattern(), Map.of(1L, definition.newInstance()));
+            StateMachineDefinition changed = StateMachineDefinition.create("Turnstile", createTurnstilePattern().t("bye", FRED, LOCKED));
+            Assertions.assertThrows(IllegalStateException.class, () -> PopulationSnapshot.restore(file, changed));
+        } finally {
+            Files.deleteIfExists(file);
+        }
+    }
+}
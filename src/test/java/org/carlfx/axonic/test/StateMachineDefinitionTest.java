@@ -0,0 +1,127 @@
+/*
+ * SPDX-License-Identifier: Apache-2.0
+ *
+ * Copyright © 2024. Carl Dea.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.carlfx.axonic.test;
+
+import org.carlfx.axonic.StateColumn;
+import org.carlfx.axonic.StateEnum;
+import org.carlfx.axonic.StateMachine;
+import org.carlfx.axonic.StateMachineDefinition;
+import org.carlfx.axonic.StatePattern;
+import org.carlfx.axonic.Transition;
+import org.carlfx.axonic.TransitionKey;
+import org.carlfx.axonic.TransitionResult;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.carlfx.axonic.StateEnum.INITIAL;
+import static org.carlfx.axonic.test.TurnstileFixture.createTurnstilePattern;
+import static org.carlfx.axonic.test.TurnstileState.*;
+
+@DisplayName("StateMachineDefinition Test")
+public class StateMachineDefinitionTest {
+
+    @Test
+    @DisplayName("Instances sharing a definition keep their own state")
+    void sharedDefinitionTest() {
+        List<String> encountered = new ArrayList<>();
+        StateMachineDefinition definition = StateMachineDefinition.create("Turnstile", createTurnstilePattern())
+                .when(UNLOCKED, (t, input) -> encountered.add("unlocked " + input));
+
+        StateMachine order1 = definition.newInstance("order-1");
+        StateMachine order2 = definition.newInstance("order-2");
+        order1.t("coin", "order-1");
+        Assertions.assertEquals(UNLOCKED, order1.currentState());
+        Assertions.assertEquals(LOCKED, order2.currentState());
+
+        order2.t("hello");
+        Assertions.assertEquals(FRED, order2.currentState());
+        Assertions.assertEquals(UNLOCKED, order1.currentState());
+        Assertions.assertEquals(List.of("unlocked order-1"), encountered);
+        Assertions.assertSame(definition.getStatePattern(), order1.getStatePattern());
+    }
+
+    @Test
+    @DisplayName("Definitions and shared instances are not changed by when()")
+    void whenCopyOnWriteTest() {
+        StateMachineDefinition definition = StateMachineDefinition.create("Turnstile", createTurnstilePattern());
+        int[] counts = new int[3];
+        StateMachineDefinition withCodeBlock = definition.when(UNLOCKED, () -> counts[0]++);
+        Assertions.assertNotSame(definition, withCodeBlock);
+
+        StateMachine plain = definition.newInstance();
+        StateMachine counted = withCodeBlock.newInstance();
+        counted.when(UNLOCKED, () -> counts[1]++);
+        StateMachine other = withCodeBlock.newInstance();
+
+        plain.t("coin");
+        counted.t("coin");
+        other.t("coin");
+        Assertions.assertEquals(2, counts[0], "definition code block runs for both instances of withCodeBlock");
+        Assertions.assertEquals(1, counts[1], "instance code block only runs for its own instance");
+    }
+
+    @Test
+    @DisplayName("initial() does not change the shared state pattern")
+    void initialDoesNotMutatePatternTest() {
+        StatePattern statePattern = createTurnstilePattern();
+        StateMachineDefinition definition = StateMachineDefinition.create("Turnstile", statePattern);
+        StateMachine order1 = definition.newInstance("order-1");
+        StateMachine order2 = definition.newInstance("order-2");
+
+        order1.initial(FRED);
+        Assertions.assertEquals(FRED, order1.currentState());
+        Assertions.assertEquals(INITIAL, order1.previousState());
+        Transition initialTransition = statePattern.lookupOutgoingTransitions(INITIAL).get(0);
+        Assertions.assertEquals(LOCKED, initialTransition.toState());
+        Assertions.assertFalse(definition.compiledPattern().isStale());
+
+        order1.t("hello2");
+        Assertions.assertEquals(FRED, order1.currentState());
+        Assertions.assertEquals(LOCKED, order2.currentState());
+        Assertions.assertEquals(LOCKED, definition.newInstance().currentState());
+    }
+
+    @Test
+    @DisplayName("A state column steps many entities with the definition's code blocks")
+    void stateColumnTest() {
+        int[] unlockedCount = new int[1];
+        StateMachineDefinition definition = StateMachineDefinition.create("Turnstile", createTurnstilePattern())
+                .when(UNLOCKED, () -> unlockedCount[0]++);
+        StateColumn turnstiles = StateColumn.create(definition, 1_000);
+        TransitionKey coin = definition.compiledPattern().transitionKey("coin");
+
+        Assertions.assertEquals(1_000, turnstiles.count(LOCKED));
+        Assertions.assertEquals(TransitionResult.MOVED, turnstiles.tryTransition(7, coin, "10 cents"));
+        Assertions.assertEquals(UNLOCKED, turnstiles.currentState(7));
+        Assertions.assertEquals(LOCKED, turnstiles.currentState(8));
+        Assertions.assertEquals(TransitionResult.INVALID, turnstiles.tryTransition(8, "hello2"));
+        Assertions.assertEquals(StateEnum.INVALID, turnstiles.currentState(8));
+
+        // entity 8 is INVALID and has no coin transition.
+        Assertions.assertEquals(999, turnstiles.advanceAll(coin));
+        Assertions.assertEquals(999, turnstiles.count(UNLOCKED));
+        Assertions.assertEquals(1_000, unlockedCount[0]);
+
+        turnstiles.initialAll(LOCKED);
+        Assertions.assertEquals(1_000, turnstiles.count(LOCKED));
+    }
+}
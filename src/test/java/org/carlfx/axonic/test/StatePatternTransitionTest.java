@@ -17,8 +17,12 @@
  */
 package org.carlfx.axonic.test;
 
+import org.carlfx.axonic.CompiledStatePattern;
+import org.carlfx.axonic.State;
 import org.carlfx.axonic.StateMachine;
 import org.carlfx.axonic.StatePattern;
+import org.carlfx.axonic.Transition;
+import org.carlfx.axonic.TransitionResult;
 import org.carlfx.axonic.tools.StateMachineCLI;
 import org.junit.jupiter.api.Assertions;
 import org.junit.jupiter.api.DisplayName;
@@ -26,6 +30,12 @@ import org.junit.jupiter.api.Test;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.ListIterator;
+import java.util.Optional;
+
 import static org.carlfx.axonic.StateEnum.STOP;
 import static org.carlfx.axonic.test.TurnstileState.*;
 
@@ -81,6 +91,124 @@ public class StatePatternTransitionTest {
         Assertions.assertEquals(expected, sb.toString(), "error transitions don't match.");
     }
 
+    record NamedState(String getName) implements State {
+    }
+
+    @Test
+    @DisplayName("States and transition names are indexed by name as the pattern is built")
+    void nameIndexTest() {
+        StatePattern statePattern = createTestStatePattern();
+        Assertions.assertSame(FRED, statePattern.stateByName("Fred"));
+        Assertions.assertSame(STOP, statePattern.stateByName(STOP.getName()));
+        Assertions.assertNull(statePattern.stateByName("Wilma"));
+        Assertions.assertTrue(statePattern.hasTransitionName("boo1"));
+        Assertions.assertFalse(statePattern.hasTransitionName("fly"));
+        Assertions.assertTrue(statePattern.duplicateStateNames().isEmpty());
+
+        // s() recreates the last simple transition, the name stays indexed.
+        statePattern.s(FRED).t("fly").s(new NamedState("Wilma"));
+        Assertions.assertTrue(statePattern.hasTransitionName("fly"));
+        Assertions.assertEquals(new NamedState("Wilma"), statePattern.stateByName("Wilma"));
+        statePattern.transitions().remove(statePattern.transitions().size() - 1);
+        Assertions.assertFalse(statePattern.hasTransitionName("fly"));
+
+        // a different state with an existing name is reported and lookups keep the first one.
+        statePattern.t("twin", LOCKED, new NamedState("Fred"));
+        Assertions.assertSame(FRED, statePattern.stateByName("Fred"));
+        Assertions.assertEquals(List.of(FRED, new NamedState("Fred")), statePattern.duplicateStateNames().get("Fred"));
+
+        StateMachine turnstileSM = StateMachine.create("Turnstile", statePattern);
+        Assertions.assertEquals(Optional.of(UNLOCKED), turnstileSM.lookupStateByName("Unlocked"));
+        Assertions.assertEquals(Optional.empty(), turnstileSM.lookupStateByName("Barney"));
+    }
+
+    @Test
+    @DisplayName("Every change through states() and transitions() keeps the name index")
+    void collectionViewIndexTest() {
+        StatePattern statePattern = createTestStatePattern();
+        statePattern.transitions().removeIf(transition -> transition.name().equals("boo1"));
+        Assertions.assertFalse(statePattern.hasTransitionName("boo1"));
+        statePattern.transitions().replaceAll(transition -> transition.name().equals("swim")
+                ? transition.withName("dive") : transition);
+        Assertions.assertFalse(statePattern.hasTransitionName("swim"));
+        Assertions.assertTrue(statePattern.hasTransitionName("dive"));
+        ListIterator<Transition> iterator = statePattern.transitions().listIterator();
+        iterator.next();
+        iterator.set(iterator.previous().withName("begin"));
+        Assertions.assertTrue(statePattern.hasTransitionName("begin"));
+        Assertions.assertFalse(statePattern.hasTransitionName("initial"));
+        statePattern.transitions().subList(0, statePattern.transitions().size()).clear();
+        Assertions.assertFalse(statePattern.hasTransitionName("hello"));
+        Assertions.assertTrue(statePattern.transitions().isEmpty());
+
+        statePattern.states().removeIf(state -> state == FRED);
+        Assertions.assertNull(statePattern.stateByName("Fred"));
+        Iterator<State> states = statePattern.states().iterator();
+        while (states.hasNext()) {
+            if (states.next() == UNLOCKED) {
+                states.remove();
+            }
+        }
+        Assertions.assertNull(statePattern.stateByName("Unlocked"));
+        statePattern.states().retainAll(List.of(STOP));
+        Assertions.assertNull(statePattern.stateByName(LOCKED.getName()));
+        Assertions.assertSame(STOP, statePattern.stateByName(STOP.getName()));
+    }
+
+    @Test
+    @DisplayName("Changes through states(), transitions() and outgoing transitions recompile the state pattern")
+    void collectionViewRecompileTest() {
+        StatePattern statePattern = new StatePattern()
+                .initial(LOCKED)
+                .t("coin", LOCKED, UNLOCKED);
+        StateMachine turnstileSM = StateMachine.create(statePattern);
+        turnstileSM.t("coin");
+        statePattern.lookupOutgoingTransitions(UNLOCKED).add(new Transition("push", UNLOCKED, LOCKED));
+        Assertions.assertEquals(List.of("push"), turnstileSM.outgoingTransitions().stream().map(Transition::name).toList());
+        Assertions.assertEquals(TransitionResult.MOVED, turnstileSM.tryTransition("push", null));
+
+        Transition hello = new Transition("hello", LOCKED, FRED);
+        statePattern.transitions().add(hello);
+        statePattern.lookupOutgoingTransitions(LOCKED).add(hello);
+        Assertions.assertEquals(TransitionResult.MOVED, turnstileSM.tryTransition("hello", null));
+        Assertions.assertEquals(FRED, turnstileSM.currentState());
+
+        CompiledStatePattern compiled = statePattern.compile();
+        statePattern.states().add(STOP);
+        Assertions.assertNotSame(compiled, statePattern.compile());
+    }
+
+    @Test
+    @DisplayName("The bulk builder defines the same state pattern as the fluent builder")
+    void bulkBuilderTest() {
+        // PatternConstructionBenchmark shows the build time grows linearly, a few hundred states check the results.
+        int size = 300;
+        NamedState[] states = new NamedState[size];
+        for (int i = 0; i < size; i++) {
+            states[i] = new NamedState("s" + i);
+        }
+        StatePattern fluent = new StatePattern().initial(states[0]);
+        List<Transition> generated = new ArrayList<>();
+        for (int i = 0; i < size; i++) {
+            fluent.t("next", states[i], states[(i + 1) % size]);
+            generated.add(new Transition("next", states[i], states[(i + 1) % size]));
+        }
+        StatePattern bulk = new StatePattern().initial(states[0]).addTransitions(generated);
+        StatePattern streamed = new StatePattern().initial(states[0]).addTransitions(generated.stream());
+        Assertions.assertEquals(fluent.transitions(), bulk.transitions());
+        Assertions.assertEquals(fluent.transitions(), streamed.transitions());
+        Assertions.assertEquals(fluent.compile().fingerprint(), bulk.compile().fingerprint());
+
+        // moveInitial and stop on a bulk built pattern.
+        bulk.moveInitial(states[size - 1]).s(states[size - 1]).stop().s(states[size - 2]).stop();
+        Assertions.assertEquals(states[size - 1], bulk.transitions().get(0).toState());
+        Assertions.assertEquals(size + 3, bulk.transitions().size());
+        StateMachine stateMachine = StateMachine.create(bulk);
+        Assertions.assertEquals(states[size - 1], stateMachine.currentState());
+        stateMachine.t("next").t("next");
+        Assertions.assertEquals(states[1], stateMachine.currentState());
+    }
+
     public static void main(String[] args){
         StateMachine turnstileSM = StateMachine.create("Turnstile", createTestStatePattern());
         StateMachineCLI.beginConsoleSession(turnstileSM);
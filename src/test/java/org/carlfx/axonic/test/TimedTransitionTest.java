@@ -0,0 +1,183 @@
+/*
+ * SPDX-License-Identifier: Apache-2.0
+ *
+ * Copyright © 2024. Carl Dea.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.carlfx.axonic.test;
+
+import org.carlfx.axonic.StateMachine;
+import org.carlfx.axonic.StateMachineDefinition;
+import org.carlfx.axonic.StatePattern;
+import org.carlfx.axonic.TimingWheel;
+import org.carlfx.axonic.VirtualClock;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.carlfx.axonic.test.TurnstileState.*;
+
+@DisplayName("Timed Transition Test")
+public class TimedTransitionTest {
+
+    private static StatePattern createTurnstilePattern() {
+        return new StatePattern()
+                .initial(LOCKED)
+                .t("coin", LOCKED, UNLOCKED)
+                .t("push", UNLOCKED, LOCKED)
+                .t("coin", UNLOCKED, UNLOCKED)
+                .after(Duration.ofSeconds(30), "timeout", UNLOCKED, LOCKED);
+    }
+
+    @Test
+    @DisplayName("A timed transition fires after the delay and is cancelled when the state is left")
+    void timeoutTest() {
+        VirtualClock clock = new VirtualClock();
+        TimingWheel wheel = TimingWheel.create(Duration.ofMillis(10), 64, clock);
+        StateMachine turnstileSM = StateMachine.create("Turnstile", createTurnstilePattern()).timers(wheel);
+        Assertions.assertEquals(0, wheel.size(), "LOCKED has no timed transition");
+
+        turnstileSM.t("coin");
+        Assertions.assertEquals(1, wheel.size());
+        clock.advance(Duration.ofSeconds(29));
+        Assertions.assertEquals(0, wheel.advance());
+        Assertions.assertEquals(UNLOCKED, turnstileSM.currentState());
+        clock.advance(Duration.ofSeconds(1));
+        Assertions.assertEquals(1, wheel.advance());
+        Assertions.assertEquals(LOCKED, turnstileSM.currentState());
+        Assertions.assertEquals("timeout", turnstileSM.currentTransition().name());
+
+        // leaving the state early cancels the timer.
+        turnstileSM.t("coin").t("push");
+        Assertions.assertEquals(0, wheel.size());
+        clock.advance(Duration.ofMinutes(1));
+        Assertions.assertEquals(0, wheel.advance());
+        Assertions.assertEquals(LOCKED, turnstileSM.currentState());
+
+        // re-entering the state restarts the timer.
+        turnstileSM.t("coin");
+        clock.advance(Duration.ofSeconds(20));
+        turnstileSM.t("coin");
+        clock.advance(Duration.ofSeconds(20));
+        wheel.advance();
+        Assertions.assertEquals(UNLOCKED, turnstileSM.currentState());
+        clock.advance(Duration.ofSeconds(10));
+        wheel.advance();
+        Assertions.assertEquals(LOCKED, turnstileSM.currentState());
+        Assertions.assertThrows(RuntimeException.class,
+                () -> createTurnstilePattern().after(Duration.ofSeconds(1), "again", UNLOCKED, FRED));
+    }
+
+    @Test
+    @DisplayName("A dispatcher decides where timed transitions fire")
+    void dispatcherTest() {
+        VirtualClock clock = new VirtualClock();
+        TimingWheel wheel = TimingWheel.create(Duration.ofMillis(10), 64, clock);
+        List<Runnable> queue = new ArrayList<>();
+        StateMachine turnstileSM = StateMachine.create("Turnstile", createTurnstilePattern()).timers(wheel, queue::add);
+
+        turnstileSM.t("coin");
+        clock.advance(Duration.ofSeconds(30));
+        wheel.advance();
+        Assertions.assertEquals(1, queue.size());
+        Assertions.assertEquals(UNLOCKED, turnstileSM.currentState());
+        queue.remove(0).run();
+        Assertions.assertEquals(LOCKED, turnstileSM.currentState());
+
+        // a timeout dispatched after the state was left is ignored.
+        turnstileSM.t("coin");
+        clock.advance(Duration.ofSeconds(30));
+        wheel.advance();
+        turnstileSM.t("push").t("coin");
+        queue.remove(0).run();
+        Assertions.assertEquals(UNLOCKED, turnstileSM.currentState());
+    }
+
+    @Test
+    @DisplayName("A wheel keeps many pending timeouts and cancels them in constant time")
+    void manyTimersTest() {
+        VirtualClock clock = new VirtualClock();
+        TimingWheel wheel = TimingWheel.create(Duration.ofMillis(100), 128, clock);
+        StateMachineDefinition definition = StateMachineDefinition.create("Turnstile", createTurnstilePattern());
+        int count = 100_000;
+        StateMachine[] machines = new StateMachine[count];
+        for (int i = 0; i < count; i++) {
+            machines[i] = definition.newInstance().timers(wheel);
+            machines[i].t("coin");
+            // spread the machines over more than one turn of the wheel.
+            clock.advance(Duration.ofMillis(1));
+        }
+        Assertions.assertEquals(count, wheel.size());
+        for (int i = 0; i < count; i += 2) {
+            machines[i].t("push");
+        }
+        Assertions.assertEquals(count / 2, wheel.size());
+
+        clock.advance(Duration.ofSeconds(30));
+        Assertions.assertEquals(count / 2, wheel.advance());
+        Assertions.assertEquals(0, wheel.size());
+        for (StateMachine machine : machines) {
+            Assertions.assertEquals(LOCKED, machine.currentState());
+        }
+    }
+
+    @Test
+    @DisplayName("Timeouts longer than a turn of the wheel fire on time")
+    void wheelTest() {
+        VirtualClock clock = new VirtualClock();
+        TimingWheel wheel = TimingWheel.create(Duration.ofMillis(10), 8, clock);
+        int[] fired = new int[2];
+        TimingWheel.Timeout longTimeout = wheel.schedule(Duration.ofMillis(250), () -> fired[0]++);
+        TimingWheel.Timeout cancelled = wheel.schedule(Duration.ofMillis(50), () -> fired[1]++);
+        Assertions.assertTrue(cancelled.cancel());
+        Assertions.assertFalse(cancelled.cancel());
+        for (int i = 0; i < 24; i++) {
+            clock.advance(Duration.ofMillis(10));
+            wheel.advance();
+        }
+        Assertions.assertEquals(0, fired[0]);
+        clock.advance(Duration.ofMillis(10));
+        wheel.advance();
+        Assertions.assertEquals(1, fired[0]);
+        Assertions.assertTrue(longTimeout.isExpired());
+        Assertions.assertTrue(cancelled.isCancelled());
+        Assertions.assertEquals(0, fired[1]);
+    }
+
+    @Test
+    @DisplayName("A task throwing does not drop the other timeouts due on the same tick")
+    void failingTaskTest() {
+        VirtualClock clock = new VirtualClock();
+        List<Throwable> errors = new ArrayList<>();
+        TimingWheel wheel = TimingWheel.create(Duration.ofMillis(10), 8, clock)
+                .onError((timeout, throwable) -> errors.add(throwable));
+        int[] fired = new int[1];
+        TimingWheel.Timeout failing = wheel.schedule(Duration.ofMillis(20), () -> {
+            throw new IllegalStateException("boom");
+        });
+        TimingWheel.Timeout other = wheel.schedule(Duration.ofMillis(20), () -> fired[0]++);
+
+        clock.advance(Duration.ofMillis(20));
+        Assertions.assertEquals(2, wheel.advance());
+        Assertions.assertEquals(1, fired[0]);
+        Assertions.assertTrue(failing.isExpired());
+        Assertions.assertTrue(other.isExpired());
+        Assertions.assertEquals(1, errors.size());
+        Assertions.assertEquals("boom", errors.get(0).getMessage());
+    }
+}
@@ -0,0 +1,110 @@
+/*
+ * SPDX-License-Identifier: Apache-2.0
+ *
+ * Copyright © 2024. Carl Dea.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.carlfx.axonic.test;
+
+import org.carlfx.axonic.LatencyHistogram;
+import org.carlfx.axonic.StateMachine;
+import org.carlfx.axonic.StateMachineDefinition;
+import org.carlfx.axonic.StatePattern;
+import org.carlfx.axonic.TransitionMetrics;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+import static org.carlfx.axonic.test.TurnstileFixture.createTurnstilePattern;
+import static org.carlfx.axonic.test.TurnstileState.*;
+
+@DisplayName("Transition Metrics Test")
+public class TransitionMetricsTest {
+
+    @Test
+    @DisplayName("Transitions, states entered and invalid events are counted")
+    void countTest() {
+        StatePattern statePattern = createTurnstilePattern();
+        TransitionMetrics metrics = TransitionMetrics.create(statePattern.compile());
+        StateMachine turnstileSM = StateMachine.create("Turnstile", statePattern).metrics(metrics);
+
+        turnstileSM.t("coin").t("coin").t("push").t("hello2").initial(LOCKED);
+        turnstileSM.t("hello").t("coin");
+        Assertions.assertEquals(2, metrics.transitionCount("coin"));
+        Assertions.assertEquals(1, metrics.transitionCount(statePattern.compile().transitionIndex(
+                statePattern.compile().stateId(UNLOCKED), statePattern.compile().transitionNameId("coin"))));
+        Assertions.assertEquals(1, metrics.transitionCount("push"));
+        Assertions.assertEquals(2, metrics.stateCount(UNLOCKED));
+        Assertions.assertEquals(2, metrics.stateCount(LOCKED), "entered by push and by initial()");
+        Assertions.assertEquals(2, metrics.invalidCount());
+        Assertions.assertEquals(1, metrics.invalidCount("hello2"));
+        Assertions.assertEquals(1, metrics.invalidCount("coin"));
+
+        turnstileSM.metrics(null).initial(LOCKED);
+        turnstileSM.t("coin");
+        Assertions.assertEquals(2, metrics.transitionCount("coin"), "disabled metrics are not counted");
+    }
+
+    @Test
+    @DisplayName("Metrics shared by many state machines are read while they run")
+    void sharedTest() throws InterruptedException {
+        StateMachineDefinition definition = StateMachineDefinition.create("Turnstile", createTurnstilePattern())
+                .when(UNLOCKED, () -> LockSupport.parkNanos(100_000));
+        TransitionMetrics metrics = TransitionMetrics.create(definition.compiledPattern());
+        int threads = 4;
+        int rounds = 200;
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        for (int i = 0; i < threads; i++) {
+            executor.execute(() -> {
+                StateMachine turnstileSM = definition.newInstance().metrics(metrics);
+                for (int j = 0; j < rounds; j++) {
+                    turnstileSM.t("coin").t("push");
+                }
+            });
+        }
+        Assertions.assertTrue(metrics.transitionCount("coin") >= 0);
+        executor.shutdown();
+        Assertions.assertTrue(executor.awaitTermination(1, TimeUnit.MINUTES));
+
+        Assertions.assertEquals(threads * rounds, metrics.transitionCount("coin"));
+        LatencyHistogram latency = metrics.callbackLatency(UNLOCKED);
+        Assertions.assertEquals(threads * rounds, latency.count());
+        Assertions.assertTrue(latency.valueAtPercentile(50) >= 100_000, latency.toString());
+        Assertions.assertTrue(latency.valueAtPercentile(100) <= latency.max());
+        Assertions.assertEquals(0, metrics.callbackLatency(LOCKED).count(), "LOCKED has no code blocks");
+    }
+
+    @Test
+    @DisplayName("Histogram percentiles are within the bucket precision")
+    void histogramTest() {
+        LatencyHistogram histogram = new LatencyHistogram();
+        for (long value = 1; value <= 10_000; value++) {
+            histogram.record(value * 1_000);
+        }
+        Assertions.assertEquals(10_000, histogram.count());
+        Assertions.assertEquals(10_000_000, histogram.max());
+        Assertions.assertEquals(5_000_500, histogram.mean(), 1);
+        long p50 = histogram.valueAtPercentile(50);
+        long p99 = histogram.valueAtPercentile(99);
+        Assertions.assertTrue(p50 >= 5_000_000 && p50 <= 5_000_000 * 1.125, "p50 " + p50);
+        Assertions.assertTrue(p99 >= 9_900_000 && p99 <= 9_900_000 * 1.125, "p99 " + p99);
+        Assertions.assertEquals(10_000_000, histogram.valueAtPercentile(100));
+        Assertions.assertEquals(0, new LatencyHistogram().valueAtPercentile(99));
+    }
+}
@@ -0,0 +1,53 @@
+/*
+ * SPDX-License-Identifier: Apache-2.0
+ *
+ * Copyright © 2024. Carl Dea.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.carlfx.axonic.test;
+
+import org.carlfx.axonic.StatePattern;
+
+import static org.carlfx.axonic.test.TurnstileState.*;
+
+/**
+ * The turnstile state pattern shared by tests. Tests needing another shape define their own.
+ */
+public final class TurnstileFixture {
+    private TurnstileFixture() {
+    }
+
+    /**
+     * Creates a turnstile: coin unlocks, push locks, hello goes from LOCKED to FRED.
+     * <pre>
+     *     LOCKED   -- push --> LOCKED      UNLOCKED -- coin --> UNLOCKED
+     *     LOCKED   -- coin --> UNLOCKED    UNLOCKED -- push --> LOCKED
+     *     LOCKED   -- hello --> FRED       FRED     -- hello2 --> FRED
+     * </pre>
+     * @return Returns a new turnstile state pattern.
+     */
+    public static StatePattern createTurnstilePattern() {
+        return new StatePattern()
+                .initial(LOCKED)
+                .t("push")
+                .t("coin")
+                .s(UNLOCKED)
+                .t("coin")
+                .t("push")
+                .s(LOCKED)
+                .t("hello")
+                .s(FRED)
+                .t("hello2");
+    }
+}